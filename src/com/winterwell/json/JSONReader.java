@@ -0,0 +1,683 @@
+package com.winterwell.json;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull parser: step through the JSON one token at a time, instead of
+ * building a JSONObject/JSONArray tree for all of it. Use this for big
+ * responses where you only want a few fields -- unwanted values can be
+ * skipped without allocating anything for them.
+ * <p>
+ * E.g.
+ * <pre>
+ * r.beginObject();
+ * while (r.hasNext()) {
+ *     String name = r.nextName();
+ *     if (name.equals("text")) text = r.nextString();
+ *     else r.skipValue();
+ * }
+ * r.endObject();
+ * </pre>
+ * Or use {@link #readValue(Map)} to build a tree of just the fields you want.
+ * <p>
+ * Like the rest of this package, this is lenient: it accepts comments,
+ * single-quoted strings, unquoted names, and ';' or '=' separators.
+ * Several top-level values can follow one another. Errors are reported as
+ * JSONExceptions, with the position.
+ * <p>
+ * Not thread safe.
+ *
+ * @author daniel
+ */
+public class JSONReader {
+
+    /**
+     * The kinds of token.
+     */
+    public static enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY,
+        /** A property name in an object */
+        NAME,
+        STRING, NUMBER, BOOLEAN, NULL,
+        /** The end of the input */
+        END_DOCUMENT
+    }
+
+    /*
+     * What we're inside. This is a stack, one entry per level of nesting.
+     */
+    private static final int EMPTY_DOC = 0;
+    private static final int NONEMPTY_DOC = 1;
+    private static final int EMPTY_OBJECT = 2;
+    /** An object, where we've read a name but not its value */
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final JSONTokener x;
+
+    private int[] stack = new int[32];
+
+    private int depth = 1;
+
+    /**
+     * The next token, or null if we haven't looked yet.
+     */
+    private Token peeked;
+
+    /**
+     * For a peeked NAME or STRING: the quote char, or 0 if it's unquoted (in
+     * which case the text is in literal).
+     */
+    private char peekedQuote;
+
+    /**
+     * The text of an unquoted value, e.g. a number. Reused, so peeking
+     * doesn't allocate.
+     */
+    private final StringBuilder literal = new StringBuilder();
+
+    /**
+     * Set by parseLong()
+     */
+    private long literalLong;
+
+    /**
+     * For building strings. Reused.
+     */
+    private final StringBuilder sb = new StringBuilder();
+
+    public JSONReader(JSONTokener x) {
+        this.x = x;
+        stack[0] = EMPTY_DOC;
+    }
+
+    public JSONReader(String json) {
+        this(new JSONTokener(json));
+    }
+
+    /**
+     * @param reader This is not closed by the JSONReader.
+     */
+    public JSONReader(Reader reader) {
+        this(new JSONTokener(reader));
+    }
+
+    /**
+     * @return the type of the next token, without consuming it.
+     * @throws JSONException on bad json
+     */
+    public Token peek() throws JSONException {
+        if (peeked != null) {
+            return peeked;
+        }
+        char c;
+        switch (stack[depth - 1]) {
+        case EMPTY_ARRAY:
+            stack[depth - 1] = NONEMPTY_ARRAY;
+            c = x.nextClean();
+            if (c == ']') {
+                return peeked = Token.END_ARRAY;
+            }
+            x.back();
+            break;
+        case NONEMPTY_ARRAY:
+            c = x.nextClean();
+            if (c == ']') {
+                return peeked = Token.END_ARRAY;
+            }
+            if (c != ',' && c != ';') {
+                throw x.syntaxError("Expected a ',' or ']'");
+            }
+            break;
+        case NONEMPTY_OBJECT:
+            c = x.nextClean();
+            if (c == '}') {
+                return peeked = Token.END_OBJECT;
+            }
+            if (c != ',' && c != ';') {
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+            // fall through to read the name
+        case EMPTY_OBJECT:
+            stack[depth - 1] = DANGLING_NAME;
+            c = x.nextClean();
+            switch (c) {
+            case '}':
+                // NB: a trailing comma is tolerated, as JSONObject does
+                return peeked = Token.END_OBJECT;
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '"':
+            case '\'':
+                peekedQuote = c;
+                return peeked = Token.NAME;
+            default:
+                x.back();
+                peekedQuote = 0;
+                readLiteral();
+                return peeked = Token.NAME;
+            }
+        case DANGLING_NAME:
+            stack[depth - 1] = NONEMPTY_OBJECT;
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            break;
+        case EMPTY_DOC:
+        case NONEMPTY_DOC:
+            stack[depth - 1] = NONEMPTY_DOC;
+            c = x.nextClean();
+            if (c == 0) {
+                return peeked = Token.END_DOCUMENT;
+            }
+            x.back();
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+        return peeked = peekValue();
+    }
+
+    private Token peekValue() throws JSONException {
+        char c = x.nextClean();
+        switch (c) {
+        case '{':
+            return Token.BEGIN_OBJECT;
+        case '[':
+            return Token.BEGIN_ARRAY;
+        case '"':
+        case '\'':
+            peekedQuote = c;
+            return Token.STRING;
+        case 0:
+            throw x.syntaxError("Missing value");
+        }
+        x.back();
+        readLiteral();
+        if (literal.length() == 0) {
+            throw x.syntaxError("Missing value");
+        }
+        if (literalIs("true") || literalIs("false")) {
+            return Token.BOOLEAN;
+        }
+        if (literalIs("null")) {
+            return Token.NULL;
+        }
+        char b = literal.charAt(0);
+        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            return Token.NUMBER;
+        }
+        // unquoted text
+        peekedQuote = 0;
+        return Token.STRING;
+    }
+
+    /**
+     * Read unquoted text into literal -- up to the next formatting character.
+     * As JSONTokener.nextValue() does.
+     */
+    private void readLiteral() {
+        literal.setLength(0);
+        char c = x.next();
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            literal.append(c);
+            c = x.next();
+        }
+        x.back();
+        // trim trailing spaces
+        int len = literal.length();
+        while (len > 0 && literal.charAt(len - 1) == ' ') {
+            len--;
+        }
+        literal.setLength(len);
+    }
+
+    private boolean literalIs(String s) {
+        if (literal.length() != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase(literal.charAt(i)) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(Token token) throws JSONException {
+        if (peek() != token) {
+            throw x.syntaxError("Expected " + token + " but was " + peeked);
+        }
+        peeked = null;
+    }
+
+    private void push(int context) {
+        if (depth == stack.length) {
+            int[] newStack = new int[depth * 2];
+            System.arraycopy(stack, 0, newStack, 0, depth);
+            stack = newStack;
+        }
+        stack[depth++] = context;
+    }
+
+    public void beginObject() throws JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws JSONException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws JSONException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * @return true if the current object or array has another element
+     */
+    public boolean hasNext() throws JSONException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY
+                && t != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws JSONException {
+        expect(Token.NAME);
+        return peekedQuote == 0 ? literal.toString() : readString(peekedQuote);
+    }
+
+    /**
+     * @return the next value as a String. Numbers and booleans are converted.
+     */
+    public String nextString() throws JSONException {
+        Token t = peek();
+        if (t == Token.STRING) {
+            peeked = null;
+            return peekedQuote == 0 ? literal.toString()
+                    : readString(peekedQuote);
+        }
+        if (t == Token.NUMBER || t == Token.BOOLEAN) {
+            peeked = null;
+            return literal.toString();
+        }
+        throw x.syntaxError("Expected STRING but was " + t);
+    }
+
+    public boolean nextBoolean() throws JSONException {
+        expect(Token.BOOLEAN);
+        return literalIs("true");
+    }
+
+    public void nextNull() throws JSONException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * @return an Integer if it fits, else a Long, else a Double. Unlike
+     *         JSONTokener, this does not use exceptions for flow control.
+     */
+    public Number nextNumber() throws JSONException {
+        expect(Token.NUMBER);
+        Number n = parseNumber();
+        if (n == null) {
+            throw x.syntaxError("Bad number " + literal);
+        }
+        return n;
+    }
+
+    /**
+     * @return the next value as a long. A quoted number, e.g. "id_str", is
+     *         also accepted.
+     */
+    public long nextLong() throws JSONException {
+        if (peek() == Token.STRING) {
+            String s = nextString();
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                throw x.syntaxError("Expected a long but was " + s);
+            }
+        }
+        expect(Token.NUMBER);
+        // the common case: no boxing
+        if (parseLong()) {
+            return literalLong;
+        }
+        Number n = parseNumber();
+        if (n == null || n instanceof Double) {
+            throw x.syntaxError("Expected a long but was " + literal);
+        }
+        return n.longValue();
+    }
+
+    /**
+     * Read an array of integers, e.g. a page of user ids, without boxing
+     * them.
+     */
+    public long[] nextLongArray() throws JSONException {
+        // Fill chunks, then copy once -- rather than grow-and-copy, which
+        // would allocate ~4x the result for a big array.
+        List<long[]> full = null;
+        long[] chunk = new long[64];
+        int n = 0, total = 0;
+        beginArray();
+        while (hasNext()) {
+            if (n == chunk.length) {
+                if (full == null) full = new ArrayList();
+                full.add(chunk);
+                chunk = new long[Math.min(chunk.length * 2, 8192)];
+                n = 0;
+            }
+            chunk[n++] = nextLong();
+            total++;
+        }
+        endArray();
+        if (full == null) {
+            return Arrays.copyOf(chunk, n);
+        }
+        long[] longs = new long[total];
+        int i = 0;
+        for (long[] c : full) {
+            System.arraycopy(c, 0, longs, i, c.length);
+            i += c.length;
+        }
+        System.arraycopy(chunk, 0, longs, i, n);
+        return longs;
+    }
+
+    public int nextInt() throws JSONException {
+        long v = nextLong();
+        if (v != (int) v) {
+            throw x.syntaxError("Expected an int but was " + v);
+        }
+        return (int) v;
+    }
+
+    public double nextDouble() throws JSONException {
+        if (peek() == Token.STRING) {
+            String s = nextString();
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw x.syntaxError("Expected a double but was " + s);
+            }
+        }
+        return nextNumber().doubleValue();
+    }
+
+    /**
+     * Parse literal.
+     * @return null if it isn't a number
+     */
+    private Number parseNumber() {
+        if (parseLong()) {
+            long v = literalLong;
+            if (v == (int) v) return Integer.valueOf((int) v);
+            return Long.valueOf(v);
+        }
+        // decimal, big, or odd
+        String s = literal.toString();
+        try {
+            return Long.valueOf(s);
+        } catch (NumberFormatException e) {
+            // not a long
+        }
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse literal as an integer of up to 18 digits (which can't overflow a
+     * long), into literalLong.
+     * @return false if it's something else, e.g. a decimal
+     */
+    private boolean parseLong() {
+        int len = literal.length();
+        int i = 0;
+        boolean neg = false;
+        char c0 = literal.charAt(0);
+        if (c0 == '-' || c0 == '+') {
+            neg = c0 == '-';
+            i++;
+        }
+        if (len - i == 0 || len - i > 18) {
+            return false;
+        }
+        long v = 0;
+        for (; i < len; i++) {
+            char c = literal.charAt(i);
+            if (c < '0' || c > '9') return false;
+            v = v * 10 + (c - '0');
+        }
+        literalLong = neg ? -v : v;
+        return true;
+    }
+
+    /**
+     * Skip the next value -- which may be a whole object or array. Strings
+     * and numbers are stepped over, not built. If the next token is a NAME,
+     * this skips the name and its value.
+     */
+    public void skipValue() throws JSONException {
+        int count = 0;
+        do {
+            Token t = peek();
+            switch (t) {
+            case BEGIN_OBJECT:
+                beginObject();
+                count++;
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                count++;
+                break;
+            case END_OBJECT:
+                if (count == 0) throw x.syntaxError("Expected a value");
+                endObject();
+                count--;
+                break;
+            case END_ARRAY:
+                if (count == 0) throw x.syntaxError("Expected a value");
+                endArray();
+                count--;
+                break;
+            case END_DOCUMENT:
+                throw x.syntaxError("Expected a value");
+            case NAME:
+                peeked = null;
+                if (peekedQuote != 0) skipString(peekedQuote);
+                if (count == 0) {
+                    // we were asked to skip a name -- so skip its value too
+                    skipValue();
+                    return;
+                }
+                break;
+            case STRING:
+                peeked = null;
+                if (peekedQuote != 0) skipString(peekedQuote);
+                break;
+            default:
+                // number, boolean, null: already read
+                peeked = null;
+            }
+        } while (count != 0);
+    }
+
+    /**
+     * Read a value into a JSONObject / JSONArray / String / Number / Boolean /
+     * JSONObject.NULL -- the same objects as JSONTokener.nextValue() --
+     * keeping only the fields you ask for.
+     *
+     * @param fields Which properties of an object to keep. null means keep
+     *        everything. Otherwise, unlisted properties are skipped; a
+     *        property mapped to a Map is itself pruned by that Map; a property
+     *        mapped to <code>long[].class</code> is read as a long[] (see
+     *        {@link #nextLongArray()}); a property mapped to null (or anything
+     *        else) is kept whole. For an array, this applies to each element.
+     * @return the value
+     */
+    public Object readValue(Map<String, ?> fields) throws JSONException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+            JSONObject jo = new JSONObject();
+            beginObject();
+            while (hasNext()) {
+                String name = nextName();
+                Object spec = null;
+                if (fields != null) {
+                    spec = fields.get(name);
+                    if (spec == null && ! fields.containsKey(name)) {
+                        skipValue();
+                        continue;
+                    }
+                }
+                if (spec == long[].class && peek() == Token.BEGIN_ARRAY) {
+                    jo.put(name, nextLongArray());
+                    continue;
+                }
+                jo.put(name, readValue(spec instanceof Map ? (Map) spec : null));
+            }
+            endObject();
+            return jo;
+        case BEGIN_ARRAY:
+            JSONArray arr = new JSONArray();
+            beginArray();
+            while (hasNext()) {
+                arr.put(readValue(fields));
+            }
+            endArray();
+            return arr;
+        case STRING:
+            return nextString();
+        case NUMBER:
+            peeked = null;
+            Number n = parseNumber();
+            // odd unquoted text is a String, as in JSONTokener
+            return n == null ? literal.toString() : n;
+        case BOOLEAN:
+            return nextBoolean() ? Boolean.TRUE : Boolean.FALSE;
+        case NULL:
+            nextNull();
+            return JSONObject.NULL;
+        default:
+            throw x.syntaxError("Expected a value but was " + peeked);
+        }
+    }
+
+    /**
+     * Read the whole of the next value.
+     * @see #readValue(Map)
+     */
+    public Object readValue() throws JSONException {
+        return readValue(null);
+    }
+
+    /**
+     * Read up to the close quote, handling escapes.
+     */
+    private String readString(char quote) throws JSONException {
+        sb.setLength(0);
+        for (;;) {
+            char c = x.next();
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw x.syntaxError("Unterminated string");
+            case '\\':
+                c = x.next();
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'u':
+                    sb.append((char) hex(4));
+                    break;
+                case 'x':
+                    sb.append((char) hex(2));
+                    break;
+                default:
+                    sb.append(c);
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return sb.toString();
+                }
+                sb.append(c);
+            }
+        }
+    }
+
+    private int hex(int n) throws JSONException {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            int h = JSONTokener.dehexchar(x.next());
+            if (h < 0) {
+                throw x.syntaxError("Bad escape");
+            }
+            v = (v << 4) + h;
+        }
+        return v;
+    }
+
+    /**
+     * Step past the close quote, without building the string.
+     */
+    private void skipString(char quote) throws JSONException {
+        for (;;) {
+            char c = x.next();
+            if (c == quote) {
+                return;
+            }
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw x.syntaxError("Unterminated string");
+            case '\\':
+                // the escaped char can't be a quote. \\u is harmless too.
+                x.next();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JSONReader[" + x + "]";
+    }
+}
@@ -1,5 +1,10 @@
 package com.winterwell.json;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -26,25 +31,53 @@ SOFTWARE.
 */
 
 /**
- * A JSONTokener takes a source string and extracts characters and tokens from
- * it. It is used by the JSONObject and JSONArray constructors to parse
- * JSON source strings.
+ * A JSONTokener takes a source string (or a Reader) and extracts characters
+ * and tokens from it. It is used by the JSONObject and JSONArray constructors
+ * to parse JSON source strings.
  * @author JSON.org
  * @version 2
  */
 public class JSONTokener {
 
     /**
-     * The index of the next character.
+     * How many consumed characters a Reader-backed tokener keeps, so that
+     * {@link #back()} works across a buffer refill.
+     */
+    private static final int KEEP = 16;
+
+    /**
+     * The index of the next character. For a Reader, this is the index into
+     * myBuffer.
      */
     private int myIndex;
 
 
     /**
-     * The source string being tokenized.
+     * The source string being tokenized, or null if reading from a Reader.
      */
     private final String mySource;
 
+    /**
+     * The Reader being tokenized, or null.
+     */
+    private final Reader myReader;
+
+    /**
+     * A window on the Reader's characters.
+     */
+    private char[] myBuffer;
+
+    /**
+     * The number of valid characters in myBuffer.
+     */
+    private int myLength;
+
+    /**
+     * The number of characters dropped from the front of myBuffer, so
+     * myOffset + myIndex is the position in the whole input.
+     */
+    private long myOffset;
+
 
     /**
      * Construct a JSONTokener from a string.
@@ -54,6 +87,64 @@ public class JSONTokener {
     public JSONTokener(String s) {
         this.myIndex = 0;
         this.mySource = s;
+        this.myReader = null;
+    }
+
+
+    /**
+     * Construct a JSONTokener which reads straight from a Reader, without
+     * first copying it into a String. Note: {@link #skipTo(char)} cannot
+     * rewind a Reader.
+     *
+     * @param reader  The source. This is not closed by the tokener.
+     */
+    public JSONTokener(Reader reader) {
+        this.myIndex = 0;
+        this.mySource = null;
+        this.myReader = reader;
+        this.myBuffer = new char[8192];
+    }
+
+
+    /**
+     * Construct a JSONTokener which reads UTF-8 from a stream.
+     *
+     * @param in  The source. This is not closed by the tokener.
+     */
+    public JSONTokener(InputStream in) {
+        this(new InputStreamReader(in, Charset.forName("UTF-8")));
+    }
+
+
+    /**
+     * Read more characters into the buffer, keeping the last few consumed
+     * ones for {@link #back()}.
+     * @return false at the end of the input
+     */
+    private boolean fill() {
+        int keep = Math.min(KEEP, this.myIndex);
+        int drop = this.myIndex - keep;
+        System.arraycopy(this.myBuffer, drop, this.myBuffer, 0,
+                this.myLength - drop);
+        this.myOffset += drop;
+        this.myIndex -= drop;
+        this.myLength -= drop;
+        if (this.myLength == this.myBuffer.length) {
+            char[] bigger = new char[this.myBuffer.length * 2];
+            System.arraycopy(this.myBuffer, 0, bigger, 0, this.myLength);
+            this.myBuffer = bigger;
+        }
+        try {
+            int n = this.myReader.read(this.myBuffer, this.myLength,
+                    this.myBuffer.length - this.myLength);
+            if (n <= 0) {
+                return false;
+            }
+            this.myLength += n;
+            return true;
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
     }
 
 
@@ -96,7 +187,10 @@ public class JSONTokener {
      * @return true if not yet at the end of the source.
      */
     public boolean more() {
-        return this.myIndex < this.mySource.length();
+        if (this.myReader == null) {
+            return this.myIndex < this.mySource.length();
+        }
+        return this.myIndex < this.myLength || fill();
     }
 
 
@@ -107,7 +201,9 @@ public class JSONTokener {
      */
     public char next() {
         if (more()) {
-            char c = this.mySource.charAt(this.myIndex);
+            char c = this.myReader == null ?
+                    this.mySource.charAt(this.myIndex)
+                    : this.myBuffer[this.myIndex];
             this.myIndex += 1;
             return c;
         }
@@ -142,6 +238,16 @@ public class JSONTokener {
      *   n characters remaining in the source string.
      */
      public String next(int n) throws JSONException {
+         if (this.myReader != null) {
+             char[] chars = new char[n];
+             for (int k = 0; k < n; k++) {
+                 if ( ! more()) {
+                     throw syntaxError("Substring bounds error");
+                 }
+                 chars[k] = next();
+             }
+             return new String(chars);
+         }
          int i = this.myIndex;
          int j = i + n;
          if (j >= this.mySource.length()) {
@@ -410,6 +516,18 @@ public class JSONTokener {
      * is not found.
      */
     public char skipTo(char to) {
+        if (this.myReader != null) {
+            // can't rewind, so if it's not found we're left at the end
+            char c;
+            do {
+                c = next();
+                if (c == 0) {
+                    return c;
+                }
+            } while (c != to);
+            back();
+            return c;
+        }
         char c;
         int index = this.myIndex;
         do {
@@ -430,6 +548,23 @@ public class JSONTokener {
      * @param to A string to skip past.
      */
     public boolean skipPast(String to) {
+        if (this.myReader != null) {
+            int matched = 0;
+            while (matched < to.length()) {
+                if ( ! more()) {
+                    return false;
+                }
+                char c = next();
+                if (c == to.charAt(matched)) {
+                    matched++;
+                } else {
+                    // restart the match (enough for the usual case of a
+                    // delimiter which doesn't overlap itself)
+                    matched = c == to.charAt(0) ? 1 : 0;
+                }
+            }
+            return true;
+        }
         this.myIndex = this.mySource.indexOf(to, this.myIndex);
         if (this.myIndex < 0) {
             this.myIndex = this.mySource.length();
@@ -455,10 +590,17 @@ public class JSONTokener {
     /**
      * Make a printable string of this JSONTokener.
      *
-     * @return " at character [this.myIndex] of [this.mySource]"
+     * @return " at character [this.myIndex] of [this.mySource]". For a
+     * Reader, the source is the last few characters read.
      */
     @Override
 	public String toString() {
+        if (this.myReader != null) {
+            int start = Math.max(0, this.myIndex - 100);
+            return " at character " + (this.myOffset + this.myIndex)
+                    + " after ..." + new String(this.myBuffer, start,
+                            this.myIndex - start);
+        }
         return " at character " + this.myIndex + " of " + this.mySource;
     }
 }
\ No newline at end of file
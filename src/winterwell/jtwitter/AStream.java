@@ -1,10 +1,9 @@
 package winterwell.jtwitter;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
@@ -13,15 +12,22 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 import com.winterwell.json.JSONArray;
 import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
 
 import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.AsyncListener.KOverflow;
+import winterwell.jtwitter.JsonRecord.KField;
 import winterwell.jtwitter.Twitter.IHttpClient;
 import winterwell.jtwitter.Twitter.ITweet;
+import winterwell.jtwitter.Twitter.KRawJson;
 
 /**
  * Internal base class for UserStream and TwitterStream.
@@ -48,7 +54,10 @@ public abstract class AStream implements Closeable {
 	 * Use these for push-notification of incoming tweets and stream activity.
 	 * 
 	 * WARNING: listeners should be fast. They run in the gobbler thread, which
-	 * may be switched off by Twitter if it can't keep up with the flow.
+	 * may be switched off by Twitter if it can't keep up with the flow. Slow
+	 * listeners should be added via
+	 * {@link AStream#addListener(IListen, int, KOverflow)}, which gives them
+	 * their own thread.
 	 * 
 	 * Listeners can throw exceptions -- which are swallowed.
 	 * 
@@ -111,14 +120,70 @@ public abstract class AStream implements Closeable {
 			this.sinceTime = sinceTime;
 		}
 
+		/**
+		 * Fill-in progress (see {@link AStream#fillInOutages()}). Not kept if
+		 * you serialise the outage.
+		 */
+		transient volatile int fillCalls;
+		transient int fillCallsDone;
+		transient volatile int fillFound;
+		transient volatile long fillStart;
+		transient volatile long fillEnd;
+
+		synchronized void fillCallDone() {
+			fillCallsDone++;
+		}
+
+		/**
+		 * @return REST calls planned for the last fill-in attempt (if the
+		 *         stream reports them -- {@link TwitterStream} does). A search
+		 *         or timeline which runs to several pages counts as one call.
+		 */
+		public int getFillCalls() {
+			return fillCalls;
+		}
+
+		/**
+		 * @return REST calls finished (ok or not) in the last fill-in attempt
+		 */
+		public synchronized int getFillCallsDone() {
+			return fillCallsDone;
+		}
+
+		/**
+		 * @return new tweets found by the last fill-in attempt
+		 */
+		public int getFillFound() {
+			return fillFound;
+		}
+
+		/**
+		 * @return how long the last fill-in took, or -1 if it hasn't finished
+		 *         (or hasn't started).
+		 */
+		public long getFillMillis() {
+			return fillEnd == 0 ? -1 : fillEnd - fillStart;
+		}
+
+		/**
+		 * @return true if filled in ok. Failed outages go back on the list
+		 *         for another try.
+		 */
+		public boolean isFilled() {
+			return fillEnd != 0;
+		}
+
 		@Override
 		public String toString() {
-			return "Outage[dt:"+((untilTime-sinceTime)/1000)+"s id:" + sinceId + " to time:" + untilTime +" untilId:"+untilId+"]";
+			return "Outage[dt:"+((untilTime-sinceTime)/1000)+"s id:" + sinceId + " to time:" + untilTime +" untilId:"+untilId
+					+(fillStart==0? "" : " fill:"+getFillCallsDone()+"/"+fillCalls+" found:"+fillFound+(fillEnd==0? "" : " in "+getFillMillis()+"ms"))
+					+"]";
 		}
 	}
 
 	/**
-	 * Start dropping messages after this.
+	 * Start dropping messages after this. This is the default for new streams
+	 * -- see {@link #setMaxBuffer(int)} to change it for one stream.
 	 */
 	public static int MAX_BUFFER = 10000;
 
@@ -130,7 +195,9 @@ public abstract class AStream implements Closeable {
 	final String LOGTAG = getClass().getSimpleName();
 
 	/**
-	 * Remove from the beginning of long lists
+	 * Remove from the beginning of long lists. The message buffers are
+	 * {@link RingBuffer}s, which do this for themselves -- this is for the
+	 * outages list.
 	 * @param incoming
 	 * @return the number pruned
 	 */
@@ -141,21 +208,28 @@ public abstract class AStream implements Closeable {
 		int chop = MAX_BUFFER / 10;
 		for (int i = 0; i < chop; i++) {
 			Object gone = incoming.remove(0);
-			// We're dropping a tweet, so let's log something of that
-			try {
-				if (gone instanceof ITweet) {
-					ITweet twt = (ITweet) gone;
-					BigInteger id = twt.getId();
-					String who = twt.getUser().getScreenName();
-					InternalUtils.log("twitter.forget", id+" @"+who+": "+twt.getText());	
-				}
-			} catch(Exception ex) {
-				// ignore -- paranoia really about nulls
-			}
+			logForgotten(gone);
 		}
 		return chop;
 	}
 
+	/**
+	 * We're dropping a tweet, so let's log something of that
+	 * @param gone Can be null (does nothing)
+	 */
+	static void logForgotten(Object gone) {
+		try {
+			if (gone instanceof ITweet) {
+				ITweet twt = (ITweet) gone;
+				BigInteger id = twt.getId();
+				String who = twt.getUser().getScreenName();
+				InternalUtils.log("twitter.forget", id+" @"+who+": "+twt.getText());	
+			}
+		} catch(Exception ex) {
+			// ignore -- paranoia really about nulls
+		}
+	}
+
 	/**
 	 * A blob of text has come in off the wires... what is it?
 	 * @param jo
@@ -165,25 +239,41 @@ public abstract class AStream implements Closeable {
 	 */
 	static Object read3_parse(JSONObject jo, Twitter jtwitr)
 			throws JSONException {
+		Object msg = read3_parse(JsonRecord.of(jo), jtwitr);
+		if (msg != null) {
+			return msg;
+		}
+		// ??
+		System.out.println(jo);
+		return new Object[]{"unknown", jo};
+	}
+
+	/**
+	 * As {@link #read3_parse(JSONObject, Twitter)}, but working from a
+	 * record, which the gobbler decodes straight off the wire.
+	 * @return null if we don't know what this is
+	 */
+	static Object read3_parse(JsonRecord jo, Twitter jtwitr)
+			throws JSONException {
 		// tweets
-		if (jo.has("text")) {
+		if (jo.has(KField.text)) {
 			Status tweet = new Status(jo, null);
 			return tweet;
 		}
 		// DMs
-		if (jo.has("direct_message")) {
-			Message dm = new Message(jo.getJSONObject("direct_message"));
+		if (jo.has(KField.direct_message)) {
+			Message dm = new Message(jo.getJSONObject(KField.direct_message));
 			return dm;
 		}
 
 		// Events
-		String eventType = jo.optString("event");
+		String eventType = jo.optString(KField.event);
 		if (eventType != "") {
 			TwitterEvent event = new TwitterEvent(jo, jtwitr);
 			return event;
 		}
 		// Deletes and other system events, like limits
-		JSONObject del = jo.optJSONObject("delete");
+		JSONObject del = jo.optJSONObject(KField.delete);
 		if (del != null) {
 			boolean isDM = false;
 			JSONObject s = del.optJSONObject("status");
@@ -191,7 +281,7 @@ public abstract class AStream implements Closeable {
 				s = del.getJSONObject("direct_message");
 				isDM = true;
 			}
-			BigInteger id = new BigInteger(s.getString("id_str"));
+			long id = Long.parseLong(s.getString("id_str"));
 			BigInteger userId = new BigInteger(s.getString("user_id"));
 			ITweet deadTweet;			
 			User dummyUser = new User(null, userId);
@@ -203,7 +293,7 @@ public abstract class AStream implements Closeable {
 			return new Object[] { "delete", deadTweet, userId};
 		}
 		// e.g. {"limit":{"track":1234}}
-		JSONObject limit = jo.optJSONObject("limit");
+		JSONObject limit = jo.optJSONObject(KField.limit);
 		if (limit != null) {
 			int cnt = limit.optInt("track");
 			if (cnt == 0) {
@@ -212,26 +302,31 @@ public abstract class AStream implements Closeable {
 			return new Object[] { "limit", cnt };
 		}
 		// e.g. "disconnect":{"code":7,"stream_name":"XXXX-userstreamxxxx","reason":"admin logout"}		
-		JSONObject disconnect = jo.optJSONObject("disconnect");
+		JSONObject disconnect = jo.optJSONObject(KField.disconnect);
 		if (disconnect != null) {			
 			return new Object[] { "disconnect", disconnect};
 		}
-		// ??
-		System.out.println(jo);
-		return new Object[]{"unknown", jo};
+		return null;
 	}
 
 	boolean autoReconnect;
 
+	/**
+	 * What raw json tweets keep. Copied from the Twitter object.
+	 */
+	volatile KRawJson rawJson;
+
 	final IHttpClient client;
 
-	List<TwitterEvent> events = new ArrayList();
+	RingBuffer<TwitterEvent> events = new RingBuffer(MAX_BUFFER);
 
 	boolean fillInFollows = true;
 
 	/**
 	 * The number of messages (which could be tweets, events, or system
-	 * events) which the stream has dropped to stay within it's bounds.
+	 * events) which the stream has dropped to stay within it's bounds. This
+	 * does not include drops by the current buffers -- see
+	 * {@link #getForgotten()}.
 	 */
 	private int forgotten;
 
@@ -245,24 +340,59 @@ public abstract class AStream implements Closeable {
 	 */
 	final Twitter jtwit;
 
-	private BigInteger lastId = BigInteger.ZERO;
+	/**
+	 * 0 until we get a tweet
+	 */
+	private long lastId;
+
+	/**
+	 * Capacity for each of the message buffers.
+	 */
+	private int maxBuffer = MAX_BUFFER;
+
+	/**
+	 * Recent tweet & DM ids, for de-duplicating live tweets, deletes, and
+	 * tweets fetched to fill in outages. Remembers 5 buffers' worth (see
+	 * {@link #setMaxBuffer(int)}), for up to an hour.
+	 */
+	final SeenIds seenIds = new SeenIds(5 * MAX_BUFFER, 60 * 60 * 1000L);
 	
 	/** Do DM ids and tweet ids follow the same numbering? No. */
-	private BigInteger lastDMId = BigInteger.ZERO;
+	private long lastDMId;
 	
-	final List<IListen> listeners = new ArrayList(0);
+	/**
+	 * Copy-on-write, so notifying listeners doesn't need a lock. Edits should
+	 * synchronize on this.
+	 */
+	final CopyOnWriteArrayList<IListen> listeners = new CopyOnWriteArrayList();
 
 	final List<Outage> outages = Collections.synchronizedList(new ArrayList());
 
+	/**
+	 * Optional. See {@link #setJournal(StreamJournal)}
+	 */
+	volatile StreamJournal journal;
+
+	/**
+	 * Journal sequence numbers of replayed messages which the poller has yet
+	 * to read (inclusive). Empty if replayNext > replayEnd.
+	 */
+	private long replayNext = 1, replayEnd;
+
 	int previousCount;
 
 	StreamGobbler readThread;
 
 	InputStream stream;
 
-	List<Object[]> sysEvents = new ArrayList();
+	/**
+	 * Bytes read off the wire (before any gunzipping), over all connections.
+	 */
+	final AtomicLong wireBytes = new AtomicLong();
 
-	List<ITweet> tweets = new ArrayList();
+	RingBuffer<Object[]> sysEvents = new RingBuffer(MAX_BUFFER);
+
+	RingBuffer<ITweet> tweets = new RingBuffer(MAX_BUFFER);
 
 	/**
 	 * default: false
@@ -271,9 +401,15 @@ public abstract class AStream implements Closeable {
 	 */
 	boolean listenersOnly;
 
+	/**
+	 * Ask for a gzipped stream? See {@link #setGzip(boolean)}
+	 */
+	private boolean gzip;
+
 	public AStream(Twitter jtwit) {
 		this.client = jtwit.getHttpClient();
 		this.jtwit = jtwit;
+		this.rawJson = jtwit.getRawJson();
 		// Twitter send 30 second keep-alive pulses, but ask that
 		// you wait 3 cycles before disconnecting
 		client.setTimeout(91 * 1000);
@@ -292,12 +428,34 @@ public abstract class AStream implements Closeable {
 	public void addListener(IListen listener) {
 		synchronized (listeners) {
 			// remove if already there
-			listeners.remove(listener);
+			removeListener(listener);
 			// add to the front of the list
 			listeners.add(0, listener);
 		}
 	}
 
+	/**
+	 * Add a listener to the front of the queue, which will run in its own
+	 * thread. Use this for listeners which might be slow (e.g. ones which
+	 * write to a database). The listener's return value is ignored -- it
+	 * cannot hide messages from earlier-added listeners.
+	 * 
+	 * @param listener
+	 * @param queueSize
+	 *            How many messages can wait for the listener.
+	 * @param overflow
+	 *            What to do if the queue is full.
+	 * @return the wrapper, which has lag and drop statistics. Use
+	 *         {@link #removeListener(IListen)} with either this or the
+	 *         original listener to remove it.
+	 */
+	public AsyncListener addListener(IListen listener, int queueSize,
+			KOverflow overflow) {
+		AsyncListener async = new AsyncListener(listener, queueSize, overflow);
+		addListener(async);
+		return async;
+	}
+
 	/**
 	 * The stream will track outages during use (provided
 	 * {@link #setAutoReconnect(boolean)} is true). This method allows you to
@@ -313,11 +471,145 @@ public abstract class AStream implements Closeable {
 			if (o.sinceId.compareTo(outage.sinceId) > 0) {
 				// insert here
 				outages.add(i, outage);
+				saveOutages();
 				return;
 			}
 		}
 		// add to the end
 		outages.add(outage);
+		saveOutages();
+	}
+
+	/**
+	 * Keep the journal's copy of the outages up to date (if there is a journal)
+	 */
+	private void saveOutages() {
+		StreamJournal j = journal;
+		if (j == null) return;
+		try {
+			j.saveOutages(outages);
+		} catch (IOException e) {
+			InternalUtils.log(LOGTAG, "Could not save outages: " + e + " for " + this);
+		}
+	}
+
+	/**
+	 * Journal the stream to disk, so a restart doesn't lose messages. Call
+	 * this before {@link #connect()}, and after adding listeners: it recovers
+	 * from the journal's last run --
+	 * <ul>
+	 * <li>the last tweet &amp; DM ids, and any outages which weren't filled in,
+	 * are restored.
+	 * <li>the downtime, from the last journalled message until now, is added
+	 * as an outage (see {@link #fillInOutages()}).
+	 * <li>messages which were received but not consumed are replayed:
+	 * listeners hear them now, in this thread, and polling picks them up
+	 * (ahead of new messages) a buffer's worth at a time.
+	 * </ul>
+	 * A message counts as consumed once the listeners have heard it and (unless
+	 * {@link #listenersOnly}) it has been polled -- for replayed messages too,
+	 * so a crash mid-replay replays them again.
+	 *
+	 * @param journal
+	 *            null to stop journalling. The caller should close it when
+	 *            done.
+	 * @return the number of messages replayed
+	 */
+	public int setJournal(StreamJournal journal) throws IOException {
+		this.journal = journal;
+		if (journal == null) return 0;
+		// restore
+		if (journal.getLastId() > lastId) lastId = journal.getLastId();
+		if (journal.getLastDMId() > lastDMId) lastDMId = journal.getLastDMId();
+		for (Outage outage : journal.getOutages()) {
+			addOutage(outage);
+		}
+		// we were down from the last message until now
+		long down = journal.getLastTime();
+		if (down != 0 && (lastId != 0 || lastDMId != 0)) {
+			addOutage(new Outage(BigInteger.valueOf(lastId), BigInteger.valueOf(lastDMId),
+					down, System.currentTimeMillis()));
+		}
+		// replay: listeners now, a page at a time...
+		long from = Math.max(journal.getConsumed() + 1, journal.getFirstSeq());
+		long end = journal.getLastSeq();
+		if (from > end) return 0;
+		for (long seq = from; seq <= end && ! listeners.isEmpty();) {
+			List<String> page = journal.read(seq, maxBuffer);
+			if (page.isEmpty()) break;
+			for (String json : page) {
+				Object msg = setJournal2_parse(json);
+				if (msg == null || msg instanceof JSONArray) continue;
+				for (IListen listener : listeners) {
+					try {
+						if ( ! notifyListener(listener, msg)) break;
+					} catch (Exception e) {
+						// swallow it & keep going
+						InternalUtils.log(LOGTAG, e);
+					}
+				}
+			}
+			seq += page.size();
+			if (listenersOnly) journal.setConsumed(seq - 1);
+		}
+		if (listenersOnly) {
+			journal.setConsumed(end);
+		} else {
+			// ...and the poller when it next reads, see read2_replay()
+			replayNext = from;
+			replayEnd = end;
+		}
+		return (int) (end - from + 1);
+	}
+
+	/**
+	 * @return a message from the journal, or null if it's bad
+	 */
+	private Object setJournal2_parse(String json) {
+		try {
+			JSONObject jo = new JSONObject(json);
+			JSONArray _friends = jo.optJSONArray("friends");
+			return _friends != null ? _friends : read3_parse(jo, jtwit);
+		} catch (Exception e) {
+			InternalUtils.log(LOGTAG, "Skipping bad journalled message: " + e + " " + json);
+			return null;
+		}
+	}
+
+	/**
+	 * Move a buffer's worth of replayed messages from the journal into the
+	 * polling buffers, and mark them consumed.
+	 */
+	private void read2_replay() {
+		StreamJournal j = journal;
+		if (j == null) {
+			replayNext = replayEnd + 1;
+			return;
+		}
+		List<String> page;
+		try {
+			page = j.read(replayNext, maxBuffer);
+		} catch (IOException e) {
+			throw new TwitterException(e);
+		}
+		if (page.isEmpty()) {
+			// deleted by retention? Give up on them
+			replayNext = replayEnd + 1;
+			return;
+		}
+		for (String json : page) {
+			Object msg = setJournal2_parse(json);
+			if (msg != null) read2(msg);
+		}
+		replayNext += page.size();
+		j.setConsumed(Math.min(replayNext, replayEnd + 1) - 1);
+	}
+
+	/**
+	 * @return the journal, or null. See {@link #setJournal(StreamJournal)}
+	 */
+	public StreamJournal getJournal() {
+		return journal;
 	}
 
 	/**
@@ -325,6 +617,7 @@ public abstract class AStream implements Closeable {
 	 */
 	public void clear() {
 		outages.clear();
+		saveOutages();
 		popEvents();
 		popSystemEvents();
 		popTweets();
@@ -379,7 +672,7 @@ public abstract class AStream implements Closeable {
 
 		try {
 			con = connect2();
-			stream = con.getInputStream();
+			stream = connect2_stream(con);
 			if (readThread == null) {
 				readThread = new StreamGobbler(this);
 				readThread.setName("Gobble:" + toString());
@@ -409,6 +702,102 @@ public abstract class AStream implements Closeable {
 
 	abstract HttpURLConnection connect2() throws Exception;
 
+	/**
+	 * @return the message stream -- counted, and gunzipped if need be. This
+	 *         sits below the gobbler's delimited=length framing, so the
+	 *         lengths are of the inflated messages.
+	 */
+	InputStream connect2_stream(HttpURLConnection con) throws IOException {
+		InputStream in = new CountingInputStream(con.getInputStream(), wireBytes);
+		if ("gzip".equals(con.getContentEncoding())) {
+			// Twitter flushes the deflater after each message, so each
+			// message can be inflated as it arrives.
+			in = new GunzipInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * GZIPInputStream says 1 byte is available until the end -- which makes
+	 * the gobbler's BufferedInputStream block waiting for the next message
+	 * before handing over this one. So this promises nothing.
+	 */
+	static final class GunzipInputStream extends GZIPInputStream {
+		GunzipInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return 0;
+		}
+	}
+
+	/**
+	 * Ask Twitter to gzip the stream. This cuts the bandwidth by roughly 80%
+	 * on busy streams, for a little CPU. Call before connecting.
+	 * <p>
+	 * This only affects the stream's own connection: REST calls via the
+	 * shared http client are left as they were.
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	/**
+	 * @return extra request headers for the stream connection, or null. For
+	 *         {@link #connect2()}
+	 */
+	Map<String, String> connect2_headers() {
+		if ( ! gzip) return null;
+		return Collections.singletonMap("Accept-Encoding", "gzip");
+	}
+
+	/**
+	 * @return bytes read off the wire (compressed if gzip is on), over all
+	 *         connections so far
+	 */
+	public long getBytesOnWire() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * Counts the bytes read through it.
+	 */
+	static final class CountingInputStream extends FilterInputStream {
+		private final AtomicLong count;
+
+		CountingInputStream(InputStream in, AtomicLong count) {
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) count.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) count.addAndGet(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count.addAndGet(skipped);
+			return skipped;
+		}
+	}
+
 	/**
 	 * Use the REST API to fill in outages when possible. There is a list of outages -- filled-in outages will
 	 * be removed from the list, failed ones will be left on. 
@@ -433,6 +822,8 @@ public abstract class AStream implements Closeable {
 		Outage[] outs = outages.toArray(new Outage[0]);
 		// protect our original object from edits and threading-issues
 		Twitter jtwit2 = new Twitter(jtwit);		
+		// keep what the stream keeps
+		jtwit2.setRawJson(rawJson);
 		Exception ex = null;
 		for (Outage outage : outs) {
 			// too recent? wait 20 seconds
@@ -462,7 +853,11 @@ public abstract class AStream implements Closeable {
 				jtwit2.setUntilDate(new Date(outage.untilTime));
 				jtwit2.setMaxResults(100000); // hopefully not needed!
 				// fetch
+				outage.fillStart = System.currentTimeMillis();
+				outage.fillEnd = 0;
 				int fnd = fillInOutages2(jtwit2, outage);
+				outage.fillFound = fnd;
+				outage.fillEnd = System.currentTimeMillis();
 				InternalUtils.log(LOGTAG, "outage fill for "+outage+" found: "+fnd+" for "+this);
 				// success
 			} catch(Throwable e) {
@@ -477,6 +872,7 @@ public abstract class AStream implements Closeable {
 				}
 			}			
 		}
+		saveOutages();
 		return ex;
 	}
 
@@ -513,7 +909,52 @@ public abstract class AStream implements Closeable {
 	 *         {@link #popTweets()} regularly to clear the buffers.
 	 */
 	public final int getForgotten() {
-		return forgotten;
+		StreamGobbler gobbler = readThread;
+		return forgotten + tweets.getEvicted() + events.getEvicted()
+				+ sysEvents.getEvicted()
+				+ (gobbler == null ? 0 : gobbler.getForgotten());
+	}
+
+	/**
+	 * @return the recently seen tweet & DM ids, which the stream uses to
+	 *         filter duplicates. Its hit count is the number of duplicates
+	 *         dropped. You can adjust the time window via
+	 *         {@link SeenIds#setWindow(long)}.
+	 */
+	public final SeenIds getSeenIds() {
+		return seenIds;
+	}
+
+	/**
+	 * @return the capacity of each message buffer (tweets, events and system
+	 *         events).
+	 * @see #setMaxBuffer(int)
+	 */
+	public final int getMaxBuffer() {
+		return maxBuffer;
+	}
+
+	/**
+	 * Set how many messages of each kind this stream will hold before it
+	 * starts dropping the oldest. The default is {@link #MAX_BUFFER}. If you
+	 * poll regularly, you can use a smaller buffer to save memory.
+	 * 
+	 * @param maxBuffer
+	 *            Must be positive.
+	 */
+	public void setMaxBuffer(int maxBuffer) {
+		if (maxBuffer < 1) {
+			throw new IllegalArgumentException("maxBuffer: " + maxBuffer);
+		}
+		this.maxBuffer = maxBuffer;
+		tweets.setCapacity(maxBuffer);
+		events.setCapacity(maxBuffer);
+		sysEvents.setCapacity(maxBuffer);
+		seenIds.setCapacity(5 * maxBuffer);
+		StreamGobbler gobbler = readThread;
+		if (gobbler != null) {
+			gobbler.setMaxBuffer(maxBuffer);
+		}
 	}
 
 	/**
@@ -605,8 +1046,10 @@ public abstract class AStream implements Closeable {
 	 * and the caller should synchronize appropriately.
 	 */
 	public final List<TwitterEvent> popEvents() {
-		List evs = getEvents();
-		events = new ArrayList();
+		RingBuffer<TwitterEvent> evs = (RingBuffer) getEvents();
+		// hand over the buffer itself, rather than copy it
+		events = new RingBuffer(maxBuffer);
+		forgotten += evs.getEvicted();
 		return evs;
 	}
 
@@ -624,8 +1067,9 @@ public abstract class AStream implements Closeable {
 	 * and the caller should synchronize appropriately.
 	 */
 	public final List<Object[]> popSystemEvents() {
-		List<Object[]> evs = getSystemEvents();
-		sysEvents = new ArrayList();
+		RingBuffer<Object[]> evs = (RingBuffer) getSystemEvents();
+		sysEvents = new RingBuffer(maxBuffer);
+		forgotten += evs.getEvicted();
 		return evs;
 	}
 
@@ -636,23 +1080,39 @@ public abstract class AStream implements Closeable {
 	 * and the caller should synchronize appropriately.
 	 */
 	public final List<ITweet> popTweets() {
-		List<ITweet> ts = getTweets();
-		// TODO is 
-		tweets = new ArrayList();
+		RingBuffer<ITweet> ts = (RingBuffer) getTweets();
+		tweets = new RingBuffer(maxBuffer);
+		forgotten += ts.getEvicted();
+		return ts;
+	}
+
+	/**
+	 * Pop everything this stream holds -- including messages its gobbler read
+	 * before it died -- without the is-it-connected check in the other pop
+	 * methods (which would throw, or reconnect on the caller's thread).
+	 * 
+	 * @param msgs
+	 *            Events and system events are added to this.
+	 * @return the tweets
+	 */
+	final List<ITweet> drain(List<Object> msgs) {
+		read2_buffered();
+		RingBuffer<ITweet> ts = tweets;
+		tweets = new RingBuffer(maxBuffer);
+		forgotten += ts.getEvicted();
+		RingBuffer<TwitterEvent> evs = events;
+		events = new RingBuffer(maxBuffer);
+		forgotten += evs.getEvicted();
+		msgs.addAll(evs);
+		RingBuffer<Object[]> sys = sysEvents;
+		sysEvents = new RingBuffer(maxBuffer);
+		forgotten += sys.getEvicted();
+		msgs.addAll(sys);
 		return ts;
 	}
 
 	private final void read() {
-		if (readThread!=null) {
-			String[] jsons = readThread.popJsons();
-			for (String json : jsons) {
-				try {
-					read2(json);
-				} catch (JSONException e) {
-					throw new TwitterException.Parsing(json, e);
-				}
-			}
-		}
+		read2_buffered();
 		if (isConnected())
 			return;
 		// NOT connected?!
@@ -673,40 +1133,67 @@ public abstract class AStream implements Closeable {
 		reconnect();
 	}
 
-	private void read2(String json) throws JSONException {
-		JSONObject jobj = new JSONObject(json);
+	/**
+	 * Replay the journal, and process what the gobbler has read.
+	 */
+	private void read2_buffered() {
+		boolean replaying = replayNext <= replayEnd;
+		if (replaying) {
+			read2_replay();
+		}
+		// Note: a local copy, as close() may be called from another thread
+		StreamGobbler gobbler = readThread;
+		if (gobbler!=null) {
+			List<Object> msgs = new ArrayList();
+			gobbler.popMessages(msgs);
+			for (Object msg : msgs) {
+				try {
+					read2(msg);
+				} catch (JSONException e) {
+					throw new TwitterException.Parsing(String.valueOf(msg), e);
+				}
+			}
+			if (journal != null && ! msgs.isEmpty() && ! replaying) {
+				// handled -- unless the listeners are lagging
+				journal.setConsumed(Math.min(gobbler.poppedSeq, gobbler.notifiedSeq));
+			}
+		}
+	}
 
+	/**
+	 * @param object As parsed by the gobbler -- see {@link StreamGobbler#readJson2_parse(String)}
+	 */
+	private void read2(Object object) throws JSONException {
+		// the gobbler couldn't parse it? Try again, so the error gets reported
+		if (object instanceof String) {
+			JSONObject jobj = new JSONObject((String) object);
+			JSONArray _friends = jobj.optJSONArray("friends");
+			object = _friends != null? _friends : read3_parse(jobj, jtwit);
+		}
+		
 		// the 1st object for a UserStream is a list of friend ids
-		JSONArray _friends = jobj.optJSONArray("friends");
-		if (_friends != null) {
-			read3_friends(_friends);
+		if (object instanceof JSONArray) {
+			read3_friends((JSONArray) object);
 			return;
 		}
 
-		// parse the json
-		Object object = read3_parse(jobj, jtwit);
-
 		// tweets & DMs
 		if (object instanceof ITweet) {
 			ITweet tweet = (ITweet) object;
-			// de-duplicate a bit locally (this is rare -- perhaps don't
-			// bother??)
-			if (tweets.contains(tweet))
+			if ( ! addTweet(tweet))
 				return;
-			tweets.add(tweet);
 			// track the last Status id for tracking outages 
-			BigInteger id = ((ITweet) tweet).getId();
+			long id = tweet.getIdLong();
 			if (tweet instanceof Status) {				
-				if (id.compareTo(lastId) > 0) {
+				if (id > lastId) {
 					setLastId(id);
 				}
 			// NB: Message (DM) ids are different
 			} else if (tweet instanceof Message) {				
-				if (id.compareTo(lastDMId) > 0) {
+				if (id > lastDMId) {
 					setLastDMId(id);
 				}
 			}
-			forgotten += forgetIfFull(tweets);
 			return;
 		}
 
@@ -714,7 +1201,6 @@ public abstract class AStream implements Closeable {
 		if (object instanceof TwitterEvent) {
 			TwitterEvent event = (TwitterEvent) object;
 			events.add(event);
-			forgotten += forgetIfFull(events);
 			return;
 		}
 		// Deletes and other system events, like limits
@@ -724,9 +1210,16 @@ public abstract class AStream implements Closeable {
 			// ...delete?
 			if ("delete".equals(sysEvent[0])) {
 				ITweet deadTweet = (ITweet) sysEvent[1];
-				// prune local (which is unlikely to do much)
-				boolean pruned = tweets.remove(deadTweet);
-				if (pruned) return; // No need to keep this event around
+				long id = deadTweet.getIdLong();
+				if (seenIds.contains(id)) {
+					// prune local (which is unlikely to do much)
+					boolean pruned = tweets.remove(deadTweet);
+					if (pruned) return; // No need to keep this event around
+				} else {
+					// so an outage fill-in won't resurrect it (not a hit or
+					// miss -- it's not a tweet we received)
+					seenIds.remember(id);
+				}
 			} else if ("limit".equals(sysEvent[0])) {
 				// ...we got rate-limited?
 				Integer cnt = (Integer) sysEvent[1];				
@@ -734,25 +1227,37 @@ public abstract class AStream implements Closeable {
 			}
 			// store the sys-event
 			sysEvents.add(sysEvent);
-			forgotten += forgetIfFull(sysEvents);
 			return;
 		}
 		// ??
-		System.out.println(jobj);
+		System.out.println(object);
+	}
+
+	/**
+	 * Add to the tweets buffer, unless it's a recently seen tweet.
+	 * @param tweet
+	 * @return true if added, false if it was a duplicate
+	 */
+	final boolean addTweet(ITweet tweet) {
+		if ( ! seenIds.add(tweet.getIdLong())) {
+			return false;
+		}
+		logForgotten(tweets.push(tweet));
+		return true;
 	}
 
-	private void setLastId(BigInteger id) {
+	private void setLastId(long id) {
 		lastId = id;
 		// add to outages
 		for(Outage outage : outages) {
-			if (outage.untilId==null) outage.untilId = id;
+			if (outage.untilId==null) outage.untilId = BigInteger.valueOf(id);
 		}
 	}
-	private void setLastDMId(BigInteger id) {
+	private void setLastDMId(long id) {
 		lastDMId = id;
 		// add to outages
 		for(Outage outage : outages) {
-			if (outage.untilDMId==null) outage.untilDMId = id;
+			if (outage.untilDMId==null) outage.untilDMId = BigInteger.valueOf(id);
 		}
 	}
 
@@ -778,7 +1283,6 @@ public abstract class AStream implements Closeable {
 					TwitterEvent.Type.FOLLOW, nf, null);
 			events.add(e);
 		}
-		forgotten += forgetIfFull(events);
 	}
 
 	/**
@@ -797,14 +1301,15 @@ public abstract class AStream implements Closeable {
 
 		// store the outage
 		// ??merge small outages??
-		if (lastId != BigInteger.ZERO || lastDMId != BigInteger.ZERO) {
-			outages.add(new Outage(lastId, lastDMId, now, System.currentTimeMillis()));
+		if (lastId != 0 || lastDMId != 0) {
+			outages.add(new Outage(BigInteger.valueOf(lastId), BigInteger.valueOf(lastDMId), now, System.currentTimeMillis()));
 			// paranoia: avoid memory leaks			
 			if (outages.size() > MAX_BUFFER) {
 				int dropped = forgetIfFull(outages);
 				// add an arbitrary number to the forgotten count: 10 per outage
 				forgotten += 10*dropped;
 			}
+			saveOutages();
 		}
 		InternalUtils.log(LOGTAG, this+" ...reconnect() done");
 	}
@@ -818,19 +1323,17 @@ public abstract class AStream implements Closeable {
 		InternalUtils.log(LOGTAG, "sysEvent: "+InternalUtils.str(sysEvent)+" for "+this);
 		sysEvents.add(sysEvent);
 		if (listeners.size()==0) return;
-		synchronized (listeners) {
-			try {
-				for (IListen listener : listeners) {
-					boolean carryOn = listener.processSystemEvent(sysEvent);
-					// hide from earlier listeners?
-					if (!carryOn) {
-						break;
-					}
+		try {
+			for (IListen listener : listeners) {
+				boolean carryOn = listener.processSystemEvent(sysEvent);
+				// hide from earlier listeners?
+				if (!carryOn) {
+					break;
 				}
-			} catch (Exception e) {
-				// swallow it & keep the stream flowing
-				e.printStackTrace();
 			}
+		} catch (Exception e) {
+			// swallow it & keep the stream flowing
+			e.printStackTrace();
 		}
 	}
 
@@ -883,9 +1386,44 @@ public abstract class AStream implements Closeable {
 		reconnect();
 	}
 
+	/**
+	 * @param listener
+	 *            This can be the listener given to
+	 *            {@link #addListener(IListen, int, KOverflow)}, or the
+	 *            AsyncListener returned by it. Either way, the async thread is
+	 *            stopped.
+	 * @return true if the listener was found
+	 */
 	public boolean removeListener(IListen listener) {
 		synchronized (listeners) {
-			return listeners.remove(listener);
+			for (IListen l : listeners) {
+				if (l.equals(listener)
+						|| (l instanceof AsyncListener && ((AsyncListener) l)
+								.getListener().equals(listener))) {
+					listeners.remove(l);
+					if (l instanceof AsyncListener) {
+						((AsyncListener) l).close();
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Pass a message to a listener.
+	 * @param listener
+	 * @param msg A tweet, event, or system event
+	 * @return the listener's verdict: true to pass this on to other listeners
+	 */
+	static boolean notifyListener(IListen listener, Object msg) throws Exception {
+		if (msg instanceof ITweet) {
+			return listener.processTweet((ITweet) msg);
+		} else if (msg instanceof TwitterEvent) {
+			return listener.processEvent((TwitterEvent) msg);
+		} else {
+			return listener.processSystemEvent((Object[]) msg);
 		}
 	}
 
@@ -898,6 +1436,21 @@ public abstract class AStream implements Closeable {
 		autoReconnect = yes;
 	}
 
+	/**
+	 * @param rawJson
+	 *            What raw json should tweets keep? By default, the setting
+	 *            from the Twitter object. See
+	 *            {@link Twitter#setRawJson(KRawJson)}
+	 */
+	public void setRawJson(KRawJson rawJson) {
+		assert rawJson != null;
+		this.rawJson = rawJson;
+	}
+
+	public KRawJson getRawJson() {
+		return rawJson;
+	}
+
 	/**
 	 * How many messages prior-to-connecting to retrieve. Twitter bug: Currently
 	 * this does not work!
@@ -916,199 +1469,3 @@ public abstract class AStream implements Closeable {
 	}
 
 }
-
-/**
- * Gobble output from a twitter stream. Create then call start(). Expects length
- * delimiters This does not process the json it receives.
- * 
- */
-final class StreamGobbler extends Thread {
-
-	Exception ex;
-
-	/**
-	 * count of the number of tweets this gobbler had to drop due to buffer size
-	 */
-	int forgotten;
-
-	/**
-	 * Use synchronised blocks when editing this
-	 */
-	private ArrayList<String> jsons = new ArrayList();
-
-//	long offTime;
-
-	volatile boolean stopFlag;
-
-	final AStream stream;
-
-	public StreamGobbler(AStream stream) {
-		setDaemon(true);
-		this.stream = stream;
-	}
-
-	@Override
-	protected void finalize() throws Throwable {
-		if (stream != null) {
-			InternalUtils.close(stream.stream);
-		}
-	}
-
-	/**
-	 * Request that the thread should finish. If the thread is hung waiting for
-	 * output, then this will not work.
-	 */
-	public void pleaseStop() {
-		if (stream != null) {
-			InternalUtils.close(stream.stream);
-		}
-		stopFlag = true;
-	}
-
-	/**
-	 * Read off the collected json snippets for processing
-	 * 
-	 * @return
-	 */
-	public synchronized String[] popJsons() {
-		String[] arr = jsons.toArray(new String[jsons.size()]);
-		// jsons.clear(); This wasn't really working for good memory management
-		jsons = new ArrayList();
-		return arr;
-	}
-
-	private void readJson(BufferedReader br, int len) throws IOException {
-		// Read len chars from the stream
-		assert len > 0;
-		char[] sb = new char[len];
-		int cnt = 0;
-		while (len > 0) {
-			int rd = br.read(sb, cnt, len);
-			if (rd == -1)
-				throw new IOException("end of stream");
-			// continue;
-			cnt += rd;
-			len -= rd;
-		}
-		
-		String json = new String(sb);
-		if ( ! stream.listenersOnly) {
-			synchronized (this) {
-				jsons.add(json);
-				// forget a batch?
-				forgotten += AStream.forgetIfFull(jsons);
-			}
-		}
-
-		// push notifications
-		readJson2_notifyListeners(json);
-	}
-
-	private void readJson2_notifyListeners(String json) {
-		if (stream.listeners.size() == 0)
-			return;
-		synchronized (stream.listeners) {
-			try {
-				JSONObject jo = new JSONObject(json);
-				Object obj = AStream.read3_parse(jo, stream.jtwit);
-				for (IListen listener : stream.listeners) {
-					try {
-						boolean carryOn;
-						if (obj instanceof ITweet) {
-							carryOn = listener.processTweet((ITweet) obj);
-						} else if (obj instanceof TwitterEvent) {
-							carryOn = listener.processEvent((TwitterEvent) obj);
-						} else {
-							carryOn = listener.processSystemEvent((Object[]) obj);
-						}
-						// hide from earlier listeners?
-						if (!carryOn) {
-							break;
-						}
-					} catch (Exception e) {
-						// swallow it & keep the stream flowing
-						InternalUtils.log(stream.LOGTAG, e);
-					}
-				} // end for-listeners
-			} catch (Throwable e) {
-				// swallow it & keep the stream flowing
-				InternalUtils.log(stream.LOGTAG, e);
-			}
-		}
-	}
-
-	/**
-	 * Read a number from the stream -- which is the length of the next message.
-	 * @param br
-	 * @return
-	 * @throws IOException
-	 */
-	private int readLength(BufferedReader br) throws IOException {
-		StringBuilder numSb = new StringBuilder();
-		while (true) {
-			int ich = br.read();
-			if (ich == -1)
-				throw new IOException("end of stream " + this);
-			// continue;
-			char ch = (char) ich;
-			if (ch == '\n' || ch == '\r') {
-				// ignore leading whitespace, stop otherwise
-				if (numSb.length() == 0) {
-					continue;
-				}
-				// done!
-				break;
-			}
-			// collect digits
-			assert Character.isDigit(ch) : ch;
-			assert numSb.length() < 10 : numSb; // paranoia
-			numSb.append(ch);
-		}
-		return Integer.valueOf(numSb.toString());
-	}
-
-	@Override
-	public void run() {
-		while (!stopFlag) {			
-			assert stream.stream != null : stream;
-			try {
-				InputStreamReader isr = new InputStreamReader(stream.stream);
-				BufferedReader br = new BufferedReader(isr);
-				while (!stopFlag) {
-					int len = readLength(br);
-					readJson(br, len);
-				}
-			} catch (Exception ioe) {
-				if (stopFlag) {
-					// we were told to stop already so ignore
-					return;
-				}
-				ex = ioe;
-//				offTime = System.currentTimeMillis();
-				// TODO log this as a sys-event
-				stream.addSysEvent(new Object[]{"exception", ex});
-				InternalUtils.log(stream.LOGTAG, this+" gobbler.run() exception: "+InternalUtils.str(ex));
-				// try a reconnect?
-				if ( ! stream.autoReconnect)
-					return; // no - break out of the loop
-				// Note: the thread can also hang or die, so we also do
-				// reconnects from
-				// the AStream.read() method.
-				try {
-					stream.reconnectFromGobblerThread();
-					assert stream.stream != null : stream;
-				} catch (Exception e) {
-					// #fail
-					InternalUtils.log(stream.LOGTAG, this+" gobbler.run() reconnect exception: now: "+InternalUtils.str(e)+" was: "+ex);
-					ex = e;
-					return;
-				}
-			}
-		}
-	}
-
-	@Override
-	public String toString() {
-		return getName() + "[" + jsons.size() + "]";
-	}
-}
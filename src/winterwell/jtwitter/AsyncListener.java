@@ -0,0 +1,212 @@
+package winterwell.jtwitter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.Twitter.ITweet;
+
+/**
+ * Runs a listener in its own thread, fed by a bounded queue -- so a slow
+ * listener (e.g. one which writes to a database) does not hold up the stream.
+ * Create these via {@link AStream#addListener(IListen, int, KOverflow)}.
+ * <p>
+ * The wrapped listener's return value is ignored: by the time it runs, the
+ * message has already been passed on. I.e. an async listener cannot hide
+ * messages from earlier-added listeners.
+ *
+ * @author daniel
+ */
+public final class AsyncListener implements IListen {
+
+	/**
+	 * What to do when the queue is full.
+	 */
+	public static enum KOverflow {
+		/**
+		 * Wait for space. This holds up the stream (and any listeners further
+		 * down the chain) -- so it's only for listeners which must not miss
+		 * anything, and which are usually fast enough.
+		 */
+		BLOCK,
+		/** Drop the oldest queued message to make room. */
+		DROP_OLDEST,
+		/** Drop the incoming message. */
+		DROP_NEWEST
+	}
+
+	/**
+	 * A message + when it was queued
+	 */
+	private static final class Queued {
+		final Object msg;
+		final long nanos = System.nanoTime();
+
+		Queued(Object msg) {
+			this.msg = msg;
+		}
+	}
+
+	private final IListen listener;
+
+	private final ArrayBlockingQueue<Queued> queue;
+
+	private final KOverflow overflow;
+
+	private final Thread worker;
+
+	private volatile boolean stopFlag;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile long processed;
+
+	private volatile long lagNanos;
+
+	private volatile long maxLagNanos;
+
+	AsyncListener(IListen listener, int capacity, KOverflow overflow) {
+		if (listener == null || overflow == null)
+			throw new NullPointerException();
+		this.listener = listener;
+		this.queue = new ArrayBlockingQueue(capacity);
+		this.overflow = overflow;
+		worker = new Thread("Listen:" + listener) {
+			@Override
+			public void run() {
+				work();
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * @return the listener which this runs
+	 */
+	public IListen getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the number of messages waiting
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of messages dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of messages passed to the listener
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * @return how long the most recent message waited in the queue, in
+	 *         milliseconds
+	 */
+	public long getLag() {
+		return lagNanos / 1000000;
+	}
+
+	/**
+	 * @return the longest any message has waited in the queue, in milliseconds
+	 */
+	public long getMaxLag() {
+		return maxLagNanos / 1000000;
+	}
+
+	/**
+	 * Stop the worker thread. Any queued messages are discarded.
+	 */
+	public void close() {
+		stopFlag = true;
+		worker.interrupt();
+		queue.clear();
+	}
+
+	@Override
+	public boolean processEvent(TwitterEvent event) {
+		return offer(event);
+	}
+
+	@Override
+	public boolean processSystemEvent(Object[] obj) {
+		return offer(obj);
+	}
+
+	@Override
+	public boolean processTweet(ITweet tweet) {
+		return offer(tweet);
+	}
+
+	/**
+	 * @return true, always (we can't know what the listener would have said)
+	 */
+	private boolean offer(Object msg) {
+		if (stopFlag)
+			return true;
+		Queued q = new Queued(msg);
+		switch (overflow) {
+		case BLOCK:
+			try {
+				queue.put(q);
+			} catch (InterruptedException e) {
+				// give up on this message
+				dropped.incrementAndGet();
+				Thread.currentThread().interrupt();
+			}
+			break;
+		case DROP_OLDEST:
+			while ( ! queue.offer(q)) {
+				if (queue.poll() != null) {
+					dropped.incrementAndGet();
+				}
+			}
+			break;
+		case DROP_NEWEST:
+			if ( ! queue.offer(q)) {
+				dropped.incrementAndGet();
+			}
+			break;
+		}
+		return true;
+	}
+
+	private void work() {
+		while ( ! stopFlag) {
+			Queued q;
+			try {
+				q = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			long lag = System.nanoTime() - q.nanos;
+			lagNanos = lag;
+			if (lag > maxLagNanos) {
+				maxLagNanos = lag;
+			}
+			try {
+				AStream.notifyListener(listener, q.msg);
+			} catch (Throwable e) {
+				// swallow it & keep going
+				InternalUtils.log("AsyncListener", e);
+			}
+			processed++;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncListener[" + listener + " queue:" + queue.size()
+				+ " dropped:" + dropped + " lag:" + getLag() + "ms]";
+	}
+}
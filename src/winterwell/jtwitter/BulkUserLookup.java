@@ -0,0 +1,252 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hydrate lots of users: like {@link Twitter_Users#showById(Collection)}, but
+ * with several users/lookup calls in flight at once, results passed on as
+ * each batch lands, and failed batches kept for a retry (rather than giving
+ * up at the first error). Use {@link Twitter_Users#bulkLookup()} to get one.
+ * <p>
+ * Concurrency is capped by {@link #setThreads(int)} and by the users/lookup
+ * rate-limit left. A rate-limit error stops any more batches being sent --
+ * they're all reported as failed, ready for {@link #retry(Report, IListener)}
+ * after the reset. Or use a {@link RateLimitScheduler} or
+ * {@link PooledHttpClient}, which wait instead.
+ *
+ * @testedby BulkUserLookupTest
+ * @author daniel
+ */
+public class BulkUserLookup {
+
+	public static interface IListener {
+		/**
+		 * Called as each batch completes -- in whatever order they complete.
+		 * Calls are one at a time, so this needn't be thread safe.
+		 *
+		 * @return true to stop (batches in flight will still be passed on)
+		 */
+		boolean process(List<User> users);
+	}
+
+	/**
+	 * What happened: failed batches, and throughput.
+	 */
+	public static final class Report {
+		final String var;
+		final List<User> users;
+		final List<List> failed = new ArrayList<List>();
+		final List<Exception> errors = new ArrayList<Exception>();
+		int requests;
+		int found;
+		final long start = System.nanoTime();
+		long end;
+
+		Report(String var, boolean collect) {
+			this.var = var;
+			users = collect ? new ArrayList<User>() : null;
+		}
+
+		synchronized void fail(List batch, Exception ex) {
+			failed.add(batch);
+			if (ex != null) errors.add(ex);
+		}
+
+		/**
+		 * @return the users found, if there was no listener. Else null.
+		 */
+		public List<User> getUsers() {
+			return users;
+		}
+
+		/**
+		 * @return batches of ids (or screen-names) which failed, or which
+		 *         weren't sent because of a rate-limit.
+		 */
+		public synchronized List<List> getFailedBatches() {
+			return new ArrayList<List>(failed);
+		}
+
+		/**
+		 * @return the exceptions behind the failed batches (batches which
+		 *         weren't sent have none)
+		 */
+		public synchronized List<Exception> getErrors() {
+			return new ArrayList<Exception>(errors);
+		}
+
+		public synchronized boolean isComplete() {
+			return failed.isEmpty();
+		}
+
+		/**
+		 * @return users found. Deleted and suspended users are not found.
+		 */
+		public synchronized int getFound() {
+			return found;
+		}
+
+		/**
+		 * @return users/lookup calls made which worked
+		 */
+		public synchronized int getRequests() {
+			return requests;
+		}
+
+		public long getElapsedMillis() {
+			return ((end == 0 ? System.nanoTime() : end) - start) / 1000000;
+		}
+
+		public double getUsersPerSecond() {
+			long ms = getElapsedMillis();
+			return ms == 0 ? 0 : getFound() * 1000.0 / ms;
+		}
+
+		@Override
+		public String toString() {
+			return "Report[found=" + getFound() + " requests=" + getRequests()
+					+ " failedBatches=" + getFailedBatches().size() + " "
+					+ getElapsedMillis() + "ms " + Math.round(getUsersPerSecond())
+					+ " users/sec]";
+		}
+	}
+
+	private static final int BATCH = 100;
+
+	private final Twitter jtwit;
+
+	private final Twitter_Users users;
+
+	private int threads = 4;
+
+	BulkUserLookup(Twitter jtwit) {
+		this.jtwit = jtwit;
+		this.users = jtwit.users();
+	}
+
+	/**
+	 * @param threads
+	 *            The most users/lookup calls to have in flight at once. 4 by
+	 *            default.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("" + threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @param listener
+	 *            Can be null, in which case the users are collected in the
+	 *            {@link Report#getUsers()}
+	 */
+	public Report showById(Collection<? extends Number> userIds, IListener listener) {
+		return run("user_id", new ArrayList(userIds), listener);
+	}
+
+	/**
+	 * @param listener
+	 *            Can be null, in which case the users are collected in the
+	 *            {@link Report#getUsers()}
+	 */
+	public Report show(Collection<String> screenNames, IListener listener) {
+		return run("screen_name", new ArrayList(screenNames), listener);
+	}
+
+	/**
+	 * Have another go at the failed batches.
+	 *
+	 * @return a new report, for just these batches
+	 */
+	public Report retry(Report failed, IListener listener) {
+		List items = new ArrayList();
+		for (List batch : failed.getFailedBatches()) {
+			items.addAll(batch);
+		}
+		return run(failed.var, items, listener);
+	}
+
+	private Report run(final String var, List items, final IListener listener) {
+		final Report report = new Report(var, listener == null);
+		final boolean auth = InternalUtils.authoriseIn11(jtwit);
+		int nBatches = (items.size() + BATCH - 1) / BATCH;
+		if (nBatches == 0) {
+			report.end = System.nanoTime();
+			return report;
+		}
+		// Don't start more than the rate-limit allows
+		int n = Math.min(threads, nBatches);
+		RateLimit rl = jtwit.getHttpClient().getRateLimits().get(RateLimit.RES_USERS_BULK_SHOW);
+		if (rl != null && ! rl.isOutOfDate()) {
+			n = Math.max(1, Math.min(n, rl.getRemaining()));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(n);
+		final AtomicBoolean rateLimited = new AtomicBoolean();
+		final AtomicBoolean stop = new AtomicBoolean();
+		try {
+			for (int i = 0; i < items.size(); i += BATCH) {
+				final List batch = Collections.unmodifiableList(new ArrayList(
+						items.subList(i, Math.min(i + BATCH, items.size()))));
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (stop.get()) return;
+						if (rateLimited.get()) {
+							report.fail(batch, null);
+							return;
+						}
+						try {
+							List<User> found = users.bulkShow2_batch(
+									"/users/lookup.json", var, batch, 0,
+									batch.size(), auth);
+							run2_done(report, found, listener, stop);
+						} catch (TwitterException.RateLimit ex) {
+							// includes PreEmptiveRateLimit
+							rateLimited.set(true);
+							report.fail(batch, ex);
+						} catch (Exception ex) {
+							report.fail(batch, ex);
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			while ( ! pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting
+			}
+		} catch (InterruptedException e) {
+			stop.set(true);
+			throw new TwitterException(e);
+		} finally {
+			pool.shutdownNow();
+			report.end = System.nanoTime();
+		}
+		return report;
+	}
+
+	private static void run2_done(Report report, List<User> found,
+			IListener listener, AtomicBoolean stop) {
+		synchronized (report) {
+			report.requests++;
+			report.found += found.size();
+			if (listener == null) {
+				report.users.addAll(found);
+				return;
+			}
+			if (listener.process(found)) {
+				stop.set(true);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BulkUserLookup[threads=" + threads + "]";
+	}
+}
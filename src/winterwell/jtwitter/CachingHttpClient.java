@@ -0,0 +1,421 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.winterwell.json.JSONObject;
+
+import winterwell.jtwitter.Twitter.IHttpClient;
+import winterwell.jtwitter.Twitter.KRequestType;
+
+/**
+ * Cache GET responses for lookups which don't change much -- e.g. users/show,
+ * lists/show, trends, places, and Twitter's configuration -- so repeated calls
+ * for the same thing don't use up the rate-limit. Wrap your usual client:
+ *
+ * <pre>
+ * <code>
+ * Twitter jtwit = new Twitter(null, new CachingHttpClient(new OAuthSignpostClient(...)));
+ * </code>
+ * </pre>
+ *
+ * Which resources are cached, and for how long, is set by
+ * {@link #setTTL(String, long)} (see {@link RateLimit#getResource(String)}).
+ * The cache is keyed on the url + sorted parameters + authenticate, and
+ * holds upto {@link #setMaxEntries(int)} responses, dropping the least
+ * recently used. Concurrent identical requests share one call to Twitter.
+ * <p>
+ * Only {@link #getPage(String, Map, boolean)} is cached (that's what the
+ * lookups use). A post or delete clears the cached responses from the same
+ * part of the API (e.g. a post to /lists/members/create clears /lists/...).
+ * <p>
+ * Note: on a cache hit, {@link #getHeader(String)} gives the header from the
+ * last real request.
+ * <p>
+ * Copies share the cache.
+ *
+ * @testedby CachingHttpClientTest
+ * @author daniel
+ */
+public class CachingHttpClient implements IHttpClient, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Hit and miss counts.
+	 */
+	public static final class Stats {
+		public final long hits;
+		public final long misses;
+		/** misses which waited for an identical request in flight */
+		public final long coalesced;
+		public final long evictions;
+		public final long expired;
+		public final int size;
+
+		Stats(long hits, long misses, long coalesced, long evictions,
+				long expired, int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.coalesced = coalesced;
+			this.evictions = evictions;
+			this.expired = expired;
+			this.size = size;
+		}
+
+		public double getHitRate() {
+			long n = hits + misses;
+			return n == 0 ? 0 : hits / (double) n;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats[hits=" + hits + " misses=" + misses + " coalesced="
+					+ coalesced + " evictions=" + evictions + " expired="
+					+ expired + " size=" + size + "]";
+		}
+	}
+
+	private static final class CacheEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final String resource;
+		final String value;
+		final long expires;
+
+		CacheEntry(String resource, String value, long expires) {
+			this.resource = resource;
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * The cache, shared by copies. Lock on this for the map and counts.
+	 */
+	private static final class Store implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int maxEntries = 10000;
+		final Map<String, Long> ttls = new ConcurrentHashMap<String, Long>();
+		final LinkedHashMap<String, CacheEntry> map = new LinkedHashMap<String, CacheEntry>(
+				64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() <= maxEntries) return false;
+				evictions++;
+				return true;
+			}
+		};
+		transient ConcurrentHashMap<String, CompletableFuture<String>> inFlight;
+		long hits, misses, coalesced, evictions, expired;
+
+		synchronized ConcurrentHashMap<String, CompletableFuture<String>> inFlight() {
+			// lazy, as it's transient
+			if (inFlight == null) {
+				inFlight = new ConcurrentHashMap<String, CompletableFuture<String>>();
+			}
+			return inFlight;
+		}
+	}
+
+	private static final long MINUTE = 60 * 1000;
+
+	private final IHttpClient base;
+
+	private final Store store;
+
+	/**
+	 * @param base
+	 *            The client which does the work
+	 */
+	public CachingHttpClient(IHttpClient base) {
+		this(base, new Store());
+		// Defaults: things which rarely change
+		setTTL(RateLimit.RES_USERS_SHOW1, 15 * MINUTE);
+		setTTL(RateLimit.RES_LISTS_SHOW, 15 * MINUTE);
+		// Twitter updates trends every 5 minutes
+		setTTL(RateLimit.RES_TRENDS, 5 * MINUTE);
+		setTTL("/geo/id", 24 * 60 * MINUTE);
+		setTTL("/geo/search", 60 * MINUTE);
+		setTTL("/help/configuration", 24 * 60 * MINUTE);
+	}
+
+	private CachingHttpClient(IHttpClient base, Store store) {
+		this.base = base;
+		this.store = store;
+	}
+
+	/**
+	 * @param resource
+	 *            E.g. {@link RateLimit#RES_USERS_SHOW1}
+	 * @param millisecs
+	 *            How long to keep responses. 0 to not cache this resource.
+	 */
+	public void setTTL(String resource, long millisecs) {
+		if (millisecs <= 0) {
+			store.ttls.remove(resource);
+			invalidate(resource);
+		} else {
+			store.ttls.put(resource, millisecs);
+		}
+	}
+
+	/**
+	 * @param maxEntries
+	 *            The most responses to keep. 10,000 by default.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		synchronized (store) {
+			store.maxEntries = maxEntries;
+			Iterator<CacheEntry> it = store.map.values().iterator();
+			while (store.map.size() > maxEntries && it.hasNext()) {
+				it.next();
+				it.remove();
+				store.evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Drop cached responses for resources starting with the given prefix.
+	 *
+	 * @param resourcePrefix
+	 *            E.g. "/users/show" or "/lists". null for everything.
+	 */
+	public void invalidate(String resourcePrefix) {
+		synchronized (store) {
+			if (resourcePrefix == null) {
+				store.map.clear();
+				return;
+			}
+			Iterator<CacheEntry> it = store.map.values().iterator();
+			while (it.hasNext()) {
+				CacheEntry e = it.next();
+				if (e.resource.startsWith(resourcePrefix)) it.remove();
+			}
+		}
+	}
+
+	public Stats getStats() {
+		synchronized (store) {
+			return new Stats(store.hits, store.misses, store.coalesced,
+					store.evictions, store.expired, store.map.size());
+		}
+	}
+
+	/**
+	 * @return the underlying client
+	 */
+	public IHttpClient getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the cache key -- as the url connect() would build, but with the
+	 *         parameters sorted
+	 */
+	static String key(String url, Map<String, String> vars, boolean authenticate) {
+		Map<String, String> sorted = vars == null ? null : new TreeMap<String, String>(vars);
+		return (authenticate ? "auth " : "anon ")
+				+ URLConnectionHttpClient.connect2_url(url, sorted);
+	}
+
+	@Override
+	public String getPage(String uri, Map<String, String> vars,
+			boolean authenticate) throws TwitterException {
+		String resource = RateLimit.getResource(uri);
+		Long ttl = resource == null ? null : store.ttls.get(resource);
+		if (ttl == null) {
+			return base.getPage(uri, vars, authenticate);
+		}
+		String key = key(uri, vars, authenticate);
+		synchronized (store) {
+			CacheEntry e = store.map.get(key);
+			if (e != null) {
+				if (e.expires > System.currentTimeMillis()) {
+					store.hits++;
+					return e.value;
+				}
+				store.map.remove(key);
+				store.expired++;
+			}
+			store.misses++;
+		}
+		// Is someone already fetching this?
+		CompletableFuture<String> mine = new CompletableFuture<String>();
+		CompletableFuture<String> theirs = store.inFlight().putIfAbsent(key, mine);
+		if (theirs != null) {
+			synchronized (store) {
+				store.coalesced++;
+			}
+			try {
+				return theirs.join();
+			} catch (CompletionException ex) {
+				// rethrow their error (e.g. a 404)
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new TwitterException(cause.toString());
+			}
+		}
+		try {
+			// did someone finish fetching it just now?
+			synchronized (store) {
+				CacheEntry e = store.map.get(key);
+				if (e != null && e.expires > System.currentTimeMillis()) {
+					mine.complete(e.value);
+					return e.value;
+				}
+			}
+			String value = base.getPage(uri, vars, authenticate);
+			synchronized (store) {
+				store.map.put(key, new CacheEntry(resource, value,
+						System.currentTimeMillis() + ttl));
+			}
+			mine.complete(value);
+			return value;
+		} catch (RuntimeException ex) {
+			mine.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			store.inFlight().remove(key, mine);
+		}
+	}
+
+	/**
+	 * Clear cached responses from the same part of the API as a write.
+	 */
+	private void invalidate2_write(String uri) {
+		String resource = RateLimit.getResource(uri);
+		if (resource == null) return;
+		int i = resource.indexOf('/', 1);
+		invalidate(i == -1 ? resource : resource.substring(0, i));
+	}
+
+	@Override
+	public boolean canAuthenticate() {
+		return base.canAuthenticate();
+	}
+
+	@Override
+	public HttpURLConnection connect(String url, Map<String, String> vars,
+			boolean authenticate) throws IOException {
+		return base.connect(url, vars, authenticate);
+	}
+
+	@Override
+	public HttpURLConnection connect(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, String> headers) throws IOException {
+		return base.connect(url, vars, authenticate, headers);
+	}
+
+	/**
+	 * Not cached
+	 */
+	@Override
+	public Object getPageJSON(String uri, Map<String, String> vars,
+			boolean authenticate, Map<String, ?> fields) throws TwitterException {
+		return base.getPageJSON(uri, vars, authenticate, fields);
+	}
+
+	/**
+	 * @return a copy of the underlying client, sharing this cache
+	 */
+	@Override
+	public IHttpClient copy() {
+		return new CachingHttpClient(base.copy(), store);
+	}
+
+	@Override
+	public String getHeader(String headerName) {
+		return base.getHeader(headerName);
+	}
+
+	@Override
+	public RateLimit getRateLimit(KRequestType reqType) {
+		return base.getRateLimit(reqType);
+	}
+
+	@Override
+	public Map<String, RateLimit> getRateLimits() {
+		return base.getRateLimits();
+	}
+
+	@Override
+	public String post(String uri, Map<String, String> vars,
+			boolean authenticate) throws TwitterException {
+		invalidate2_write(uri);
+		return base.post(uri, vars, authenticate);
+	}
+
+	@Override
+	public String postJSON(String uri, JSONObject body, boolean authenticate)
+			throws TwitterException {
+		invalidate2_write(uri);
+		return base.postJSON(uri, body, authenticate);
+	}
+
+	@Override
+	public String delete(String uri, boolean authenticate)
+			throws TwitterException {
+		invalidate2_write(uri);
+		return base.delete(uri, authenticate);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars)
+			throws Exception {
+		invalidate2_write(uri);
+		return base.post2_connect(uri, vars);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars,
+			Map<String, String> headers) throws Exception {
+		invalidate2_write(uri);
+		return base.post2_connect(uri, vars, headers);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, JSONObject body)
+			throws Exception {
+		invalidate2_write(uri);
+		return base.post2_connect(uri, body);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, String payload)
+			throws Exception {
+		invalidate2_write(uri);
+		return base.post2_connect(uri, payload);
+	}
+
+	@Override
+	public void setTimeout(int millisecs) {
+		base.setTimeout(millisecs);
+	}
+
+	@Override
+	public boolean isRetryOnError() {
+		return base.isRetryOnError();
+	}
+
+	@Override
+	public void setRetryOnError(boolean retryOnError) {
+		base.setRetryOnError(retryOnError);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + base + " " + getStats() + "]";
+	}
+}
@@ -0,0 +1,329 @@
+package winterwell.jtwitter;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Parses the dates Twitter sends. Thread safe.
+ * <p>
+ * Twitter's own format, e.g. "Wed Aug 27 13:08:45 +0000 2008" (every tweet,
+ * user and event has one), and ISO 8601 style dates, e.g.
+ * "2012-01-20 13:08:45 +0000" or "2012-01-20T13:08:45.123Z", are parsed by
+ * hand -- which is a lot faster than the general parsers, and allocates
+ * nothing but the Date. Anything else (or anything odd, e.g. Feb 30th) falls
+ * back to the old route: new Date(String), then a couple of SimpleDateFormats.
+ *
+ * @author daniel
+ */
+final class DateParser {
+
+	/**
+	 * Seen when retrieving webhooks.
+	 * SimpleDateFormat is not thread safe, hence the ThreadLocal.
+	 */
+	private static final ThreadLocal<DateFormat> almost8601 = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss ZZZZZ");
+		}
+	};
+
+	/**
+	 * The date format used by Marko from Marakana. This is needed for *some*
+	 * installs of Status.Net, though not for Identi.ca.
+	 */
+	private static final ThreadLocal<DateFormat> dfMarko = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("EEE MMM dd HH:mm:ss ZZZZZ yyyy");
+		}
+	};
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * @param c
+	 *            A date from Twitter. Must not be null.
+	 * @return the date, never null
+	 * @throws TwitterException.Parsing
+	 */
+	static Date parse(String c) throws TwitterException.Parsing {
+		long t = parseFast(c);
+		if (t != Long.MIN_VALUE) {
+			return new Date(t);
+		}
+		return parseSlow(c);
+	}
+
+	/**
+	 * @return epoch millis, or Long.MIN_VALUE if this isn't a format we can
+	 *         do by hand (or it's out of range).
+	 */
+	static long parseFast(String c) {
+		int len = c.length();
+		if (len == 0) return Long.MIN_VALUE;
+		char c0 = c.charAt(0);
+		if (c0 >= '0' && c0 <= '9') {
+			if (allDigits(c)) {
+				return parseEpoch(c);
+			}
+			return parseIso(c);
+		}
+		return parseTwitter(c);
+	}
+
+	/**
+	 * Seconds or msecs? Probably seconds.
+	 */
+	private static long parseEpoch(String c) {
+		// more than 18 digits would overflow (and is silly)
+		if (c.length() > 18) return Long.MIN_VALUE;
+		long cl = Long.parseLong(c);
+		long msecs = cl * 1000;
+		// Safety Hack: Well-future date as a guard check
+		return msecs > 7709085069990L ? cl : msecs;
+	}
+
+	/**
+	 * "Wed Aug 27 13:08:45 +0000 2008"
+	 */
+	private static long parseTwitter(String c) {
+		if (c.length() != 30 || c.charAt(3) != ' ' || c.charAt(7) != ' '
+				|| c.charAt(10) != ' ' || c.charAt(13) != ':'
+				|| c.charAt(16) != ':' || c.charAt(19) != ' '
+				|| c.charAt(25) != ' ') {
+			return Long.MIN_VALUE;
+		}
+		// The day name must be valid, but is otherwise ignored (as by new Date(String))
+		if ( ! isDayName(c)) return Long.MIN_VALUE;
+		int month = month(c, 4);
+		int day = digits(c, 8, 2);
+		int hour = digits(c, 11, 2);
+		int min = digits(c, 14, 2);
+		int sec = digits(c, 17, 2);
+		int offset = offset(c, 20, false);
+		// Quirk: new Date(String) reads e.g. +0020 as 20 hours (not minutes).
+		// Leave those to it, so we give the same answer as before.
+		if (offset != 0 && offset > -24 && offset < 24) return Long.MIN_VALUE;
+		int year = digits(c, 26, 4);
+		return toMillis(year, month, day, hour, min, sec, 0, offset);
+	}
+
+	/**
+	 * "2012-01-20 13:08:45 +0000", "2012-01-20T13:08:45Z",
+	 * "2012-01-20T13:08:45.123+01:00"
+	 */
+	private static long parseIso(String c) {
+		int len = c.length();
+		if (len < 20 || c.charAt(4) != '-' || c.charAt(7) != '-'
+				|| c.charAt(13) != ':' || c.charAt(16) != ':') {
+			return Long.MIN_VALUE;
+		}
+		char t = c.charAt(10);
+		if (t != ' ' && t != 'T') return Long.MIN_VALUE;
+		int year = digits(c, 0, 4);
+		int month = digits(c, 5, 2);
+		int day = digits(c, 8, 2);
+		int hour = digits(c, 11, 2);
+		int min = digits(c, 14, 2);
+		int sec = digits(c, 17, 2);
+		int i = 19;
+		int ms = 0;
+		if (c.charAt(i) == '.') {
+			// upto 3 digits of fraction
+			if (len < 24) return Long.MIN_VALUE;
+			ms = digits(c, 20, 3);
+			i = 23;
+		}
+		// the space-separated form has a space before the zone
+		if (t == ' ') {
+			if (c.charAt(i) != ' ') return Long.MIN_VALUE;
+			i++;
+		}
+		int offset;
+		if (i == len - 1 && c.charAt(i) == 'Z') {
+			offset = 0;
+		} else {
+			boolean colon = len - i == 6;
+			if (len - i != (colon ? 6 : 5)) return Long.MIN_VALUE;
+			offset = offset(c, i, colon);
+		}
+		return toMillis(year, month - 1, day, hour, min, sec, ms, offset);
+	}
+
+	private static boolean isDayName(String c) {
+		char a = c.charAt(0), b = c.charAt(1), d = c.charAt(2);
+		switch (a) {
+		case 'M':
+			return b == 'o' && d == 'n';
+		case 'T':
+			return (b == 'u' && d == 'e') || (b == 'h' && d == 'u');
+		case 'W':
+			return b == 'e' && d == 'd';
+		case 'F':
+			return b == 'r' && d == 'i';
+		case 'S':
+			return (b == 'a' && d == 't') || (b == 'u' && d == 'n');
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return 0-11, or -1
+	 */
+	private static int month(String c, int i) {
+		char a = c.charAt(i), b = c.charAt(i + 1), d = c.charAt(i + 2);
+		switch (a) {
+		case 'J':
+			if (b == 'a' && d == 'n') return 0;
+			if (b == 'u' && d == 'n') return 5;
+			if (b == 'u' && d == 'l') return 6;
+			return -1;
+		case 'F':
+			return b == 'e' && d == 'b' ? 1 : -1;
+		case 'M':
+			if (b != 'a') return -1;
+			return d == 'r' ? 2 : d == 'y' ? 4 : -1;
+		case 'A':
+			if (b == 'p' && d == 'r') return 3;
+			if (b == 'u' && d == 'g') return 7;
+			return -1;
+		case 'S':
+			return b == 'e' && d == 'p' ? 8 : -1;
+		case 'O':
+			return b == 'c' && d == 't' ? 9 : -1;
+		case 'N':
+			return b == 'o' && d == 'v' ? 10 : -1;
+		case 'D':
+			return b == 'e' && d == 'c' ? 11 : -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the number, or -1 if they're not all digits
+	 */
+	private static int digits(String c, int i, int n) {
+		int v = 0;
+		for (int end = i + n; i < end; i++) {
+			char ch = c.charAt(i);
+			if (ch < '0' || ch > '9') return -1;
+			v = v * 10 + (ch - '0');
+		}
+		return v;
+	}
+
+	/**
+	 * "+0100" or (if colon) "+01:00"
+	 * @return minutes, or Integer.MIN_VALUE if bad
+	 */
+	private static int offset(String c, int i, boolean colon) {
+		char sign = c.charAt(i);
+		if (sign != '+' && sign != '-') return Integer.MIN_VALUE;
+		int h = digits(c, i + 1, 2);
+		if (colon && c.charAt(i + 3) != ':') return Integer.MIN_VALUE;
+		int m = digits(c, colon ? i + 4 : i + 3, 2);
+		if (h < 0 || m < 0 || h > 23 || m > 59) return Integer.MIN_VALUE;
+		int mins = h * 60 + m;
+		return sign == '-' ? -mins : mins;
+	}
+
+	/**
+	 * @param month 0-11
+	 * @param offset minutes ahead of UTC
+	 * @return epoch millis, or Long.MIN_VALUE if anything's out of range (we
+	 *         leave the odd cases to the lenient parsers).
+	 */
+	private static long toMillis(int year, int month, int day, int hour,
+			int min, int sec, int ms, int offset) {
+		if (year < 1970 || month < 0 || month > 11 || day < 1
+				|| day > daysInMonth(year, month) || hour < 0 || hour > 23
+				|| min < 0 || min > 59 || sec < 0 || sec > 59 || ms < 0
+				|| offset == Integer.MIN_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		long days = daysFromEpoch(year, month + 1, day);
+		return days * DAY + ((hour * 60L + min - offset) * 60 + sec) * 1000 + ms;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 1:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 3: case 5: case 8: case 10:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Days since 1970-01-01 in the proleptic Gregorian calendar (for years
+	 * >= 1970 -- see toMillis()).
+	 *
+	 * @param month 1-12
+	 */
+	static long daysFromEpoch(int year, int month, int day) {
+		// Count years from March, so the leap day is at the end
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yoe = y - era * 400;
+		int mp = (month + 9) % 12;
+		int doy = (153 * mp + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097L + doe - 719468;
+	}
+
+	private static boolean allDigits(String c) {
+		if (c.isEmpty()) return false;
+		for (int i = 0, n = c.length(); i < n; i++) {
+			char ch = c.charAt(i);
+			if (ch < '0' || ch > '9') return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The old route -- for odd dates.
+	 */
+	@SuppressWarnings("deprecation")
+	static Date parseSlow(String c) {
+		if (allDigits(c)) {
+			long cl = Long.valueOf(c);
+			// Seconds or msecs? Probably seconds
+			long msecs = cl * 1000;
+			if (msecs > 7709085069990L) { // Safety Hack: Well-future date as a guard check
+				return new Date(cl);
+			} else {
+				return new Date(msecs);
+			}
+		}
+		try {
+			Date _createdAt = new Date(c);
+			return _createdAt;
+		} catch (Exception e) { }
+
+		// Seen when retrieving webhooks
+		try {
+			Date _createdAt = almost8601.get().parse(c);
+			return _createdAt;
+		} catch (ParseException e) { }
+
+		// Bug reported by Marakana with *some* Status.Net sites
+		try {
+			Date _createdAt = dfMarko.get().parse(c);
+			return _createdAt;
+		} catch (ParseException e) {
+			throw new TwitterException.Parsing(c, e);
+		}
+	}
+
+	private DateParser() {
+		// static
+	}
+}
@@ -20,7 +20,6 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -133,13 +132,6 @@ public class InternalUtils {
 	
 	static final DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
 
-	/**
-	 * The date format used by Marko from Marakana. This is needed for *some*
-	 * installs of Status.Net, though not for Identi.ca.
-	 */
-	static final DateFormat dfMarko = new SimpleDateFormat("EEE MMM dd HH:mm:ss ZZZZZ yyyy");
-	
-	static final DateFormat almost8601 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss ZZZZZ");
 
 	/**
 	 * Matches latitude, longitude, including with the UberTwitter UT: prefix
@@ -155,7 +147,7 @@ public class InternalUtils {
 	static final Comparator<Status> NEWEST_FIRST = new Comparator<Status>() {
 		@Override
 		public int compare(Status o1, Status o2) {
-			return -o1.id.compareTo(o2.id);
+			return Long.compare(o2.getIdLong(), o1.getIdLong());
 		}
 	};
 
@@ -258,7 +250,15 @@ public class InternalUtils {
 	 */
 	static Boolean getOptBoolean(JSONObject obj, String key)
 			throws JSONException {
-		Object o = obj.opt(key);
+		return getOptBoolean(obj.opt(key), key);
+	}
+
+	/**
+	 * @param o A raw json value
+	 * @param key For the error message
+	 * @see #getOptBoolean(JSONObject, String)
+	 */
+	static Boolean getOptBoolean(Object o, String key) {
 		if (o == null || o.equals(JSONObject.NULL))
 			return null;
 		if (o instanceof Boolean) {
@@ -338,41 +338,17 @@ public class InternalUtils {
 		return s;
 	}
 
+	/**
+	 * Thread safe. See {@link DateParser}
+	 */
 	static Date parseDate(String c) {
-		if (InternalUtils.REGEX_JUST_DIGITS.matcher(c).matches()) {
-			long cl = Long.valueOf(c);			
-			// Seconds or msecs? Probably seconds
-			long msecs = cl*1000; 
-			if (msecs > 7709085069990L) { // Safety Hack: Well-future date as a guard check
-				return new Date(cl);	
-			} else {
-				return new Date(msecs);
-			}
-		}
-		try {
-			Date _createdAt = new Date(c);
-			return _createdAt;
-		} catch (Exception e) { } 
-
-		// Seen when retrieving webhooks
-		try {
-			Date _createdAt = InternalUtils.almost8601.parse(c);
-			return _createdAt;
-		} catch (ParseException e) { }
-		
-		// Bug reported by Marakana with *some* Status.Net sites
-		try {
-			Date _createdAt = InternalUtils.dfMarko.parse(c);
-			return _createdAt;
-		} catch (ParseException e) {
-			throw new TwitterException.Parsing(c, e);
-		}
+		return DateParser.parse(c);
 	}
 
 	/**
 	 * We assume that UTF8 is supported everywhere!
 	 */
-	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	static final Charset UTF_8 = Charset.forName("UTF-8");
 
 	/**
 	 * Use a buffered reader (preferably UTF-8) to extract the contents of the
@@ -540,15 +516,25 @@ public class InternalUtils {
 	 * @return mimimum - 1
 	 */
 	public static BigInteger getMinId(BigInteger maxId, List<? extends ITweet> stati) {
-		BigInteger min = maxId;
+		if (maxId == null && stati.isEmpty()) return null;
+		return BigInteger.valueOf(getMinId(maxId==null? 0 : maxId.longValue(), stati));
+	}
+
+	/**
+	 * As {@link #getMinId(BigInteger, List)}, but without the BigIntegers.
+	 * @param maxId 0 for none
+	 * @return mimimum - 1, or 0 if there was no maxId and no tweets
+	 */
+	static long getMinId(long maxId, List<? extends ITweet> stati) {
+		long min = maxId;
 		for (ITweet s : stati) {
-			if (min==null || min.compareTo(s.getId()) > 0) {
-				min = s.getId();
+			long id = s.getIdLong();
+			if (min==0 || id < min) {
+				min = id;
 			}
 		}
 		// Next page must start strictly before this one
-		if (min!=null) min = min.subtract(BigInteger.ONE);
-		return min;
+		return min==0? 0 : min - 1;
 	}
 
 	/**
@@ -834,8 +820,13 @@ public class InternalUtils {
 	 */
 	public static BigInteger addTimeToStatusId(BigInteger statusId, long time) {
 		if (statusId==null) return null;
-		long id = statusId.longValue();
-		
+		return BigInteger.valueOf(addTimeToStatusId(statusId.longValue(), time));
+	}
+
+	/**
+	 * As {@link #addTimeToStatusId(BigInteger, long)}, for a long id.
+	 */
+	static long addTimeToStatusId(long id, long time) {
 		// Timestamp is everything up to the 22 least significant bits
 		long timestamp = id >> 22;		
 		// ...and the 22 LSBs are datacenter ID + worker ID + sequence
@@ -845,7 +836,7 @@ public class InternalUtils {
 		// It uses Twitter's "twepoch", which starts at Unix time 1288834974657L
 		// If you think this is ridiculous - they have 41 bits for the timestamp, so if they used Unix they would have run out of space in only 2039...
 		timestamp += time;
-		return BigInteger.valueOf((timestamp << 22) + identifiers);
+		return (timestamp << 22) + identifiers;
 	}
 	
 	/**
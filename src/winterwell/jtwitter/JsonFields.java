@@ -0,0 +1,55 @@
+package winterwell.jtwitter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.winterwell.json.JSONReader;
+
+import winterwell.jtwitter.JsonRecord.KField;
+import winterwell.jtwitter.JsonRecord.KUse;
+
+/**
+ * Which json fields {@link Status} and {@link User} actually read -- for use
+ * with {@link JSONReader#readValue(Map)}, so that parsing a page of tweets
+ * doesn't build objects for the bits we throw away (user.entities, the
+ * profile banner & colour settings, etc.).
+ * <p>
+ * These are built from {@link KField} (see {@link KField#use}), so add new
+ * fields there. They are set up together in one static block, because they
+ * refer to each other (a tweet has a user, a user has their latest tweet).
+ * Note: so they are self-referential -- don't call hashCode() on them.
+ *
+ * @author daniel
+ */
+final class JsonFields {
+
+	/**
+	 * For {@link Status#Status(com.winterwell.json.JSONObject, User)}
+	 */
+	static final Map<String, Object> STATUS = new HashMap();
+
+	/**
+	 * For {@link User#User(com.winterwell.json.JSONObject, Status)}
+	 */
+	static final Map<String, Object> USER = new HashMap();
+
+	static {
+		for (KField k : KField.values()) {
+			// null = keep the whole value
+			if (k.use == KUse.STATUS || k.use == KUse.BOTH) {
+				STATUS.put(k.key, k.fields);
+			}
+			if (k.use == KUse.USER || k.use == KUse.BOTH) {
+				USER.put(k.key, k.fields);
+			}
+		}
+		STATUS.put(KField.retweeted_status.key, STATUS);
+		STATUS.put(KField.quoted_status.key, STATUS);
+		STATUS.put(KField.user.key, USER);
+		USER.put(KField.status.key, STATUS);
+	}
+
+	private JsonFields() {
+		// static
+	}
+}
@@ -0,0 +1,317 @@
+package winterwell.jtwitter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONException;
+import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+import com.winterwell.json.JSONReader.Token;
+
+/**
+ * A json object, as read by {@link Status}, {@link User} and
+ * {@link TwitterEvent}: the fields they use, in fixed slots -- no HashMap.
+ * <p>
+ * These are decoded straight off a token stream by {@link #read(JSONReader)}
+ * (which skips everything else), or copied from a JSONObject tree by
+ * {@link #of(JSONObject)}. Either way the constructors then do the same
+ * thing, so both routes give the same objects.
+ * <p>
+ * Tweets, users and the like (see {@link KField#record}) become nested
+ * JsonRecords. Other objects & arrays, e.g. entities and places, are small,
+ * and are kept as JSONObject / JSONArray.
+ * <p>
+ * The accessor methods behave like the JSONObject methods of the same name.
+ *
+ * @author daniel
+ */
+final class JsonRecord {
+
+	/**
+	 * Which class reads a field -- see {@link KField#use}
+	 */
+	static enum KUse {
+		STATUS, USER,
+		/** Both Status and User */
+		BOTH,
+		/** Stream messages & events: not kept by {@link JsonFields} */
+		STREAM
+	}
+
+	/**
+	 * The keys we keep. If you make Status or User read a new field, add it
+	 * here ({@link JsonFields} is built from this). A trailing _ is dropped
+	 * from the json key (for Java keywords).
+	 */
+	static enum KField {
+		id(KUse.BOTH), id_str(KUse.BOTH), text(KUse.STATUS),
+		full_text(KUse.STATUS), entities(KUse.STATUS),
+		display_text_range(KUse.STATUS),
+		/** Pruned to the bits Status uses */
+		extended_tweet(KUse.STATUS, "full_text", "entities", "display_text_range"),
+		retweeted_status(KUse.STATUS, true), quoted_status(KUse.STATUS, true),
+		created_at(KUse.BOTH),
+		/** For a tweet, the app. For an event, a user. */
+		source(KUse.STATUS, true),
+		in_reply_to_status_id(KUse.STATUS), favorited(KUse.STATUS),
+		user(KUse.STATUS, true),
+		// see Status.jsonGetLocn()
+		location(KUse.BOTH), place(KUse.BOTH), geo(KUse.BOTH),
+		lang(KUse.BOTH), retweet_count(KUse.STATUS),
+		favorite_count(KUse.STATUS), possibly_sensitive(KUse.STATUS),
+		// user
+		name(KUse.USER), screen_name(KUse.USER), description(KUse.USER),
+		profile_image_url(KUse.USER), profile_image_url_https(KUse.USER),
+		url(KUse.USER), followers_count(KUse.USER), friends_count(KUse.USER),
+		favourites_count(KUse.USER), statuses_count(KUse.USER),
+		listed_count(KUse.USER), utc_offset(KUse.USER), time_zone(KUse.USER),
+		profile_background_color(KUse.USER),
+		profile_background_image_url(KUse.USER),
+		profile_background_tile(KUse.USER), profile_link_color(KUse.USER),
+		profile_text_color(KUse.USER), profile_sidebar_fill_color(KUse.USER),
+		profile_sidebar_border_color(KUse.USER), notifications(KUse.USER),
+		verified(KUse.USER), protected_(KUse.USER), connections(KUse.USER),
+		following(KUse.USER), followed_by(KUse.USER),
+		follow_request_sent(KUse.USER), status(KUse.USER, true),
+		// stream messages
+		event(KUse.STREAM), target(KUse.STREAM, true),
+		target_object(KUse.STREAM), direct_message(KUse.STREAM),
+		delete(KUse.STREAM), limit(KUse.STREAM), disconnect(KUse.STREAM),
+		friends(KUse.STREAM);
+
+		/**
+		 * The json key
+		 */
+		final String key;
+
+		/**
+		 * Who reads it
+		 */
+		final KUse use;
+
+		/**
+		 * If true, an object value is a JsonRecord
+		 */
+		final boolean record;
+
+		/**
+		 * For non-records: which bits of the value to keep (null for all).
+		 */
+		final Map<String, ?> fields;
+
+		KField(KUse use) {
+			this(use, false);
+		}
+
+		KField(KUse use, boolean record) {
+			String n = name();
+			this.key = n.endsWith("_") ? n.substring(0, n.length() - 1) : n;
+			this.use = use;
+			this.record = record;
+			this.fields = null;
+		}
+
+		KField(KUse use, String... keep) {
+			this.key = name();
+			this.use = use;
+			this.record = false;
+			Map<String, Object> _fields = new HashMap();
+			for (String k : keep) {
+				_fields.put(k, null);
+			}
+			this.fields = _fields;
+		}
+	}
+
+	private static final Map<String, KField> KEYS = new HashMap();
+
+	static {
+		for (KField k : KField.values()) {
+			KEYS.put(k.key, k);
+		}
+	}
+
+	/**
+	 * Indexed by KField.ordinal(). null if not set (JSON null is
+	 * JSONObject.NULL, as in a JSONObject)
+	 */
+	private final Object[] values = new Object[KEYS.size()];
+
+	/**
+	 * Decode the next object from the reader -- keeping only the fields in
+	 * {@link KField}.
+	 */
+	static JsonRecord read(JSONReader r) throws JSONException {
+		JsonRecord rec = new JsonRecord();
+		r.beginObject();
+		while (r.hasNext()) {
+			KField k = KEYS.get(r.nextName());
+			if (k == null) {
+				r.skipValue();
+				continue;
+			}
+			if (k.record && r.peek() == Token.BEGIN_OBJECT) {
+				rec.values[k.ordinal()] = read(r);
+			} else {
+				rec.values[k.ordinal()] = r.readValue(k.fields);
+			}
+		}
+		r.endObject();
+		return rec;
+	}
+
+	/**
+	 * Copy the fields we use from a json tree.
+	 */
+	static JsonRecord of(JSONObject jo) {
+		JsonRecord rec = new JsonRecord();
+		for (Map.Entry<String, ?> e : jo.getMap().entrySet()) {
+			KField k = KEYS.get(e.getKey());
+			if (k == null) continue;
+			Object v = e.getValue();
+			if (k.record && v instanceof JSONObject) {
+				v = of((JSONObject) v);
+			}
+			rec.values[k.ordinal()] = v;
+		}
+		return rec;
+	}
+
+	/**
+	 * @return the raw value, or null if unset
+	 */
+	Object opt(KField key) {
+		return values[key.ordinal()];
+	}
+
+	boolean has(KField key) {
+		return values[key.ordinal()] != null;
+	}
+
+	Object get(KField key) throws JSONException {
+		Object o = values[key.ordinal()];
+		if (o == null) {
+			throw new JSONException("JSONObject[" + JSONObject.quote(key.key)
+					+ "] not found.");
+		}
+		return o;
+	}
+
+	String getString(KField key) throws JSONException {
+		return get(key).toString();
+	}
+
+	/**
+	 * @return the value as a String, or "" if unset
+	 */
+	String optString(KField key) {
+		Object o = values[key.ordinal()];
+		return o != null ? o.toString() : "";
+	}
+
+	/**
+	 * As {@link InternalUtils#jsonGet(String, JSONObject)}
+	 * @return the value as a String, or null if unset or JSON null
+	 */
+	String jsonGet(KField key) {
+		Object o = values[key.ordinal()];
+		if (o == null || JSONObject.NULL.equals(o)) {
+			return null;
+		}
+		return o.toString();
+	}
+
+	boolean optBoolean(KField key) {
+		Object o = values[key.ordinal()];
+		if (o == null) {
+			return false;
+		}
+		return o.equals(Boolean.TRUE)
+				|| (o instanceof String && ((String) o).equalsIgnoreCase("true"));
+	}
+
+	/**
+	 * As {@link InternalUtils#getOptBoolean(JSONObject, String)}
+	 */
+	Boolean getOptBoolean(KField key) {
+		return InternalUtils.getOptBoolean(values[key.ordinal()], key.key);
+	}
+
+	int optInt(KField key, int defaultValue) {
+		Object o = values[key.ordinal()];
+		if (o instanceof Number) {
+			return ((Number) o).intValue();
+		}
+		try {
+			return (int) Double.parseDouble((String) o);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	long getLong(KField key) throws JSONException {
+		Object o = get(key);
+		if (o instanceof Number) {
+			return ((Number) o).longValue();
+		}
+		try {
+			return (long) Double.parseDouble((String) o);
+		} catch (Exception e) {
+			throw new JSONException("JSONObject[" + JSONObject.quote(key.key)
+					+ "] is not a number. " + o.getClass());
+		}
+	}
+
+	JSONObject optJSONObject(KField key) {
+		Object o = values[key.ordinal()];
+		return o instanceof JSONObject ? (JSONObject) o : null;
+	}
+
+	JSONObject getJSONObject(KField key) throws JSONException {
+		Object o = get(key);
+		if (o instanceof JSONObject) {
+			return (JSONObject) o;
+		}
+		throw new JSONException("JSONObject[" + JSONObject.quote(key.key)
+				+ "] is not a JSONObject. " + o.getClass());
+	}
+
+	JSONArray optJSONArray(KField key) {
+		Object o = values[key.ordinal()];
+		return o instanceof JSONArray ? (JSONArray) o : null;
+	}
+
+	/**
+	 * @return the nested record, or null (if unset, or not an object)
+	 */
+	JsonRecord optRecord(KField key) {
+		Object o = values[key.ordinal()];
+		return o instanceof JsonRecord ? (JsonRecord) o : null;
+	}
+
+	JsonRecord getRecord(KField key) throws JSONException {
+		Object o = get(key);
+		if (o instanceof JsonRecord) {
+			return (JsonRecord) o;
+		}
+		throw new JSONException("JSONObject[" + JSONObject.quote(key.key)
+				+ "] is not a JSONObject. " + o.getClass());
+	}
+
+	/**
+	 * @return json-ish, for debugging
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (KField k : KField.values()) {
+			Object v = values[k.ordinal()];
+			if (v == null) continue;
+			if (sb.length() > 1) sb.append(',');
+			sb.append(JSONObject.quote(k.key)).append(':');
+			sb.append(v instanceof String ? JSONObject.quote((String) v) : v);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,137 @@
+package winterwell.jtwitter;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A {@link ListWithCursor} for ids: backed by a long[], so a big follower
+ * list doesn't need an object per id. Use {@link #getLong(int)} or
+ * {@link #toLongArray()} to avoid boxing. The List methods box on demand.
+ * <p>
+ * Add-only (plus clear): set() and remove() are not supported.
+ *
+ * @author daniel
+ */
+public final class LongListWithCursor extends AbstractList<Number> implements
+		RandomAccess, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private long[] ids;
+
+	private int size;
+
+	private String cursor;
+
+	public LongListWithCursor() {
+		this(16);
+	}
+
+	public LongListWithCursor(int capacity) {
+		ids = new long[Math.max(capacity, 1)];
+	}
+
+	public void add(long id) {
+		ensureCapacity(size + 1);
+		ids[size++] = id;
+	}
+
+	public void addAll(long[] more) {
+		ensureCapacity(size + more.length);
+		System.arraycopy(more, 0, ids, size, more.length);
+		size += more.length;
+	}
+
+	@Override
+	public boolean add(Number id) {
+		add(id.longValue());
+		return true;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n > ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(n, ids.length * 2));
+		}
+	}
+
+	/**
+	 * @return the id, unboxed
+	 */
+	public long getLong(int i) {
+		if (i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+		return ids[i];
+	}
+
+	/**
+	 * Boxes the id. Use {@link #getLong(int)} to avoid that.
+	 */
+	@Override
+	public Long get(int i) {
+		return getLong(i);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return a copy of the ids
+	 */
+	public long[] toLongArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @return a boxed copy, for the older List&lt;Number&gt; methods.
+	 */
+	ListWithCursor<Number> toListWithCursor() {
+		ListWithCursor<Number> list = new ListWithCursor<Number>();
+		list.ensureCapacity(size);
+		for (int i = 0; i < size; i++) {
+			list.add(ids[i]);
+		}
+		list.setCursor(cursor);
+		return list;
+	}
+
+	/**
+	 * @return the next-page cursor, or null. Can use the special constants
+	 *         {@link ListWithCursor#LOST} or {@link ListWithCursor#END}
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * For internal use really.
+	 * @param cursor
+	 */
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * @return true if the list has a valid next-page cursor
+	 */
+	public boolean hasCursor() {
+		return cursor != null && ! ListWithCursor.LOST.equals(cursor)
+				&& ! ListWithCursor.END.equals(cursor);
+	}
+
+	/**
+	 * @return true if this list has the special {@link ListWithCursor#END}
+	 *         cursor, to mark it as having reached the end.
+	 */
+	public boolean isEnd() {
+		return ListWithCursor.END.equals(cursor);
+	}
+
+}
@@ -45,6 +45,9 @@ public final class Message implements ITweet {
 	private final Date createdAt;
 	private EnumMap<KEntityType, List<TweetEntity>> entities;
 
+	/**
+	 * A Long (DM ids fit in a long). See {@link #getId()}
+	 */
 	public final Number id;
 
 	/**
@@ -70,7 +73,7 @@ public final class Message implements ITweet {
 	 */
 	Message(User dummyUser, Number id) {
 		this.sender = dummyUser;
-		this.id = id;
+		this.id = id.longValue();
 		this.recipient = null;
 		this.createdAt = null;
 		this.text = null;
@@ -132,7 +135,7 @@ public final class Message implements ITweet {
 	 */
 	public Message(JSONObject event) {
 		String _id = event.getString("id");
-		id = new BigInteger(_id);
+		id = Long.parseLong(_id);
 		String created_timestamp = event.getString("created_timestamp");
 		createdAt = new Date();
 		createdAt.setTime(Long.parseLong(created_timestamp));
@@ -188,7 +191,7 @@ public final class Message implements ITweet {
 		if (getClass() != obj.getClass())
 			return false;
 		Message other = (Message) obj;
-		return id.equals(other.id);
+		return id.longValue() == other.id.longValue();
 	}
 
 	@Override
@@ -201,10 +204,12 @@ public final class Message implements ITweet {
 	 */
 	@Override
 	public BigInteger getId() {
-		if (id instanceof Long) {
-			return BigInteger.valueOf(id.longValue());
-		}
-		return (BigInteger) id;
+		return BigInteger.valueOf(id.longValue());
+	}
+
+	@Override
+	public long getIdLong() {
+		return id.longValue();
 	}
 
 	@Override
@@ -261,7 +266,7 @@ public final class Message implements ITweet {
 
 	@Override
 	public int hashCode() {
-		return id.hashCode();
+		return Long.hashCode(id.longValue());
 	}
 
 	@Override
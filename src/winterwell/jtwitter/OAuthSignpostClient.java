@@ -448,17 +448,26 @@ public class OAuthSignpostClient extends URLConnectionHttpClient implements
 	public HttpURLConnection post2_connect(String uri, Map<String, String> vars)
 			throws IOException, OAuthException {
 		final String payload = post2_getPayload(vars);
-		return post2_connect(uri, payload, "application/x-www-form-urlencoded");
+		return post2_connect(uri, payload, "application/x-www-form-urlencoded", null);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars,
+			Map<String, String> headers) throws IOException, OAuthException {
+		if (headers == null) return post2_connect(uri, vars);
+		final String payload = post2_getPayload(vars);
+		return post2_connect(uri, payload, "application/x-www-form-urlencoded", headers);
 	}
 	
 	@Override
 	public HttpURLConnection post2_connect(String uri, JSONObject body) throws IOException, OAuthException {
 		final String payload = body.toString();
-		return post2_connect(uri, payload, "application/json");
+		return post2_connect(uri, payload, "application/json", null);
 	}
 	
 	
-	private HttpURLConnection post2_connect(String uri, String payload, String contentType) throws IOException, OAuthException {
+	private HttpURLConnection post2_connect(String uri, String payload, String contentType,
+			Map<String, String> headers) throws IOException, OAuthException {
 		String resource = checkRateLimit(uri);
 		HttpURLConnection connection = (HttpURLConnection) new URL(uri)
 				.openConnection();
@@ -467,6 +476,10 @@ public class OAuthSignpostClient extends URLConnectionHttpClient implements
 		connection.setRequestProperty("Content-Type", contentType);
 		connection.setReadTimeout(timeout);
 		connection.setConnectTimeout(timeout);
+		if (isGzip()) {
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+		}
+		connect2_headers(connection, headers);
 		
 		// needed for OAuthConsumer.collectBodyParameters() not to get upset
 		HttpURLConnectionRequestAdapter wrapped = new HttpURLConnectionRequestAdapter(
@@ -0,0 +1,408 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.winterwell.json.JSONObject;
+
+import winterwell.jtwitter.Twitter.IHttpClient;
+import winterwell.jtwitter.Twitter.KRequestType;
+
+/**
+ * Spread bulk reads over several logins. Each read goes to the login with the
+ * most rate-limit left for that resource (see
+ * {@link RateLimit#getResource(String)}). If they're all spent, it waits for
+ * the earliest reset -- or throws PreEmptiveRateLimit if that's more than
+ * {@link #setMaxWait(long)} away.
+ * <p>
+ * Only public reads are spread. POSTs, DELETEs, and reads about "me" (e.g.
+ * the home timeline, DMs, account settings) always use the first login.
+ * <p>
+ * Each login must have its own rate-limit info -- so use separately created
+ * clients, not copies (which share the rate-limit map). E.g.
+ *
+ * <pre>
+ * <code>
+ * List&lt;IHttpClient&gt; logins = new ArrayList();
+ * for (String[] token : tokens) {
+ * 	logins.add(new OAuthSignpostClient(KEY, SECRET, token[0], token[1]));
+ * }
+ * Twitter jtwit = new Twitter(null, new PooledHttpClient(logins));
+ * </code>
+ * </pre>
+ *
+ * @testedby PooledHttpClientTest
+ * @author daniel
+ */
+public class PooledHttpClient implements IHttpClient, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Resources which are about the authenticating user, so must use the same
+	 * login every time.
+	 */
+	static final List<String> PERSONAL = Arrays.asList(
+			RateLimit.RES_HOME_TIMELINE, RateLimit.RES_MENTIONS,
+			"/statuses/retweets_of_me", "/direct_messages", "/account",
+			"/blocks", "/mutes", "/saved_searches", "/friendships/incoming",
+			"/friendships/outgoing", "/friendships/no_retweets");
+
+	/**
+	 * One login, plus our count of its requests in flight.
+	 */
+	static final class Login implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final IHttpClient http;
+		final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+		final AtomicLong calls = new AtomicLong();
+
+		Login(IHttpClient http) {
+			this.http = http;
+		}
+
+		AtomicInteger inFlight(String resource) {
+			AtomicInteger n = inFlight.get(resource);
+			if (n != null) return n;
+			inFlight.putIfAbsent(resource, new AtomicInteger());
+			return inFlight.get(resource);
+		}
+
+		/**
+		 * @return calls left in this window, less those in flight.
+		 *         Integer.MAX_VALUE-ish if unknown.
+		 */
+		int budget(String resource) {
+			RateLimit rl = http.getRateLimits().get(resource);
+			int n = inFlight(resource).get();
+			if (rl == null || rl.isOutOfDate()) {
+				return Integer.MAX_VALUE - n;
+			}
+			return rl.getRemaining() - n;
+		}
+
+		long reset(String resource) {
+			RateLimit rl = http.getRateLimits().get(resource);
+			return rl == null ? 0 : rl.getReset().getTime();
+		}
+	}
+
+	private final List<Login> logins;
+
+	/** For round-robin when budgets are equal */
+	private int next;
+
+	private int minRateLimit;
+
+	private long maxWait = RateLimitScheduler.WINDOW + 60 * 1000;
+
+	/**
+	 * The login used by this thread's last request, for
+	 * {@link #getHeader(String)}
+	 */
+	private transient ThreadLocal<IHttpClient> last;
+
+	/**
+	 * @param logins
+	 *            Separately created clients, one per login. The first is used
+	 *            for posts and personal reads.
+	 */
+	public PooledHttpClient(List<? extends IHttpClient> logins) {
+		if (logins.isEmpty()) throw new IllegalArgumentException("No logins");
+		this.logins = new ArrayList<Login>(logins.size());
+		for (IHttpClient http : logins) {
+			this.logins.add(new Login(http));
+		}
+	}
+
+	/**
+	 * @param minRateLimit
+	 *            Keep this many calls in reserve on each login. 0 by default.
+	 */
+	public void setMinRateLimit(int minRateLimit) {
+		this.minRateLimit = minRateLimit;
+	}
+
+	/**
+	 * @param millisecs
+	 *            The longest to wait when every login is spent. Default: a bit
+	 *            over a 15-minute window.
+	 */
+	public void setMaxWait(long millisecs) {
+		this.maxWait = millisecs;
+	}
+
+	/**
+	 * @return the logins, in order
+	 */
+	public List<IHttpClient> getLogins() {
+		List<IHttpClient> list = new ArrayList<IHttpClient>(logins.size());
+		for (Login login : logins) {
+			list.add(login.http);
+		}
+		return list;
+	}
+
+	/**
+	 * @return requests made via each login, in order
+	 */
+	public long[] getCallCounts() {
+		long[] counts = new long[logins.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = logins.get(i).calls.get();
+		}
+		return counts;
+	}
+
+	/**
+	 * Pick a login for a read, and count it as in flight -- the caller must
+	 * call {@link #done(Login, String)} afterwards.
+	 */
+	Login pick(String resource) {
+		Login primary = logins.get(0);
+		if (resource == null || isPersonal(resource)) {
+			return start(primary, resource);
+		}
+		long start = System.currentTimeMillis();
+		while (true) {
+			long earliestReset = Long.MAX_VALUE;
+			synchronized (this) {
+				Login best = null;
+				int bestIndex = 0;
+				int bestBudget = minRateLimit;
+				int n = logins.size();
+				for (int k = 0; k < n; k++) {
+					int i = (next + k) % n;
+					Login login = logins.get(i);
+					int budget = login.budget(resource);
+					if (budget > bestBudget) {
+						best = login;
+						bestIndex = i;
+						bestBudget = budget;
+					} else if (budget <= minRateLimit) {
+						earliestReset = Math.min(earliestReset, login.reset(resource));
+					}
+				}
+				if (best != null) {
+					next = (bestIndex + 1) % n;
+					return start(best, resource);
+				}
+			}
+			// All spent: wait for the first reset
+			long now = System.currentTimeMillis();
+			if (earliestReset - start > maxWait) {
+				throw new TwitterException.PreEmptiveRateLimit("All "
+						+ logins.size() + " logins are spent for " + resource
+						+ " until " + earliestReset);
+			}
+			InternalUtils.sleep(Math.max(earliestReset - now, 10));
+		}
+	}
+
+	private Login start(Login login, String resource) {
+		login.calls.incrementAndGet();
+		if (resource != null) {
+			login.inFlight(resource).incrementAndGet();
+		}
+		last().set(login.http);
+		return login;
+	}
+
+	private synchronized ThreadLocal<IHttpClient> last() {
+		// lazy, as it's transient
+		if (last == null) {
+			last = new ThreadLocal<IHttpClient>();
+		}
+		return last;
+	}
+
+	void done(Login login, String resource) {
+		if (resource != null) {
+			login.inFlight(resource).decrementAndGet();
+		}
+	}
+
+	static boolean isPersonal(String resource) {
+		for (String p : PERSONAL) {
+			if (resource.startsWith(p)) return true;
+		}
+		return false;
+	}
+
+	private IHttpClient primary() {
+		return start(logins.get(0), null).http;
+	}
+
+	@Override
+	public boolean canAuthenticate() {
+		return logins.get(0).http.canAuthenticate();
+	}
+
+	@Override
+	public HttpURLConnection connect(String url, Map<String, String> vars,
+			boolean authenticate) throws IOException {
+		return connect(url, vars, authenticate, null);
+	}
+
+	@Override
+	public HttpURLConnection connect(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, String> headers) throws IOException {
+		String resource = RateLimit.getResource(url);
+		Login login = pick(resource);
+		try {
+			return login.http.connect(url, vars, authenticate, headers);
+		} finally {
+			done(login, resource);
+		}
+	}
+
+	@Override
+	public String getPage(String uri, Map<String, String> vars,
+			boolean authenticate) throws TwitterException {
+		String resource = RateLimit.getResource(uri);
+		Login login = pick(resource);
+		try {
+			return login.http.getPage(uri, vars, authenticate);
+		} finally {
+			done(login, resource);
+		}
+	}
+
+	@Override
+	public Object getPageJSON(String uri, Map<String, String> vars,
+			boolean authenticate, Map<String, ?> fields) throws TwitterException {
+		String resource = RateLimit.getResource(uri);
+		Login login = pick(resource);
+		try {
+			return login.http.getPageJSON(uri, vars, authenticate, fields);
+		} finally {
+			done(login, resource);
+		}
+	}
+
+	/**
+	 * Copies each login. The copies share rate-limit info with the
+	 * originals, as usual.
+	 */
+	@Override
+	public IHttpClient copy() {
+		List<IHttpClient> copies = new ArrayList<IHttpClient>(logins.size());
+		for (Login login : logins) {
+			copies.add(login.http.copy());
+		}
+		PooledHttpClient c = new PooledHttpClient(copies);
+		c.minRateLimit = minRateLimit;
+		c.maxWait = maxWait;
+		return c;
+	}
+
+	/**
+	 * @return the header from this thread's last request
+	 */
+	@Override
+	public String getHeader(String headerName) {
+		IHttpClient http = last().get();
+		return (http == null ? logins.get(0).http : http).getHeader(headerName);
+	}
+
+	@Override
+	public RateLimit getRateLimit(KRequestType reqType) {
+		return getRateLimits().get(reqType.rateLimit);
+	}
+
+	/**
+	 * @return a snapshot: for each resource, the rate-limit of the login with
+	 *         the most left.
+	 */
+	@Override
+	public Map<String, RateLimit> getRateLimits() {
+		Map<String, RateLimit> best = new HashMap<String, RateLimit>();
+		for (Login login : logins) {
+			Map<String, RateLimit> rls = login.http.getRateLimits();
+			synchronized (rls) {
+				for (Map.Entry<String, RateLimit> e : rls.entrySet()) {
+					RateLimit old = best.get(e.getKey());
+					if (old == null || old.getRemaining() < e.getValue().getRemaining()) {
+						best.put(e.getKey(), e.getValue());
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public String post(String uri, Map<String, String> vars,
+			boolean authenticate) throws TwitterException {
+		return primary().post(uri, vars, authenticate);
+	}
+
+	@Override
+	public String postJSON(String uri, JSONObject body, boolean authenticate)
+			throws TwitterException {
+		return primary().postJSON(uri, body, authenticate);
+	}
+
+	@Override
+	public String delete(String uri, boolean authenticate)
+			throws TwitterException {
+		return primary().delete(uri, authenticate);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars)
+			throws Exception {
+		return primary().post2_connect(uri, vars);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars,
+			Map<String, String> headers) throws Exception {
+		return primary().post2_connect(uri, vars, headers);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, JSONObject body)
+			throws Exception {
+		return primary().post2_connect(uri, body);
+	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, String payload)
+			throws Exception {
+		return primary().post2_connect(uri, payload);
+	}
+
+	@Override
+	public void setTimeout(int millisecs) {
+		for (Login login : logins) {
+			login.http.setTimeout(millisecs);
+		}
+	}
+
+	@Override
+	public boolean isRetryOnError() {
+		return logins.get(0).http.isRetryOnError();
+	}
+
+	@Override
+	public void setRetryOnError(boolean retryOnError) {
+		for (Login login : logins) {
+			login.http.setRetryOnError(retryOnError);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + getLogins();
+	}
+}
@@ -33,6 +33,9 @@ public final class RateLimit {
 	public static final String RES_FRIENDSHIPS_SHOW = "/friendships/show";
 	public static final String RES_TRENDS = "/trends/place";
 	public static final String RES_LISTS_SHOW = "/lists/show";
+	public static final String RES_LISTS_STATUSES = "/lists/statuses";
+	public static final String RES_FOLLOWER_IDS = "/followers/ids";
+	public static final String RES_FRIEND_IDS = "/friends/ids";
 
 
 	/*
@@ -0,0 +1,306 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue requests when a rate limit runs out, instead of throwing
+ * {@link TwitterException.PreEmptiveRateLimit}. Use via
+ * {@link URLConnectionHttpClient#setScheduler(RateLimitScheduler)}. One
+ * scheduler can be shared by several clients -- but only if they use the same
+ * credentials (rate limits are per user).
+ * <p>
+ * Each resource (see {@link RateLimit#getResource(String)}) gets a token
+ * bucket. It is filled from Twitter's rate-limit headers, spent one token per
+ * request, and refilled when the window resets. When it's empty, requests wait
+ * in line -- highest {@link KPriority} first, then first come first served --
+ * and are released as the bucket refills. A request which would have to wait
+ * longer than {@link #setMaxWait(long)} fails at once with the usual
+ * PreEmptiveRateLimit.
+ * <p>
+ * Resources we've no header info for yet are not limited.
+ *
+ * @testedby RateLimitSchedulerTest
+ * @author daniel
+ */
+public final class RateLimitScheduler {
+
+	public static enum KPriority {
+		HIGH, NORMAL, LOW
+	}
+
+	/**
+	 * Wait-time and queue stats for one resource.
+	 */
+	public static final class Metrics {
+		public final String resource;
+		/** requests waiting now */
+		public final int queued;
+		/** requests which had to wait */
+		public final long waits;
+		public final long totalWaitMillis;
+		public final long maxWaitMillis;
+		/** requests which gave up (see {@link RateLimitScheduler#setMaxWait(long)}) */
+		public final long rejected;
+
+		Metrics(String resource, int queued, long waits, long totalWaitMillis,
+				long maxWaitMillis, long rejected) {
+			this.resource = resource;
+			this.queued = queued;
+			this.waits = waits;
+			this.totalWaitMillis = totalWaitMillis;
+			this.maxWaitMillis = maxWaitMillis;
+			this.rejected = rejected;
+		}
+
+		public long getMeanWaitMillis() {
+			return waits == 0 ? 0 : totalWaitMillis / waits;
+		}
+
+		@Override
+		public String toString() {
+			return "Metrics[" + resource + " queued=" + queued + " waits=" + waits
+					+ " meanWait=" + getMeanWaitMillis() + "ms maxWait="
+					+ maxWaitMillis + "ms rejected=" + rejected + "]";
+		}
+	}
+
+	private static final class Waiter implements Comparable<Waiter> {
+		final KPriority priority;
+		final long seq;
+
+		Waiter(KPriority priority, long seq) {
+			this.priority = priority;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Waiter o) {
+			int c = priority.compareTo(o.priority);
+			if (c != 0) return c;
+			return seq < o.seq ? -1 : seq == o.seq ? 0 : 1;
+		}
+	}
+
+	private static final class Bucket {
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition changed = lock.newCondition();
+		final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+		/** -1 for unknown (ie. don't limit) */
+		int tokens = -1;
+		int limit = -1;
+		/** When the window resets, in epoch millis. 0 for unknown */
+		long reset;
+		/** The header info we last synced with */
+		RateLimit seen;
+		long seq;
+		long waits, totalWaitNanos, maxWaitNanos, rejected;
+
+		/**
+		 * Sync with Twitter's view. In the same window, trust whichever count
+		 * is lower: Twitter's won't include requests still in flight.
+		 */
+		void update(RateLimit rl, long now) {
+			seen = rl;
+			long r = rl.getReset().getTime();
+			int remaining = rl.getRemaining();
+			if (r <= now) {
+				// out of date
+				return;
+			}
+			if (r == reset && tokens >= 0) {
+				tokens = Math.min(tokens, remaining);
+			} else {
+				tokens = remaining;
+			}
+			limit = rl.getLimit();
+			reset = r;
+		}
+
+		void refill(long now) {
+			if (reset == 0 || now < reset) return;
+			// a new window: assume a full quota until the headers say otherwise
+			tokens = limit;
+			reset = limit < 0 ? 0 : now + WINDOW;
+		}
+
+		boolean take(int reserve) {
+			if (tokens < 0) return true;
+			if (tokens <= reserve) return false;
+			tokens--;
+			return true;
+		}
+	}
+
+	/**
+	 * Twitter's rate-limit windows are 15 minutes
+	 */
+	static final long WINDOW = 15 * 60 * 1000L;
+
+	private static final ThreadLocal<KPriority> priority = new ThreadLocal<KPriority>();
+
+	private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+
+	private volatile long maxWait = WINDOW + 60 * 1000;
+
+	/**
+	 * Tag the requests made by this thread (until you change it again).
+	 *
+	 * @param p
+	 *            null resets to {@link KPriority#NORMAL}
+	 */
+	public static void setPriority(KPriority p) {
+		priority.set(p);
+	}
+
+	public static KPriority getPriority() {
+		KPriority p = priority.get();
+		return p == null ? KPriority.NORMAL : p;
+	}
+
+	/**
+	 * @param millisecs
+	 *            The longest a request will wait. Default: a bit over a
+	 *            15-minute window. 0 means never wait (which is the same as
+	 *            not using a scheduler).
+	 */
+	public void setMaxWait(long millisecs) {
+		this.maxWait = millisecs;
+	}
+
+	private Bucket bucket(String resource) {
+		synchronized (buckets) {
+			Bucket b = buckets.get(resource);
+			if (b == null) {
+				b = new Bucket();
+				buckets.put(resource, b);
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * Wait for a token. Called by the http client before each request.
+	 *
+	 * @param resource
+	 *            Can be null (not a rate-limited call), in which case this
+	 *            returns at once.
+	 * @param latest
+	 *            The latest header info for this resource. Can be null.
+	 * @param reserve
+	 *            Keep this many calls in reserve (see
+	 *            {@link URLConnectionHttpClient#setMinRateLimit(int)})
+	 * @throws TwitterException.PreEmptiveRateLimit
+	 *             if the wait would be longer than the max-wait
+	 */
+	public void acquire(String resource, RateLimit latest, int reserve)
+			throws TwitterException.PreEmptiveRateLimit {
+		if (resource == null) return;
+		Bucket b = bucket(resource);
+		b.lock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			if (latest != null && latest != b.seen) {
+				b.update(latest, now);
+			}
+			b.refill(now);
+			// fast path: no queue, and a token to spare
+			if (b.queue.isEmpty() && b.take(reserve)) return;
+			acquire2_wait(resource, b, reserve, now);
+		} finally {
+			b.lock.unlock();
+		}
+	}
+
+	private void acquire2_wait(String resource, Bucket b, int reserve, long start) {
+		Waiter w = new Waiter(getPriority(), b.seq++);
+		b.queue.add(w);
+		long t0 = System.nanoTime();
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				b.refill(now);
+				if (b.queue.peek() == w && b.take(reserve)) {
+					b.queue.poll();
+					long dt = System.nanoTime() - t0;
+					b.waits++;
+					b.totalWaitNanos += dt;
+					b.maxWaitNanos = Math.max(b.maxWaitNanos, dt);
+					// let the next in line try
+					b.changed.signalAll();
+					return;
+				}
+				// Can we get a token in time?
+				long deadline = start + maxWait;
+				long wake = b.reset == 0 ? deadline : Math.min(b.reset, deadline);
+				boolean empty = b.tokens >= 0 && b.tokens <= reserve;
+				if ((empty && b.reset > deadline) || now >= deadline) {
+					b.queue.remove(w);
+					b.rejected++;
+					b.changed.signalAll();
+					throw new TwitterException.PreEmptiveRateLimit(
+							"Pre-emptive rate-limit block for " + resource + ": "
+							+ b.queue.size() + " queued, reset in "
+							+ (b.reset - now) / 1000 + " secs");
+				}
+				b.changed.await(Math.max(wake - now, 1), TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			b.queue.remove(w);
+			b.changed.signalAll();
+			throw new TwitterException(e);
+		}
+	}
+
+	/**
+	 * @return stats for this resource, or null if it's not been used.
+	 */
+	public Metrics getMetrics(String resource) {
+		Bucket b;
+		synchronized (buckets) {
+			b = buckets.get(resource);
+		}
+		if (b == null) return null;
+		b.lock.lock();
+		try {
+			return new Metrics(resource, b.queue.size(), b.waits,
+					b.totalWaitNanos / 1000000, b.maxWaitNanos / 1000000, b.rejected);
+		} finally {
+			b.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return stats for every resource used so far
+	 */
+	public List<Metrics> getMetrics() {
+		List<String> resources;
+		synchronized (buckets) {
+			resources = new ArrayList<String>(buckets.keySet());
+		}
+		List<Metrics> list = new ArrayList<Metrics>(resources.size());
+		for (String r : resources) {
+			list.add(getMetrics(r));
+		}
+		return list;
+	}
+
+	/**
+	 * @return requests waiting now for this resource
+	 */
+	public int getQueueDepth(String resource) {
+		Metrics m = getMetrics(resource);
+		return m == null ? 0 : m.queued;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimitScheduler" + getMetrics();
+	}
+}
@@ -0,0 +1,290 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import com.winterwell.jgeoplanet.BoundingBox;
+import com.winterwell.jgeoplanet.Location;
+
+import winterwell.jtwitter.Twitter.ITweet;
+
+/**
+ * Which of many regions (bounding boxes) does a point or tweet fall in?
+ * Used by {@link TwitterStream#setLocation(List)} to tag tweets, but it
+ * works for any set of boxes.
+ * <p>
+ * A grid over latitude/longitude: each cell lists the boxes which overlap
+ * it, so a lookup checks one cell's worth of boxes -- not all of them.
+ * Boxes which cross the 180 degree line are fine (as per
+ * {@link BoundingBox#contains(Location)}, a box whose west edge is east of
+ * its east edge wraps round). Poles are not supported.
+ * <p>
+ * Thread safe for lookups once the regions are added.
+ *
+ * @testedby RegionIndexTest
+ * @author daniel
+ * @param <X>
+ *            What to tag matches with, e.g. a region name
+ */
+public final class RegionIndex<X> {
+
+	/**
+	 * Twitter's limit on location boxes per stream
+	 */
+	public static final int MAX_STREAM_BOXES = 25;
+
+	private final double cell;
+
+	private final int cols;
+
+	/**
+	 * Boxes as {south, west, north, east} -- boxes which wrap round are
+	 * split in two.
+	 */
+	private final List<double[]> boxes = new ArrayList<double[]>();
+
+	/** the region for each box */
+	private final List<X> regions = new ArrayList<X>();
+
+	/** which add() each box came from -- to spot both halves of a wrapped box */
+	private int[] owners = new int[16];
+
+	/**
+	 * cell number to indexes into boxes
+	 */
+	private final Map<Integer, int[]> grid = new HashMap<Integer, int[]>();
+
+	private int size;
+
+	/**
+	 * A grid of 1 degree cells -- fine for city-to-country sized boxes.
+	 */
+	public RegionIndex() {
+		this(1);
+	}
+
+	/**
+	 * @param cellDegrees
+	 *            The grid size. Roughly the size of a typical box is good.
+	 *            Small cells mean big boxes take up a lot of cells; big cells
+	 *            mean each lookup checks more boxes.
+	 */
+	public RegionIndex(double cellDegrees) {
+		if (cellDegrees <= 0 || cellDegrees > 180) {
+			throw new IllegalArgumentException("cell size: " + cellDegrees);
+		}
+		this.cell = cellDegrees;
+		this.cols = (int) Math.ceil(360 / cellDegrees);
+	}
+
+	public void add(BoundingBox box, X region) {
+		add(box.getSouthWest().latitude, box.getSouthWest().longitude,
+				box.getNorthEast().latitude, box.getNorthEast().longitude,
+				region);
+	}
+
+	/**
+	 * @param box
+	 *            In Twitter's order: {west longitude, south latitude, east
+	 *            longitude, north latitude}.
+	 */
+	public void add(double[] box, X region) {
+		if (box.length != 4) {
+			throw new IllegalArgumentException("Need {west, south, east, north} not " + Arrays.toString(box));
+		}
+		add(box[1], box[0], box[3], box[2], region);
+	}
+
+	public synchronized void add(double south, double west, double north, double east, X region) {
+		if (south > north) {
+			throw new IllegalArgumentException("North edge is south of south edge: " + north + " < " + south);
+		}
+		if (west > east) {
+			// wraps round the 180 line
+			add2(south, west, north, 180, region);
+			add2(south, -180, north, east, region);
+		} else {
+			add2(south, west, north, east, region);
+		}
+		size++;
+	}
+
+	private void add2(double south, double west, double north, double east, X region) {
+		int b = boxes.size();
+		boxes.add(new double[] { south, west, north, east });
+		regions.add(region);
+		if (b == owners.length) owners = Arrays.copyOf(owners, b * 2);
+		owners[b] = size;
+		int r0 = row(south), r1 = row(north);
+		int c0 = col(west), c1 = col(east);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				Integer key = r * cols + c;
+				int[] bs = grid.get(key);
+				if (bs == null) {
+					bs = new int[] { b };
+				} else {
+					bs = Arrays.copyOf(bs, bs.length + 1);
+					bs[bs.length - 1] = b;
+				}
+				grid.put(key, bs);
+			}
+		}
+	}
+
+	private int row(double lat) {
+		return (int) Math.floor((lat + 90) / cell);
+	}
+
+	private int col(double lng) {
+		return Math.min(cols - 1, (int) Math.floor((lng + 180) / cell));
+	}
+
+	/**
+	 * @return the number of regions added
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the regions containing this point, in the order they were
+	 *         added. Never null.
+	 */
+	public List<X> find(Location point) {
+		return find(point.latitude, point.longitude);
+	}
+
+	public synchronized List<X> find(double lat, double lng) {
+		int[] bs = grid.get(row(lat) * cols + col(lng));
+		if (bs == null) return new ArrayList<X>(0);
+		List<X> found = new ArrayList<X>(2);
+		for (int b : bs) {
+			double[] box = boxes.get(b);
+			if (lat >= box[0] && lat <= box[2] && lng >= box[1] && lng <= box[3]) {
+				// NB: a point is only in one half of a wrapped box
+				found.add(regions.get(b));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the regions which overlap this box (e.g. a Twitter place).
+	 *         Never null.
+	 */
+	public synchronized List<X> find(BoundingBox box) {
+		double south = box.getSouthWest().latitude, north = box.getNorthEast().latitude;
+		double west = box.getSouthWest().longitude, east = box.getNorthEast().longitude;
+		List<Integer> hits = new ArrayList<Integer>();
+		if (west > east) {
+			find2(south, west, north, 180, hits);
+			find2(south, -180, north, east, hits);
+		} else {
+			find2(south, west, north, east, hits);
+		}
+		// add order, and one per region (a box can span several cells, and a
+		// wrapped box is 2 entries)
+		Collections.sort(hits);
+		List<X> found = new ArrayList<X>(hits.size());
+		int prev = -1;
+		for (int b : hits) {
+			if (owners[b] == prev) continue;
+			prev = owners[b];
+			found.add(regions.get(b));
+		}
+		return found;
+	}
+
+	private void find2(double south, double west, double north, double east, List<Integer> hits) {
+		int r0 = row(south), r1 = row(north);
+		int c0 = col(west), c1 = col(east);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				int[] bs = grid.get(r * cols + c);
+				if (bs == null) continue;
+				for (int b : bs) {
+					double[] box = boxes.get(b);
+					if (box[0] <= north && box[2] >= south && box[1] <= east && box[3] >= west) {
+						hits.add(b);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Twitter's rules: a tweet matches on its geo coordinates if it has them,
+	 * failing that by its place.
+	 *
+	 * @return the regions this tweet is in. Never null.
+	 */
+	public List<X> find(ITweet tweet) {
+		String locn = tweet.getLocation();
+		if (locn != null) {
+			Matcher m = InternalUtils.latLongLocn.matcher(locn);
+			if (m.matches()) {
+				try {
+					return find(Double.parseDouble(m.group(2)), Double.parseDouble(m.group(3)));
+				} catch (NumberFormatException e) {
+					// oh well
+				}
+			}
+		}
+		Place place = tweet.getPlace();
+		if (place != null && place.getBoundingBox() != null) {
+			return find(place.getBoundingBox());
+		}
+		return new ArrayList<X>(0);
+	}
+
+	/**
+	 * Twitter allow upto 25 boxes per stream -- so for more regions, stream a
+	 * few big boxes which cover them, and use {@link #find(ITweet)} to sort
+	 * out which tweets are in which regions.
+	 *
+	 * @param max
+	 *            E.g. {@link #MAX_STREAM_BOXES}
+	 * @return upto max boxes, in Twitter's order (west, south, east, north),
+	 *         covering every region. None of them wrap round.
+	 */
+	public synchronized List<double[]> getCover(int max) {
+		if (max < 2) throw new IllegalArgumentException("max: " + max);
+		// Group the boxes by their centre on a coarse grid, coarser until
+		// there are few enough groups
+		for (double size = cell;; size *= 2) {
+			Map<Integer, double[]> cover = new HashMap<Integer, double[]>();
+			int gcols = (int) Math.ceil(360 / size);
+			for (double[] box : boxes) {
+				int r = (int) Math.floor(((box[0] + box[2]) / 2 + 90) / size);
+				int c = (int) Math.floor(((box[1] + box[3]) / 2 + 180) / size);
+				Integer key = r * gcols + c;
+				double[] cb = cover.get(key);
+				if (cb == null) {
+					cover.put(key, box.clone());
+					continue;
+				}
+				cb[0] = Math.min(cb[0], box[0]);
+				cb[1] = Math.min(cb[1], box[1]);
+				cb[2] = Math.max(cb[2], box[2]);
+				cb[3] = Math.max(cb[3], box[3]);
+			}
+			if (cover.size() > max) continue;
+			List<double[]> twitterOrder = new ArrayList<double[]>();
+			for (double[] cb : cover.values()) {
+				twitterOrder.add(new double[] { cb[1], cb[0], cb[3], cb[2] });
+			}
+			return twitterOrder;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RegionIndex[" + size() + " regions, " + cell + " degree cells]";
+	}
+}
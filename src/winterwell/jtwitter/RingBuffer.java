@@ -0,0 +1,224 @@
+package winterwell.jtwitter;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A bounded list for the stream buffers: adding to a full buffer drops the
+ * oldest item, in O(1). The backing array grows lazily, so an empty buffer
+ * with a big capacity is cheap to create.
+ * <p>
+ * Not thread safe -- like ArrayList, synchronize externally if needed.
+ *
+ * @author daniel
+ * @param <E>
+ */
+final class RingBuffer<E> extends AbstractList<E> implements RandomAccess {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	private Object[] items = EMPTY;
+
+	/**
+	 * index of the oldest item
+	 */
+	private int head;
+
+	private int size;
+
+	private int capacity;
+
+	/**
+	 * The number of items dropped to stay within capacity.
+	 */
+	private int evicted;
+
+	/**
+	 * @param capacity
+	 *            Must be positive. Adding more than this will drop the oldest
+	 *            items.
+	 */
+	public RingBuffer(int capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Add to the end, dropping the oldest item if full.
+	 *
+	 * @param e
+	 * @return the dropped item, or null
+	 */
+	public E push(E e) {
+		modCount++;
+		if (size == capacity) {
+			// overwrite the oldest
+			E gone = (E) items[head];
+			items[head] = e;
+			head = (head + 1) % items.length;
+			evicted++;
+			return gone;
+		}
+		if (size == items.length) {
+			grow();
+		}
+		items[(head + size) % items.length] = e;
+		size++;
+		return null;
+	}
+
+	@Override
+	public boolean add(E e) {
+		push(e);
+		return true;
+	}
+
+	/**
+	 * Remove the oldest item.
+	 *
+	 * @return the oldest item
+	 * @throws NoSuchElementException
+	 *             if empty
+	 */
+	public E removeFirst() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		modCount++;
+		E first = (E) items[head];
+		items[head] = null;
+		head = (head + 1) % items.length;
+		size--;
+		return first;
+	}
+
+	/**
+	 * Move all the items, oldest first, into the sink -- leaving this buffer
+	 * empty. This is a couple of array-copies, rather than an element by
+	 * element copy.
+	 *
+	 * @param sink
+	 * @return the number of items moved
+	 */
+	public int drainTo(Collection<? super E> sink) {
+		int n = size;
+		if (n == 0)
+			return 0;
+		sink.addAll(this);
+		clear();
+		return n;
+	}
+
+	@Override
+	public Object[] toArray() {
+		return toArray(size);
+	}
+
+	@Override
+	public E get(int index) {
+		checkIndex(index);
+		return (E) items[(head + index) % items.length];
+	}
+
+	@Override
+	public E set(int index, E element) {
+		checkIndex(index);
+		int i = (head + index) % items.length;
+		E old = (E) items[i];
+		items[i] = element;
+		return old;
+	}
+
+	/**
+	 * Removing from the middle is O(n) -- as with ArrayList. But removing
+	 * the oldest item is O(1).
+	 */
+	@Override
+	public E remove(int index) {
+		checkIndex(index);
+		if (index == 0)
+			return removeFirst();
+		modCount++;
+		E old = get(index);
+		// shuffle the later items down
+		for (int i = index; i < size - 1; i++) {
+			items[(head + i) % items.length] = items[(head + i + 1)
+					% items.length];
+		}
+		items[(head + size - 1) % items.length] = null;
+		size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		// drop the array (rather than null it out) -- a big buffer which has
+		// emptied shouldn't keep hold of the memory
+		items = EMPTY;
+		head = 0;
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity
+	 *            If this is less than the current size, the oldest items are
+	 *            dropped (and count as evicted).
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		while (size > capacity) {
+			removeFirst();
+			evicted++;
+		}
+		this.capacity = capacity;
+		if (items.length > capacity) {
+			items = toArray(capacity);
+			head = 0;
+		}
+	}
+
+	/**
+	 * @return the number of items dropped to stay within capacity, over the
+	 *         lifetime of this buffer.
+	 */
+	public int getEvicted() {
+		return evicted;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(index + " of " + size);
+	}
+
+	private void grow() {
+		int len = items.length == 0 ? 16 : items.length * 2;
+		// paranoia: avoid overflow
+		if (len < 0 || len > capacity)
+			len = capacity;
+		items = toArray(len);
+		head = 0;
+	}
+
+	/**
+	 * @return the items, oldest first, in an array of the given length
+	 */
+	private Object[] toArray(int length) {
+		Object[] arr = new Object[length];
+		int firstPart = Math.min(size, items.length - head);
+		System.arraycopy(items, head, arr, 0, firstPart);
+		System.arraycopy(items, 0, arr, firstPart, size - firstPart);
+		return arr;
+	}
+
+}
@@ -0,0 +1,280 @@
+package winterwell.jtwitter;
+
+import java.util.Arrays;
+
+/**
+ * A bounded set of recently seen tweet ids, used by the streams to spot
+ * duplicates (e.g. when filling in after an outage) without scanning the
+ * tweet buffers.
+ * <p>
+ * Ids are forgotten when the set is full (oldest first), or when they are
+ * older than the time window. Tweet and DM ids fit in a long, so this stores
+ * primitive longs: an open-addressing hash table over a ring of ids in
+ * arrival order.
+ * <p>
+ * Thread safe.
+ *
+ * @author daniel
+ */
+public final class SeenIds {
+
+	/**
+	 * The ids, in arrival order
+	 */
+	private long[] ids;
+
+	/**
+	 * When each id was added
+	 */
+	private long[] times;
+
+	/**
+	 * index into ids of the oldest
+	 */
+	private int head;
+
+	private int size;
+
+	/**
+	 * Hash table of (index into ids) + 1. 0 = empty.
+	 */
+	private int[] table;
+
+	private int mask;
+
+	/**
+	 * 64 - log2(table size): hash() uses the top bits
+	 */
+	private int shift;
+
+	private long window;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param capacity
+	 *            The max number of ids to remember.
+	 * @param windowMillis
+	 *            Forget ids which were added longer ago than this.
+	 */
+	public SeenIds(int capacity, long windowMillis) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		init(capacity);
+		this.window = windowMillis;
+	}
+
+	private void init(int capacity) {
+		ids = new long[capacity];
+		times = new long[capacity];
+		// keep the load factor under 1/2
+		int tableSize = Integer.highestOneBit(capacity) * 4;
+		table = new int[tableSize];
+		mask = tableSize - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(tableSize);
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Record an id, counting it as a hit if it was already here, or a miss if
+	 * it's new.
+	 *
+	 * @param id
+	 * @return true if this id is new (i.e. not a duplicate)
+	 */
+	public synchronized boolean add(long id) {
+		if ( ! remember2(id)) {
+			hits++;
+			return false;
+		}
+		misses++;
+		return true;
+	}
+
+	/**
+	 * Record an id without counting it as a hit or miss -- e.g. the id of a
+	 * deleted tweet, so that a late copy of it can be spotted.
+	 *
+	 * @param id
+	 * @return true if this id is new
+	 */
+	public synchronized boolean remember(long id) {
+		return remember2(id);
+	}
+
+	private boolean remember2(long id) {
+		long now = System.currentTimeMillis();
+		expire(now);
+		if (find(id) != -1) {
+			return false;
+		}
+		if (size == ids.length) {
+			removeOldest();
+		}
+		insert(id, now);
+		return true;
+	}
+
+	/**
+	 * Append at the newest end. There must be room.
+	 */
+	private void insert(long id, long time) {
+		int i = (head + size) % ids.length;
+		ids[i] = id;
+		times[i] = time;
+		size++;
+		// insert into the hash table
+		int slot = hash(id);
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = i + 1;
+	}
+
+	/**
+	 * Does not affect the hit/miss counts.
+	 *
+	 * @param id
+	 * @return true if the id has been seen within the window.
+	 */
+	public synchronized boolean contains(long id) {
+		expire(System.currentTimeMillis());
+		return find(id) != -1;
+	}
+
+	/**
+	 * @return the number of {@link #add(long)} calls which found a duplicate.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of {@link #add(long)} calls which found a new id.
+	 *         {@link #remember(long)} calls are not counted.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of ids currently remembered
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized int getCapacity() {
+		return ids.length;
+	}
+
+	/**
+	 * Change how many ids are remembered. If this shrinks the set, the oldest
+	 * ids are forgotten. The hit & miss counts are kept.
+	 *
+	 * @param capacity
+	 *            Must be positive.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		if (capacity == ids.length)
+			return;
+		long[] oldIds = ids;
+		long[] oldTimes = times;
+		int oldHead = head;
+		int oldSize = size;
+		init(capacity);
+		for (int n = Math.max(0, oldSize - capacity); n < oldSize; n++) {
+			int i = (oldHead + n) % oldIds.length;
+			insert(oldIds[i], oldTimes[i]);
+		}
+	}
+
+	public synchronized long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param windowMillis
+	 *            Forget ids which were added longer ago than this.
+	 */
+	public synchronized void setWindow(long windowMillis) {
+		this.window = windowMillis;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(table, 0);
+		head = 0;
+		size = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SeenIds[" + size + "/" + ids.length + " hits:" + hits
+				+ " misses:" + misses + "]";
+	}
+
+	private void expire(long now) {
+		long cutoff = now - window;
+		while (size != 0 && times[head] < cutoff) {
+			removeOldest();
+		}
+	}
+
+	/**
+	 * @return the hash table slot, or -1
+	 */
+	private int find(long id) {
+		int slot = hash(id);
+		while (true) {
+			int t = table[slot];
+			if (t == 0)
+				return -1;
+			if (ids[t - 1] == id)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int hash(long id) {
+		// Tweet ids have timestamps in the high bits and a sequence number in
+		// the low bits, so mix them up
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> shift);
+	}
+
+	private void removeOldest() {
+		int slot = find(ids[head]);
+		assert slot != -1 : ids[head];
+		deleteSlot(slot);
+		head = (head + 1) % ids.length;
+		size--;
+	}
+
+	/**
+	 * Linear-probing delete: shift later entries back so lookups don't hit a
+	 * gap.
+	 */
+	private void deleteSlot(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int t = table[j];
+			if (t == 0)
+				break;
+			int k = hash(ids[t - 1]);
+			// can the entry at j stay where it is? Yes if its home slot k is
+			// cyclically in (i, j]
+			if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+				continue;
+			table[i] = t;
+			i = j;
+		}
+		table[i] = 0;
+	}
+
+}
@@ -12,9 +12,12 @@ import java.util.regex.Pattern;
 import com.winterwell.json.JSONArray;
 import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
 
+import winterwell.jtwitter.JsonRecord.KField;
 import winterwell.jtwitter.Twitter.ITweet;
 import winterwell.jtwitter.Twitter.KEntityType;
+import winterwell.jtwitter.Twitter.KRawJson;
 import winterwell.jtwitter.Twitter.TweetEntity;
 
 /**
@@ -49,8 +52,8 @@ public final class Status implements ITweet {
 		if (json.trim().equals(""))
 			return Collections.emptyList();
 		try {
-			JSONArray array = new JSONArray(json);
-			return getStatuses(array);
+			// decode straight from the tokens -- no json tree
+			return getStatuses(new JSONReader(json));
 		} catch (JSONException e) {
 			// Is it an html error page? E.g. when Twitter is really hosed
 			if (json.startsWith("<")) {
@@ -60,7 +63,77 @@ public final class Status implements ITweet {
 		}
 	}
 	
+	/**
+	 * As {@link #getStatuses(String)}, but keeping the raw json if asked.
+	 * 
+	 * @param raw
+	 *            What raw json to keep. For anything but NONE, this has to
+	 *            build a json tree.
+	 */
+	static List<Status> getStatuses(String json, KRawJson raw) throws TwitterException {
+		if (raw == null || raw == KRawJson.NONE) {
+			return getStatuses(json);
+		}
+		if (json.trim().equals(""))
+			return Collections.emptyList();
+		try {
+			JSONArray array = new JSONArray(json);
+			return getStatuses(array, raw);
+		} catch (JSONException e) {
+			// Is it an html error page? E.g. when Twitter is really hosed
+			if (json.startsWith("<")) {
+				throw new TwitterException.E50X(InternalUtils.stripTags(json));
+			}
+			throw new TwitterException.Parsing(json, e);
+		}
+	}
+
+	/**
+	 * Parse a single tweet, keeping the raw json if asked.
+	 * @param raw See {@link Twitter#setRawJson(KRawJson)}
+	 */
+	static Status getStatus(String json, KRawJson raw) throws JSONException {
+		if (raw == null || raw == KRawJson.NONE) {
+			// decode straight from the tokens -- no json tree
+			return new Status(JsonRecord.read(new JSONReader(json)), null);
+		}
+		JSONObject jo = new JSONObject(json);
+		Status s = new Status(jo, null);
+		s.setRawJson(raw, jo, json);
+		return s;
+	}
+
+	/**
+	 * Decode an array of tweets, without building a json tree. Gives the same
+	 * as {@link #getStatuses(JSONArray)}.
+	 */
+	static List<Status> getStatuses(JSONReader r) throws JSONException {
+		List<Status> tweets = new ArrayList<Status>();
+		r.beginArray();
+		while (r.hasNext()) {
+			switch (r.peek()) {
+			case NULL:
+				r.nextNull();
+				continue;
+			case BEGIN_OBJECT:
+				tweets.add(new Status(JsonRecord.read(r), null));
+				continue;
+			default:
+				throw new JSONException("Expected a tweet but was " + r.readValue());
+			}
+		}
+		r.endArray();
+		return tweets;
+	}
+
 	public static List<Status> getStatuses(JSONArray array) throws TwitterException {
+		return getStatuses(array, KRawJson.NONE);
+	}
+
+	/**
+	 * @param raw What raw json to keep. See {@link Twitter#setRawJson(KRawJson)}
+	 */
+	static List<Status> getStatuses(JSONArray array, KRawJson raw) throws TwitterException {
 		List<Status> tweets = new ArrayList<Status>();
 		
 		for (Object element : array) {
@@ -69,6 +142,9 @@ public final class Status implements ITweet {
 			}
 			JSONObject obj = (JSONObject) element;
 			Status tweet = new Status(obj, null);
+			if (raw != KRawJson.NONE) {
+				tweet.setRawJson(raw, obj, null);
+			}
 			tweets.add(tweet);
 		}
 		
@@ -86,18 +162,40 @@ public final class Status implements ITweet {
 	 *         Twitter API.
 	 */
 	static List<Status> getStatusesFromSearch(Twitter tw, String json) {
+		if (tw != null && tw.getRawJson() != KRawJson.NONE) {
+			// keeping the json means building the tree
+			try {
+				JSONArray arr = new JSONObject(json).getJSONArray("statuses");
+				return getStatuses(arr, tw.getRawJson());
+			} catch (JSONException e) {
+				throw new TwitterException.Parsing(json, e);
+			}
+		}
 		try {
-			JSONObject searchResults = new JSONObject(json);
-			List<Status> users = new ArrayList<Status>();
-			JSONArray arr = searchResults.getJSONArray("statuses");
-			for (int i = 0; i < arr.length(); i++) {
-				JSONObject obj = arr.getJSONObject(i);
-//				String userScreenName = obj.getString("from_user");
-//				String profileImgUrl = obj.getString("profile_image_url");
-//				User user = new User(userScreenName);
-//				user.profileImageUrl = InternalUtils.URI(profileImgUrl);
-				Status s = new Status(obj, null);
-				users.add(s);
+			// decode straight from the tokens -- no json tree
+			JSONReader r = new JSONReader(json);
+			List<Status> users = null;
+			r.beginObject();
+			while (r.hasNext()) {
+				if ( ! r.nextName().equals("statuses")) {
+					// e.g. search_metadata
+					r.skipValue();
+					continue;
+				}
+				users = new ArrayList<Status>();
+				r.beginArray();
+				while (r.hasNext()) {
+					if (r.peek() != JSONReader.Token.BEGIN_OBJECT) {
+						throw new JSONException("Expected a tweet but was " + r.readValue());
+					}
+					Status s = new Status(JsonRecord.read(r), null);
+					users.add(s);
+				}
+				r.endArray();
+			}
+			r.endObject();
+			if (users == null) {
+				throw new JSONException("JSONObject[\"statuses\"] not found.");
 			}
 			return users;
 		} catch (JSONException e) {
@@ -111,12 +209,28 @@ public final class Status implements ITweet {
 	 * @throws JSONException
 	 */
 	static Object jsonGetLocn(JSONObject object) throws JSONException {
-		String _location = InternalUtils.jsonGet("location", object);
+		return jsonGetLocn(InternalUtils.jsonGet("location", object),
+				object.optJSONObject("place"), object.optJSONObject("geo"));
+	}
+
+	static Object jsonGetLocn(JsonRecord object) throws JSONException {
+		return jsonGetLocn(object.jsonGet(KField.location),
+				object.optJSONObject(KField.place),
+				object.optJSONObject(KField.geo));
+	}
+
+	/**
+	 * @param _location The "location" value. Can be null.
+	 * @param _place Can be null
+	 * @param geo Can be null
+	 * @see #jsonGetLocn(JSONObject)
+	 */
+	private static Object jsonGetLocn(String _location, JSONObject _place,
+			JSONObject geo) throws JSONException {
 		// no blank strings
 		if (_location != null && _location.length() == 0) {
 			_location = null;
 		}
-		JSONObject _place = object.optJSONObject("place");
 		if (_location != null) {
 			// normalise UT (UberTwitter?) locations
 			Matcher m = InternalUtils.latLongLocn.matcher(_location);
@@ -132,7 +246,6 @@ public final class Status implements ITweet {
 			place.geocoder = Twitter_Geo.class;
 			return place;
 		}
-		JSONObject geo = object.optJSONObject("geo");
 		if (geo != null && geo != JSONObject.NULL) {
 			JSONArray latLong = geo.getJSONArray("coordinates");
 			_location = latLong.get(0) + "," + latLong.get(1);
@@ -149,9 +262,15 @@ public final class Status implements ITweet {
 
 	/**
 	 * Warning: use equals() not == to compare these!
+	 * Kept for compatibility: {@link #getIdLong()} is cheaper.
 	 */
 	public final BigInteger id;
 
+	/**
+	 * The id, unboxed. Used for equals, hashCode & sorting.
+	 */
+	private final long idLong;
+
 	/**
 	 * Often null (even when this Status is a reply). This is the in-reply-to
 	 * status id as reported by Twitter.
@@ -225,9 +344,48 @@ public final class Status implements ITweet {
 	private int displayEnd;
 
 	/**
-	 * A debugging convenience: Keep the raw json object (but don't save it).
+	 * The raw json, if kept (but don't save it): a JSONObject, or UTF-8
+	 * bytes, or null. See {@link Twitter#setRawJson(KRawJson)}
+	 */
+	private transient Object raw;
+
+	/**
+	 * @return the json this tweet was made from, or null if it wasn't kept
+	 *         (which is the default -- see
+	 *         {@link Twitter#setRawJson(KRawJson)}). For
+	 *         {@link KRawJson#BYTES}, this parses the json afresh on each call.
 	 */
-	private transient JSONObject raw;
+	public JSONObject getRawJson() {
+		Object _raw = raw;
+		if (_raw instanceof byte[]) {
+			return new JSONObject(new String((byte[]) _raw, InternalUtils.UTF_8));
+		}
+		return (JSONObject) _raw;
+	}
+
+	/**
+	 * Keep the raw json (or not).
+	 * @param policy null is treated as NONE
+	 * @param tree Can be null if json is set
+	 * @param json Can be null if tree is set
+	 */
+	void setRawJson(KRawJson policy, JSONObject tree, String json) {
+		if (policy == null) {
+			raw = null;
+			return;
+		}
+		switch (policy) {
+		case NONE:
+			raw = null;
+			break;
+		case BYTES:
+			raw = (json != null ? json : tree.toString()).getBytes(InternalUtils.UTF_8);
+			break;
+		case TREE:
+			raw = tree != null ? tree : new JSONObject(json);
+			break;
+		}
+	}
 	
 	public boolean isRetweet() {
 		return retweet;
@@ -268,29 +426,37 @@ public final class Status implements ITweet {
 	 *            parsing the json returned for a Status.
 	 * @throws TwitterException
 	 */
-	@SuppressWarnings("deprecation")
 	public Status(JSONObject object, User user) throws TwitterException {
-		this.raw = object;
+		this(JsonRecord.of(object), user);
+	}
+
+	/**
+	 * Does the work for {@link #Status(JSONObject, User)}. Also used to decode
+	 * straight from a token stream -- see {@link JsonRecord#read(com.winterwell.json.JSONReader)}
+	 */
+	@SuppressWarnings("deprecation")
+	Status(JsonRecord object, User user) throws TwitterException {
 		try {
-			String _id = object.optString("id_str");
-			id = new BigInteger(_id == "" ? object.get("id").toString() : _id);
+			String _id = object.optString(KField.id_str);
+			idLong = _id == "" ? object.getLong(KField.id) : Long.parseLong(_id);
+			id = BigInteger.valueOf(idLong);
 			
 			// Extended tweets: REST API mode
 			// Depending on whether this was obtained with param tweet_mode=extended,
 			// either "text" or "full_text" might be present.
-			_rawtext = InternalUtils.jsonGet("full_text", object);
+			_rawtext = object.jsonGet(KField.full_text);
 			if (_rawtext == null) {
-				_rawtext = InternalUtils.jsonGet("text", object);
+				_rawtext = object.jsonGet(KField.text);
 			}
 			
 			// Entities (switched on by Twitter.setIncludeTweetEntities(true))
-			JSONObject jsonEntities = object.optJSONObject("entities");
+			JSONObject jsonEntities = object.optJSONObject(KField.entities);
 			
 			// Display range: Start and end of region of tweet text which should actually be displayed.
-			JSONArray displayRange = object.optJSONArray("display_text_range");
+			JSONArray displayRange = object.optJSONArray(KField.display_text_range);
 			
 			// Streaming API bundles all extended-tweet data into its own field.
-			JSONObject extended = object.optJSONObject("extended_tweet");
+			JSONObject extended = object.optJSONObject(KField.extended_tweet);
 			if (extended != null) {
 				String fullText = extended.optString("full_text");
 				if (fullText != null) _rawtext = fullText;
@@ -311,10 +477,10 @@ public final class Status implements ITweet {
 			}
 			
 			// retweet?
-			JSONObject retweeted = object.optJSONObject("retweeted_status");			
+			JsonRecord retweeted = object.optRecord(KField.retweeted_status);			
 			if (retweeted != null) {
 				retweet = true;
-				if (retweeted.has("user")) {
+				if (retweeted.has(KField.user)) {
 					original = new Status(retweeted, null);
 				} else {
 					// no user info?! Seen repeatedly August 2015. Fix up from the text					
@@ -331,7 +497,7 @@ public final class Status implements ITweet {
 			}
 			
 			// quoted tweet?
-			JSONObject quoted = object.optJSONObject("quoted_status");
+			JsonRecord quoted = object.optRecord(KField.quoted_status);
 			if (quoted != null) {
 				quotedStatus = true;
 				try {
@@ -357,39 +523,38 @@ public final class Status implements ITweet {
 			text = _text;
 			
 			// date
-			String c = InternalUtils.jsonGet("created_at", object);
+			String c = object.jsonGet(KField.created_at);
 			createdAt = InternalUtils.parseDate(c);
 			// source - sometimes encoded (search), sometimes not
 			// (timelines)!
-			String src = InternalUtils.jsonGet("source", object);
+			String src = object.jsonGet(KField.source);
 			source = src!=null&&src.contains("&lt;") ? InternalUtils.unencode(src) : src;
 			// threading
-			String irt = InternalUtils.jsonGet("in_reply_to_status_id", object);
+			String irt = object.jsonGet(KField.in_reply_to_status_id);
 			if (irt == null || irt.length()==0) {
 				// Twitter doesn't give in-reply-to for retweets and quote tweets
 				// - but since we have the info, let's make it available
 				inReplyToStatusId = original == null ? null : original.getId();
 			} else {
-				inReplyToStatusId = new BigInteger(irt);
+				inReplyToStatusId = BigInteger.valueOf(Long.parseLong(irt));
 			}
-			favorited = object.optBoolean("favorited");
+			favorited = object.optBoolean(KField.favorited);
 			
 			// set user
 			if (user != null) {
 				this.user = user;
 			} else {
-				JSONObject jsonUser = object.optJSONObject("user");
+				JsonRecord jsonUser = object.optRecord(KField.user);
 				// null user happens in very rare circumstances, which I
 				// have not pinned down yet.
 				if (jsonUser == null) {
 					this.user = null;					
-				} else if (jsonUser.opt("screen_name")==null) {
+				} else if (jsonUser.opt(KField.screen_name)==null) {
 					// Seen a bug where the jsonUser is just
 					// {"id":24147187,"id_str":"24147187"}
 					// Not sure when/why this happens
-					String _uid = jsonUser.optString("id_str");
-					BigInteger userId = new BigInteger(_uid == "" ? object.get(
-							"id").toString() : _uid);
+					String _uid = jsonUser.optString(KField.id_str);
+					long userId = _uid == "" ? object.getLong(KField.id) : Long.parseLong(_uid);
 					this.user = new User(null, userId);
 				} else {
 					// normal JSON case
@@ -403,11 +568,11 @@ public final class Status implements ITweet {
 				place = (Place) _locn;
 			}
 			// language if specified
-			String _lang = object.optString("lang");
+			String _lang = object.optString(KField.lang);
 			lang = "und".equals(_lang)? null : _lang;
 
-			retweetCount = object.optInt("retweet_count", -1);
-			favoriteCount = object.optInt("favorite_count", -1);
+			retweetCount = object.optInt(KField.retweet_count, -1);
+			favoriteCount = object.optInt(KField.favorite_count, -1);
 			// favourites??
 			
 			// ignore this as it can be misleading: true is reliable, false isn't
@@ -427,7 +592,7 @@ public final class Status implements ITweet {
 //				withheldIn = withheld.split(", ");
 //			}
 //			"withheld_scope": "status" or "user"
-			sensitive = object.optBoolean("possibly_sensitive");
+			sensitive = object.optBoolean(KField.possibly_sensitive);
 		} catch (JSONException e) {
 			throw new TwitterException.Parsing(null, e);
 		}
@@ -483,8 +648,10 @@ public final class Status implements ITweet {
 		this.user = user;
 		this.createdAt = createdAt;
 		this.id = id == null ? null
-				: (id instanceof BigInteger ? (BigInteger) id : new BigInteger(
-						id.toString()));
+				: (id instanceof BigInteger ? (BigInteger) id
+				: id instanceof Long ? BigInteger.valueOf(id.longValue())
+				: new BigInteger(id.toString()));
+		this.idLong = id == null ? 0 : id.longValue();
 		inReplyToStatusId = null;
 		source = FAKE;
 		retweetCount = -1;
@@ -503,7 +670,7 @@ public final class Status implements ITweet {
 		if (getClass() != obj.getClass())
 			return false;
 		Status other = (Status) obj;
-		return id.equals(other.id);
+		return idLong == other.idLong;
 	}
 
 	@Override
@@ -519,6 +686,11 @@ public final class Status implements ITweet {
 		return id;
 	}
 
+	@Override
+	public long getIdLong() {
+		return idLong;
+	}
+
 	@Override
 	public String getLocation() {
 		return location;
@@ -596,7 +768,7 @@ public final class Status implements ITweet {
 
 	@Override
 	public int hashCode() {
-		return id.hashCode();
+		return Long.hashCode(idLong);
 	}
 
 	/**
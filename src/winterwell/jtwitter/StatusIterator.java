@@ -0,0 +1,249 @@
+package winterwell.jtwitter;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Tweets from a timeline or search, a page at a time as you go. Whilst you
+ * work through one page, the next is fetched in the background (via
+ * {@link Twitter#async()}) -- switch that off with
+ * {@link #setPrefetch(boolean)}. Stop whenever you like: nothing more is
+ * fetched after the page in flight.
+ * <p>
+ * Paging is by max_id. The sinceDate / untilDate filter is applied page by
+ * page, and for date-ordered results we stop as soon as a page goes back
+ * past the sinceDate. The Twitter object's settings are copied when this is
+ * made, so changing them later has no effect.
+ * <p>
+ * If a fetch fails, hasNext() / next() throw, but nothing is lost -- you can
+ * call them again later to retry. Not thread safe.
+ * 
+ * @see Twitter#getUserTimelineIterator(String)
+ * @see Twitter#searchIterator(String)
+ * @testedby StatusIteratorTest
+ * @author daniel
+ */
+public final class StatusIterator implements Iterator<Status>, Closeable {
+
+	/**
+	 * A short search page means we've reached the end -- allowing for some
+	 * screening.
+	 */
+	private static final int SEARCH_FULL_PAGE = 70;
+
+	private final Twitter jtwit;
+
+	private final String url;
+
+	private final Map<String, String> vars;
+
+	private final boolean authenticate;
+
+	private final boolean search;
+
+	/** Are the results newest-first? If so we can stop at the sinceDate. */
+	private final boolean chrono;
+
+	private final Date sinceDate;
+
+	private final Date untilDate;
+
+	private final String resource;
+
+	/** for the next page. 0 for none */
+	private long maxId;
+
+	private List<Status> page = Collections.emptyList();
+
+	private int i;
+
+	/** true once the last page has been fetched */
+	private boolean lastPage;
+
+	private boolean prefetch = true;
+
+	private CompletableFuture<List<Status>> ahead;
+
+	private long aheadMaxId;
+
+	private int pages;
+
+	StatusIterator(Twitter jtwit, String url, Map<String, String> vars,
+			boolean authenticate, boolean search, boolean chrono) {
+		this.jtwit = jtwit;
+		this.url = url;
+		this.vars = vars;
+		this.authenticate = authenticate;
+		this.search = search;
+		this.chrono = chrono;
+		this.sinceDate = jtwit.getSinceDate();
+		this.untilDate = jtwit.getUntilDate();
+		this.resource = RateLimit.getResource(url);
+		String mid = vars.get("max_id");
+		maxId = mid == null ? 0 : Long.parseLong(mid);
+	}
+
+	/**
+	 * @param prefetch
+	 *            If true (the default), fetch the next page whilst you work
+	 *            through this one.
+	 * @return this
+	 */
+	public StatusIterator setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		if ( ! prefetch) close();
+		return this;
+	}
+
+	/**
+	 * @return pages fetched so far (not counting one in flight)
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * @return The max_id for the next page, 0 if none. Use this with
+	 *         {@link Twitter#setUntilId(Number)} to carry on later.
+	 */
+	public long getMaxId() {
+		return maxId;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (i >= page.size()) {
+			if (lastPage) return false;
+			fetch();
+		}
+		return true;
+	}
+
+	@Override
+	public Status next() {
+		if ( ! hasNext()) throw new NoSuchElementException();
+		return page.get(i++);
+	}
+
+	/**
+	 * Move on to the next page -- or throw, leaving everything as it was.
+	 */
+	private void fetch() {
+		List<Status> raw;
+		if (ahead != null && aheadMaxId == maxId) {
+			CompletableFuture<List<Status>> f = ahead;
+			ahead = null;
+			try {
+				raw = f.join();
+			} catch (CompletionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new TwitterException(cause.toString());
+			}
+		} else {
+			raw = fetchPage(maxId);
+		}
+		pages++;
+		i = 0;
+		page = Twitter.dateFilter(raw, sinceDate, untilDate);
+		lastPage = isLastPage(raw);
+		// Next page must start strictly before this one
+		maxId = InternalUtils.getMinId(maxId, raw);
+		// (0 would mean "from the top" again)
+		if (maxId == 0) lastPage = true;
+		if (prefetch && ! lastPage) {
+			final long mid = maxId;
+			aheadMaxId = mid;
+			ahead = jtwit.async().call(resource, new Callable<List<Status>>() {
+				@Override
+				public List<Status> call() {
+					return fetchPage(mid);
+				}
+			});
+		}
+	}
+
+	private boolean isLastPage(List<Status> raw) {
+		// This test replaces size<20. It requires an extra call to Twitter.
+		// But it fixes a bug whereby retweets aren't counted and can thus
+		// cause the system to quit early.
+		if (raw.isEmpty()) return true;
+		if (search) {
+			int rpp = Integer.parseInt(vars.get("count"));
+			if (raw.size() < Math.min(rpp, SEARCH_FULL_PAGE)) return true;
+		}
+		// Gone back past the sinceDate?
+		if (sinceDate == null) return false;
+		if (chrono) {
+			for (Status s : raw) {
+				Date d = s.getCreatedAt();
+				if (d != null && sinceDate.after(d)) return true;
+			}
+			return false;
+		}
+		Date maxDate = InternalUtils.getMaxDate(raw);
+		return maxDate != null && sinceDate.after(maxDate);
+	}
+
+	private List<Status> fetchPage(long mid) {
+		Map<String, String> pageVars = new HashMap<String, String>(vars);
+		pageVars.put("max_id", mid == 0 ? null : Long.toString(mid));
+		if (search) {
+			return jtwit.search2_page(url, pageVars);
+		}
+		return jtwit.getStatuses2_retry(url, pageVars, authenticate);
+	}
+
+	/**
+	 * Cancel the next page, if it's still waiting. Safe to call repeatedly.
+	 * You can carry on afterwards (the page would be fetched again).
+	 */
+	@Override
+	public void close() {
+		if (ahead != null) {
+			ahead.cancel(false);
+			ahead = null;
+		}
+	}
+
+	/**
+	 * Not supported
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return a stream over the tweets not yet returned. Closing the stream
+	 *         calls {@link #close()}. Use this or the iterator, not both.
+	 */
+	public Stream<Status> stream() {
+		Spliterator<Status> split = Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(split, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "StatusIterator[" + url + " " + vars + " max_id=" + maxId + "]";
+	}
+}
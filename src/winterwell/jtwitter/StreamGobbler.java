@@ -0,0 +1,301 @@
+package winterwell.jtwitter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.JsonRecord.KField;
+import winterwell.jtwitter.Twitter.KRawJson;
+
+/**
+ * Gobble output from a twitter stream. Create then call start(). Expects length
+ * delimiters. Each message is parsed once, here, and the resulting object is
+ * shared by the listeners and the polling buffers.
+ * 
+ */
+final class StreamGobbler extends Thread {
+
+	Exception ex;
+
+	/**
+	 * Parsed messages waiting to be polled. See {@link #readJson2_parse(String)}.
+	 * Use synchronised blocks when editing this
+	 */
+	private final RingBuffer<Object> msgs;
+
+//	long offTime;
+
+	volatile boolean stopFlag;
+
+	final AStream stream;
+
+	/**
+	 * Messages read
+	 */
+	volatile long count;
+
+	/**
+	 * Journal sequence numbers (see {@link AStream#setJournal(StreamJournal)}):
+	 * the last message put in the polling buffer, the last one taken out by
+	 * {@link #popMessages(Collection)}, and the last one the listeners have
+	 * heard.
+	 */
+	private long pushedSeq;
+
+	long poppedSeq;
+
+	volatile long notifiedSeq = Long.MAX_VALUE;
+
+	public StreamGobbler(AStream stream) {
+		setDaemon(true);
+		this.stream = stream;
+		msgs = new RingBuffer(stream.getMaxBuffer());
+	}
+
+	/**
+	 * @return count of the number of messages this gobbler had to drop due to
+	 *         buffer size
+	 */
+	synchronized int getForgotten() {
+		return msgs.getEvicted();
+	}
+
+	synchronized void setMaxBuffer(int maxBuffer) {
+		msgs.setCapacity(maxBuffer);
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		if (stream != null) {
+			InternalUtils.close(stream.stream);
+		}
+	}
+
+	/**
+	 * Request that the thread should finish. If the thread is hung waiting for
+	 * output, then this will not work.
+	 */
+	public void pleaseStop() {
+		if (stream != null) {
+			InternalUtils.close(stream.stream);
+		}
+		stopFlag = true;
+	}
+
+	/**
+	 * Read off the collected messages for processing
+	 * 
+	 * @param sink
+	 *            The parsed messages (see {@link #readJson2_parse(String)})
+	 *            are moved into this, oldest first.
+	 * @return the number of messages
+	 */
+	public synchronized int popMessages(Collection<Object> sink) {
+		poppedSeq = pushedSeq;
+		return msgs.drainTo(sink);
+	}
+
+	private void readJson(InputStream in, int len) throws IOException {
+		// Read len bytes from the stream -- Twitter's lengths count bytes,
+		// not chars
+		assert len > 0;
+		byte[] bytes = new byte[len];
+		int cnt = 0;
+		while (len > 0) {
+			int rd = in.read(bytes, cnt, len);
+			if (rd == -1)
+				throw new IOException("end of stream");
+			// continue;
+			cnt += rd;
+			len -= rd;
+		}
+		
+		String json = new String(bytes, InternalUtils.UTF_8);
+		count++;
+		// journal it first, so a crash can't lose it
+		StreamJournal journal = stream.journal;
+		long seq = 0;
+		if (journal != null) {
+			try {
+				seq = journal.append(json.trim());
+			} catch (Exception e) {
+				// swallow it & keep the stream flowing
+				InternalUtils.log(stream.LOGTAG, e);
+			}
+		}
+		boolean poll = ! stream.listenersOnly;
+		boolean push = stream.listeners.size() != 0;
+		if ( ! poll && ! push) {
+			if (seq != 0) journal.setConsumed(seq);
+			return;
+		}
+		// parse once, for both polling and push
+		Object obj = readJson2_parse(json);
+		if (seq != 0) {
+			if (obj instanceof Status) {
+				journal.setLastIds(((Status) obj).getIdLong(), 0);
+			} else if (obj instanceof Message) {
+				journal.setLastIds(0, ((Message) obj).getIdLong());
+			}
+		}
+		if (poll) {
+			synchronized (this) {
+				// if full, this drops the oldest
+				AStream.logForgotten(msgs.push(obj));
+				pushedSeq = seq;
+			}
+		}
+
+		// push notifications
+		if (push) {
+			readJson2_notifyListeners(obj);
+		}
+		if (seq != 0) {
+			if (poll) notifiedSeq = seq;
+			else journal.setConsumed(seq);
+		}
+	}
+
+	/**
+	 * @param json
+	 * @return a tweet, DM, event, or system-event (see
+	 *         {@link AStream#read3_parse(JSONObject, Twitter)}); or the
+	 *         "friends" JSONArray which starts a UserStream; or the raw json if
+	 *         it could not be parsed (so the polling thread can report the
+	 *         error).
+	 */
+	Object readJson2_parse(String json) {
+		try {
+			// decode straight from the tokens -- no json tree
+			JsonRecord jo = JsonRecord.read(new JSONReader(json));
+			// the 1st object for a UserStream is a list of friend ids
+			JSONArray _friends = jo.optJSONArray(KField.friends);
+			if (_friends != null) {
+				return _friends;
+			}
+			Object msg = AStream.read3_parse(jo, stream.jtwit);
+			if (msg instanceof Status) {
+				KRawJson raw = stream.rawJson;
+				if (raw != KRawJson.NONE) {
+					((Status) msg).setRawJson(raw, null, json);
+				}
+			}
+			if (msg != null) {
+				return msg;
+			}
+			// something new? The json tree version reports it
+			return AStream.read3_parse(new JSONObject(json), stream.jtwit);
+		} catch (Throwable e) {
+			// swallow it & keep the stream flowing
+			InternalUtils.log(stream.LOGTAG, e);
+			return json;
+		}
+	}
+
+	private void readJson2_notifyListeners(Object obj) {
+		// friend lists and unparseable json are only of interest to the poller
+		if (obj instanceof JSONArray || obj instanceof String) {
+			return;
+		}
+		// no lock: this iterates over a snapshot of the listeners
+		try {
+			for (IListen listener : stream.listeners) {
+				try {
+					boolean carryOn = AStream.notifyListener(listener, obj);
+					// hide from earlier listeners?
+					if (!carryOn) {
+						break;
+					}
+				} catch (Exception e) {
+					// swallow it & keep the stream flowing
+					InternalUtils.log(stream.LOGTAG, e);
+				}
+			} // end for-listeners
+		} catch (Throwable e) {
+			// swallow it & keep the stream flowing
+			InternalUtils.log(stream.LOGTAG, e);
+		}
+	}
+
+	/**
+	 * Read a number from the stream -- which is the length in bytes of the
+	 * next message.
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private int readLength(InputStream in) throws IOException {
+		StringBuilder numSb = new StringBuilder();
+		while (true) {
+			int ich = in.read();
+			if (ich == -1)
+				throw new IOException("end of stream " + this);
+			// continue;
+			char ch = (char) ich;
+			if (ch == '\n' || ch == '\r') {
+				// ignore leading whitespace, stop otherwise
+				if (numSb.length() == 0) {
+					continue;
+				}
+				// done!
+				break;
+			}
+			// collect digits
+			assert Character.isDigit(ch) : ch;
+			assert numSb.length() < 10 : numSb; // paranoia
+			numSb.append(ch);
+		}
+		return Integer.valueOf(numSb.toString());
+	}
+
+	@Override
+	public void run() {
+		while (!stopFlag) {			
+			assert stream.stream != null : stream;
+			try {
+				// bytes, not a Reader: the lengths are in bytes
+				InputStream in = new BufferedInputStream(stream.stream);
+				while (!stopFlag) {
+					int len = readLength(in);
+					readJson(in, len);
+				}
+			} catch (Exception ioe) {
+				if (stopFlag) {
+					// we were told to stop already so ignore
+					return;
+				}
+				ex = ioe;
+//				offTime = System.currentTimeMillis();
+				// TODO log this as a sys-event
+				stream.addSysEvent(new Object[]{"exception", ex});
+				InternalUtils.log(stream.LOGTAG, this+" gobbler.run() exception: "+InternalUtils.str(ex));
+				// try a reconnect?
+				if ( ! stream.autoReconnect)
+					return; // no - break out of the loop
+				// Note: the thread can also hang or die, so we also do
+				// reconnects from
+				// the AStream.read() method.
+				try {
+					stream.reconnectFromGobblerThread();
+					assert stream.stream != null : stream;
+				} catch (Exception e) {
+					// #fail
+					InternalUtils.log(stream.LOGTAG, this+" gobbler.run() reconnect exception: now: "+InternalUtils.str(e)+" was: "+ex);
+					ex = e;
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "[" + msgs.size() + "]";
+	}
+}
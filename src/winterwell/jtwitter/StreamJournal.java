@@ -0,0 +1,457 @@
+package winterwell.jtwitter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import winterwell.jtwitter.AStream.Outage;
+
+/**
+ * An append-only, on-disk log of the raw messages a stream receives -- so
+ * they survive a restart. Use via {@link AStream#setJournal(StreamJournal)}.
+ * <p>
+ * Messages go into memory-mapped segment files (named by the sequence number
+ * of their first message), each record being: length, CRC32, utf-8 json. A
+ * full segment is flushed to disk and a new one started; only the newest
+ * {@link #setMaxSegments(int)} are kept.
+ * <p>
+ * Alongside the segments, the journal keeps: the sequence number of the last
+ * message which was consumed, the last tweet & DM ids, the time of the last
+ * message, and any outages which had not been filled in. On restart, the
+ * stream replays the unconsumed messages, and logs the downtime as an
+ * outage. So delivery is at-least-once: a message can be replayed if the
+ * process died just after handling it.
+ * <p>
+ * Data is safe from a process crash as soon as append() returns (it's in the
+ * OS's page cache). Call {@link #flush()} to also be safe from a machine
+ * crash. A torn last record (e.g. power loss mid-write) fails its checksum,
+ * and is dropped when the journal is reopened.
+ * <p>
+ * Thread safe.
+ *
+ * @testedby StreamJournalTest
+ * @author daniel
+ */
+public class StreamJournal implements Closeable {
+
+	private static final String LOGTAG = "journal";
+
+	private static final String SEGMENT = ".jnl";
+
+	/**
+	 * length + crc
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * Two slots, written in turn, so a torn write can't lose the state. Each
+	 * slot: generation, lastId, lastDMId, consumed, lastTime, crc.
+	 */
+	private static final int SLOT = 48;
+
+	private final File dir;
+
+	private final int segmentBytes;
+
+	private int maxSegments = 10;
+
+	/**
+	 * First sequence number of each segment, oldest first
+	 */
+	private final List<Long> segments = new ArrayList<Long>();
+
+	/**
+	 * The segment being written
+	 */
+	private MappedByteBuffer seg;
+
+	/**
+	 * sequence number of the last message appended. 0 = none yet.
+	 */
+	private long lastSeq;
+
+	private MappedByteBuffer state;
+
+	private long generation;
+
+	private long lastId;
+
+	private long lastDMId;
+
+	private long consumed;
+
+	private long lastTime;
+
+	private final CRC32 crc = new CRC32();
+
+	private final File outagesFile;
+
+	/**
+	 * A journal with 64mb segments.
+	 *
+	 * @param dir
+	 *            Created if need be. One journal per stream -- and one
+	 *            process at a time!
+	 */
+	public StreamJournal(File dir) throws IOException {
+		this(dir, 64 * 1024 * 1024);
+	}
+
+	/**
+	 * @param segmentBytes
+	 *            Size of each segment file. Messages bigger than this can't be
+	 *            journalled.
+	 */
+	public StreamJournal(File dir, int segmentBytes) throws IOException {
+		if (segmentBytes < 1024) {
+			throw new IllegalArgumentException("segment size: " + segmentBytes);
+		}
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.outagesFile = new File(dir, "outages.ser");
+		if ( ! dir.isDirectory() && ! dir.mkdirs()) {
+			throw new IOException("Could not create " + dir);
+		}
+		state = map(new File(dir, "state"), 2 * SLOT);
+		readState();
+		open();
+	}
+
+	/**
+	 * Find the segments, and where to append in the newest one.
+	 */
+	private void open() throws IOException {
+		String[] names = dir.list();
+		Arrays.sort(names);
+		for (String name : names) {
+			if ( ! name.endsWith(SEGMENT)) continue;
+			try {
+				segments.add(Long.valueOf(name.substring(0, name.length() - SEGMENT.length())));
+			} catch (NumberFormatException e) {
+				// not ours
+			}
+		}
+		if (segments.isEmpty()) {
+			// carry on the numbering (e.g. if the segments were deleted)
+			lastSeq = consumed;
+			startSegment(lastSeq + 1);
+			return;
+		}
+		long first = segments.get(segments.size() - 1);
+		seg = map(segmentFile(first), segmentBytes);
+		int n = 0;
+		while (readRecord(seg) != null) {
+			n++;
+		}
+		lastSeq = first + n - 1;
+		// a torn record? Wipe it, so a later append can't resurrect it
+		int end = seg.position();
+		if (end + HEADER <= seg.limit() && seg.getInt(end) != 0) {
+			InternalUtils.log(LOGTAG, "Dropping a torn record at " + first + "+" + n + " in " + dir);
+			for (int i = end; i < seg.limit(); i++) {
+				seg.put(i, (byte) 0);
+			}
+		}
+		seg.position(end);
+	}
+
+	/**
+	 * @param seg
+	 *            Positioned at the start of a record. Moved to the end of it
+	 *            if it's good.
+	 * @return the json, or null at the end (or a bad record)
+	 */
+	private String readRecord(ByteBuffer seg) {
+		int p = seg.position();
+		if (p + HEADER > seg.limit()) return null;
+		int len = seg.getInt(p);
+		if (len <= 0 || len > seg.limit() - p - HEADER) return null;
+		byte[] bytes = new byte[len];
+		seg.position(p + HEADER);
+		seg.get(bytes);
+		crc.reset();
+		crc.update(bytes, 0, len);
+		if ((int) crc.getValue() != seg.getInt(p + 4)) {
+			seg.position(p);
+			return null;
+		}
+		return new String(bytes, InternalUtils.UTF_8);
+	}
+
+	private File segmentFile(long first) {
+		return new File(dir, String.format("%020d", first) + SEGMENT);
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < size) raf.setLength(size);
+			// the mapping stays valid after the file is closed
+			return raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void startSegment(long first) throws IOException {
+		if (seg != null) seg.force();
+		seg = map(segmentFile(first), segmentBytes);
+		segments.add(first);
+		// retention
+		while (segments.size() > maxSegments) {
+			File old = segmentFile(segments.remove(0));
+			if ( ! old.delete()) {
+				InternalUtils.log(LOGTAG, "Could not delete old segment " + old);
+			}
+		}
+	}
+
+	/**
+	 * @param maxSegments
+	 *            How many segment files to keep. 10 by default. Older ones are
+	 *            deleted -- even if they hold unconsumed messages.
+	 */
+	public synchronized void setMaxSegments(int maxSegments) {
+		if (maxSegments < 1) throw new IllegalArgumentException("max: " + maxSegments);
+		this.maxSegments = maxSegments;
+	}
+
+	/**
+	 * @param json
+	 *            A raw message from the stream
+	 * @return its sequence number, from 1 upwards
+	 */
+	public synchronized long append(String json) throws IOException {
+		if (seg == null) throw new IOException("closed: " + this);
+		byte[] bytes = json.getBytes(InternalUtils.UTF_8);
+		if (bytes.length == 0) throw new IllegalArgumentException("empty message");
+		if (bytes.length + HEADER > segmentBytes) {
+			throw new IOException("Message too big to journal: " + bytes.length + " bytes");
+		}
+		if (seg.remaining() < bytes.length + HEADER) {
+			startSegment(lastSeq + 1);
+		}
+		int p = seg.position();
+		crc.reset();
+		crc.update(bytes, 0, bytes.length);
+		seg.position(p + HEADER);
+		seg.put(bytes);
+		seg.putInt(p + 4, (int) crc.getValue());
+		// the length goes in last: a reader never sees half a record
+		seg.putInt(p, bytes.length);
+		lastSeq++;
+		lastTime = System.currentTimeMillis();
+		writeState();
+		return lastSeq;
+	}
+
+	/**
+	 * @param fromSeq
+	 *            The sequence number of the first message wanted.
+	 * @param max
+	 *            Return at most this many
+	 * @return messages fromSeq onwards. Messages in deleted segments are
+	 *         skipped.
+	 */
+	public synchronized List<String> read(long fromSeq, int max) throws IOException {
+		List<String> msgs = new ArrayList<String>();
+		for (int i = 0; i < segments.size() && msgs.size() < max; i++) {
+			long first = segments.get(i);
+			long next = i + 1 < segments.size() ? segments.get(i + 1) : lastSeq + 1;
+			if (next <= fromSeq) continue;
+			ByteBuffer sb;
+			if (i == segments.size() - 1) {
+				sb = seg.duplicate();
+				sb.position(0);
+			} else {
+				RandomAccessFile raf = new RandomAccessFile(segmentFile(first), "r");
+				try {
+					sb = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+				} finally {
+					raf.close();
+				}
+			}
+			for (long s = first; s < next && msgs.size() < max; s++) {
+				String json = readRecord(sb);
+				if (json == null) break;
+				if (s >= fromSeq) msgs.add(json);
+			}
+		}
+		return msgs;
+	}
+
+	/**
+	 * @return the sequence number of the oldest message still kept (see
+	 *         {@link #setMaxSegments(int)}). Kept messages are numbered
+	 *         without gaps from here to {@link #getLastSeq()}.
+	 */
+	public synchronized long getFirstSeq() {
+		return segments.isEmpty() ? lastSeq + 1 : segments.get(0);
+	}
+
+	/**
+	 * Mark messages upto and including seq as handled. This never goes
+	 * backwards.
+	 */
+	public synchronized void setConsumed(long seq) {
+		if (seq <= consumed) return;
+		consumed = Math.min(seq, lastSeq);
+		writeState();
+	}
+
+	public synchronized long getConsumed() {
+		return consumed;
+	}
+
+	/**
+	 * @return the sequence number of the last message appended. 0 if none.
+	 */
+	public synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * Note the id of a tweet (or DM) from the stream. Saved with the next
+	 * append or consume.
+	 */
+	synchronized void setLastIds(long tweetId, long dmId) {
+		if (tweetId > lastId) lastId = tweetId;
+		if (dmId > lastDMId) lastDMId = dmId;
+	}
+
+	/**
+	 * @return the highest tweet id seen. 0 if none.
+	 */
+	public synchronized long getLastId() {
+		return lastId;
+	}
+
+	public synchronized long getLastDMId() {
+		return lastDMId;
+	}
+
+	/**
+	 * @return when the last message was appended -- for a journal which has
+	 *         just been reopened, that's roughly when the stream went down.
+	 *         0 if never.
+	 */
+	public synchronized long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @return the number of segment files
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	private void writeState() {
+		generation++;
+		int p = (int) (generation % 2) * SLOT;
+		state.putLong(p, generation);
+		state.putLong(p + 8, lastId);
+		state.putLong(p + 16, lastDMId);
+		state.putLong(p + 24, consumed);
+		state.putLong(p + 32, lastTime);
+		state.putInt(p + 40, stateCrc(p));
+	}
+
+	private int stateCrc(int p) {
+		crc.reset();
+		for (int i = p; i < p + 40; i++) {
+			crc.update(state.get(i));
+		}
+		return (int) crc.getValue();
+	}
+
+	private void readState() {
+		for (int p = 0; p < 2 * SLOT; p += SLOT) {
+			long gen = state.getLong(p);
+			if (gen <= generation || state.getInt(p + 40) != stateCrc(p)) continue;
+			generation = gen;
+			lastId = state.getLong(p + 8);
+			lastDMId = state.getLong(p + 16);
+			consumed = state.getLong(p + 24);
+			lastTime = state.getLong(p + 32);
+		}
+	}
+
+	/**
+	 * Save the outages which haven't been filled in yet. Written to a temp
+	 * file then moved into place, so a crash leaves the old list or the new
+	 * one.
+	 */
+	public synchronized void saveOutages(List<Outage> outages) throws IOException {
+		ArrayList<Outage> copy;
+		synchronized (outages) {
+			copy = new ArrayList<Outage>(outages);
+		}
+		File temp = new File(dir, outagesFile.getName() + ".temp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(fos);
+			out.writeObject(copy);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			InternalUtils.close(fos);
+		}
+		Files.move(temp.toPath(), outagesFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the outages from {@link #saveOutages(List)}. Never null.
+	 */
+	public synchronized List<Outage> getOutages() throws IOException {
+		if ( ! outagesFile.exists()) return new ArrayList<Outage>();
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(outagesFile));
+		try {
+			return (List<Outage>) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			InternalUtils.close(in);
+		}
+	}
+
+	/**
+	 * Force everything to disk (fsync).
+	 */
+	public synchronized void flush() {
+		if (seg != null) seg.force();
+		state.force();
+	}
+
+	/**
+	 * Flush, and stop writing. Note: Java can't unmap files, so the segment
+	 * files stay mapped until garbage collection.
+	 */
+	@Override
+	public synchronized void close() {
+		if (seg == null) return;
+		writeState();
+		flush();
+		seg = null;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamJournal[" + dir + " seq:" + lastSeq + " consumed:" + consumed + "]";
+	}
+}
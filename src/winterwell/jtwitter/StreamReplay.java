@@ -0,0 +1,449 @@
+package winterwell.jtwitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.Twitter.ITweet;
+
+/**
+ * Load-test your listeners offline: feed recorded (or made-up) stream
+ * messages through the real pipeline -- {@link StreamGobbler}, parsing,
+ * listeners and the polling buffers -- without a connection to Twitter.
+ *
+ * <pre>
+ * <code>
+ * TwitterStream ts = new TwitterStream(jtwit);
+ * ts.addListener(myListener);
+ * StreamReplay replay = new StreamReplay(ts);
+ * replay.setRate(5000);
+ * Report report = replay.run(StreamReplay.read(new File("capture.txt")), 10);
+ * </code>
+ * </pre>
+ *
+ * Latency is from when a message is handed to the gobbler, to when the
+ * last listener (i.e. the first-added) has heard it. Messages which a
+ * listener hides (returns false) aren't timed. Listeners added via
+ * {@link AStream#addListener(IListen, int, AsyncListener.KOverflow)} are
+ * timed to the hand-over to their thread.
+ * <p>
+ * The stream must not be connected. It's left disconnected afterwards, but
+ * with whatever the replay put in its buffers (so you can still poll them).
+ *
+ * @testedby StreamReplayTest
+ * @author daniel
+ */
+public class StreamReplay {
+
+	/**
+	 * How a replay went. Times are in nanoseconds.
+	 */
+	public static final class Report {
+		/** messages sent */
+		public final int messages;
+		/** messages the last listener heard */
+		public final int heard;
+		public final long nanos;
+		public final long p50;
+		public final long p99;
+		public final long max;
+		/**
+		 * Messages dropped because the buffers were full (polling couldn't
+		 * keep up)
+		 */
+		public final int dropped;
+		/**
+		 * The rise in {@link AStream#getForgotten()}: buffer drops, plus
+		 * tweets Twitter says it held back (limit notices), once polled.
+		 */
+		public final int forgotten;
+
+		Report(int messages, int heard, long nanos, long p50, long p99,
+				long max, int dropped, int forgotten) {
+			this.messages = messages;
+			this.heard = heard;
+			this.nanos = nanos;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.max = max;
+			this.dropped = dropped;
+			this.forgotten = forgotten;
+		}
+
+		public double getMsgsPerSec() {
+			return nanos == 0 ? 0 : messages * 1000000000.0 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return "Report[" + messages + " msgs, " + (long) getMsgsPerSec()
+					+ " msgs/sec, latency p50 " + p50 / 1000 + "us p99 " + p99 / 1000
+					+ "us max " + max / 1000 + "us, heard " + heard + ", dropped "
+					+ dropped + ", forgotten " + forgotten + "]";
+		}
+	}
+
+	/**
+	 * Serves the framed messages to the gobbler, one message per read (so
+	 * the release times are accurate), on schedule. At the end, it blocks
+	 * until told to stop.
+	 */
+	private static final class PacedInputStream extends InputStream {
+		private final byte[][] frames;
+		private final int total;
+		private final long[] released;
+		private final long start;
+		/** nanoseconds between messages. 0 for flat out */
+		private final long gap;
+		private int idx;
+		private int off;
+		volatile boolean atEnd;
+		/** when the gobbler came back for more after the last message */
+		volatile long endNanos;
+		final CountDownLatch stop = new CountDownLatch(1);
+
+		PacedInputStream(byte[][] frames, int total, long[] released, long gap) {
+			this.frames = frames;
+			this.total = total;
+			this.released = released;
+			this.gap = gap;
+			this.start = System.nanoTime();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int o, int len) throws IOException {
+			if (len == 0) return 0;
+			if (idx == total) {
+				if ( ! atEnd) endNanos = System.nanoTime();
+				atEnd = true;
+				try {
+					stop.await();
+				} catch (InterruptedException e) {
+					// stop anyway
+				}
+				return -1;
+			}
+			if (off == 0) {
+				if (gap != 0) pace(start + idx * gap);
+				released[idx] = System.nanoTime();
+			}
+			byte[] frame = frames[idx % frames.length];
+			int n = Math.min(len, frame.length - off);
+			System.arraycopy(frame, off, b, o, n);
+			off += n;
+			if (off == frame.length) {
+				idx++;
+				off = 0;
+			}
+			return n;
+		}
+
+		private void pace(long due) {
+			while (true) {
+				long wait = due - System.nanoTime();
+				if (wait <= 0) return;
+				if (wait > 2000000) {
+					try {
+						Thread.sleep(wait / 1000000 - 1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				} else {
+					Thread.yield();
+				}
+			}
+		}
+
+		/**
+		 * Nothing promised: so the gobbler's reader hands over each message
+		 * as it arrives.
+		 */
+		@Override
+		public int available() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Times each message. Goes at the end of the listeners, so it hears
+	 * messages last.
+	 */
+	private static final class Timer implements IListen {
+		private final StreamGobbler gobbler;
+		private final long[] released;
+		final long[] latency;
+		int heard;
+
+		Timer(StreamGobbler gobbler, long[] released) {
+			this.gobbler = gobbler;
+			this.released = released;
+			this.latency = new long[released.length];
+		}
+
+		private boolean time() {
+			long now = System.nanoTime();
+			// the gobbler counts a message before parsing it
+			int i = (int) gobbler.count - 1;
+			// NB: sys-events about the connection can repeat an index
+			if (i < 0 || i >= latency.length || latency[i] != 0) return true;
+			latency[i] = Math.max(1, now - released[i]);
+			heard++;
+			return true;
+		}
+
+		@Override
+		public boolean processEvent(TwitterEvent event) {
+			return time();
+		}
+
+		@Override
+		public boolean processSystemEvent(Object[] obj) {
+			return time();
+		}
+
+		@Override
+		public boolean processTweet(ITweet tweet) {
+			return time();
+		}
+	}
+
+	private final AStream stream;
+
+	private double rate;
+
+	private long pollMillis = 100;
+
+	public StreamReplay(AStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * @param msgsPerSec
+	 *            0 (the default) for as fast as possible
+	 */
+	public void setRate(double msgsPerSec) {
+		if (msgsPerSec < 0) throw new IllegalArgumentException("rate: " + msgsPerSec);
+		this.rate = msgsPerSec;
+	}
+
+	/**
+	 * @param pollMillis
+	 *            How often to poll the stream (popTweets etc) during the
+	 *            replay. 100 by default. 0 for never -- so the buffers fill up
+	 *            and drop messages, as they would if your app stopped polling.
+	 *            Ignored if the stream is listeners-only.
+	 */
+	public void setPollMillis(long pollMillis) {
+		this.pollMillis = pollMillis;
+	}
+
+	/**
+	 * Replay messages through the stream, in this thread (the gobbler runs
+	 * in its own thread, as usual).
+	 *
+	 * @param jsons
+	 *            E.g. from {@link #read(File)} or {@link #synthetic(int, long)}
+	 * @param repeats
+	 *            Send the messages this many times over
+	 * @return the stats
+	 */
+	public Report run(List<String> jsons, int repeats) throws InterruptedException {
+		StreamGobbler old = stream.readThread;
+		if (old != null && old.isAlive()) {
+			throw new IllegalStateException("Close the stream first: " + stream);
+		}
+		if (jsons.isEmpty() || repeats < 1) {
+			throw new IllegalArgumentException("Nothing to replay");
+		}
+		byte[][] frames = new byte[jsons.size()][];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = frame(jsons.get(i));
+		}
+		int total = jsons.size() * repeats;
+		long[] released = new long[total];
+		long gap = rate == 0 ? 0 : (long) (1000000000 / rate);
+		boolean autoReconnect = stream.autoReconnect;
+		// a replay can't reconnect
+		stream.autoReconnect = false;
+		PacedInputStream in = new PacedInputStream(frames, total, released, gap);
+		StreamGobbler gobbler = new StreamGobbler(stream);
+		gobbler.setName("Replay:" + stream);
+		Timer timer = new Timer(gobbler, released);
+		stream.listeners.add(timer);
+		stream.stream = in;
+		stream.readThread = gobbler;
+		int forgotten = stream.getForgotten();
+		int dropped = -run2_evicted();
+		long t0 = System.nanoTime();
+		gobbler.start();
+		long dt;
+		try {
+			boolean poll = pollMillis > 0 && ! stream.listenersOnly;
+			while ( ! in.atEnd && gobbler.isAlive()) {
+				if (poll) {
+					Thread.sleep(pollMillis);
+					dropped += run2_poll();
+				} else {
+					Thread.sleep(1);
+				}
+			}
+			dt = (in.atEnd ? in.endNanos : System.nanoTime()) - t0;
+			if (poll) dropped += run2_poll();
+			dropped += run2_evicted() + gobbler.getForgotten();
+			forgotten = stream.getForgotten() - forgotten;
+		} finally {
+			gobbler.stopFlag = true;
+			in.stop.countDown();
+			gobbler.join(1000);
+			stream.listeners.remove(timer);
+			// NB: leave the stopped gobbler, so polling is quietly a no-op
+			stream.stream = null;
+			stream.autoReconnect = autoReconnect;
+		}
+		long[] lat = new long[timer.heard];
+		int n = 0;
+		for (long l : timer.latency) {
+			if (l != 0 && n < lat.length) lat[n++] = l;
+		}
+		Arrays.sort(lat);
+		return new Report(total, timer.heard, dt, percentile(lat, 50), percentile(lat, 99),
+				n == 0 ? 0 : lat[n - 1], dropped, forgotten);
+	}
+
+	/**
+	 * Drain the buffers, as a polling app would.
+	 *
+	 * @return the number the buffers had dropped
+	 */
+	private int run2_poll() {
+		return ((RingBuffer) stream.popTweets()).getEvicted()
+				+ ((RingBuffer) stream.popEvents()).getEvicted()
+				+ ((RingBuffer) stream.popSystemEvents()).getEvicted();
+	}
+
+	/**
+	 * @return drops so far by the stream's current buffers
+	 */
+	private int run2_evicted() {
+		return stream.tweets.getEvicted() + stream.events.getEvicted()
+				+ stream.sysEvents.getEvicted();
+	}
+
+	private static long percentile(long[] sorted, int pc) {
+		if (sorted.length == 0) return 0;
+		return sorted[Math.min(sorted.length - 1, sorted.length * pc / 100)];
+	}
+
+	/**
+	 * @return the message in Twitter's delimited=length format. NB: the
+	 *         length is in bytes, as on the wire.
+	 */
+	static byte[] frame(String json) {
+		byte[] msg = (json + "\r\n").getBytes(InternalUtils.UTF_8);
+		byte[] len = (msg.length + "\r\n").getBytes(InternalUtils.UTF_8);
+		byte[] frame = Arrays.copyOf(len, len.length + msg.length);
+		System.arraycopy(msg, 0, frame, len.length, msg.length);
+		return frame;
+	}
+
+	/**
+	 * @param capture
+	 *            Either a raw delimited=length capture of a stream, or a file
+	 *            with one json message per line. The lengths in a capture are
+	 *            byte counts (as Twitter sends them), so frames are cut from
+	 *            the raw bytes and only then decoded.
+	 * @return the messages
+	 */
+	public static List<String> read(File capture) throws IOException {
+		byte[] bytes = Files.readAllBytes(capture.toPath());
+		List<String> msgs = new ArrayList<String>();
+		int i = 0;
+		while (i < bytes.length && Character.isWhitespace(bytes[i])) i++;
+		boolean delimited = i < bytes.length && Character.isDigit(bytes[i]);
+		if ( ! delimited) {
+			String s = new String(bytes, InternalUtils.UTF_8);
+			for (String line : s.split("\r?\n")) {
+				if ( ! line.trim().isEmpty()) msgs.add(line.trim());
+			}
+			return msgs;
+		}
+		while (i < bytes.length) {
+			// skip blank lines (keep-alives)
+			if (Character.isWhitespace(bytes[i])) {
+				i++;
+				continue;
+			}
+			int nl = i;
+			while (nl < bytes.length && bytes[nl] != '\n') nl++;
+			if (nl == bytes.length) throw new IOException("Bad capture: no length at " + i + " in " + capture);
+			int len = Integer.parseInt(new String(bytes, i, nl - i, InternalUtils.UTF_8).trim());
+			int end = Math.min(bytes.length, nl + 1 + len);
+			msgs.add(new String(bytes, nl + 1, end - nl - 1, InternalUtils.UTF_8).trim());
+			i = end;
+		}
+		return msgs;
+	}
+
+	/**
+	 * A made-up stream: roughly 85% tweets, 5% events (favourites), 7%
+	 * deletes (of earlier tweets) and 3% limit notices.
+	 *
+	 * @param n
+	 *            How many messages
+	 * @param seed
+	 *            For repeatable randomness
+	 */
+	public static List<String> synthetic(int n, long seed) {
+		Random r = new Random(seed);
+		List<String> msgs = new ArrayList<String>(n);
+		long id = 570000000000000000L;
+		String date = "\"created_at\":\"Tue Feb 24 17:53:12 +0000 2015\"";
+		for (int i = 0; i < n; i++) {
+			int dice = r.nextInt(100);
+			if (dice < 85 || i == 0) {
+				id += 1 + r.nextInt(1000);
+				StringBuilder text = new StringBuilder();
+				for (int w = 0, nw = 3 + r.nextInt(20); w < nw; w++) {
+					text.append("word").append(r.nextInt(1000)).append(' ');
+				}
+				msgs.add("{" + date + ",\"id\":" + id + ",\"id_str\":\"" + id
+						+ "\",\"text\":\"" + text.toString().trim() + "\",\"user\":"
+						+ synthetic2_user(r.nextInt(100000)) + "}");
+			} else if (dice < 90) {
+				msgs.add("{\"event\":\"favorite\"," + date + ",\"source\":"
+						+ synthetic2_user(r.nextInt(100000)) + ",\"target\":"
+						+ synthetic2_user(r.nextInt(100000)) + "}");
+			} else if (dice < 97) {
+				long dead = id - r.nextInt(1000);
+				msgs.add("{\"delete\":{\"status\":{\"id\":" + dead + ",\"id_str\":\"" + dead
+						+ "\",\"user_id\":" + r.nextInt(100000) + ",\"user_id_str\":\"1\"}}}");
+			} else {
+				msgs.add("{\"limit\":{\"track\":" + (1 + r.nextInt(100)) + "}}");
+			}
+		}
+		return msgs;
+	}
+
+	private static String synthetic2_user(int uid) {
+		return "{\"id\":" + uid + ",\"id_str\":\"" + uid + "\",\"screen_name\":\"user" + uid
+				+ "\",\"name\":\"User " + uid + "\",\"followers_count\":" + uid % 5000 + "}";
+	}
+
+	@Override
+	public String toString() {
+		return "StreamReplay[" + stream + (rate == 0 ? "" : " " + rate + " msgs/sec") + "]";
+	}
+}
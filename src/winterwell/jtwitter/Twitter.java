@@ -28,6 +28,7 @@ import com.winterwell.jgeoplanet.Location;
 import com.winterwell.json.JSONArray;
 import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
 
 import winterwell.jtwitter.TwitterException.E401;
 import winterwell.jtwitter.TwitterException.E403;
@@ -188,6 +189,20 @@ public class Twitter implements Serializable {
 		HttpURLConnection connect(String url, Map<String, String> vars,
 				boolean authenticate) throws IOException;
 
+		/**
+		 * As {@link #connect(String, Map, boolean)}, with extra request
+		 * headers for this connection only -- e.g. a stream asking for gzip.
+		 * This default ignores them, so check the response (e.g. its
+		 * Content-Encoding) rather than assume.
+		 * 
+		 * @param headers
+		 *            Can be null
+		 */
+		default HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate, Map<String, String> headers) throws IOException {
+			return connect(url, vars, authenticate);
+		}
+
 		/**
 		 * @return a copy of this client. The copy can share structure, but it
 		 *         MUST be safe for passing to a new thread to be used in
@@ -226,6 +241,44 @@ public class Twitter implements Serializable {
 		String getPage(String uri, Map<String, String> vars,
 				boolean authenticate) throws TwitterException;
 
+		/**
+		 * Send an HTTP GET request and parse the json response. This default
+		 * parses the String from {@link #getPage(String, Map, boolean)}.
+		 * Implementations can do better by parsing straight off the wire --
+		 * see {@link URLConnectionHttpClient}.
+		 * 
+		 * @return a JSONObject or JSONArray, or null if the response was empty
+		 * @throws TwitterException.Parsing
+		 *             if the response is not valid json
+		 */
+		default Object getPageJSON(String uri, Map<String, String> vars,
+				boolean authenticate) throws TwitterException {
+			return getPageJSON(uri, vars, authenticate, null);
+		}
+
+		/**
+		 * As {@link #getPageJSON(String, Map, boolean)}, but only keeping
+		 * some of the fields -- which saves a lot of allocation for big
+		 * responses.
+		 * 
+		 * @param fields
+		 *            Which fields to keep, or null for all. See
+		 *            {@link JSONReader#readValue(Map)}.
+		 */
+		default Object getPageJSON(String uri, Map<String, String> vars,
+				boolean authenticate, Map<String, ?> fields)
+				throws TwitterException {
+			String json = getPage(uri, vars, authenticate);
+			if (json.trim().isEmpty()) {
+				return null;
+			}
+			try {
+				return new JSONReader(json).readValue(fields);
+			} catch (JSONException e) {
+				throw new TwitterException.Parsing(json, e);
+			}
+		}
+
 		/**
 		 * @deprecated
 		 * @see #getRateLimits() 
@@ -287,6 +340,18 @@ public class Twitter implements Serializable {
 		 */
 		HttpURLConnection post2_connect(String uri, Map<String, String> vars)
 				throws Exception;
+
+		/**
+		 * As {@link #post2_connect(String, Map)}, with extra request headers
+		 * for this connection only. This default ignores them.
+		 * 
+		 * @param headers
+		 *            Can be null
+		 */
+		default HttpURLConnection post2_connect(String uri, Map<String, String> vars,
+				Map<String, String> headers) throws Exception {
+			return post2_connect(uri, vars);
+		}
 		
 		/**
 		 * Lower-level POST method - stringifies JSON body instead of encoding vars
@@ -346,6 +411,16 @@ public class Twitter implements Serializable {
 		 */
 		BigInteger getId();
 
+		/**
+		 * In practice, tweet and DM ids fit in a signed long -- and comparing
+		 * longs is a lot cheaper than comparing BigIntegers.
+		 * 
+		 * @return {@link #getId()} as a long
+		 */
+		default long getIdLong() {
+			return getId().longValue();
+		}
+
 		/**
 		 * @return the location of this tweet. Can be null, never blank. This
 		 *         can come from geo-tagging or the user's location. This may be
@@ -412,6 +487,19 @@ public class Twitter implements Serializable {
 		hashtags, urls, user_mentions, media, symbols, extended_entities
 	}
 
+	/**
+	 * What raw json to keep on each {@link Status} -- see
+	 * {@link Twitter#setRawJson(KRawJson)} and {@link Status#getRawJson()}.
+	 */
+	public static enum KRawJson {
+		/** Don't keep it (the default). The leanest option. */
+		NONE,
+		/** Keep the json text as UTF-8 bytes, and re-parse it on demand. */
+		BYTES,
+		/** Keep the parsed json tree. Fast to access, but heavy. */
+		TREE
+	}
+
 	/**
 	 * @deprecated Replaced in 1.1 with a more flexible family of resources.
 	 * 
@@ -803,6 +891,8 @@ public class Twitter implements Serializable {
 
 	boolean includeRTs = true;
 
+	KRawJson rawJson = KRawJson.NONE;
+
 	private String lang;
 
 
@@ -847,6 +937,8 @@ public class Twitter implements Serializable {
 	@Deprecated // Keeping for backwards compatibility of serialised form until Q2 2013
 	private transient String twitlongerAppName;
 
+	private transient Twitter_Async async;
+
 	/**
 	 * E.g. "https://api.twitter.com/1.1"<br>
 	 * 
@@ -925,6 +1017,7 @@ public class Twitter implements Serializable {
 		this.accessToken = jtwit.accessToken;
 		this.appKey = jtwit.appKey;
 		this.appSecret = jtwit.appSecret;
+		this.rawJson = jtwit.rawJson;
 	}
 
 	/**
@@ -934,6 +1027,20 @@ public class Twitter implements Serializable {
 		return new Twitter_Account(this);
 	}
 	
+	/**
+	 * Non-blocking versions of the common read calls, which return
+	 * CompletableFutures.
+	 * <p>
+	 * Note: unlike {@link #users()}, this is the same object each time, so the
+	 * per-resource queues are shared by all its callers.
+	 */
+	public synchronized Twitter_Async async() {
+		if (async == null) {
+			async = new Twitter_Async(this);
+		}
+		return async;
+	}
+
 	/**
 	 * API methods for Twitter stats.
 	 */
@@ -1048,6 +1155,13 @@ public class Twitter implements Serializable {
 	 * @return filtered list (a copy)
 	 */
 	private <T extends ITweet> List<T> dateFilter(List<T> list) {
+		return dateFilter(list, sinceDate, untilDate);
+	}
+
+	/**
+	 * As {@link #dateFilter(List)}, with the dates given.
+	 */
+	static <T extends ITweet> List<T> dateFilter(List<T> list, Date sinceDate, Date untilDate) {
 		if (sinceDate == null && untilDate == null)
 			return list;
 		ArrayList<T> filtered = new ArrayList<T>(list.size());
@@ -1640,7 +1754,7 @@ public class Twitter implements Serializable {
 		String url = TWITTER_URL + "/statuses/retweets/" + tweet.id + ".json";
 		Map<String, String> vars = addStandardishParameters(new HashMap<String, String>());
 		String json = http.getPage(url, vars, true);
-		List<Status> newStyle = Status.getStatuses(json);
+		List<Status> newStyle = Status.getStatuses(json, rawJson);
 		try {
 			// // Should we also do by search and merge the two lists?
 			StringBuilder sq = new StringBuilder();
@@ -1691,7 +1805,7 @@ public class Twitter implements Serializable {
 		String url = TWITTER_URL + "/statuses/retweets_of_me.json";
 		Map<String, String> vars = addStandardishParameters(new HashMap<String, String>());
 		String json = http.getPage(url, vars, true);
-		return Status.getStatuses(json);
+		return Status.getStatuses(json, rawJson);
 	}
 
 	/**
@@ -1790,7 +1904,7 @@ public class Twitter implements Serializable {
 		
 		String json = http.getPage(
 				TWITTER_URL + "/statuses/user_timeline.json", vars, true);
-		List<Status> statuses = Status.getStatuses(json);
+		List<Status> statuses = Status.getStatuses(json, rawJson);
 		if (statuses.size() == 0)
 			return null;
 		return statuses.get(0);
@@ -1810,7 +1924,7 @@ public class Twitter implements Serializable {
 		String json = http.getPage(TWITTER_URL + "/statuses/show/" + id
 				+ ".json", vars, auth);
 		try {
-			return new Status(new JSONObject(json), null);
+			return Status.getStatus(json, rawJson);
 		} catch (JSONException e) {
 			throw new TwitterException.Parsing(json, e);
 		}
@@ -1833,12 +1947,67 @@ public class Twitter implements Serializable {
 		vars.put("count", "6");
 		String json = http.getPage(
 				TWITTER_URL + "/statuses/user_timeline.json", vars, http.canAuthenticate());
-		List<Status> statuses = Status.getStatuses(json);
+		List<Status> statuses = Status.getStatuses(json, rawJson);
 		if (statuses.size() == 0)
 			return null;
 		return statuses.get(0);
 	}
 
+	/**
+	 * Fetch a json array, parsing it straight off the wire if the client
+	 * supports that.
+	 * 
+	 * @param fields
+	 *            Which fields to keep, or null for all. E.g.
+	 *            {@link JsonFields#STATUS}
+	 * @return never null (an empty response gives an empty array)
+	 */
+	JSONArray getPageJSONArray(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, ?> fields) throws TwitterException {
+		Object json = http.getPageJSON(url, vars, authenticate, fields);
+		if (json == null) {
+			return new JSONArray();
+		}
+		if ( ! (json instanceof JSONArray)) {
+			throw new TwitterException.Parsing(String.valueOf(json),
+					new JSONException("Expected an array"));
+		}
+		return (JSONArray) json;
+	}
+
+	/**
+	 * Fetch and parse one page of tweets. The json is pruned to the fields we
+	 * use -- unless we're keeping it.
+	 */
+	private List<Status> getStatuses2_page(String url, Map<String, String> var,
+			boolean authenticate) 
+	{
+		KRawJson raw = rawJson;
+		JSONArray page = getPageJSONArray(url, var, authenticate,
+				raw == KRawJson.NONE ? JsonFields.STATUS : null);
+		return Status.getStatuses(page, raw);
+	}
+
+	/**
+	 * {@link #getStatuses2_page(String, Map, boolean)}, with one retry for
+	 * malformed responses.
+	 */
+	List<Status> getStatuses2_retry(String url, Map<String, String> var,
+			boolean authenticate) 
+	{
+		try {
+			return getStatuses2_page(url, var, authenticate);
+		} catch (TwitterException.Parsing pex) {
+			// Twitter bug, July 2012: malformed responses -- end is chopped off ~1 time in 20
+			// TODO remove when Twitter fix this!
+			if (http.isRetryOnError()) {
+				InternalUtils.sleep(250);
+				return getStatuses2_page(url, var, authenticate);
+			}
+			throw pex;
+		}
+	}
+
 	/**
 	 * Does the grunt work for paged status fetching
 	 * 
@@ -1852,21 +2021,7 @@ public class Twitter implements Serializable {
 	{
 		// Default: 1 page
 		if (maxResults < 1) {
-			List<Status> msgs ;
-			try {
-				msgs = Status.getStatuses(http.getPage(url, var,
-						authenticate));
-			} catch (TwitterException.Parsing pex) {
-				// Twitter bug, July 2012: malformed responses -- end is chopped off ~1 time in 20
-				// TODO remove when Twitter fix this!
-				if (http.isRetryOnError()) {
-					InternalUtils.sleep(250);
-					String json = http.getPage(url, var, authenticate);
-					msgs = Status.getStatuses(json);
-				} else {
-					throw pex;
-				}
-			}
+			List<Status> msgs = getStatuses2_retry(url, var, authenticate);
 			msgs = dateFilter(msgs);
 			return msgs;
 		}
@@ -1874,25 +2029,11 @@ public class Twitter implements Serializable {
 		// -- or Twitter complains in which case you'll get an exception
 		// Use status ids for paging, rather than page number, because this
 		// allows for "drift" when new tweets are posted during the paging.
-		BigInteger maxId = untilId;
+		long maxId = untilId == null ? 0 : untilId.longValue();
 		List<Status> msgs = new ArrayList<Status>();
 
 		while (msgs.size() <= maxResults) {			
-			List<Status> nextpage; 
-			try {
-				String json = http.getPage(url, var, authenticate);
-				nextpage = Status.getStatuses(json);
-			} catch (TwitterException.Parsing pex) {
-				// Twitter bug, July 2012: malformed responses -- end is chopped off ~1 time in 20
-				// TODO remove when Twitter fix this!
-				if (http.isRetryOnError()) {
-					InternalUtils.sleep(250);
-					String json = http.getPage(url, var, authenticate);
-					nextpage = Status.getStatuses(json);
-				} else {
-					throw pex;
-				}
-			}
+			List<Status> nextpage = getStatuses2_retry(url, var, authenticate);
 			// This test replaces size<20. It requires an extra call to Twitter.
 			// But it fixes a bug whereby retweets aren't counted and can thus
 			// cause the system to quit early.
@@ -1911,7 +2052,7 @@ public class Twitter implements Serializable {
 			if (filtered.size() == 0 && sinceDate != null && sinceDate.after(maxDate)){
 				break;
 			}
-			var.put("max_id", maxId.toString());			
+			var.put("max_id", Long.toString(maxId));			
 		}
 		return msgs;
 	}
@@ -1962,6 +2103,13 @@ public class Twitter implements Serializable {
 		}
 	}
 
+	/**
+	 * @return the sinceDate
+	 */
+	public Date getSinceDate() {
+		return sinceDate;
+	}
+
 	/**
 	 * @return the untilDate
 	 */
@@ -2066,6 +2214,30 @@ public class Twitter implements Serializable {
 		} 
 	}
 
+	/**
+	 * A lazy version of {@link #getUserTimeline(String)} for deep backfills:
+	 * pages are fetched as you go (200 tweets a time, unless
+	 * {@link #setCount(Integer)} says otherwise). maxResults is ignored --
+	 * stop when you like. The 3200 tweet cap still applies.
+	 */
+	public StatusIterator getUserTimelineIterator(String screenName) {
+		return getUserTimelineIterator2(InternalUtils.asMap("screen_name", screenName));
+	}
+
+	/**
+	 * As {@link #getUserTimelineIterator(String)}, but by user-id.
+	 */
+	public StatusIterator getUserTimelineIterator(Long userId) {
+		return getUserTimelineIterator2(InternalUtils.asMap("user_id", userId));
+	}
+
+	private StatusIterator getUserTimelineIterator2(Map<String, String> vars) {
+		addStandardishParameters(vars);
+		if ( ! vars.containsKey("count")) vars.put("count", "200");
+		return new StatusIterator(this, TWITTER_URL + "/statuses/user_timeline.json",
+				vars, http.canAuthenticate(), false, true);
+	}
+
 	/**
 	 * @deprecated Use {@link #setIncludeRTs(boolean)} instead to control
 	 *             retweet behaviour.
@@ -2255,7 +2427,7 @@ public class Twitter implements Serializable {
 			String result = post(
 					TWITTER_URL + "/statuses/retweet/" + tweet.getId()
 							+ ".json", vars, true);
-			return new Status(new JSONObject(result), null);
+			return Status.getStatus(result, rawJson);
 
 			// error handling
 		} catch (E403 e) {
@@ -2503,30 +2675,10 @@ public class Twitter implements Serializable {
 		List<Status> allResults = new ArrayList<Status>(Math.max(maxResults,
 				rpp));
 		String url = TWITTER_URL + "/search/tweets.json";
-		BigInteger maxId = untilId;
+		long maxId = untilId == null ? 0 : untilId.longValue();
 		do {
-			vars.put("max_id", maxId);
-			List<Status> stati;
-			try {
-				String json = http.getPage(url, vars, true);
-				stati = Status.getStatusesFromSearch(this, json);
-			} catch (TwitterException.Parsing pex) {
-				// Twitter bug, July 2012: malformed responses -- end is chopped off ~1 time in 20
-				// TODO remove when Twitter fix this!
-				if (http.isRetryOnError()) {
-					InternalUtils.sleep(250);
-					String json = http.getPage(url, vars, true);
-					stati = Status.getStatusesFromSearch(this, json);
-				} else {
-					throw pex;
-				}
-			} catch(TwitterException.E403 ex) {
-				// Try to send a more helpful error message TODO keep an eye out that this remains valid
-				if (ex.getMessage()!=null && ex.getMessage().startsWith("code 195:")) {
-					throw new TwitterException.E406("Search too long/complex: "+ex.getMessage());
-				}
-				throw ex;
-			}
+			vars.put("max_id", maxId == 0 ? null : Long.toString(maxId));
+			List<Status> stati = search2_page(url, vars);
 			int numResults = stati.size();
 			
 			maxId = InternalUtils.getMinId(maxId, stati);
@@ -2546,6 +2698,51 @@ public class Twitter implements Serializable {
 		return allResults;
 	}
 
+	/**
+	 * Fetch one page of search results, with one retry for malformed
+	 * responses.
+	 */
+	List<Status> search2_page(String url, Map<String, String> vars) {
+		try {
+			try {
+				String json = http.getPage(url, vars, true);
+				return Status.getStatusesFromSearch(this, json);
+			} catch (TwitterException.Parsing pex) {
+				// Twitter bug, July 2012: malformed responses -- end is chopped off ~1 time in 20
+				// TODO remove when Twitter fix this!
+				if ( ! http.isRetryOnError()) throw pex;
+				InternalUtils.sleep(250);
+				String json = http.getPage(url, vars, true);
+				return Status.getStatusesFromSearch(this, json);
+			}
+		} catch(TwitterException.E403 ex) {
+			// Try to send a more helpful error message TODO keep an eye out that this remains valid
+			if (ex.getMessage()!=null && ex.getMessage().startsWith("code 195:")) {
+				throw new TwitterException.E406("Search too long/complex: "+ex.getMessage());
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * A lazy version of {@link #search(String)}: pages are fetched as you
+	 * go, so this is good for deep searches. maxResults is ignored -- use
+	 * {@link StatusIterator#stream()} with limit() instead. The other search
+	 * settings (e.g. language, untilId, sinceDate) are as for search().
+	 */
+	public StatusIterator searchIterator(String searchTerm) {
+		if (searchTerm.length() > 1000) {
+			throw new TwitterException.E406("Search query too long: "+searchTerm);
+		}
+		Map<String, String> vars = getSearchParams(searchTerm, 100);
+		// (getSearchParams leaves an Integer in there)
+		vars.put("count", "100");
+		// popular results are not in date order
+		boolean chrono = resultType == null || SEARCH_RECENT.equals(resultType);
+		return new StatusIterator(this, TWITTER_URL + "/search/tweets.json",
+				vars, true, true, chrono);
+	}
+
 	/* DISABLED, but kept in code, just in case.
 	 * 
 	 * This fixes a couple of bugs in Twitter's search API:
@@ -2720,7 +2917,7 @@ public class Twitter implements Serializable {
 			String uri = isFavorite ? TWITTER_URL + "/favorites/create.json" 
 					: TWITTER_URL + "/favorites/destroy.json";
 			String json = http.post(uri, InternalUtils.asMap("id", status.id), true);
-			return new Status(new JSONObject(json), null);
+			return Status.getStatus(json, rawJson);
 		} catch (E403 e) {
 			// already a favorite?
 			if (e.getMessage() != null
@@ -2742,6 +2939,30 @@ public class Twitter implements Serializable {
 		this.includeRTs = includeRTs;
 	}
 
+	/**
+	 * NONE by default. Should tweets keep the json they were made from? This
+	 * is handy for debugging, or for fields JTwitter doesn't cover -- but it
+	 * costs memory. See {@link Status#getRawJson()}.
+	 * <p>
+	 * Streams copy this setting when they're made.
+	 * 
+	 * @param rawJson
+	 *            NONE, BYTES (compact, re-parsed on demand) or TREE (the
+	 *            full json tree -- several times the size of the tweet).
+	 */
+	public void setRawJson(KRawJson rawJson) {
+		assert rawJson != null;
+		this.rawJson = rawJson;
+	}
+
+	/**
+	 * @return What raw json tweets keep. NONE by default.
+	 * @see #setRawJson(KRawJson)
+	 */
+	public KRawJson getRawJson() {
+		return rawJson;
+	}
+
 	/**
 	 * Note: does NOT work for search() methods (not supported by Twitter).
 	 * 
@@ -3227,7 +3448,7 @@ public class Twitter implements Serializable {
 		String result = http.post(TWITTER_URL + "/statuses/update.json", vars,
 					true);
 		try {
-			Status s = new Status(new JSONObject(result), null);
+			Status s = Status.getStatus(result, rawJson);
 //			s = updateStatus2_safetyCheck(statusText, s);
 			return s;
 		} catch (JSONException e) {
@@ -3413,7 +3634,7 @@ public class Twitter implements Serializable {
 			// Breaking change from v1.0, which went to upload.twitter.com
 			String url = TWITTER_URL+"/statuses/update_with_media.json";
 			result = ((OAuthSignpostClient)http).postMultipartForm(url, vars);
-			Status s = new Status(new JSONObject(result), null);
+			Status s = Status.getStatus(result, rawJson);
 			// sanity check (c.f. unicode bug #6748)
 //			updateStatus2_safetyCheck(statusText, s);
 			return s;
@@ -3656,7 +3877,7 @@ public class Twitter implements Serializable {
 			result = http.post(url, vars,
 					true);
 			
-			Status s = new Status(new JSONObject(result), null);
+			Status s = Status.getStatus(result, rawJson);
 
 			return s;
 		} catch (E403 e) {
@@ -5,6 +5,8 @@ import java.util.Date;
 import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
 
+import winterwell.jtwitter.JsonRecord.KField;
+
 /**
  * User events, like following someone or being added to a list.
  * @author daniel
@@ -67,12 +69,19 @@ public class TwitterEvent {
 	}
 
 	public TwitterEvent(JSONObject jo, Twitter jtwit) throws JSONException {
-		type = jo.getString("event");
-		target = new User(jo.getJSONObject("target"), null);
-		source = new User(jo.getJSONObject("source"), null);
-		createdAt = InternalUtils.parseDate(jo.getString("created_at"));
+		this(JsonRecord.of(jo), jtwit);
+	}
+
+	/**
+	 * Does the work for {@link #TwitterEvent(JSONObject, Twitter)}
+	 */
+	TwitterEvent(JsonRecord jo, Twitter jtwit) throws JSONException {
+		type = jo.getString(KField.event);
+		target = new User(jo.getRecord(KField.target), null);
+		source = new User(jo.getRecord(KField.source), null);
+		createdAt = InternalUtils.parseDate(jo.getString(KField.created_at));
 		// TODO how can we tell what this is??
-		JSONObject to = jo.optJSONObject("target_object");
+		JSONObject to = jo.optJSONObject(KField.target_object);
 		if (to == null)
 			return;
 		if (to.has("member_count")) {
@@ -1,11 +1,19 @@
 package winterwell.jtwitter;
 
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
+import winterwell.jtwitter.Twitter.IHttpClient;
+import winterwell.jtwitter.Twitter.ITweet;
+
 
 
 /**
@@ -65,6 +73,12 @@ public class TwitterStream extends AStream {
 	 */
 	public static final int MAX_USERS = 5000;
 
+	/**
+	 * Search allows upto 1000 characters per query.
+	 * @see #fillInOutages()
+	 */
+	static final int MAX_QUERY_LENGTH = 1000;
+
 	/**
 	 * Used to help avoid breaking api limits.
 	 */
@@ -74,10 +88,17 @@ public class TwitterStream extends AStream {
 
 	private List<double[]> locns;
 
+	/**
+	 * Index over locns
+	 */
+	private volatile RegionIndex<double[]> regions;
+
 	KMethod method = KMethod.sample;
 
 	private List<String> track;
 
+	private int fillInThreads = 4;
+
 	/**
 	 * 
 	 * @param client
@@ -100,16 +121,34 @@ public class TwitterStream extends AStream {
 		if (track != null && track.size() != 0) {
 			vars.put("track", InternalUtils.join(track, 0, Integer.MAX_VALUE));
 		}
+		if (regions != null) {
+			vars.put("locations", connect2_locations(regions));
+		}
 		// If filtering, check we have a filter
 		if (vars.isEmpty() && method==KMethod.filter) {
 			throw new IllegalStateException("No filters set for "+this);
 		}
 		vars.put("delimited", "length");
 		// use post in case it's a long set of vars
-		HttpURLConnection con = client.post2_connect(url, vars);
+		HttpURLConnection con = client.post2_connect(url, vars, connect2_headers());
 		return con;
 	}
 
+	/**
+	 * @return the "locations" parameter: upto 25 boxes, as a flat list of
+	 *         numbers
+	 */
+	static String connect2_locations(RegionIndex<?> regions) {
+		StringBuilder sb = new StringBuilder();
+		for (double[] box : regions.getCover(RegionIndex.MAX_STREAM_BOXES)) {
+			for (double x : box) {
+				if (sb.length() != 0) sb.append(',');
+				sb.append(x);
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Protect the rate limits & _help_ you avoid annoying Twitter (only
 	 * locally! And forgetful! Do NOT rely on this)
@@ -134,44 +173,151 @@ public class TwitterStream extends AStream {
 		user2stream.put(jtwit.getScreenName(), this);
 	}
 
+	/**
+	 * Fill in from the REST API: the keywords OR'd together into as few
+	 * searches as will fit, plus the followed users' timelines -- run in
+	 * parallel (see {@link #setFillInThreads(int)}), within the outage's
+	 * since/until window.
+	 * <p>
+	 * No more calls are sent once the search or user_timeline rate limit is
+	 * used up. If any call fails, the outage goes back on the list -- the
+	 * tweets found are kept, and won't be repeated by the next attempt.
+	 */
 	@Override
-	int fillInOutages2(Twitter jtwit2, Outage outage) {
-		int cnt = 0;
+	int fillInOutages2(final Twitter jtwit2, final Outage outage) {
 		if (method != KMethod.filter)
 			throw new UnsupportedOperationException();
+		// regions? The REST API can't search by box, so these can't be filled in
+		if (locns != null && ! locns.isEmpty()) {
+			InternalUtils.log(LOGTAG, "Can't fill in locations for "+outage+" for "+this);
+		}
+		List<String> queries = track == null ? Collections.EMPTY_LIST : fillInOutages2_queries(track);
+		List<Long> users = follow == null ? Collections.EMPTY_LIST : follow;
+		outage.fillCalls = queries.size() + users.size();
+		Twitter_Async async = jtwit2.async();
+		async.setMaxInFlight(fillInThreads);
+		final FillBudget searches = new FillBudget(jtwit2, RateLimit.RES_SEARCH);
+		final FillBudget timelines = new FillBudget(jtwit2, RateLimit.RES_USER_TIMELINE);
+		List<CompletableFuture<List<Status>>> calls = new ArrayList();
 		// keywords?
-		if (track != null) {
-			for (String keyword : track) {
-				List<Status> msgs = jtwit.search(keyword);
-				for (Status status : msgs) {
-					if (tweets.contains(status)) {
-						continue;
+		for (final String query : queries) {
+			calls.add(async.call(RateLimit.RES_SEARCH, new Callable<List<Status>>() {
+				@Override
+				public List<Status> call() {
+					try {
+						searches.check();
+						return jtwit2.search(query);
+					} catch (TwitterException.RateLimit ex) {
+						searches.spent = true;
+						throw ex;
+					} finally {
+						outage.fillCallDone();
 					}
-					tweets.add(status);
-					cnt++;
 				}
-			}
+			}));
 		}
-		
 		// users?
-		if (follow != null) {
-			for (Long user : follow) {
-				List<Status> msgs = jtwit.getUserTimeline(user);
-				for (Status status : msgs) {
-					if (tweets.contains(status)) {
+		for (final Long user : users) {
+			calls.add(async.call(RateLimit.RES_USER_TIMELINE, new Callable<List<Status>>() {
+				@Override
+				public List<Status> call() {
+					try {
+						timelines.check();
+						return jtwit2.getUserTimeline(user);
+					} catch (TwitterException.RateLimit ex) {
+						timelines.spent = true;
+						throw ex;
+					} finally {
+						outage.fillCallDone();
+					}
+				}
+			}));
+		}
+		// Collect here, as they come in -- one thread adding tweets
+		int cnt = 0;
+		RuntimeException error = null;
+		for (CompletableFuture<List<Status>> call : calls) {
+			try {
+				for (Status status : call.join()) {
+					if ( ! addTweet(status)) {
 						continue;
 					}
-					tweets.add(status);
 					cnt++;
 				}
+				outage.fillFound = cnt;
+			} catch (CompletionException ex) {
+				if (error != null) continue;
+				Throwable cause = ex.getCause();
+				error = cause instanceof RuntimeException ? (RuntimeException) cause
+						: new TwitterException(cause.toString());
 			}
 		}
-		// regions?
-		if (locns != null && ! locns.isEmpty())
-			throw new UnsupportedOperationException("TODO"); // TODO
+		if (error != null) {
+			throw error;
+		}
 		return cnt;
 	}
 
+	/**
+	 * @return the keywords, OR'd together into queries of upto
+	 *         {@link #MAX_QUERY_LENGTH} characters. Phrases are bracketed, as
+	 *         a phrase tracks tweets with all of its words.
+	 */
+	static List<String> fillInOutages2_queries(List<String> keywords) {
+		List<String> queries = new ArrayList();
+		StringBuilder query = new StringBuilder();
+		for (String kw : keywords) {
+			kw = kw.trim();
+			if (kw.length() == 0) continue;
+			String term = kw.indexOf(' ') == -1 ? kw : "(" + kw + ")";
+			if (query.length() != 0
+					&& query.length() + 4 + term.length() > MAX_QUERY_LENGTH) {
+				queries.add(query.toString());
+				query = new StringBuilder();
+			}
+			if (query.length() != 0) query.append(" OR ");
+			query.append(term);
+		}
+		if (query.length() != 0) queries.add(query.toString());
+		return queries;
+	}
+
+	/**
+	 * Stops outage fill-in calls when a rate limit is used up.
+	 */
+	private static final class FillBudget {
+		final IHttpClient http;
+		final String resource;
+		/** set when Twitter says no */
+		volatile boolean spent;
+
+		FillBudget(Twitter jtwit, String resource) {
+			this.http = jtwit.getHttpClient();
+			this.resource = resource;
+		}
+
+		void check() throws TwitterException.RateLimit {
+			if (spent) {
+				throw new TwitterException.PreEmptiveRateLimit(resource+" rate limit used up");
+			}
+			RateLimit rl = http.getRateLimits().get(resource);
+			if (rl != null && ! rl.isOutOfDate() && rl.getRemaining() <= 0) {
+				spent = true;
+				throw new TwitterException.PreEmptiveRateLimit(resource+" rate limit used up until "+rl.getReset());
+			}
+		}
+	}
+
+	/**
+	 * @param threads
+	 *            The most REST calls to run at once (for each of search and
+	 *            user_timeline) when filling in outages. 4 by default.
+	 */
+	public void setFillInThreads(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("" + threads);
+		this.fillInThreads = threads;
+	}
+
 	/**
 	 * @return Can be null
 	 */
@@ -199,22 +345,56 @@ public class TwitterStream extends AStream {
 	}
 
 	/**
-	 * TODO This is not implemented yet!
-	 * 25 0.1-360 degree location boxes.
-	 * 
+	 * Follow tweets from these regions.
+	 * <p>
 	 * Only tweets that are both created using the Geotagging API and are placed
 	 * from within a tracked bounding box will be included in the stream – the
-	 * user’s location field is not used to filter tweets
+	 * user’s location field is not used to filter tweets. Note: filters are
+	 * OR'd, so if you also track keywords or users, you'll get their tweets
+	 * from elsewhere too.
+	 * <p>
+	 * Twitter allow 25 boxes per stream. If you give more, the stream asks
+	 * for upto 25 bigger boxes which cover them all (see
+	 * {@link RegionIndex#getCover(int)}) -- so use {@link #getRegions(ITweet)}
+	 * to see which of your boxes (if any) a tweet is in.
 	 * 
 	 * @param boundingBoxes
 	 *            Each element consists of longitude/latitude south-west,
-	 *            north-east.
+	 *            north-east. I.e. {west, south, east, north} -- Twitter's
+	 *            order. Can be null to clear.
 	 */
-	@Deprecated // TODO
 	public void setLocation(List<double[]> boundingBoxes) {
+		if (boundingBoxes == null || boundingBoxes.isEmpty()) {
+			locns = null;
+			regions = null;
+			return;
+		}
+		RegionIndex<double[]> index = new RegionIndex<double[]>();
+		for (double[] box : boundingBoxes) {
+			index.add(box, box);
+		}
 		method = KMethod.filter;
 		this.locns = boundingBoxes;
-		throw new RuntimeException("TODO! Not implemented yet (sorry)");
+		this.regions = index;
+	}
+
+	/**
+	 * @return The regions you set, or null.
+	 */
+	public List<double[]> getLocation() {
+		return locns;
+	}
+
+	/**
+	 * @param tweet
+	 * @return the boxes from {@link #setLocation(List)} which this tweet is
+	 *         in -- by its geo coordinates if it has them, failing that by its
+	 *         place. Empty if none (or if no location is set).
+	 */
+	public List<double[]> getRegions(ITweet tweet) {
+		RegionIndex<double[]> index = regions;
+		if (index == null) return Collections.EMPTY_LIST;
+		return index.find(tweet);
 	}
 
 	/**
@@ -277,7 +457,7 @@ public class TwitterStream extends AStream {
 			sb.append(" follow:" + InternalUtils.join(follow, 0, 5));
 		}
 		if (locns != null) {
-			sb.append(" in:" + InternalUtils.join(locns, 0, 5));
+			sb.append(" in:" + locns.size() + " boxes");
 		}
 		sb.append(" by:" + jtwit.getScreenNameIfKnown());		
 		sb.append("]");
@@ -0,0 +1,561 @@
+package winterwell.jtwitter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.Twitter.ITweet;
+
+/**
+ * Track more keywords / follow more users than one stream allows, by sharing
+ * them out over several {@link TwitterStream}s -- each on its own login
+ * (Twitter allow one stream per account).
+ * <p>
+ * The output is merged: tweets which match on more than one stream are
+ * passed on once, and tweets are held for a moment (see
+ * {@link #setReorderMillis(long)}) so they come out in id order. Use
+ * {@link #addListener(IListen)} and/or {@link #popTweets()}.
+ * <p>
+ * If a stream dies (i.e. it's not connected and not trying to reconnect --
+ * see {@link AStream#isAlive()}), its keywords and users are moved onto the
+ * other streams, which reconnect with the extra filters. Nothing is dropped:
+ * if the others are full, the terms stay put until {@link #connect()} is
+ * called again. The reconnects are logged as outages, so
+ * {@link #fillInOutages()} can cover the gap.
+ * <p>
+ * <h3>Threading</h3>
+ * The group has one thread, which polls the streams, and calls the listeners
+ * -- so listeners see one message at a time, and a slow listener doesn't
+ * hold up the streams. Reconnects (which can take minutes) get a thread of
+ * their own, so the healthy streams keep being polled meanwhile.
+ *
+ * @testedby TwitterStreamGroupTest
+ * @author daniel
+ */
+public class TwitterStreamGroup implements Closeable {
+
+	private static final class Held {
+		final ITweet tweet;
+		final long time;
+
+		Held(ITweet tweet, long time) {
+			this.tweet = tweet;
+			this.time = time;
+		}
+	}
+
+	private static final Comparator<Held> BY_ID = new Comparator<Held>() {
+		@Override
+		public int compare(Held a, Held b) {
+			return Long.compare(a.tweet.getIdLong(), b.tweet.getIdLong());
+		}
+	};
+
+	final String LOGTAG = "TwitterStreamGroup";
+
+	private final List<TwitterStream> streams;
+
+	/**
+	 * false if a stream has died
+	 */
+	private final boolean[] live;
+
+	/**
+	 * What each stream is tracking
+	 */
+	private final List<List<String>> trackShards;
+
+	private final List<List<Long>> followShards;
+
+	private List<String> track = Collections.EMPTY_LIST;
+
+	private List<Long> follow = Collections.EMPTY_LIST;
+
+	final List<IListen> listeners = new CopyOnWriteArrayList<IListen>();
+
+	private final SeenIds seen = new SeenIds(100000, 10 * 60 * 1000);
+
+	/**
+	 * Tweets waiting for stragglers, smallest id first. Lock on this.
+	 */
+	private final PriorityQueue<Held> held = new PriorityQueue<Held>(64, BY_ID);
+
+	/**
+	 * Merged tweets, for {@link #popTweets()}. Lock on held.
+	 */
+	private RingBuffer<ITweet> tweets = new RingBuffer(AStream.MAX_BUFFER);
+
+	private volatile long reorderMillis = 1000;
+
+	private volatile long pollMillis = 100;
+
+	private volatile Thread poller;
+
+	private volatile boolean connected;
+
+	private int rebalances;
+
+	/**
+	 * Streams with a reconnect in progress. Lock on this.
+	 */
+	private final Set<TwitterStream> reconnecting = new HashSet<TwitterStream>();
+
+	/**
+	 * Streams whose filters changed during their reconnect, so need another.
+	 * Lock on this.
+	 */
+	private final Set<TwitterStream> redo = new HashSet<TwitterStream>();
+
+	/**
+	 * @param logins
+	 *            One per stream. Each must be a different account.
+	 */
+	public TwitterStreamGroup(List<Twitter> logins) {
+		this(newStreams(logins));
+	}
+
+	TwitterStreamGroup(TwitterStream... _streams) {
+		List<TwitterStream> streams = Arrays.asList(_streams);
+		if (streams.isEmpty()) throw new IllegalArgumentException("No streams");
+		Set<String> names = new HashSet<String>();
+		for (TwitterStream ts : streams) {
+			String name = ts.jtwit.getScreenNameIfKnown();
+			if (name != null && ! names.add(name)) {
+				throw new IllegalArgumentException("One account, one stream: "
+						+ name + " is used twice");
+			}
+		}
+		this.streams = new ArrayList<TwitterStream>(streams);
+		live = new boolean[streams.size()];
+		trackShards = new ArrayList<List<String>>();
+		followShards = new ArrayList<List<Long>>();
+		for (int i = 0; i < streams.size(); i++) {
+			live[i] = true;
+			trackShards.add(Collections.EMPTY_LIST);
+			followShards.add(Collections.EMPTY_LIST);
+		}
+	}
+
+	private static TwitterStream[] newStreams(List<Twitter> logins) {
+		TwitterStream[] streams = new TwitterStream[logins.size()];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new TwitterStream(logins.get(i));
+		}
+		return streams;
+	}
+
+	/**
+	 * @param keywords
+	 *            Upto {@link TwitterStream#MAX_KEYWORDS} per stream
+	 * @throws IllegalArgumentException
+	 *             if there are too many for the streams
+	 */
+	public synchronized void setTrackKeywords(List<String> keywords) {
+		if (keywords.size() > TwitterStream.MAX_KEYWORDS * streams.size()) {
+			throw new IllegalArgumentException("Too many tracked terms: "
+					+ keywords.size() + " (" + streams.size() + " x "
+					+ TwitterStream.MAX_KEYWORDS + " limit)");
+		}
+		track = new ArrayList<String>(keywords);
+		if (connected) rebalance();
+	}
+
+	/**
+	 * @param userIds
+	 *            Upto {@link TwitterStream#MAX_USERS} per stream
+	 * @throws IllegalArgumentException
+	 *             if there are too many for the streams
+	 */
+	public synchronized void setFollowUsers(List<Long> userIds) {
+		if (userIds.size() > TwitterStream.MAX_USERS * streams.size()) {
+			throw new IllegalArgumentException("Too many users: "
+					+ userIds.size() + " (" + streams.size() + " x "
+					+ TwitterStream.MAX_USERS + " limit)");
+		}
+		follow = new ArrayList<Long>(userIds);
+		if (connected) rebalance();
+	}
+
+	/**
+	 * @param millisecs
+	 *            How long to hold tweets, waiting for any with a lower id to
+	 *            turn up from the other streams. 1 second by default. 0 for
+	 *            no re-ordering.
+	 */
+	public void setReorderMillis(long millisecs) {
+		this.reorderMillis = millisecs;
+	}
+
+	/**
+	 * @param millisecs
+	 *            How often to check the streams. 100ms by default.
+	 */
+	void setPollMillis(long millisecs) {
+		this.pollMillis = millisecs;
+	}
+
+	/**
+	 * @return the streams -- e.g. to set auto-reconnect or read outages.
+	 *         Don't change their filters directly.
+	 */
+	public List<TwitterStream> getStreams() {
+		return Collections.unmodifiableList(streams);
+	}
+
+	/**
+	 * @return the keywords each stream is tracking
+	 */
+	public synchronized List<List<String>> getTrackShards() {
+		return new ArrayList<List<String>>(trackShards);
+	}
+
+	/**
+	 * @return the users each stream is following
+	 */
+	public synchronized List<List<Long>> getFollowShards() {
+		return new ArrayList<List<Long>>(followShards);
+	}
+
+	/**
+	 * @return how many times filters have been moved off a dead stream
+	 */
+	public synchronized int getRebalances() {
+		return rebalances;
+	}
+
+	/**
+	 * @return tweets which arrived on more than one stream (or twice on one),
+	 *         and were passed on once
+	 */
+	public long getDuplicates() {
+		return seen.getHits();
+	}
+
+	/**
+	 * Add a listener to the front of the queue. Listeners are called from
+	 * the group's thread.
+	 */
+	public void addListener(IListen listener) {
+		synchronized (listeners) {
+			listeners.remove(listener);
+			listeners.add(0, listener);
+		}
+	}
+
+	public boolean removeListener(IListen listener) {
+		return listeners.remove(listener);
+	}
+
+	/**
+	 * Share out the filters, and connect all the streams. Streams which had
+	 * died are given another chance.
+	 */
+	public synchronized void connect() throws TwitterException {
+		for (int i = 0; i < live.length; i++) {
+			live[i] = true;
+		}
+		assign();
+		for (int i = 0; i < streams.size(); i++) {
+			if (trackShards.get(i).isEmpty() && followShards.get(i).isEmpty()) {
+				// nothing for this one to do
+				streams.get(i).close();
+				continue;
+			}
+			streams.get(i).connect();
+		}
+		connected = true;
+		if (poller == null) {
+			poller = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					poll();
+				}
+			}, "StreamGroup:" + streams.size());
+			poller.setDaemon(true);
+			poller.start();
+		}
+	}
+
+	/**
+	 * Share the filters out over the live streams, leaving things where they
+	 * are where possible (a change means a reconnect).
+	 *
+	 * @return the streams whose filters have changed
+	 */
+	private List<Integer> assign() {
+		List<List<String>> newTrack = assign2(trackShards, track, TwitterStream.MAX_KEYWORDS);
+		List<List<Long>> newFollow = assign2(followShards, follow, TwitterStream.MAX_USERS);
+		List<Integer> changed = new ArrayList<Integer>();
+		for (int i = 0; i < streams.size(); i++) {
+			if (newTrack.get(i).equals(trackShards.get(i))
+					&& newFollow.get(i).equals(followShards.get(i))) {
+				continue;
+			}
+			changed.add(i);
+			trackShards.set(i, newTrack.get(i));
+			followShards.set(i, newFollow.get(i));
+			TwitterStream ts = streams.get(i);
+			ts.setTrackKeywords(newTrack.get(i));
+			ts.setFollowUsers(newFollow.get(i));
+		}
+		return changed;
+	}
+
+	private <X> List<List<X>> assign2(List<List<X>> current, List<X> items, int max) {
+		Set<X> wanted = new HashSet<X>(items);
+		List<List<X>> next = new ArrayList<List<X>>();
+		Set<X> placed = new HashSet<X>();
+		// keep what's on the live streams
+		for (int i = 0; i < current.size(); i++) {
+			List<X> shard = new ArrayList<X>();
+			if (live[i]) {
+				for (X x : current.get(i)) {
+					if (wanted.contains(x) && placed.add(x)) shard.add(x);
+				}
+			}
+			next.add(shard);
+		}
+		// new items, and those from dead streams, to the emptiest live stream
+		for (X x : new LinkedHashSet<X>(items)) {
+			if (placed.contains(x)) continue;
+			int best = -1;
+			for (int i = 0; i < next.size(); i++) {
+				if ( ! live[i] || next.get(i).size() >= max) continue;
+				if (best == -1 || next.get(i).size() < next.get(best).size()) best = i;
+			}
+			if (best == -1) {
+				// no room -- leave it where it was
+				for (int i = 0; i < current.size(); i++) {
+					if (current.get(i).contains(x)) best = i;
+				}
+				InternalUtils.log(LOGTAG, "No room for " + x + " on the live streams");
+				if (best == -1) continue;
+			}
+			next.get(best).add(x);
+			placed.add(x);
+		}
+		return next;
+	}
+
+	/**
+	 * Move filters off dead streams, and reconnect the streams which pick
+	 * them up. This is done automatically -- but you can call it to force a
+	 * check. The reconnects run on their own threads, as they can be slow if
+	 * Twitter is having problems (it backs off for upto 15 minutes).
+	 */
+	public synchronized void rebalance() {
+		for (int i = 0; i < streams.size(); i++) {
+			TwitterStream ts = streams.get(i);
+			boolean busy = ! trackShards.get(i).isEmpty() || ! followShards.get(i).isEmpty();
+			// Note: any tweets it still holds are popped by poll2() as usual
+			if (live[i] && busy && ! ts.isAlive() && ! reconnecting.contains(ts)) {
+				InternalUtils.log(LOGTAG, "Stream died: " + ts);
+				live[i] = false;
+			}
+		}
+		List<Integer> changed = assign();
+		if (changed.isEmpty()) return;
+		rebalances++;
+		for (int i : changed) {
+			TwitterStream ts = streams.get(i);
+			if ( ! live[i]) continue;
+			if (trackShards.get(i).isEmpty() && followShards.get(i).isEmpty()) {
+				ts.close();
+				continue;
+			}
+			reconnect(ts);
+		}
+	}
+
+	/**
+	 * Reconnect ts with its new filters, on a thread of its own. Lock on
+	 * this.
+	 */
+	private void reconnect(final TwitterStream ts) {
+		if ( ! reconnecting.add(ts)) {
+			// it may have read the old filters already
+			redo.add(ts);
+			return;
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (connected) {
+						InternalUtils.log(LOGTAG, "Reconnecting with new filters: " + ts);
+						ts.close();
+						try {
+							// logs an outage, for fillInOutages()
+							ts.reconnect();
+						} catch (Exception ex) {
+							InternalUtils.log(LOGTAG, "Reconnect failed: " + ts + " " + ex);
+						}
+						synchronized (TwitterStreamGroup.this) {
+							if ( ! redo.remove(ts)) break;
+						}
+					}
+					if ( ! connected) ts.close();
+				} finally {
+					synchronized (TwitterStreamGroup.this) {
+						reconnecting.remove(ts);
+						redo.remove(ts);
+					}
+				}
+			}
+		}, "StreamGroup reconnect:" + ts);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * The group's thread
+	 */
+	private void poll() {
+		while (poller == Thread.currentThread()) {
+			try {
+				poll2();
+				if (connected) {
+					rebalance();
+				}
+				Thread.sleep(pollMillis);
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable e) {
+				// keep going
+				InternalUtils.log(LOGTAG, e);
+			}
+		}
+	}
+
+	/**
+	 * Collect from the streams, and pass on any tweets which have waited
+	 * long enough.
+	 */
+	void poll2() {
+		List<Object> msgs = new ArrayList<Object>();
+		long now = System.currentTimeMillis();
+		for (TwitterStream ts : streams) {
+			// Note: this includes streams which are down (without trying to
+			// reconnect them), so nothing they had buffered is lost when
+			// rebalance() moves their filters.
+			try {
+				for (ITweet tweet : ts.drain(msgs)) {
+					if ( ! seen.add(tweet.getIdLong())) continue;
+					synchronized (held) {
+						held.add(new Held(tweet, now));
+					}
+				}
+			} catch (TwitterException ex) {
+				InternalUtils.log(LOGTAG, ts + " " + ex);
+			}
+		}
+		// ready?
+		synchronized (held) {
+			while ( ! held.isEmpty() && now - held.peek().time >= reorderMillis) {
+				ITweet tweet = held.poll().tweet;
+				tweets.push(tweet);
+				msgs.add(tweet);
+			}
+		}
+		notifyListeners(msgs);
+	}
+
+	private void notifyListeners(List<Object> msgs) {
+		if (listeners.isEmpty()) return;
+		for (Object msg : msgs) {
+			for (IListen listener : listeners) {
+				try {
+					if ( ! AStream.notifyListener(listener, msg)) {
+						break;
+					}
+				} catch (Exception e) {
+					// swallow it & keep going
+					InternalUtils.log(LOGTAG, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the merged tweets which have come through since the last call,
+	 *         in order. This does not include tweets still being held for
+	 *         re-ordering.
+	 */
+	public List<ITweet> popTweets() {
+		synchronized (held) {
+			RingBuffer<ITweet> ts = tweets;
+			tweets = new RingBuffer(AStream.MAX_BUFFER);
+			return ts;
+		}
+	}
+
+	/**
+	 * @return true if any stream is alive
+	 */
+	public boolean isAlive() {
+		for (TwitterStream ts : streams) {
+			if (ts.isAlive()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Fill in each stream's outages -- see {@link AStream#fillInOutages()}.
+	 * The tweets found come through as usual.
+	 *
+	 * @return null if all OK, else the last exception
+	 */
+	public Exception fillInOutages() {
+		Exception ex = null;
+		for (TwitterStream ts : streams) {
+			Exception ex2 = ts.fillInOutages();
+			if (ex2 != null) ex = ex2;
+		}
+		return ex;
+	}
+
+	/**
+	 * Close the streams, and pass on any tweets being held.
+	 */
+	@Override
+	public void close() {
+		Thread p = poller;
+		poller = null;
+		connected = false;
+		if (p != null) {
+			p.interrupt();
+			try {
+				p.join(1000);
+			} catch (InterruptedException e) {
+				// oh well
+			}
+		}
+		for (TwitterStream ts : streams) {
+			ts.close();
+		}
+		List<Object> msgs = new ArrayList<Object>();
+		synchronized (held) {
+			while ( ! held.isEmpty()) {
+				ITweet tweet = held.poll().tweet;
+				tweets.push(tweet);
+				msgs.add(tweet);
+			}
+		}
+		notifyListeners(msgs);
+	}
+
+	@Override
+	public String toString() {
+		return "TwitterStreamGroup[" + streams.size() + " streams, track:"
+				+ track.size() + " follow:" + follow.size() + "]";
+	}
+}
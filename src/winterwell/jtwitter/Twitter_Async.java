@@ -0,0 +1,349 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking versions of the common read calls. Use {@link Twitter#async()}
+ * to get one of these objects.
+ * <p>
+ * Each call returns at once with a CompletableFuture, and runs on a worker
+ * thread. Calls are queued per rate-limit resource (e.g.
+ * "/statuses/user_timeline"), with at most {@link #setMaxInFlight(int)}
+ * running at a time for each -- so fanning out over 10,000 accounts doesn't
+ * mean 10,000 threads or a burst that blows the rate limit, and a long queue
+ * of timeline calls doesn't hold up a search.
+ * <p>
+ * The calls use the Twitter object's settings (e.g. maxResults, sinceId) as
+ * they are when the call runs, so don't change those whilst calls are in
+ * flight. Errors are the usual TwitterExceptions, which complete the future
+ * exceptionally.
+ *
+ * @author daniel
+ */
+public class Twitter_Async {
+
+	/**
+	 * Shared by all Twitter objects. The per-resource limits keep the number
+	 * of threads in check.
+	 */
+	private static final ExecutorService DEFAULT_EXECUTOR = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger cnt = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Twitter_Async-" + cnt.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * The queue for one rate-limit resource.
+	 */
+	private static final class Lane {
+		final ArrayDeque<Job> waiting = new ArrayDeque<Job>();
+		int running;
+	}
+
+	private final class Job<X> implements Runnable {
+		final Lane lane;
+		final Callable<X> call;
+		final CompletableFuture<X> future = new CompletableFuture<X>();
+		/** the caller's tag, for a {@link RateLimitScheduler} */
+		final RateLimitScheduler.KPriority priority = RateLimitScheduler.getPriority();
+
+		Job(Lane lane, Callable<X> call) {
+			this.lane = lane;
+			this.call = call;
+		}
+
+		@Override
+		public void run() {
+			X value = null;
+			Throwable error = null;
+			try {
+				// cancelled whilst queued?
+				if (future.isDone()) return;
+				RateLimitScheduler.setPriority(priority);
+				value = call.call();
+			} catch (Throwable ex) {
+				error = ex;
+			} finally {
+				RateLimitScheduler.setPriority(null);
+				// free the slot first, so whoever's waiting on the future sees it free
+				done(lane);
+			}
+			if (error != null) {
+				future.completeExceptionally(error);
+			} else {
+				future.complete(value);
+			}
+		}
+
+		void start() {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException ex) {
+				future.completeExceptionally(ex);
+				done(lane);
+			}
+		}
+	}
+
+	private final Twitter jtwit;
+
+	private volatile Executor executor = DEFAULT_EXECUTOR;
+
+	private volatile int maxInFlight = 4;
+
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+	Twitter_Async(Twitter jtwit) {
+		this.jtwit = jtwit;
+	}
+
+	/**
+	 * @param executor
+	 *            Runs the calls. The default is a shared pool of daemon
+	 *            threads.
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null) throw new NullPointerException();
+		this.executor = executor;
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            The most calls to run at once for each rate-limit resource. 4
+	 *            by default. Queued calls are not affected until a slot frees
+	 *            up.
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) throw new IllegalArgumentException("" + maxInFlight);
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return the number of calls queued or running for this resource, e.g.
+	 *         {@link RateLimit#RES_USER_TIMELINE}
+	 */
+	public int getPending(String resource) {
+		Lane lane;
+		synchronized (lanes) {
+			lane = lanes.get(resource);
+		}
+		if (lane == null) return 0;
+		synchronized (lane) {
+			return lane.running + lane.waiting.size();
+		}
+	}
+
+	/**
+	 * Run any call, queued with the other calls for this resource. Use this
+	 * for the API methods which don't have an async version here.
+	 *
+	 * @param resource
+	 *            E.g. {@link RateLimit#RES_USER_TIMELINE}
+	 * @param call
+	 *            E.g. an anonymous class which calls a Twitter method
+	 */
+	public <X> CompletableFuture<X> call(String resource, Callable<X> call) {
+		Lane lane;
+		synchronized (lanes) {
+			lane = lanes.get(resource);
+			if (lane == null) {
+				lane = new Lane();
+				lanes.put(resource, lane);
+			}
+		}
+		Job<X> job = new Job<X>(lane, call);
+		synchronized (lane) {
+			if (lane.running >= maxInFlight) {
+				lane.waiting.add(job);
+				return job.future;
+			}
+			lane.running++;
+		}
+		job.start();
+		return job.future;
+	}
+
+	/**
+	 * A job has finished: start the next in its lane, if there is one.
+	 */
+	private void done(Lane lane) {
+		Job next;
+		synchronized (lane) {
+			next = lane.running > maxInFlight ? null : lane.waiting.poll();
+			if (next == null) {
+				lane.running--;
+				return;
+			}
+		}
+		next.start();
+	}
+
+	/**
+	 * @see Twitter#getUserTimeline(String)
+	 */
+	public CompletableFuture<List<Status>> getUserTimeline(final String screenName) {
+		return call(RateLimit.RES_USER_TIMELINE, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return jtwit.getUserTimeline(screenName);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter#getUserTimeline(Long)
+	 */
+	public CompletableFuture<List<Status>> getUserTimeline(final Long userId) {
+		return call(RateLimit.RES_USER_TIMELINE, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return jtwit.getUserTimeline(userId);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter#getHomeTimeline()
+	 */
+	public CompletableFuture<List<Status>> getHomeTimeline() {
+		return call(RateLimit.RES_HOME_TIMELINE, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return jtwit.getHomeTimeline();
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter#getMentions()
+	 */
+	public CompletableFuture<List<Status>> getMentions() {
+		return call(RateLimit.RES_MENTIONS, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return jtwit.getMentions();
+			}
+		});
+	}
+
+	/**
+	 * @see TwitterList#getStatuses()
+	 */
+	public CompletableFuture<List<Status>> getStatuses(final TwitterList list) {
+		return call(RateLimit.RES_LISTS_STATUSES, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return list.getStatuses();
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter#getStatus(Number)
+	 */
+	public CompletableFuture<Status> getStatus(final Number id) {
+		return call(RateLimit.RES_STATUS_SHOW, new Callable<Status>() {
+			@Override
+			public Status call() {
+				return jtwit.getStatus(id);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter#search(String)
+	 */
+	public CompletableFuture<List<Status>> search(final String searchTerm) {
+		return call(RateLimit.RES_SEARCH, new Callable<List<Status>>() {
+			@Override
+			public List<Status> call() {
+				return jtwit.search(searchTerm);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter_Users#show(String)
+	 */
+	public CompletableFuture<User> show(final String screenName) {
+		return call(RateLimit.RES_USERS_SHOW1, new Callable<User>() {
+			@Override
+			public User call() {
+				return jtwit.users().show(screenName);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter_Users#show(Number)
+	 */
+	public CompletableFuture<User> show(final Number userId) {
+		return call(RateLimit.RES_USERS_SHOW1, new Callable<User>() {
+			@Override
+			public User call() {
+				return jtwit.users().show(userId);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter_Users#show(Collection)
+	 */
+	public CompletableFuture<List<User>> show(final Collection<String> screenNames) {
+		return call(RateLimit.RES_USERS_BULK_SHOW, new Callable<List<User>>() {
+			@Override
+			public List<User> call() {
+				return jtwit.users().show(screenNames);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter_Users#getFollowerIDsLong(String, Long)
+	 */
+	public CompletableFuture<LongListWithCursor> getFollowerIDs(
+			final String screenName, final Long userId) {
+		return call(RateLimit.RES_FOLLOWER_IDS, new Callable<LongListWithCursor>() {
+			@Override
+			public LongListWithCursor call() {
+				return jtwit.users().getFollowerIDsLong(screenName, userId);
+			}
+		});
+	}
+
+	/**
+	 * @see Twitter_Users#getFriendIDsLong(String, Long)
+	 */
+	public CompletableFuture<LongListWithCursor> getFriendIDs(
+			final String screenName, final Long userId) {
+		return call(RateLimit.RES_FRIEND_IDS, new Callable<LongListWithCursor>() {
+			@Override
+			public LongListWithCursor call() {
+				return jtwit.users().getFriendIDsLong(screenName, userId);
+			}
+		});
+	}
+
+}
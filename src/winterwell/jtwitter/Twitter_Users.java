@@ -77,20 +77,20 @@ public class Twitter_Users {
 		ArrayList<User> users = new ArrayList<User>(screenNamesOrIds.size());
 		List _screenNamesOrIds = screenNamesOrIds instanceof List ? (List) screenNamesOrIds
 				: new ArrayList(screenNamesOrIds);
+		String var = stringOrNumber == String.class ? "screen_name"
+				: "user_id";
 		for (int i = 0; i < _screenNamesOrIds.size(); i += batchSize) {
 			int last = i + batchSize;
-			String names = InternalUtils.join(_screenNamesOrIds, i, last);
-			String var = stringOrNumber == String.class ? "screen_name"
-					: "user_id";
-			Map<String, String> vars = InternalUtils.asMap(var, names);
 			try {
-				// NB: method=post was causing an error: TwitterException: 400 code 86: This method requires a GET or HEAD
-				String json = http.getPage(jtwit.TWITTER_URL + apiMethod, vars, auth);
-				List<User> usersi = User.getUsers(json);
+				List<User> usersi = bulkShow2_batch(apiMethod, var,
+						_screenNamesOrIds, i, last, auth);
 				users.addAll(usersi);
-			} catch (TwitterException.E404 e) {
-				// All names were bogus or deleted users!
-				// Oh well
+			} catch (JSONException e) {
+				TwitterException pex = new TwitterException.Parsing(null, e);
+				if (users.size() == 0)
+					throw pex;
+				pex.printStackTrace();
+				break;
 			} catch (TwitterException e) {
 				// Stop here.
 				// Don't normally throw an exception so we don't waste the
@@ -104,6 +104,39 @@ public class Twitter_Users {
 		return users;
 	}
 
+	/**
+	 * One round-trip of {@link #bulkShow2(String, Class, Collection)}
+	 * 
+	 * @param var "screen_name" or "user_id"
+	 * @param i Start of the batch, inclusive
+	 * @param last End of the batch, exclusive. Can be beyond the end of the list.
+	 * @return the users found -- empty if they were all bogus or deleted.
+	 */
+	List<User> bulkShow2_batch(String apiMethod, String var,
+			List screenNamesOrIds, int i, int last, boolean auth) {
+		String names = InternalUtils.join(screenNamesOrIds, i, last);
+		Map<String, String> vars = InternalUtils.asMap(var, names);
+		try {
+			// NB: method=post was causing an error: TwitterException: 400 code 86: This method requires a GET or HEAD
+			JSONArray json = jtwit.getPageJSONArray(jtwit.TWITTER_URL + apiMethod, vars, auth,
+					JsonFields.USER);
+			return User.getUsers2(json);
+		} catch (TwitterException.E404 e) {
+			// All names were bogus or deleted users!
+			// Oh well
+			return Collections.EMPTY_LIST;
+		}
+	}
+
+	/**
+	 * @return an engine for hydrating lots of users, with several calls in
+	 *         flight at once.
+	 * @see #showById(Collection)
+	 */
+	public BulkUserLookup bulkLookup() {
+		return new BulkUserLookup(jtwit);
+	}
+
 	/**
 	 * Start following a user.
 	 * 
@@ -222,6 +255,22 @@ public class Twitter_Users {
 		return getUserIDs(jtwit.TWITTER_URL + "/followers/ids.json", null, userId);
 	}
 
+	/**
+	 * As {@link #getFollowerIDs(String)}, but as primitive longs -- which is
+	 * a lot lighter for big follower lists.
+	 * 
+	 * @param screenName
+	 *            Can be null
+	 * @param userId
+	 *            Can be null. If both are null, this gets the authenticating
+	 *            user's followers.
+	 * @throws TwitterException
+	 */
+	public LongListWithCursor getFollowerIDsLong(String screenName, Long userId)
+			throws TwitterException {
+		return getUserIDs2(jtwit.TWITTER_URL + "/followers/ids.json", screenName, userId);
+	}
+
 	/**
 	 * Returns the authenticating user's (latest) followers, each with current
 	 * status inline. Occasionally contains duplicates.
@@ -291,6 +340,21 @@ public class Twitter_Users {
 		return getUserIDs(jtwit.TWITTER_URL + "/friends/ids.json", null, userId);
 	}
 
+	/**
+	 * As {@link #getFriendIDs(String)}, but as primitive longs.
+	 * 
+	 * @param screenName
+	 *            Can be null
+	 * @param userId
+	 *            Can be null. If both are null, this gets the authenticating
+	 *            user's friends.
+	 * @throws TwitterException
+	 */
+	public LongListWithCursor getFriendIDsLong(String screenName, Long userId)
+			throws TwitterException {
+		return getUserIDs2(jtwit.TWITTER_URL + "/friends/ids.json", screenName, userId);
+	}
+
 	/**
 	 * Returns the authenticating user's (latest 100) friends, each with current
 	 * status inline. NB - friends are people who *you* follow. Occasionally
@@ -432,53 +496,121 @@ public class Twitter_Users {
 	 *         affected by {@link #maxResults}
 	 */
 	private ListWithCursor<Number> getUserIDs(String url, String screenName, Long userId) {
-		String crsr = cursor;
-		ListWithCursor<Number> ids = new ListWithCursor();
-		if (screenName != null && userId != null) throw new IllegalArgumentException("cannot use both screen_name and user_id when fetching user_ids");
-		Map<String, String> vars = InternalUtils.asMap("screen_name",
-				screenName, "user_id", userId);
+		// boxed, for backwards compatibility
+		return getUserIDs2(url, screenName, userId).toListWithCursor();
+	}
+
+	/**
+	 * For {@link #getUserIDs2(String, String, Long)}: read the ids straight
+	 * into a long[].
+	 */
+	private static final Map<String, Object> ID_PAGE = new HashMap();
+	static {
+		ID_PAGE.put("ids", long[].class);
+		ID_PAGE.put("next_cursor", null);
+	}
+
+	/**
+	 * Does the work for {@link #getUserIDs(String, String, Long)}, without
+	 * boxing the ids.
+	 */
+	private LongListWithCursor getUserIDs2(String url, String screenName, Long userId) {
+		// a page is upto 5000
+		LongListWithCursor ids = new LongListWithCursor(5000);
+		ids.setCursor(cursor);
+		Map<String, String> vars = getUserIDs2_vars(screenName, userId);
 		while ( ! jtwit.enoughResults(ids)) {
-			vars.put("cursor", crsr);
+			vars.put("cursor", ids.getCursor());
 			// get less than one full page?
 			// NB: returned results may be lower anyway, as suspended users are filtered by Twitter
 			if (jtwit.getMaxResults() > 0 && jtwit.getMaxResults() < 5000) {
 				vars.put("count", String.valueOf(jtwit.getMaxResults()));
 			}
-			// Call the API
-			String json = http.getPage(url, vars, http.canAuthenticate());
+			int n = ids.size();
 			try {
-				// it seems Twitter will occasionally return a raw array
-				JSONArray jarr;
-				if (json.charAt(0) == '[') {
-					jarr = new JSONArray(json);
-					// No next-page cursor, so break out of the loop
-					crsr = ListWithCursor.LOST;					
-				} else {
-					JSONObject jobj = new JSONObject(json);
-					jarr = (JSONArray) jobj.get("ids");
-					crsr = jobj.getString("next_cursor");
-				}				
-				for (int i = 0; i < jarr.length(); i++) {
-					ids.add(jarr.getLong(i));
-				}
-				// set the cursor
-				if ("0".equals(crsr)) crsr = ListWithCursor.END;
-				ids.setCursor(crsr);
-				// No more? Hazard a safe guess for the common case of well-under-5k
-				if ( ! ids.hasCursor() || jarr.length() < 1000) {
-					break;
-				}							
-			} catch (JSONException e) {
-				throw new TwitterException.Parsing(json, e);
+				getUserIDs2_page(url, vars, ids);
 			} catch (TwitterException.RateLimit rex) {
 				if (ids.isEmpty()) throw rex;
 				InternalUtils.log("getUserIDs", rex);
 				// return what we do have
+				break;
+			}
+			n = ids.size() - n;
+			// No more? Hazard a safe guess for the common case of well-under-5k
+			if ( ! ids.hasCursor() || n < 1000) {
+				break;
 			}
 		}
 		return ids;
 	}
 
+	private static Map<String, String> getUserIDs2_vars(String screenName, Long userId) {
+		if (screenName != null && userId != null) throw new IllegalArgumentException("cannot use both screen_name and user_id when fetching user_ids");
+		return InternalUtils.asMap("screen_name", screenName, "user_id", userId);
+	}
+
+	/**
+	 * Fetch one page of ids.
+	 * 
+	 * @param vars Must include the cursor
+	 * @param ids The ids are added to this, and its cursor is set for the next page.
+	 */
+	void getUserIDs2_page(String url, Map<String, String> vars, LongListWithCursor ids) {
+		// Call the API (parsing straight off the wire: these pages can be big)
+		Object json = http.getPageJSON(url, vars, http.canAuthenticate(), ID_PAGE);
+		try {
+			String crsr;
+			// it seems Twitter will occasionally return a raw array
+			if (json instanceof JSONArray) {
+				JSONArray jarr = (JSONArray) json;
+				for (int i = 0, n = jarr.length(); i < n; i++) {
+					ids.add(jarr.getLong(i));
+				}
+				// No next-page cursor
+				crsr = ListWithCursor.LOST;
+			} else if (json == null) {
+				throw new JSONException("empty response");
+			} else {
+				JSONObject jobj = (JSONObject) json;
+				Object _ids = jobj.get("ids");
+				if ( ! (_ids instanceof long[])) {
+					throw new JSONException("Expected an array of ids: "+_ids);
+				}
+				ids.addAll((long[]) _ids);
+				crsr = jobj.getString("next_cursor");
+			}
+			// set the cursor
+			if ("0".equals(crsr)) crsr = ListWithCursor.END;
+			ids.setCursor(crsr);
+		} catch (JSONException e) {
+			throw new TwitterException.Parsing(String.valueOf(json), e);
+		}
+	}
+
+	/**
+	 * A lazy alternative to {@link #getFollowerIDsLong(String, Long)} for big
+	 * accounts: fetches a page of 5000 at a time, as you go.
+	 * 
+	 * @param screenName Use this or userId
+	 * @param userId Use this or screenName
+	 */
+	public UserIdIterator getFollowerIDIterator(String screenName, Long userId) {
+		return new UserIdIterator(jtwit, jtwit.TWITTER_URL + "/followers/ids.json",
+				RateLimit.RES_FOLLOWER_IDS, getUserIDs2_vars(screenName, userId));
+	}
+
+	/**
+	 * A lazy alternative to {@link #getFriendIDsLong(String, Long)} for big
+	 * accounts: fetches a page of 5000 at a time, as you go.
+	 * 
+	 * @param screenName Use this or userId
+	 * @param userId Use this or screenName
+	 */
+	public UserIdIterator getFriendIDIterator(String screenName, Long userId) {
+		return new UserIdIterator(jtwit, jtwit.TWITTER_URL + "/friends/ids.json",
+				RateLimit.RES_FRIEND_IDS, getUserIDs2_vars(screenName, userId));
+	}
+
 	public boolean isBlocked(Long userId) {
 		try {
 			HashMap vars = new HashMap();
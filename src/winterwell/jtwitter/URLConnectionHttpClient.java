@@ -24,7 +24,10 @@ import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+import com.winterwell.json.JSONTokener;
 
 import winterwell.jtwitter.Twitter.KRequestType;
 import winterwell.jtwitter.guts.Base64Encoder;
@@ -47,7 +50,113 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 
 	private static final long serialVersionUID = 1L;
 
-	private Map<String, List<String>> headers;
+	/**
+	 * What came back from one request: status, headers, rate-limit, timing,
+	 * and (for getPage() calls) the body. See {@link #getLastResponse()}.
+	 */
+	public static final class Response {
+		final String resource;
+		final int code;
+		final Map<String, List<String>> headers;
+		final RateLimit rateLimit;
+		final long start;
+		String body;
+		long nanos;
+
+		Response(String resource, int code, Map<String, List<String>> headers,
+				RateLimit rateLimit, long start) {
+			this.resource = resource;
+			this.code = code;
+			this.headers = headers == null ? Collections.EMPTY_MAP : headers;
+			this.rateLimit = rateLimit;
+			this.start = start;
+			nanos = System.nanoTime() - start;
+		}
+
+		/**
+		 * Called once the body has been read
+		 */
+		void done(String page) {
+			body = page;
+			nanos = System.nanoTime() - start;
+		}
+
+		/**
+		 * @return the page, or null if it was parsed straight off the wire
+		 *         (or not read)
+		 */
+		public String getBody() {
+			return body;
+		}
+
+		/**
+		 * @return http status code, or -1 if unknown
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		public Map<String, List<String>> getHeaders() {
+			return headers;
+		}
+
+		public String getHeader(String headerName) {
+			return getHeader(headers, headerName);
+		}
+
+		/**
+		 * @return the first value for headerName (or its lowercase form), or
+		 *         null
+		 */
+		static String getHeader(Map<String, List<String>> headers, String headerName) {
+			List<String> vals = headers.get(headerName);
+			if (vals==null) {
+				// Seen April 2014 -- lowercase X-Rate-Limit headers?!
+				vals = headers.get(headerName.toLowerCase());
+			}
+			return vals == null || vals.isEmpty() ? null : vals.get(0);
+		}
+
+		/**
+		 * @return the rate-limit from this response's headers, or null
+		 */
+		public RateLimit getRateLimit() {
+			return rateLimit;
+		}
+
+		/**
+		 * @return e.g. "/users/show". See {@link RateLimit#getResource(String)}
+		 */
+		public String getResource() {
+			return resource;
+		}
+
+		/**
+		 * @return time from sending the request to reading the body (or to
+		 *         the headers, if the body wasn't read here)
+		 */
+		public long getMillis() {
+			return nanos / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			return "Response[" + code + " " + resource + " " + getMillis() + "ms]";
+		}
+	}
+
+	/**
+	 * Per-thread request info, so one client can serve many threads.
+	 */
+	private static final class PerThread {
+		/** when the current request started (nanoTime) */
+		long start;
+		Response last;
+		/** Helpful for debugging failed calls. */
+		Map<String, String> postVars;
+	}
+
+	private transient ThreadLocal<PerThread> perThread;
 
 	/**
 	 * Use this to protect your Twitter API rate-limit. E.g. if you want to keep
@@ -63,6 +172,8 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	
 	private Map<String, RateLimit> rateLimits = Collections.synchronizedMap(new HashMap());
 
+	private transient RateLimitScheduler scheduler;
+
 	/**
 	 * If true, will wait 1/2 second and make a 2nd request when presented with
 	 * a server error (E50X). Only retries once -- a 2nd fail will throw an exception.
@@ -82,11 +193,6 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 
 	private boolean gzip = false;
 
-	/**
-	 * Helpful for debugging failed calls.
-	 */
-	private transient Map<String, String> postVars;
-	
 	/**
 	 * Set whether or not to request gzipped responses.
 	 * The default is true.
@@ -94,6 +200,10 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	public void setGzip(boolean gzip) {
 		this.gzip = gzip;
 	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
 	
 	/**
 	 * @param htmlImpliesError default is true. If true, an html response will
@@ -124,31 +234,29 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	@Override
 	public HttpURLConnection connect(String url, Map<String, String> vars,
 			boolean authenticate) throws IOException 
+	{
+		return connect2(url, vars, authenticate, null);
+	}
+
+	@Override
+	public HttpURLConnection connect(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, String> headers) throws IOException 
+	{
+		// no extras? Then go via connect() -- which sub-classes may override
+		if (headers == null) return connect(url, vars, authenticate);
+		return connect2(url, vars, authenticate, headers);
+	}
+
+	private HttpURLConnection connect2(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, String> headers) throws IOException 
 	{
 		// Stop early to protect limits?		
 		String resource = checkRateLimit(url);
 		// Build the full url
-		if (vars != null && vars.size() != 0) {
-			// add get variables
-			StringBuilder uri = new StringBuilder(url);
-			if (url.indexOf('?') == -1) {
-				uri.append("?");
-			} else if (!url.endsWith("&")) {
-				uri.append("&");
-			}
-			for (Entry e : vars.entrySet()) {
-				if (e.getValue() == null) {
-					continue;
-				}
-				String ek = InternalUtils.encode(e.getKey());
-				assert !url.contains(ek + "=") : url + " " + vars;
-				uri.append(ek + "=" + InternalUtils.encode(e.getValue()) + "&");
-			}
-			url = uri.toString();
-		}
+		url = connect2_url(url, vars);
 		// Setup a connection
-		HttpURLConnection connection = (HttpURLConnection) new URL(url)
-				.openConnection();
+		URL u = new URL(url);
+		HttpURLConnection connection = (HttpURLConnection) u.openConnection();
 		// Authenticate
 		if (authenticate) {
 			setAuthentication(connection);
@@ -157,20 +265,55 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		// user agent
 		// AZ: User-Agent and Host are required for getting gzipped responses  
 		connection.setRequestProperty("User-Agent", "JTwitter/" + Twitter.version);
-		connection.setRequestProperty("Host", new URL(url).getHost());
+		connection.setRequestProperty("Host", u.getHost());
 		if (gzip) {
 			connection.setRequestProperty("Accept-Encoding", "gzip");
 		}
+		connect2_headers(connection, headers);
 		connection.setDoInput(true);
 		connection.setConnectTimeout(timeout);
 		connection.setReadTimeout(timeout);
-		connection.setConnectTimeout(timeout);
 		// Open a connection
 		processError(connection, resource);
 		processHeaders(connection, resource);
 		return connection;
 	}
 
+	/**
+	 * Set the extra request headers (if any) on a not-yet-opened connection.
+	 */
+	static void connect2_headers(HttpURLConnection connection, Map<String, String> headers) {
+		if (headers == null) return;
+		for (Map.Entry<String, String> h : headers.entrySet()) {
+			connection.setRequestProperty(h.getKey(), h.getValue());
+		}
+	}
+
+	/**
+	 * @return url with the (non-null) vars added as GET parameters
+	 */
+	static String connect2_url(String url, Map<String, String> vars) {
+		if (vars == null || vars.size() == 0) {
+			return url;
+		}
+		// add get variables
+		StringBuilder uri = new StringBuilder(url);
+		if (url.indexOf('?') == -1) {
+			uri.append("?");
+		} else if (!url.endsWith("&")) {
+			uri.append("&");
+		}
+		for (Entry e : vars.entrySet()) {
+			if (e.getValue() == null) {
+				continue;
+			}
+			String ek = InternalUtils.encode(e.getKey());
+			assert !url.contains(ek + "=") : url + " " + vars;
+			uri.append(ek + "=" + InternalUtils.encode(e.getValue()) + "&");
+		}
+		return uri.toString();
+	}
+
 	@Override
 	public Twitter.IHttpClient copy() {
 		return clone();
@@ -191,6 +334,8 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 			c.setTimeout(timeout);
 			c.setMinRateLimit(minRateLimit);
 			c.rateLimits = rateLimits; // Share the rate limit info			
+			c.scheduler = scheduler;
+			c.perThread = null;
 //			c.rateLimits.putAll(rateLimits); // Copy it			
 			return c;
 		} catch(CloneNotSupportedException ex) {
@@ -198,6 +343,13 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		}
 	}
 
+	/**
+	 * Note: the callers read the page in full and close its stream first. That
+	 * hands the socket back to the JDK's keep-alive cache, so this does not stop
+	 * the next call re-using it (KeepAliveTest checks this). The JDK keeps at
+	 * most 5 idle sockets per host -- set the http.maxConnections system
+	 * property if you run more threads than that.
+	 */
 	protected final void disconnect(HttpURLConnection connection) {
 		if (connection == null)
 			return;
@@ -216,16 +368,56 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		}
 	}
 
+	/**
+	 * @return the header from this thread's last request
+	 */
 	@Override
 	public String getHeader(String headerName) {
-		if (headers == null)
-			return null;		
-		List<String> vals = headers.get(headerName);
-		if (vals==null) {
-			// Seen April 2014 -- lowercase X-Rate-Limit headers?!
-			vals = headers.get(headerName.toLowerCase());
+		Response r = getLastResponse();
+		return r == null ? null : r.getHeader(headerName);
+	}
+
+	/**
+	 * @return the response to this thread's last request, or null. Other
+	 *         threads using this client don't affect this.
+	 */
+	public Response getLastResponse() {
+		return perThread().last;
+	}
+
+	/**
+	 * As {@link #getPage(String, Map, boolean)}, but returning the status,
+	 * headers, rate-limit, and timing too.
+	 */
+	public Response getPageResponse(String url, Map<String, String> vars,
+			boolean authenticate) throws TwitterException {
+		String page = getPage(url, vars, authenticate);
+		Response r = getLastResponse();
+		// paranoia: a sub-class which doesn't call processHeaders()
+		if (r == null || r.body != page) {
+			r = new Response(RateLimit.getResource(url), -1, null, null, System.nanoTime());
+			r.done(page);
+		}
+		return r;
+	}
+
+	private PerThread perThread() {
+		ThreadLocal<PerThread> pt = perThread;
+		if (pt == null) {
+			synchronized (this) {
+				// lazy, as it's transient
+				if (perThread == null) {
+					perThread = new ThreadLocal<PerThread>() {
+						@Override
+						protected PerThread initialValue() {
+							return new PerThread();
+						}
+					};
+				}
+				pt = perThread;
+			}
 		}
-		return vals == null || vals.isEmpty() ? null : vals.get(0);
+		return pt.get();
 	}
 
 	/**
@@ -307,6 +499,95 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		}
 	}
 
+	/**
+	 * Like {@link #getPage(String, Map, boolean)}, but the response is parsed
+	 * as it is read off the wire -- it is never copied into a String.
+	 * 
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final Object getPageJSON(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, ?> fields) throws TwitterException 
+	{
+		assert url != null;
+		RateLimit.count(url);
+		// Same retry behaviour as getPage()
+		try {
+			return getPageJSON2(url, vars, authenticate, fields);
+		} catch (IOException e) {
+			if ( ! retryOnError) throw getPage2_ex(e, url);
+			try {
+				// wait half a second before retrying
+				Thread.sleep(500);
+				return getPageJSON2(url, vars, authenticate, fields);
+			} catch (Exception e2) {
+				throw getPage2_ex(e, url);
+			}
+		} catch (TwitterException.E50X e) {
+			if ( ! retryOnError) throw getPage2_ex(e, url);
+			try {
+				// wait half a second before retrying
+				Thread.sleep(500);
+				return getPageJSON2(url, vars, authenticate, fields);
+			} catch (Exception e2) {
+				throw getPage2_ex(e, url);
+			}
+		}
+	}
+
+	/**
+	 * Does the actual work for {@link #getPageJSON(String, Map, boolean, Map)}
+	 * @return JSONObject or JSONArray or null
+	 */
+	private Object getPageJSON2(String url, Map<String, String> vars,
+			boolean authenticate, Map<String, ?> fields) throws IOException {
+		HttpURLConnection connection = null;
+		InputStream inStream = null;
+		try {
+			connection = connect(url, vars, authenticate);
+			inStream = connection.getInputStream();
+			// AZ: gunzip if twitter indicates it's gzipped content
+			String contentEncoding = connection.getContentEncoding();
+			if ("gzip".equals(contentEncoding)) {
+				inStream = new GZIPInputStream(inStream);
+			}
+			JSONTokener tokener = new JSONTokener(new BufferedReader(
+					new InputStreamReader(inStream, InternalUtils.UTF_8)));
+			char c = tokener.nextClean();
+			if (c == 0) {
+				// empty
+				return null;
+			}
+			if (c == '<') {
+				// html -- not json! E.g. when Twitter is really hosed
+				StringBuilder html = new StringBuilder("<");
+				while (tokener.more()) {
+					html.append(tokener.next());
+				}
+				String meat = InternalUtils.stripTags(html.toString());
+				if (htmlImpliesError) {
+					throw new TwitterException.E50X(meat);
+				}
+				throw new TwitterException.Parsing(meat, new JSONException("html not json"));
+			}
+			tokener.back();
+			try {
+				Object json = new JSONReader(tokener).readValue(fields);
+				done(null);
+				return json;
+			} catch (JSONException e) {
+				// Note: this doesn't have the whole response to report
+				throw new TwitterException.Parsing(null, e);
+			}
+		} catch(MalformedInputException ex) {
+			// provide some debug info
+			throw new IOException(ex+" enc:"+connection.getContentEncoding());
+		} finally {
+			InternalUtils.close(inStream);
+			disconnect(connection);
+		}		
+	}
+
 	/**
 	 * Called on error. What to throw? 
 	 */
@@ -320,6 +601,18 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		}
 		return new TwitterException(ex);
 	}
+
+	/**
+	 * @return the response body, gunzipped if need be
+	 */
+	static InputStream getInputStream(HttpURLConnection connection) throws IOException {
+		InputStream inStream = connection.getInputStream();
+		if ("gzip".equals(connection.getContentEncoding())) {
+			inStream = new GZIPInputStream(inStream);
+		}
+		return inStream;
+	}
+
 	/**
 	 * Does the actual work for {@link #getPage(String, Map, boolean)}
 	 * 
@@ -334,16 +627,13 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		HttpURLConnection connection = null;
 		try {
 			connection = connect(url, vars, authenticate);
-			InputStream inStream = connection.getInputStream();
 			// AZ: gunzip if twitter indicates it's gzipped content
-			// TODO Use this in streaming too (but see dev.twitter.com note about sub-classing!)
-			String contentEncoding = connection.getContentEncoding();
-			if ("gzip".equals(contentEncoding)) {
-				inStream = new GZIPInputStream(inStream);
-			}
+			// (streams do this in AStream.connect2_stream())
+			InputStream inStream = getInputStream(connection);
 			// Read in the web page
 			String page = InternalUtils.read(inStream);
 			// Done
+			done(page);
 			return page;
 		} catch(MalformedInputException ex) {
 			// provide some debug info
@@ -430,13 +720,13 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	private String post2(String uri, Map<String, String> vars,
 			boolean authenticate) throws Exception 
 	{
-		this.postVars = vars;
+		perThread().postVars = vars;
 		HttpURLConnection connection = null;
 		try {
 			connection = post2_connect(uri, vars);
 			// Get the response
-			String response = InternalUtils.read(connection
-					.getInputStream());
+			String response = InternalUtils.read(getInputStream(connection));
+			done(response);
 			return response;
 		} finally {
 			disconnect(connection);
@@ -450,7 +740,8 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		try {
 			connection = post2_connect(uri, body);
 			// Get the response
-			String response = InternalUtils.read(connection.getInputStream());
+			String response = InternalUtils.read(getInputStream(connection));
+			done(response);
 			return response;
 		} finally {
 			disconnect(connection);
@@ -465,6 +756,16 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		String payload = post2_getPayload(vars);
 		return post2_connect(uri, payload);
 	}
+
+	@Override
+	public HttpURLConnection post2_connect(String uri, Map<String, String> vars,
+			Map<String, String> headers) throws Exception 
+	{
+		if (headers == null) return post2_connect(uri, vars);
+		// build the post body
+		String payload = post2_getPayload(vars);
+		return post2_connect2(uri, payload, headers);
+	}
 	
 	@Override
 	public HttpURLConnection post2_connect(String uri, JSONObject body) throws Exception 
@@ -476,6 +777,12 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	
 	@Override
 	public HttpURLConnection post2_connect(String uri, String payload) throws Exception 
+	{
+		return post2_connect2(uri, payload, null);
+	}
+
+	private HttpURLConnection post2_connect2(String uri, String payload,
+			Map<String, String> headers) throws Exception 
 	{
 		String resource = checkRateLimit(uri);
 		RateLimit.count(uri);
@@ -490,7 +797,10 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 				"application/x-www-form-urlencoded");
 		connection.setReadTimeout(timeout);
 		connection.setConnectTimeout(timeout);
-
+		if (gzip) {
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+		}
+		connect2_headers(connection, headers);
 		
 		connection.setRequestProperty("Content-Length", "" + payload.length());
 		OutputStream os = connection.getOutputStream();
@@ -506,14 +816,20 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	protected String checkRateLimit(String url) {
 		String resource = RateLimit.getResource(url);
 		RateLimit limit = rateLimits.get(resource);
-		
-		if (limit != null && limit.getRemaining() <= minRateLimit
+		if (scheduler != null) {
+			// wait in line, rather than throw
+			scheduler.acquire(resource, limit, minRateLimit);
+		} else if (limit != null && limit.getRemaining() <= minRateLimit
 			&& ! limit.isOutOfDate()) 
 		{
 			String msg = "Pre-emptive rate-limit block for "+limit+" for request "+url;
 			if (minRateLimit>0) msg += " based on minimum limit "+ minRateLimit;
 			throw new TwitterException.PreEmptiveRateLimit(msg);
 		}
+		// start the clock
+		PerThread pt = perThread();
+		pt.start = System.nanoTime();
+		pt.last = null;
 		return resource;
 	}
 
@@ -598,7 +914,8 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 			
 			
 			// Get the response
-			String response = InternalUtils.read(connection.getInputStream());
+			String response = InternalUtils.read(getInputStream(connection));
+			done(response);
 			return response;
 		} finally {
 			disconnect(connection);
@@ -770,15 +1087,16 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 			throw new TwitterException.AccessLevel(name + " " + errorPage);
 		if (errorPage.contains("code 108:")) { // Cannot find specified user.
 			// Change to 404.MissingUser? No - be consistent with Twitter itself
-			throw new TwitterException.UserNotFound(url + " (" + _name+ ") posted: "+postVars);
+			throw new TwitterException.UserNotFound(url + " (" + _name+ ") posted: "+perThread().postVars);
 		}
 		if (errorPage.contains("code 158:")) { // You can't follow yourself.
 			throw new TwitterException.Repetition(errorPage);
 		}
 		if (errorPage.contains("code 162:")) { // You have been blocked from following this account at the request of the user.
+			Map<String, String> postVars = perThread().postVars;
 			throw new TwitterException.Blocked(errorPage, postVars==null? null : postVars.get("screen_name"));
 		}
-		throw new TwitterException.E403(errorPage + "\n" + url + " (" + _name+ ") posted: "+postVars);
+		throw new TwitterException.E403(errorPage + "\n" + url + " (" + _name+ ") posted: "+perThread().postVars);
 	}
 
 	private void processError2_rateLimit(HttpURLConnection connection, String resource,
@@ -807,13 +1125,43 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	}
 
 	/**
-	 * Cache headers for {@link #getHeader(String)}
+	 * Note the response for {@link #getLastResponse()} and
+	 * {@link #getHeader(String)}, and update the rate-limit.
 	 * 
 	 * @param connection
 	 */
 	protected final void processHeaders(HttpURLConnection connection, String resource) {
-		headers = connection.getHeaderFields();
-		updateRateLimits(resource);
+		Map<String, List<String>> headers = connection.getHeaderFields();
+		int code;
+		try {
+			code = connection.getResponseCode();
+		} catch (IOException e) {
+			code = -1;
+		}
+		PerThread pt = perThread();
+		Response r = new Response(resource, code, headers,
+				processHeaders2_rateLimit(headers), pt.start);
+		pt.last = r;
+		updateRateLimits(r);
+	}
+
+	private static RateLimit processHeaders2_rateLimit(Map<String, List<String>> headers) {
+		if (headers == null) return null;
+		String limit = Response.getHeader(headers, "X-Rate-Limit-Limit");
+		if (limit == null) {
+			return null;
+		}
+		String remaining = Response.getHeader(headers, "X-Rate-Limit-Remaining");
+		String reset = Response.getHeader(headers, "X-Rate-Limit-Reset");
+		return new RateLimit(limit, remaining, reset);
+	}
+
+	/**
+	 * Record the body and timing, once a request is done.
+	 */
+	private void done(String page) {
+		Response r = perThread().last;
+		if (r != null) r.done(page);
 	}
 
 	static String readErrorPage(HttpURLConnection connection) {
@@ -881,6 +1229,20 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 		this.minRateLimit = minRateLimit;
 	}
 
+	/**
+	 * @param scheduler
+	 *            If set, requests which would hit the rate limit wait for it
+	 *            to reset, instead of throwing PreEmptiveRateLimit. null by
+	 *            default. Shared with copies of this client.
+	 */
+	public void setScheduler(RateLimitScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	public RateLimitScheduler getScheduler() {
+		return scheduler;
+	}
+
 	/**
 	 * False by default. Setting this to true switches on a robustness
 	 * workaround: when presented with a 50X server error, the system will wait
@@ -903,17 +1265,36 @@ public class URLConnectionHttpClient implements Twitter.IHttpClient,
 	}
 
 	/**
-	 * {@link #processHeaders(HttpURLConnection)} MUST have been called first.
+	 * Merge in the rate-limit from a response. Responses can arrive out of
+	 * order when several threads share this client -- so an older reading
+	 * (an earlier reset, or the same reset with more remaining) does not
+	 * overwrite a newer one.
 	 */
-	void updateRateLimits(String resource) {
-		if (resource==null) return;
-		String limit = getHeader("X-Rate-Limit-Limit");		
-		if (limit == null) {
-			return;
+	void updateRateLimits(Response response) {
+		String resource = response.resource;
+		RateLimit rl = response.rateLimit;
+		if (resource==null || rl==null) return;
+		synchronized (rateLimits) {
+			RateLimit old = rateLimits.get(resource);
+			if (old != null && isNewer(old, rl)) {
+				return;
+			}
+			rateLimits.put(resource, rl);
+		}
+	}
+
+	/**
+	 * @return true if a is a later reading than b
+	 */
+	static boolean isNewer(RateLimit a, RateLimit b) {
+		try {
+			long ra = a.getReset().getTime(), rb = b.getReset().getTime();
+			if (ra != rb) return ra > rb;
+			return a.getRemaining() < b.getRemaining();
+		} catch (Exception ex) {
+			// unparseable? go with the latest to arrive
+			return false;
 		}
-		String remaining = getHeader("X-Rate-Limit-Remaining");
-		String reset = getHeader("X-Rate-Limit-Reset");
-		rateLimits.put(resource, new RateLimit(limit, remaining, reset));		
 	}
 
 }
@@ -10,6 +10,9 @@ import java.util.List;
 import com.winterwell.json.JSONArray;
 import com.winterwell.json.JSONException;
 import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+
+import winterwell.jtwitter.JsonRecord.KField;
 
 /**
  * A Twitter user. Fields are null if unset.
@@ -29,8 +32,18 @@ public final class User implements Serializable {
 		if (json.trim().equals(""))
 			return Collections.emptyList();
 		try {
-			JSONArray arr = new JSONArray(json);
-			return getUsers2(arr);
+			// decode straight from the tokens -- no json tree
+			JSONReader r = new JSONReader(json);
+			List<User> users = new ArrayList<User>();
+			r.beginArray();
+			while (r.hasNext()) {
+				if (r.peek() != JSONReader.Token.BEGIN_OBJECT) {
+					throw new JSONException("Expected a user but was " + r.readValue());
+				}
+				users.add(new User(JsonRecord.read(r), null));
+			}
+			r.endArray();
+			return users;
 		} catch (JSONException e) {
 			throw new TwitterException.Parsing(json, e);
 		}
@@ -160,10 +173,18 @@ public final class User implements Serializable {
 	 * @throws TwitterException
 	 */
 	public User(JSONObject obj, Status status) throws TwitterException {
+		this(JsonRecord.of(obj), status);
+	}
+
+	/**
+	 * Does the work for {@link #User(JSONObject, Status)}. Also used to decode
+	 * straight from a token stream -- see {@link JsonRecord#read(com.winterwell.json.JSONReader)}
+	 */
+	User(JsonRecord obj, Status status) throws TwitterException {
 		try {
-			id = obj.getLong("id");
-			name = InternalUtils.unencode(InternalUtils.jsonGet("name", obj));
-			String sn = InternalUtils.jsonGet("screen_name", obj);
+			id = obj.getLong(KField.id);
+			name = InternalUtils.unencode(obj.jsonGet(KField.name));
+			String sn = obj.jsonGet(KField.screen_name);
 			screenName = Twitter.CASE_SENSITIVE_SCREENNAMES ? sn : sn.toLowerCase();						
 			// location - normalise a bit
 			Object _locn = Status.jsonGetLocn(obj);
@@ -172,45 +193,41 @@ public final class User implements Serializable {
 				place = (Place) _locn;
 			}
 			// language
-			lang = InternalUtils.jsonGet("lang", obj);
+			lang = obj.jsonGet(KField.lang);
 
-			description = InternalUtils.unencode(InternalUtils.jsonGet(
-					"description", obj));
-			String img = InternalUtils.jsonGet("profile_image_url", obj);
+			description = InternalUtils.unencode(obj.jsonGet(KField.description));
+			String img = obj.jsonGet(KField.profile_image_url);
 			profileImageUrl = img == null ? null : InternalUtils.URI(img);
-			String imgHttps = InternalUtils.jsonGet("profile_image_url_https", obj);
+			String imgHttps = obj.jsonGet(KField.profile_image_url_https);
 			profileImageUrlHttps = img == null ? null : InternalUtils.URI(imgHttps);
-			String url = InternalUtils.jsonGet("url", obj);
+			String url = obj.jsonGet(KField.url);
 			website = url == null ? null : InternalUtils.URI(url);
-			protectedUser = obj.optBoolean("protected");
-			followersCount = obj.optInt("followers_count");
-			profileBackgroundColor = InternalUtils.jsonGet(
-					"profile_background_color", obj);
-			profileLinkColor = InternalUtils.jsonGet("profile_link_color", obj);
-			profileTextColor = InternalUtils.jsonGet("profile_text_color", obj);
-			profileSidebarFillColor = InternalUtils.jsonGet(
-					"profile_sidebar_fill_color", obj);
-			profileSidebarBorderColor = InternalUtils.jsonGet(
-					"profile_sidebar_border_color", obj);
-			friendsCount = obj.optInt("friends_count");
+			protectedUser = obj.optBoolean(KField.protected_);
+			followersCount = obj.optInt(KField.followers_count, 0);
+			profileBackgroundColor = obj.jsonGet(KField.profile_background_color);
+			profileLinkColor = obj.jsonGet(KField.profile_link_color);
+			profileTextColor = obj.jsonGet(KField.profile_text_color);
+			profileSidebarFillColor = obj.jsonGet(KField.profile_sidebar_fill_color);
+			profileSidebarBorderColor = obj.jsonGet(KField.profile_sidebar_border_color);
+			friendsCount = obj.optInt(KField.friends_count, 0);
 			// date
-			String c = InternalUtils.jsonGet("created_at", obj);
+			String c = obj.jsonGet(KField.created_at);
 			// null when fetching relationship-info
 			createdAt = c == null ? null : InternalUtils.parseDate(c); 
-			favoritesCount = obj.optInt("favourites_count");
-			String utcOffSet = InternalUtils.jsonGet("utc_offset", obj);
+			favoritesCount = obj.optInt(KField.favourites_count, 0);
+			String utcOffSet = obj.jsonGet(KField.utc_offset);
 			timezoneOffSet = utcOffSet == null ? 0 : Double
 					.parseDouble(utcOffSet);
-			timezone = InternalUtils.jsonGet("time_zone", obj);
-			img = InternalUtils.jsonGet("profile_background_image_url", obj);
+			timezone = obj.jsonGet(KField.time_zone);
+			img = obj.jsonGet(KField.profile_background_image_url);
 			profileBackgroundImageUrl = img == null ? null : InternalUtils
 					.URI(img);
-			profileBackgroundTile = obj.optBoolean("profile_background_tile");
-			statusesCount = obj.optInt("statuses_count");
-			notifications = obj.optBoolean("notifications");
-			verified = obj.optBoolean("verified");
+			profileBackgroundTile = obj.optBoolean(KField.profile_background_tile);
+			statusesCount = obj.optInt(KField.statuses_count, 0);
+			notifications = obj.optBoolean(KField.notifications);
+			verified = obj.optBoolean(KField.verified);
 			// relationship info -- can come in 2 formats...
-			Object _cons = obj.opt("connections");
+			Object _cons = obj.opt(KField.connections);
 			if (_cons instanceof JSONArray) { // from a getRelationshipInfo call
 				JSONArray cons = (JSONArray) _cons;
 				boolean _following = false, _followedBy = false, _followRequested = false;
@@ -228,18 +245,18 @@ public final class User implements Serializable {
 				followingYou = _followedBy;
 				followRequestSent = _followRequested;
 			} else { // from a normal User call
-				followedByYou = InternalUtils.getOptBoolean(obj, "following");
+				followedByYou = obj.getOptBoolean(KField.following);
 				// Warning: Twitter have stopped sending this in many cases.
 				// Unfortunately, null cannot be interpreted as true/false.
-				followingYou = InternalUtils.getOptBoolean(obj, "followed_by");
-				followRequestSent = obj.optBoolean("follow_request_sent");
+				followingYou = obj.getOptBoolean(KField.followed_by);
+				followRequestSent = obj.optBoolean(KField.follow_request_sent);
 			}
 
-			listedCount = obj.optInt("listed_count", -1);
+			listedCount = obj.optInt(KField.listed_count, -1);
 			// birthday -- not yet c.f. https://twittercommunity.com/t/users-object-birthday/45442
 			// status
 			if (status == null) {
-				JSONObject s = obj.optJSONObject("status");
+				JsonRecord s = obj.optRecord(KField.status);
 				this.status = s == null ? null : new Status(s, this);
 			} else {
 				this.status = status;
@@ -0,0 +1,207 @@
+package winterwell.jtwitter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Follower or friend ids, fetched a page (upto 5000) at a time as you go --
+ * so a crawl of a huge account needs one page in memory, not millions of
+ * ids. Use {@link Twitter_Users#getFollowerIDIterator(String, Long)} or
+ * {@link Twitter_Users#getFriendIDIterator(String, Long)}.
+ * <p>
+ * Resumable: if a fetch fails (e.g. with a rate-limit), hasNext() / next()
+ * throw, but nothing is lost -- call hasNext() again later to retry. To carry
+ * on in another process, save {@link #getCursor()} and {@link #getOffset()},
+ * and pass them to {@link #resumeFrom(String, int)}.
+ * <p>
+ * Not thread safe.
+ *
+ * @testedby UserIdIteratorTest
+ * @author daniel
+ */
+public final class UserIdIterator implements PrimitiveIterator.OfLong {
+
+	private final Twitter jtwit;
+
+	private final String url;
+
+	private final String resource;
+
+	private final Map<String, String> vars;
+
+	/** The cursor for the next page */
+	private String nextCursor = "-1";
+
+	/** The cursor which fetched the current page */
+	private String pageCursor;
+
+	private LongListWithCursor page;
+
+	private int i;
+
+	/** for resumeFrom() */
+	private int skip;
+
+	private boolean prefetch;
+
+	private CompletableFuture<LongListWithCursor> ahead;
+
+	private long pages;
+
+	UserIdIterator(Twitter jtwit, String url, String resource, Map<String, String> vars) {
+		this.jtwit = jtwit;
+		this.url = url;
+		this.resource = resource;
+		this.vars = vars;
+	}
+
+	/**
+	 * @param prefetch
+	 *            If true, fetch the next page in the background whilst you
+	 *            work through this one (via {@link Twitter#async()}). False
+	 *            by default.
+	 * @return this
+	 */
+	public UserIdIterator setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	/**
+	 * Carry on from a checkpoint. Call this before the first hasNext().
+	 *
+	 * @param cursor
+	 *            From {@link #getCursor()}
+	 * @param offset
+	 *            From {@link #getOffset()}
+	 * @return this
+	 */
+	public UserIdIterator resumeFrom(String cursor, int offset) {
+		if (page != null) throw new IllegalStateException("Already started");
+		nextCursor = cursor == null ? "-1" : cursor;
+		skip = offset;
+		return this;
+	}
+
+	/**
+	 * @return The cursor for the page we're on (-1 for the first page). Save
+	 *         this together with {@link #getOffset()} as a checkpoint.
+	 */
+	public String getCursor() {
+		return page == null ? nextCursor : pageCursor;
+	}
+
+	/**
+	 * @return how many ids of the current page have been returned
+	 */
+	public int getOffset() {
+		return page == null ? skip : i;
+	}
+
+	/**
+	 * @return pages fetched so far
+	 */
+	public long getPages() {
+		return pages;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (page == null || i >= page.size()) {
+			if (page != null && ! page.hasCursor()) {
+				return false;
+			}
+			fetch();
+		}
+		return true;
+	}
+
+	@Override
+	public long nextLong() {
+		if ( ! hasNext()) throw new NoSuchElementException();
+		return page.getLong(i++);
+	}
+
+	/**
+	 * Move on to the next page -- or throw, leaving everything as it was.
+	 */
+	private void fetch() {
+		LongListWithCursor next;
+		String crsr = nextCursor;
+		if (ahead != null) {
+			CompletableFuture<LongListWithCursor> f = ahead;
+			ahead = null;
+			try {
+				next = f.join();
+			} catch (CompletionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+				throw new TwitterException(cause.toString());
+			}
+		} else {
+			next = fetchPage(crsr);
+		}
+		pages++;
+		page = next;
+		pageCursor = crsr;
+		nextCursor = next.getCursor();
+		i = Math.min(skip, next.size());
+		skip = 0;
+		if (prefetch && next.hasCursor()) {
+			final String ac = nextCursor;
+			ahead = jtwit.async().call(resource, new Callable<LongListWithCursor>() {
+				@Override
+				public LongListWithCursor call() {
+					return fetchPage(ac);
+				}
+			});
+		}
+	}
+
+	private LongListWithCursor fetchPage(String cursor) {
+		Map<String, String> pageVars = new HashMap<String, String>(vars);
+		pageVars.put("cursor", cursor);
+		LongListWithCursor ids = new LongListWithCursor(5000);
+		jtwit.users().getUserIDs2_page(url, pageVars, ids);
+		return ids;
+	}
+
+	/**
+	 * Not supported
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return a Spliterator over the ids not yet returned. Use this or the
+	 *         iterator, not both.
+	 */
+	public Spliterator.OfLong spliterator() {
+		return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED
+				| Spliterator.DISTINCT | Spliterator.NONNULL);
+	}
+
+	/**
+	 * @return a sequential stream over the ids not yet returned
+	 */
+	public LongStream stream() {
+		return StreamSupport.longStream(spliterator(), false);
+	}
+
+	@Override
+	public String toString() {
+		return "UserIdIterator[" + url + " " + vars + " cursor=" + getCursor()
+				+ " offset=" + getOffset() + "]";
+	}
+}
@@ -71,7 +71,7 @@ public class UserStream extends AStream {
 		if (allReplies) {
 			vars.put("replies", "all");
 		}
-		HttpURLConnection con = client.connect(url, vars, true);
+		HttpURLConnection con = client.connect(url, vars, true, connect2_headers());
 		return con;
 	}
 
@@ -114,10 +114,9 @@ public class UserStream extends AStream {
 			List<Status> mentions = jtwit2.getMentions();
 			InternalUtils.log(LOGTAG, "fillIn mentions "+jtwit2.getSinceId()+": "+mentions.size());
 			for (Status status : mentions) {
-				if (tweets.contains(status)) {
+				if ( ! addTweet(status)) {
 					continue;
 				}
-				tweets.add(status);
 				cnt++;
 			}
 		}
@@ -127,10 +126,9 @@ public class UserStream extends AStream {
 			List<Status> updates = jtwit2.getHomeTimeline();
 			InternalUtils.log(LOGTAG, "fillIn from-you "+jtwit2.getSinceId()+": "+updates.size());
 			for (Status status : updates) {
-				if (tweets.contains(status)) {
+				if ( ! addTweet(status)) {
 					continue;
 				}
-				tweets.add(status);
 				cnt++;
 			}
 			// NB: 100k was the original setting -- see fillInOutages()
@@ -139,10 +137,9 @@ public class UserStream extends AStream {
 			List<Status> updates = jtwit2.getUserTimeline(jtwit2.getScreenName());
 			InternalUtils.log(LOGTAG, "fillIn from-you "+jtwit2.getSinceId()+": "+updates.size());
 			for (Status status : updates) {
-				if (tweets.contains(status)) {
+				if ( ! addTweet(status)) {
 					continue;
 				}
-				tweets.add(status);
 				cnt++;
 			}
 		}
@@ -162,10 +159,9 @@ public class UserStream extends AStream {
 			}
 			InternalUtils.log(LOGTAG, "fillIn DMs "+jtwit2.getSinceId()+": "+dms.size()+" "+dmids);
 			for (ITweet dm : dms) {
-				if (tweets.contains(dm)) {
+				if ( ! addTweet(dm)) {
 					continue;
 				}
-				tweets.add(dm);
 				cnt++;
 			}
 		}
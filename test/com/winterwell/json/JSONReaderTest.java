@@ -0,0 +1,165 @@
+package com.winterwell.json;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.json.JSONReader.Token;
+import com.winterwell.json.JSONTokenerTest.TrickleReader;
+
+public class JSONReaderTest {
+
+	@Test
+	public void testTokens() {
+		JSONReader r = new JSONReader("{\"a\": [1, -2.5, 12345678901234, true, null, \"x\\\"y\"], 'b' : {}, c: []}");
+		r.beginObject();
+		String name = r.nextName();
+		assert name.equals("a") : name;
+		r.beginArray();
+		assert r.peek() == Token.NUMBER;
+		Number n = r.nextNumber();
+		assert n.equals(1) : n;
+		double d = r.nextDouble();
+		assert d == -2.5 : d;
+		n = r.nextNumber();
+		assert n.equals(12345678901234L) : n;
+		boolean b = r.nextBoolean();
+		assert b;
+		assert r.peek() == Token.NULL;
+		r.nextNull();
+		String s = r.nextString();
+		assert s.equals("x\"y") : s;
+		assert ! r.hasNext();
+		r.endArray();
+		name = r.nextName();
+		assert name.equals("b") : name;
+		r.beginObject();
+		r.endObject();
+		name = r.nextName();
+		assert name.equals("c") : name;
+		r.beginArray();
+		r.endArray();
+		r.endObject();
+		assert r.peek() == Token.END_DOCUMENT;
+	}
+
+	@Test
+	public void testLongFromString() {
+		JSONReader r = new JSONReader("[\"570280297738080257\", 570280297738080257, 10]");
+		r.beginArray();
+		long a = r.nextLong();
+		assert a == 570280297738080257L : a;
+		long b = r.nextLong();
+		assert b == 570280297738080257L : b;
+		int c = r.nextInt();
+		assert c == 10 : c;
+		r.endArray();
+	}
+
+	@Test
+	public void testLongArray() {
+		StringBuilder sb = new StringBuilder("{\"ids\": [");
+		for (int i = 0; i < 1000; i++) {
+			if (i != 0) sb.append(", ");
+			sb.append(1234567890123456L * (i % 2 == 0 ? 1 : -1) + i);
+		}
+		sb.append("], \"next_cursor\": 7, \"junk\": [1]}");
+		Map<String, Object> fields = new HashMap();
+		fields.put("ids", long[].class);
+		fields.put("next_cursor", null);
+		JSONObject jo = (JSONObject) new JSONReader(sb.toString()).readValue(fields);
+		long[] ids = (long[]) jo.get("ids");
+		assert ids.length == 1000;
+		assert ids[0] == 1234567890123456L;
+		assert ids[999] == -1234567890123456L + 999;
+		assert jo.getInt("next_cursor") == 7;
+		assert ! jo.has("junk");
+		JSONReader r = new JSONReader("[[], [\"5\", 6], [1.5]]");
+		r.beginArray();
+		long[] empty = r.nextLongArray();
+		assert empty.length == 0 : empty.length;
+		long[] five = r.nextLongArray();
+		assert five[0] == 5 : five[0];
+		try {
+			r.nextLongArray();
+			assert false;
+		} catch (JSONException ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testSkipValue() {
+		JSONReader r = new JSONReader(new TrickleReader(new StringReader(
+				"{\"skip\": {\"a\": [1, {\"b\": \"}]\\\\\"}], \"c\": 'x'}, \"keep\": 7}")));
+		r.beginObject();
+		String name = r.nextName();
+		assert name.equals("skip") : name;
+		r.skipValue();
+		name = r.nextName();
+		assert name.equals("keep") : name;
+		int v = r.nextInt();
+		assert v == 7 : v;
+		r.endObject();
+		// skipping a name skips its value too
+		r = new JSONReader("{\"a\": [1, 2], \"b\": 3}");
+		r.beginObject();
+		r.skipValue();
+		name = r.nextName();
+		assert name.equals("b") : name;
+	}
+
+	@Test
+	public void testReadValuePruned() {
+		String json = "[{\"id\": 1, \"text\": \"hi\", \"junk\": {\"deep\": [1,2,3]},"
+				+ " \"user\": {\"name\": \"Dan\", \"entities\": {\"url\": 1}}, \"place\": {\"x\": 1}}]";
+		Map<String, Object> user = new HashMap();
+		user.put("name", null);
+		Map<String, Object> fields = new HashMap();
+		fields.put("id", null);
+		fields.put("text", null);
+		fields.put("place", null);
+		fields.put("user", user);
+		JSONArray arr = (JSONArray) new JSONReader(json).readValue(fields);
+		JSONObject jo = arr.getJSONObject(0);
+		assert jo.length() == 4 : jo;
+		assert ! jo.has("junk");
+		assert jo.getJSONObject("user").length() == 1 : jo;
+		assert jo.getJSONObject("place").getInt("x") == 1;
+	}
+
+	/**
+	 * readValue() with no fields should give the same as the tree parser
+	 */
+	@Test
+	public void testSameAsTokener() throws IOException {
+		for (String json : JSONTokenerTest.readSample()) {
+			if (json.trim().isEmpty()) continue;
+			String tree = new JSONObject(json).toString();
+			String pulled = new JSONReader(json).readValue().toString();
+			String trickled = new JSONReader(new TrickleReader(
+					new StringReader(json))).readValue().toString();
+			assert tree.equals(pulled) : pulled;
+			assert tree.equals(trickled) : trickled;
+		}
+		String odd = "/* c */ {a:1; b=>[1,2.0e3,-0,0.5], 'c':true, d:null, e:\"\\u00e9\"}";
+		assert new JSONObject(odd).toString().equals(
+				new JSONReader(odd).readValue().toString());
+	}
+
+	@Test
+	public void testBadJson() {
+		String[] bad = {"{\"a\": [1, 2 }", "{\"a\" 1}", "[1 [2]]", "{\"a\": \"x", "[1,"};
+		for (String b : bad) {
+			try {
+				new JSONReader(b).readValue();
+				assert false : b;
+			} catch (JSONException ex) {
+				assert ex.getMessage().contains("at character") : ex;
+			}
+		}
+	}
+}
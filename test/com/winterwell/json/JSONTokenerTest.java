@@ -0,0 +1,140 @@
+package com.winterwell.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JSONTokenerTest {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Hands out one char at a time -- so every read is a buffer refill.
+	 */
+	static class TrickleReader extends FilterReader {
+		TrickleReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			return super.read(cbuf, off, Math.min(len, 1));
+		}
+	}
+
+	static List<String> readSample() throws IOException {
+		return Files.readAllLines(
+				Paths.get("test/winterwell/jtwitter/stream_sample.txt"), UTF_8);
+	}
+
+	@Test
+	public void testReaderSameAsString() throws IOException {
+		for (String json : readSample()) {
+			if (json.trim().isEmpty()) continue;
+			String fromString = new JSONObject(json).toString();
+			String fromReader = new JSONObject(new JSONTokener(
+					new StringReader(json))).toString();
+			String fromTrickle = new JSONObject(new JSONTokener(
+					new TrickleReader(new StringReader(json)))).toString();
+			String fromStream = new JSONObject(new JSONTokener(
+					new ByteArrayInputStream(json.getBytes(UTF_8)))).toString();
+			assert fromString.equals(fromReader) : fromReader;
+			assert fromString.equals(fromTrickle) : fromTrickle;
+			assert fromString.equals(fromStream) : fromStream;
+		}
+	}
+
+	@Test
+	public void testCommentsAndEscapes() {
+		String json = "/* hello */ {\"a\": \"x\\u00e9y\", # note\n \"b\": [1, 2.5, true, null], 'c':'d' // end\n}";
+		JSONTokener x = new JSONTokener(new TrickleReader(new StringReader(json)));
+		JSONObject jo = (JSONObject) x.nextValue();
+		assert jo.getString("a").equals("xéy") : jo;
+		assert jo.getJSONArray("b").length() == 4 : jo;
+		assert jo.getString("c").equals("d") : jo;
+		char c = x.nextClean();
+		assert c == 0 : c;
+	}
+
+	@Test
+	public void testBadJsonReportsPosition() {
+		JSONTokener x = new JSONTokener(new StringReader("{\"a\": [1, 2 }"));
+		try {
+			x.nextValue();
+			assert false;
+		} catch (JSONException ex) {
+			assert ex.getMessage().contains("at character") : ex;
+		}
+	}
+
+	@Test
+	public void testSkipPast() {
+		JSONTokener x = new JSONTokener(new TrickleReader(new StringReader("abcabd[1]")));
+		boolean found = x.skipPast("abd");
+		assert found;
+		Object v = x.nextValue();
+		assert v instanceof JSONArray : v;
+		x = new JSONTokener(new StringReader("abc"));
+		found = x.skipPast("x");
+		assert ! found;
+		assert ! x.more();
+	}
+
+	/**
+	 * Compare the old path (read the response into a String, then parse) with
+	 * parsing straight off the stream.
+	 */
+	@Test
+	public void benchmarkReaderVsString() throws IOException {
+		// a timeline page: 200 tweets
+		StringBuilder sb = new StringBuilder("[");
+		List<String> sample = readSample();
+		for (int i = 0; i < 200; i++) {
+			if (i != 0) sb.append(",\n");
+			sb.append(sample.get(i % 3));
+		}
+		sb.append("]");
+		byte[] page = sb.toString().getBytes(UTF_8);
+		long dtString = Long.MAX_VALUE, dtReader = Long.MAX_VALUE;
+		// best of 10 (the first few are warm-up)
+		for (int i = 0; i < 10; i++) {
+			long t0 = System.nanoTime();
+			String s = readToString(new ByteArrayInputStream(page));
+			JSONArray a = new JSONArray(s);
+			dtString = Math.min(dtString, System.nanoTime() - t0);
+			assert a.length() == 200;
+
+			t0 = System.nanoTime();
+			JSONArray b = (JSONArray) new JSONTokener(
+					new ByteArrayInputStream(page)).nextValue();
+			dtReader = Math.min(dtReader, System.nanoTime() - t0);
+			assert b.length() == 200;
+		}
+		System.out.println("String path: " + dtString / 1000 + "us per "
+				+ page.length / 1024 + "k page");
+		System.out.println("Reader path: " + dtReader / 1000 + "us per "
+				+ page.length / 1024 + "k page");
+	}
+
+	/**
+	 * As InternalUtils.read() does it
+	 */
+	private static String readToString(ByteArrayInputStream in) throws IOException {
+		Reader reader = new java.io.BufferedReader(new java.io.InputStreamReader(in, UTF_8));
+		StringBuilder output = new StringBuilder();
+		while (true) {
+			int c = reader.read();
+			if (c == -1) break;
+			output.append((char) c);
+		}
+		return output.toString();
+	}
+}
@@ -0,0 +1,107 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.AsyncListener.KOverflow;
+import winterwell.jtwitter.Twitter.ITweet;
+
+public class AsyncListenerTest {
+
+	/**
+	 * Records tweets, slowly
+	 */
+	static class SlowListener implements IListen {
+		final List<ITweet> heard = Collections.synchronizedList(new ArrayList());
+		final long sleep;
+		final boolean carryOn;
+
+		SlowListener(long sleep, boolean carryOn) {
+			this.sleep = sleep;
+			this.carryOn = carryOn;
+		}
+
+		@Override
+		public boolean processTweet(ITweet tweet) throws Exception {
+			if (sleep > 0) Thread.sleep(sleep);
+			heard.add(tweet);
+			return carryOn;
+		}
+
+		@Override
+		public boolean processSystemEvent(Object[] obj) {
+			return carryOn;
+		}
+
+		@Override
+		public boolean processEvent(TwitterEvent event) {
+			return carryOn;
+		}
+	}
+
+	@Test
+	public void testSlowListenerDoesNotBlock() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.setListenersOnly(true);
+		SlowListener slow = new SlowListener(50, true);
+		AsyncListener async = ts.addListener(slow, 5, KOverflow.DROP_NEWEST);
+		byte[] data = StreamGobblerTest.delimited(StreamGobblerTest.readSample(), 20);
+		long t0 = System.currentTimeMillis();
+		StreamGobblerTest.gobble(ts, data);
+		long dt = System.currentTimeMillis() - t0;
+		// 100 tweets * 50ms would be 5 seconds
+		assert dt < 2000 : dt;
+		assert async.getDropped() > 0 : async;
+		Thread.sleep(500);
+		assert async.getQueueSize() == 0 : async;
+		assert async.getProcessed() + async.getDropped() >= 100 : async;
+		assert async.getMaxLag() > 0 : async;
+		boolean removed = ts.removeListener(slow);
+		assert removed;
+		removed = ts.removeListener(async);
+		assert ! removed;
+	}
+
+	@Test
+	public void testBlockDeliversEverything() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.setListenersOnly(true);
+		SlowListener slow = new SlowListener(1, true);
+		AsyncListener async = ts.addListener(slow, 2, KOverflow.BLOCK);
+		byte[] data = StreamGobblerTest.delimited(StreamGobblerTest.readSample(), 10);
+		StreamGobblerTest.gobble(ts, data);
+		for (int i = 0; i < 100 && slow.heard.size() < 50; i++) {
+			Thread.sleep(20);
+		}
+		assert slow.heard.size() == 50 : slow.heard.size();
+		assert async.getDropped() == 0;
+		ts.removeListener(async);
+	}
+
+	@Test
+	public void testSyncListenerCanHide() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.setListenersOnly(true);
+		SlowListener hidden = new SlowListener(0, true);
+		ts.addListener(hidden, 100, KOverflow.DROP_OLDEST);
+		// added last = called first
+		SlowListener hider = new SlowListener(0, false);
+		ts.addListener(hider);
+		StreamGobblerTest.gobble(ts, StreamGobblerTest.delimited(
+				StreamGobblerTest.readSample(), 1));
+		Thread.sleep(200);
+		assert hider.heard.size() == 5 : hider.heard;
+		assert hidden.heard.isEmpty() : hidden.heard;
+		// ...and an async listener can't hide
+		ts.removeListener(hider);
+		ts.addListener(hider, 100, KOverflow.DROP_OLDEST);
+		StreamGobblerTest.gobble(ts, StreamGobblerTest.delimited(
+				StreamGobblerTest.readSample(), 1));
+		Thread.sleep(200);
+		assert hidden.heard.size() == 5 : hidden.heard;
+	}
+}
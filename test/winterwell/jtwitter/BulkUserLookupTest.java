@@ -0,0 +1,122 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.BulkUserLookup.IListener;
+import winterwell.jtwitter.BulkUserLookup.Report;
+import winterwell.jtwitter.PooledHttpClientTest.FakeLogin;
+import winterwell.jtwitter.PooledHttpClientTest.FakeServer;
+
+public class BulkUserLookupTest {
+
+	/**
+	 * Adds latency, and fails the first call for any batch with a poison id.
+	 */
+	static class SlowLogin extends FakeLogin {
+		final int delay;
+		final Set<String> poisoned = new HashSet();
+
+		SlowLogin(FakeServer server, int delay) {
+			super("slow", server);
+			this.delay = delay;
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			InternalUtils.sleep(delay);
+			String ids = vars.get("user_id");
+			if (ids != null && ids.contains("1000555") && poisoned.add(ids)) {
+				throw new TwitterException.E50X("Over capacity");
+			}
+			return super.connect(url, vars, authenticate);
+		}
+	}
+
+	@Test
+	public void testParallel() {
+		Twitter tw = new Twitter(null, new SlowLogin(new FakeServer(1000, 60000), 2));
+		BulkUserLookup lookup = tw.users().bulkLookup();
+		lookup.setThreads(8);
+		Report report = lookup.showById(PooledHttpClientTest.ids(20000), null);
+		// one batch was poisoned
+		assert report.getFound() == 19900 : report;
+		assert report.getUsers().size() == 19900;
+		assert report.getRequests() == 199;
+		assert report.getFailedBatches().size() == 1;
+		assert report.getErrors().get(0) instanceof TwitterException.E50X;
+		assert ! report.isComplete();
+		// second time lucky
+		Report again = lookup.retry(report, null);
+		assert again.isComplete() && again.getFound() == 100 : again;
+		assert again.getUsers().get(0).getId() >= 1000500;
+
+		// streaming, and stopping early
+		lookup.setThreads(2);
+		final AtomicInteger seen = new AtomicInteger();
+		Report stopped = lookup.show(Arrays.asList("a", "b"), new IListener() {
+			@Override
+			public boolean process(List<User> users) {
+				return true;
+			}
+		});
+		assert stopped.getUsers() == null && stopped.isComplete();
+		Report streamed = lookup.showById(PooledHttpClientTest.ids(1000), new IListener() {
+			@Override
+			public boolean process(List<User> users) {
+				seen.addAndGet(users.size());
+				return seen.get() >= 300;
+			}
+		});
+		assert seen.get() >= 300 && seen.get() < 1000 : seen + " " + streamed;
+		assert streamed.isComplete();
+		Report none = lookup.showById(PooledHttpClientTest.ids(0), null);
+		assert none.getFound() == 0 : none;
+	}
+
+	@Test
+	public void testRateLimit() {
+		FakeServer server = new FakeServer(50, 300);
+		Twitter tw = new Twitter(null, new SlowLogin(server, 1));
+		BulkUserLookup lookup = tw.users().bulkLookup();
+		Report report = lookup.showById(PooledHttpClientTest.ids(20000), null);
+		// stopped at the limit -- but nothing's lost
+		assert report.getFound() <= 5000 : report;
+		int failedIds = 0;
+		for (List batch : report.getFailedBatches()) {
+			failedIds += batch.size();
+		}
+		assert report.getFound() + failedIds == 19900 + 100 : report;
+		assert ! report.getErrors().isEmpty();
+		assert report.getErrors().size() < 20 : report.getErrors().size();
+	}
+
+	/**
+	 * 10,000 users with 10ms latency per call: serial vs parallel.
+	 */
+	@Test
+	public void benchmarkLookup() {
+		Twitter tw = new Twitter(null, new SlowLogin(new FakeServer(100000, 60000), 10));
+		List<Long> ids = PooledHttpClientTest.ids(10000);
+		// leave out the poisoned batch
+		ids = ids.subList(600, 10000);
+		long t0 = System.nanoTime();
+		List<User> serial = tw.users().showById(ids);
+		long t1 = System.nanoTime();
+		BulkUserLookup lookup = tw.users().bulkLookup();
+		lookup.setThreads(8);
+		Report report = lookup.showById(ids, null);
+		assert serial.size() == report.getFound();
+		System.out.println("9400 users, serial: " + (t1 - t0) / 1000000 + "ms");
+		System.out.println("9400 users, 8 threads: " + report);
+	}
+}
@@ -0,0 +1,174 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.CachingHttpClient.Stats;
+
+public class CachingHttpClientTest {
+
+	/**
+	 * Serves users by screen-name after a delay, and counts calls.
+	 */
+	static class UserServer extends URLConnectionHttpClient {
+		final int delay;
+		final AtomicInteger calls = new AtomicInteger();
+
+		UserServer(int delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			calls.incrementAndGet();
+			InternalUtils.sleep(delay);
+			String name = vars == null ? null : vars.get("screen_name");
+			if ("missing".equals(name)) {
+				throw new TwitterException.E404(url);
+			}
+			final byte[] page = ("{\"id\":" + calls.get() + ",\"id_str\":\""
+					+ calls.get() + "\",\"screen_name\":\"" + name + "\"}")
+					.getBytes(InternalUtils.UTF_8);
+			return new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testHitsAndTTL() {
+		UserServer server = new UserServer(0);
+		CachingHttpClient cache = new CachingHttpClient(server);
+		Twitter tw = new Twitter(null, cache);
+		User a = tw.users().show("alice");
+		User a2 = tw.users().show("alice");
+		assert a.getId().equals(a2.getId());
+		assert server.calls.get() == 1;
+		tw.users().show("bob");
+		assert server.calls.get() == 2;
+		Stats stats = cache.getStats();
+		assert stats.hits == 1 && stats.misses == 2 && stats.size == 2 : stats;
+
+		// not cached
+		String search = Twitter.DEFAULT_TWITTER_URL + "/users/search.json";
+		cache.getPage(search, InternalUtils.asMap("q", "alice"), true);
+		cache.getPage(search, InternalUtils.asMap("q", "alice"), true);
+		assert server.calls.get() == 4;
+
+		// expiry
+		cache.setTTL(RateLimit.RES_USERS_SHOW1, 50);
+		cache.invalidate(null);
+		tw.users().show("alice");
+		tw.users().show("alice");
+		assert server.calls.get() == 5;
+		InternalUtils.sleep(80);
+		tw.users().show("alice");
+		assert server.calls.get() == 6;
+		assert cache.getStats().expired == 1 : cache.getStats();
+
+		// parameter order doesn't matter
+		Map<String, String> v1 = InternalUtils.asMap("a", "1", "b", "2");
+		Map<String, String> v2 = InternalUtils.asMap("b", "2", "a", "1");
+		assert CachingHttpClient.key("http://x", v1, true).equals(CachingHttpClient.key("http://x", v2, true));
+		assert ! CachingHttpClient.key("http://x", v1, true).equals(CachingHttpClient.key("http://x", v2, false));
+	}
+
+	@Test
+	public void testEviction() {
+		UserServer server = new UserServer(0);
+		CachingHttpClient cache = new CachingHttpClient(server);
+		cache.setMaxEntries(3);
+		Twitter tw = new Twitter(null, cache);
+		for (String name : new String[]{"a", "b", "c", "a", "d"}) {
+			tw.users().show(name);
+		}
+		// b was least recently used
+		assert cache.getStats().evictions == 1 : cache.getStats();
+		int calls = server.calls.get();
+		tw.users().show("a");
+		tw.users().show("c");
+		tw.users().show("d");
+		assert server.calls.get() == calls;
+		tw.users().show("b");
+		assert server.calls.get() == calls + 1;
+		assert cache.getStats().size == 3;
+	}
+
+	@Test
+	public void testCoalescing() throws InterruptedException {
+		UserServer server = new UserServer(100);
+		CachingHttpClient cache = new CachingHttpClient(server);
+		final Twitter tw = new Twitter(null, cache);
+		final List<User> users = new ArrayList<User>();
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			final String name = i % 2 == 0 ? "alice" : "missing";
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						User u = tw.users().show(name);
+						synchronized (users) {
+							users.add(u);
+						}
+					} catch (TwitterException.E404 ex) {
+						errors.incrementAndGet();
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assert users.size() == 5 && errors.get() == 5;
+		// one call each -- and errors aren't cached
+		assert server.calls.get() == 2 : server.calls;
+		assert cache.getStats().coalesced == 8 : cache.getStats();
+		try {
+			tw.users().show("missing");
+			assert false;
+		} catch (TwitterException.E404 ex) {
+			// good
+		}
+		assert server.calls.get() == 3;
+	}
+
+	@Test
+	public void testCopyShares() {
+		UserServer server = new UserServer(0);
+		CachingHttpClient cache = new CachingHttpClient(server);
+		new Twitter(null, cache).users().show("alice");
+		Twitter tw2 = new Twitter(null, cache.copy());
+		tw2.users().show("alice");
+		assert cache.getStats().hits == 1;
+		cache.invalidate("/users");
+		tw2.users().show("alice");
+		assert cache.getStats().misses == 2;
+	}
+}
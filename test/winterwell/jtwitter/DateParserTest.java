@@ -0,0 +1,195 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DateParserTest {
+
+	static final String[] DAYS = "Sun Mon Tue Wed Thu Fri Sat".split(" ");
+	static final String[] MONTHS = "Jan Feb Mar Apr May Jun Jul Aug Sep Oct Nov Dec".split(" ");
+
+	@Test
+	public void testFormats() {
+		// 1219842525000 = Wed Aug 27 13:08:45 UTC 2008
+		assert DateParser.parse("Wed Aug 27 13:08:45 +0000 2008").getTime() == 1219842525000L;
+		assert DateParser.parse("Wed Aug 27 18:38:45 +0530 2008").getTime() == 1219842525000L;
+		assert DateParser.parse("Wed Aug 27 01:08:45 -1200 2008").getTime() == 1219842525000L;
+		assert DateParser.parse("2008-08-27 13:08:45 +0000").getTime() == 1219842525000L;
+		assert DateParser.parse("2008-08-27T13:08:45Z").getTime() == 1219842525000L;
+		assert DateParser.parse("2008-08-27T14:08:45.123+01:00").getTime() == 1219842525123L;
+		// seconds and msecs
+		assert DateParser.parse("1219842525").getTime() == 1219842525000L;
+		assert DateParser.parse("1219842525000").getTime() == 1219842525000L;
+		// leap years
+		assert DateParser.parse("Tue Feb 29 00:00:00 +0000 2000").getTime() == 951782400000L;
+		assert DateParser.daysFromEpoch(1970, 1, 1) == 0;
+		assert DateParser.daysFromEpoch(2100, 3, 1) == 47541;
+		// handled by the old route
+		assert DateParser.parseFast("Wed, 27 Aug 2008 13:08:45 GMT") == Long.MIN_VALUE;
+		assert DateParser.parse("Wed, 27 Aug 2008 13:08:45 GMT").getTime() == 1219842525000L;
+		for (String bad : new String[]{"", "tomorrow", "Wed Aug 27 13:08:45 +0000", "2008-08-27"}) {
+			try {
+				DateParser.parse(bad);
+				assert false : bad;
+			} catch (TwitterException.Parsing ex) {
+				// good
+			}
+		}
+	}
+
+	/**
+	 * Random dates -- good, bad, and mangled -- must give the same as the old
+	 * parser. The only difference allowed: ISO dates with a T, fraction or
+	 * hh:mm offset, which the old parser couldn't do.
+	 */
+	@Test
+	public void testFuzzSameAsOld() {
+		Random r = new Random(42);
+		int fast = 0;
+		for (int i = 0; i < 20000; i++) {
+			String s = randomDate(r);
+			if (r.nextInt(3) == 0) s = mangle(s, r);
+			Object old = parse(s, true);
+			Object now = parse(s, false);
+			if (old instanceof Date) {
+				assert old.equals(now) : s + ": " + old + " vs " + now;
+			} else if (now instanceof Date) {
+				assert s.indexOf('T') != -1 || s.indexOf('.') != -1 || s.lastIndexOf(':') > 17 : s + ": " + old + " vs " + now;
+			} else {
+				assert old.equals(now) : s + ": " + old + " vs " + now;
+			}
+			if (DateParser.parseFast(s) != Long.MIN_VALUE) fast++;
+		}
+		// most should take the fast route
+		assert fast > 10000 : fast;
+	}
+
+	/**
+	 * @return Date, or the exception class
+	 */
+	private static Object parse(String s, boolean old) {
+		try {
+			return old ? DateParser.parseSlow(s) : DateParser.parse(s);
+		} catch (Exception ex) {
+			return ex.getClass();
+		}
+	}
+
+	static String randomDate(Random r) {
+		int year = 1990 + r.nextInt(60);
+		String mon = MONTHS[r.nextInt(12)];
+		int m = r.nextInt(12) + 1;
+		// sometimes out of range
+		int day = r.nextInt(31) + 1;
+		int h = r.nextInt(25), min = r.nextInt(60), sec = r.nextInt(60);
+		int oh = r.nextInt(4) == 0 ? r.nextInt(14) : 0;
+		int om = r.nextInt(4) == 0 ? r.nextInt(60) : 0;
+		String off = (r.nextBoolean() ? "+" : "-") + String.format("%02d%02d", oh, om);
+		switch (r.nextInt(6)) {
+		case 0:
+			return String.format("%s-%02d-%02d %02d:%02d:%02d %s", year, m, day, h, min, sec, off);
+		case 1:
+			return String.format("%s-%02d-%02dT%02d:%02d:%02d.%03dZ", year, m, day, h, min, sec, r.nextInt(1000));
+		case 2:
+			return Long.toString(1000000000L + r.nextInt(1000000000));
+		default:
+			return String.format("%s %s %02d %02d:%02d:%02d %s %s",
+					DAYS[r.nextInt(7)], mon, day, h, min, sec, off, year);
+		}
+	}
+
+	static String mangle(String s, Random r) {
+		StringBuilder sb = new StringBuilder(s);
+		int i = r.nextInt(sb.length());
+		switch (r.nextInt(3)) {
+		case 0:
+			sb.deleteCharAt(i);
+			break;
+		case 1:
+			sb.setCharAt(i, " :+-0123456789TZaZ".charAt(r.nextInt(18)));
+			break;
+		default:
+			sb.insert(i, (char) (' ' + r.nextInt(90)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The old parser shared SimpleDateFormats between threads.
+	 */
+	@Test
+	public void testThreads() throws Exception {
+		Random r = new Random(7);
+		final List<String> dates = new ArrayList();
+		final List<Object> expected = new ArrayList();
+		for (int i = 0; i < 2000; i++) {
+			String s = randomDate(r);
+			// use the SimpleDateFormat routes
+			if (r.nextBoolean()) s = s.replace(" +0000", " +0001");
+			dates.add(s);
+			expected.add(parse(s, false));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<Boolean>> results = new ArrayList();
+		for (int t = 0; t < 8; t++) {
+			results.add(pool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					for (int rep = 0; rep < 5; rep++) {
+						for (int i = 0; i < dates.size(); i++) {
+							if ( ! expected.get(i).equals(parse(dates.get(i), false))) return false;
+							if ( ! expected.get(i).equals(parse(dates.get(i), true))) {
+								// T forms aren't handled by the old parser
+								if (dates.get(i).indexOf('T') == -1) return false;
+							}
+						}
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> f : results) {
+			assert f.get();
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void benchmarkParse() {
+		Random r = new Random(1);
+		String[] dates = new String[1000];
+		for (int i = 0; i < dates.length; i++) {
+			dates[i] = String.format("%s %s %02d %02d:%02d:%02d +0000 %d", DAYS[r.nextInt(7)],
+					MONTHS[r.nextInt(12)], r.nextInt(28) + 1, r.nextInt(24),
+					r.nextInt(60), r.nextInt(60), 2006 + r.nextInt(15));
+		}
+		long oldNs = Long.MAX_VALUE, newNs = Long.MAX_VALUE, sum = 0;
+		// best of 5 (the first is warm-up)
+		for (int rep = 0; rep < 5; rep++) {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < 100; i++) {
+				for (String d : dates) sum += DateParser.parseSlow(d).getTime();
+			}
+			long t1 = System.nanoTime();
+			for (int i = 0; i < 100; i++) {
+				for (String d : dates) sum -= DateParser.parse(d).getTime();
+			}
+			long t2 = System.nanoTime();
+			oldNs = Math.min(oldNs, (t1 - t0) / 100000);
+			newNs = Math.min(newNs, (t2 - t1) / 100000);
+		}
+		assert sum == 0;
+		System.out.println("Old date parsing: " + oldNs + "ns per date");
+		System.out.println("New date parsing: " + newNs + "ns per date");
+	}
+}
@@ -0,0 +1,125 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+
+public class JsonFieldsTest {
+
+	/**
+	 * A timeline page: 200 tweets, from the stream sample
+	 */
+	static String timelinePage() throws IOException {
+		StringBuilder sb = new StringBuilder("[");
+		List<String> sample = StreamGobblerTest.readSample();
+		for (int i = 0; i < 200; i++) {
+			if (i != 0) sb.append(",\n");
+			sb.append(sample.get(i % 3));
+		}
+		return sb.append("]").toString();
+	}
+
+	/**
+	 * Pruning must not change what we get: compare the serialised forms.
+	 */
+	@Test
+	public void testPrunedSameAsFull() throws IOException {
+		// the first 3 lines are tweets
+		for (String json : StreamGobblerTest.readSample().subList(0, 3)) {
+			Status full = new Status(new JSONObject(json), null);
+			JSONObject pruned = (JSONObject) new JSONReader(json).readValue(JsonFields.STATUS);
+			assert pruned.length() < new JSONObject(json).length();
+			Status s = new Status(pruned, null);
+			assert Arrays.equals(serialise(full), serialise(s)) : s;
+			assert Arrays.equals(serialise(full.getUser()), serialise(s.getUser())) : s.getUser();
+			assert full.getText().equals(s.getText());
+			assert full.getMentions().equals(s.getMentions());
+		}
+		List<Status> tweets = Status.getStatuses(timelinePage());
+		assert tweets.size() == 200;
+	}
+
+	@Test
+	public void testUsersPruned() throws IOException {
+		StringBuilder sb = new StringBuilder("[");
+		for (String json : StreamGobblerTest.readSample().subList(0, 3)) {
+			if (sb.length() > 1) sb.append(",");
+			sb.append(new JSONObject(json).getJSONObject("user"));
+		}
+		String json = sb.append("]").toString();
+		List<User> full = User.getUsers2(new JSONArray(json));
+		List<User> pruned = User.getUsers(json);
+		assert full.size() == pruned.size();
+		for (int i = 0; i < full.size(); i++) {
+			assert Arrays.equals(serialise(full.get(i)), serialise(pruned.get(i))) : pruned.get(i);
+		}
+	}
+
+	/**
+	 * A deep dump of all the fields. Non-serialisable bits (e.g. a Place's
+	 * BoundingBox) are dumped via toString().
+	 */
+	static byte[] serialise(Object obj) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos) {
+			{
+				enableReplaceObject(true);
+			}
+
+			@Override
+			protected Object replaceObject(Object o) {
+				return o instanceof Serializable ? o : String.valueOf(o);
+			}
+		};
+		out.writeObject(obj);
+		out.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Allocation per tweet: the old path (full tree) vs a tree of only the
+	 * fields we use vs decoding straight from the tokens.
+	 */
+	@Test
+	public void benchmarkAllocation() throws IOException {
+		java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+		if ( ! (tmx instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("No allocation counter on this JVM");
+			return;
+		}
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) tmx;
+		long tid = Thread.currentThread().getId();
+		String page = timelinePage();
+		long fullBytes = Long.MAX_VALUE, prunedBytes = Long.MAX_VALUE, decodedBytes = Long.MAX_VALUE;
+		// best of 5 (the first is warm-up)
+		for (int i = 0; i < 5; i++) {
+			long b0 = mx.getThreadAllocatedBytes(tid);
+			List<Status> a = Status.getStatuses(new JSONArray(page));
+			fullBytes = Math.min(fullBytes, mx.getThreadAllocatedBytes(tid) - b0);
+			assert a.size() == 200;
+
+			b0 = mx.getThreadAllocatedBytes(tid);
+			List<Status> b = Status.getStatuses((JSONArray) new JSONReader(page).readValue(JsonFields.STATUS));
+			prunedBytes = Math.min(prunedBytes, mx.getThreadAllocatedBytes(tid) - b0);
+			assert b.size() == 200;
+
+			b0 = mx.getThreadAllocatedBytes(tid);
+			List<Status> c = Status.getStatuses(page);
+			decodedBytes = Math.min(decodedBytes, mx.getThreadAllocatedBytes(tid) - b0);
+			assert c.size() == 200;
+		}
+		System.out.println("Full tree: " + fullBytes / 200 + " bytes per tweet");
+		System.out.println("Pruned tree: " + prunedBytes / 200 + " bytes per tweet");
+		System.out.println("Decoded: " + decodedBytes / 200 + " bytes per tweet");
+	}
+}
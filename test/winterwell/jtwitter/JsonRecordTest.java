@@ -0,0 +1,165 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONObject;
+import com.winterwell.json.JSONReader;
+
+/**
+ * Golden-file tests: decoding straight from tokens must give the same objects
+ * as the JSONObject-tree constructors.
+ */
+public class JsonRecordTest {
+
+	/**
+	 * Stream messages: tweets (retweets, quotes, places, odd values...),
+	 * events and system messages. One per line.
+	 */
+	static final String GOLDEN_STREAM = "test/winterwell/jtwitter/decoder_golden_stream.txt";
+
+	/**
+	 * REST responses: a page of tweets, a page of users, search results. One
+	 * per line.
+	 */
+	static final String GOLDEN_REST = "test/winterwell/jtwitter/decoder_golden_rest.txt";
+
+	static List<String> readLines(String file) throws IOException {
+		List<String> lines = new ArrayList();
+		for (String line : Files.readAllLines(Paths.get(file), StreamGobblerTest.UTF_8)) {
+			if ( ! line.trim().isEmpty()) lines.add(line);
+		}
+		return lines;
+	}
+
+	@Test
+	public void testStreamMessages() throws IOException {
+		List<String> lines = new ArrayList(StreamGobblerTest.readSample());
+		lines.addAll(readLines(GOLDEN_STREAM));
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		StreamGobbler gobbler = new StreamGobbler(ts);
+		int n = 0;
+		for (String json : lines) {
+			if (json.trim().isEmpty()) continue;
+			Object tree = new JSONObject(json).has("friends") ? new JSONObject(
+					json).getJSONArray("friends") : AStream.read3_parse(
+					new JSONObject(json), ts.jtwit);
+			Object decoded = gobbler.readJson2_parse(json);
+			assertSame(tree, decoded, json);
+			n++;
+		}
+		assert n > 15 : n;
+	}
+
+	@Test
+	public void testStatuses() throws IOException {
+		String page = readLines(GOLDEN_REST).get(0);
+		List<Status> tree = Status.getStatuses(new JSONArray(page));
+		List<Status> decoded = Status.getStatuses(page);
+		assert tree.size() == 5 : tree;
+		assertSame(tree, decoded, page);
+		// full_text, with the keys in a different order
+		assert decoded.get(3).getDisplayText() != null;
+		// and via the record directly
+		JSONReader r = new JSONReader(page);
+		r.beginArray();
+		Status s = new Status(JsonRecord.read(r), null);
+		assertSame(tree.get(0), s, page);
+	}
+
+	@Test
+	public void testUsers() throws IOException {
+		String page = readLines(GOLDEN_REST).get(1);
+		List<User> tree = User.getUsers2(new JSONArray(page));
+		List<User> decoded = User.getUsers(page);
+		assert tree.size() == 4;
+		assertSame(tree, decoded, page);
+		// connections
+		assert decoded.get(1).isFollowedByYou();
+		assert decoded.get(1).getStatus() != null;
+	}
+
+	@Test
+	public void testSearch() throws IOException {
+		String json = readLines(GOLDEN_REST).get(2);
+		List<Status> decoded = Status.getStatusesFromSearch(null, json);
+		JSONArray arr = new JSONObject(json).getJSONArray("statuses");
+		List<Status> tree = new ArrayList();
+		for (int i = 0; i < arr.length(); i++) {
+			tree.add(new Status(arr.getJSONObject(i), null));
+		}
+		assert decoded.size() == 2;
+		assertSame(tree, decoded, json);
+	}
+
+	@Test
+	public void testBadJson() {
+		try {
+			Status.getStatuses("[{\"id\":1, \"text\": }]");
+			assert false;
+		} catch (TwitterException.Parsing ex) {
+			// good
+		}
+		try {
+			Status.getStatuses("[1, 2]");
+			assert false;
+		} catch (TwitterException.Parsing ex) {
+			// good
+		}
+	}
+
+	/**
+	 * Field-for-field equality
+	 */
+	static void assertSame(Object tree, Object decoded, String json) throws IOException {
+		if (tree == null || decoded == null) {
+			assert tree == decoded : json;
+			return;
+		}
+		assert tree.getClass() == decoded.getClass() : tree + " vs " + decoded;
+		if (tree instanceof Object[]) {
+			Object[] ta = (Object[]) tree, da = (Object[]) decoded;
+			assert ta.length == da.length : json;
+			for (int i = 0; i < ta.length; i++) {
+				assertSame(ta[i], da[i], json);
+			}
+			return;
+		}
+		if (tree instanceof TwitterList) {
+			// NB: a TwitterList is a List -- but don't iterate, that's a fetch
+			assert tree.toString().equals(decoded.toString()) : json;
+			return;
+		}
+		if (tree instanceof List) {
+			List tl = (List) tree, dl = (List) decoded;
+			assert tl.size() == dl.size() : json;
+			for (int i = 0; i < tl.size(); i++) {
+				assertSame(tl.get(i), dl.get(i), json);
+			}
+			return;
+		}
+		if (tree instanceof TwitterEvent) {
+			TwitterEvent te = (TwitterEvent) tree, de = (TwitterEvent) decoded;
+			assert te.getType().equals(de.getType());
+			assert te.getCreatedAt().equals(de.getCreatedAt());
+			assertSame(te.getSource(), de.getSource(), json);
+			assertSame(te.getTarget(), de.getTarget(), json);
+			assertSame(te.getTargetObject(), de.getTargetObject(), json);
+			return;
+		}
+		if (tree instanceof Status || tree instanceof User || tree instanceof Message) {
+			assert Arrays.equals(JsonFieldsTest.serialise(tree),
+					JsonFieldsTest.serialise(decoded)) : tree + " vs " + decoded + " from " + json;
+			return;
+		}
+		// json, strings, numbers
+		assert tree.toString().equals(decoded.toString()) : tree + " vs " + decoded;
+	}
+}
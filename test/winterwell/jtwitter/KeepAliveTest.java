@@ -0,0 +1,136 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.winterwell.json.JSONArray;
+
+/**
+ * Do we re-use sockets? Against a local stub server, which notes the client
+ * port of each request (one port = one socket).
+ */
+public class KeepAliveTest {
+
+	static {
+		// else the stub's header and body writes hit Nagle + delayed-ack (40ms a call)
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	static final byte[] PAGE = ("[{\"id\":1,\"id_str\":\"1\",\"screen_name\":\"bob\"},"
+			+ "{\"id\":2,\"id_str\":\"2\",\"screen_name\":\"alice\"}]\n")
+			.getBytes(InternalUtils.UTF_8);
+
+	static final byte[] ERROR = "{\"errors\":[{\"code\":34,\"message\":\"Sorry, that page does not exist\"}]}"
+			.getBytes(InternalUtils.UTF_8);
+
+	HttpServer server;
+
+	String base;
+
+	final Set<Integer> ports = Collections.synchronizedSet(new HashSet<Integer>());
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				ports.add(ex.getRemoteAddress().getPort());
+				String path = ex.getRequestURI().getPath();
+				boolean missing = path.contains("missing");
+				byte[] body = missing ? ERROR : PAGE;
+				ex.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+				if (path.contains("close")) {
+					// a new socket for every call
+					ex.getResponseHeaders().set("Connection", "close");
+				}
+				ex.sendResponseHeaders(missing ? 404 : 200, body.length);
+				OutputStream out = ex.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		base = "http://localhost:" + server.getAddress().getPort() + "/1.1/";
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testReuse() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		for (int i = 0; i < 20; i++) {
+			String page = client.getPage(base + "users/lookup.json", null, false);
+			assert page.startsWith("[{") : page;
+			Object json = client.getPageJSON(base + "users/lookup.json", null, false, null);
+			assert json instanceof JSONArray && ((JSONArray) json).length() == 2 : json;
+		}
+		assert ports.size() == 1 : ports;
+		// errors still map to the usual exceptions -- and don't cost a socket
+		for (int i = 0; i < 5; i++) {
+			try {
+				client.getPage(base + "missing.json", null, false);
+				assert false;
+			} catch (TwitterException.E404 ex) {
+				// good
+			}
+		}
+		String page = client.getPage(base + "users/lookup.json", null, false);
+		assert page.startsWith("[{") : page;
+		assert ports.size() == 1 : ports;
+		// copies share the pool
+		Twitter.IHttpClient copy = client.copy();
+		for (int i = 0; i < 5; i++) {
+			copy.getPage(base + "users/lookup.json", null, false);
+		}
+		assert ports.size() == 1 : ports;
+		// the stub can force new sockets
+		for (int i = 0; i < 5; i++) {
+			client.getPage(base + "close/lookup.json", null, false);
+		}
+		assert ports.size() >= 5 : ports;
+	}
+
+	/**
+	 * Per-call latency: re-used socket vs a new one each time. This is plain
+	 * http on localhost, so it undersells the gap: with https to Twitter, each
+	 * new socket also costs a TLS handshake.
+	 */
+	@Test
+	public void benchmarkLatency() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		for (String path : new String[]{"close/user_timeline.json", "statuses/user_timeline.json"}) {
+			long[] best = null;
+			// best of 5 (the first is warm-up)
+			for (int rep = 0; rep < 5; rep++) {
+				long[] ns = new long[500];
+				for (int i = 0; i < ns.length; i++) {
+					long t0 = System.nanoTime();
+					client.getPageJSON(base + path, null, false, null);
+					ns[i] = System.nanoTime() - t0;
+				}
+				Arrays.sort(ns);
+				if (best == null || ns[ns.length / 2] < best[best.length / 2]) best = ns;
+			}
+			System.out.println((path.startsWith("close") ? "new socket" : "re-used socket")
+					+ ": median " + best[best.length / 2] / 1000 + "us, p99 "
+					+ best[best.length * 99 / 100] / 1000 + "us");
+		}
+	}
+}
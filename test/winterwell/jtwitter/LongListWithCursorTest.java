@@ -0,0 +1,167 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LongListWithCursorTest {
+
+	/**
+	 * Serves follower-id pages of 5000, from a fake user with n followers.
+	 */
+	static class IdPagesClient extends URLConnectionHttpClient {
+		final List<byte[]> pages = new ArrayList();
+		int calls;
+
+		IdPagesClient(int n) {
+			for (int p = 0; p * 5000 < n; p++) {
+				StringBuilder sb = new StringBuilder("{\"ids\":[");
+				for (int i = p * 5000; i < Math.min(n, (p + 1) * 5000); i++) {
+					if (i != p * 5000) sb.append(',');
+					// realistic sized ids
+					sb.append(1234567890123456L + i);
+				}
+				boolean last = (p + 1) * 5000 >= n;
+				sb.append("],\"next_cursor\":" + (last ? 0 : p + 1)
+						+ ",\"next_cursor_str\":\"" + (last ? 0 : p + 1)
+						+ "\",\"previous_cursor\":0}");
+				pages.add(sb.toString().getBytes(InternalUtils.UTF_8));
+			}
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			String c = vars.get("cursor");
+			final byte[] page = pages.get("-1".equals(c) ? 0 : Integer.parseInt(c));
+			calls++;
+			return new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testList() {
+		LongListWithCursor list = new LongListWithCursor(2);
+		list.add(1L);
+		list.add(Long.MAX_VALUE);
+		list.addAll(new long[]{5, 6, 7});
+		assert list.size() == 5;
+		assert list.getLong(1) == Long.MAX_VALUE;
+		assert list.get(2).equals(5L);
+		assert list.contains(7L);
+		assert list.equals(Arrays.asList(1L, Long.MAX_VALUE, 5L, 6L, 7L)) : list;
+		assert Arrays.equals(list.toLongArray(), new long[]{1, Long.MAX_VALUE, 5, 6, 7});
+		try {
+			list.getLong(5);
+			assert false;
+		} catch (IndexOutOfBoundsException ex) {
+			// good
+		}
+		list.setCursor("123");
+		assert list.hasCursor();
+		ListWithCursor<Number> boxed = list.toListWithCursor();
+		assert boxed.equals(list);
+		assert boxed.getCursor().equals("123");
+		list.setCursor(ListWithCursor.END);
+		assert list.isEnd() && ! list.hasCursor();
+	}
+
+	@Test
+	public void testCrawl() {
+		IdPagesClient client = new IdPagesClient(12345);
+		Twitter tw = new Twitter(null, client);
+		tw.setMaxResults(100000);
+		LongListWithCursor ids = tw.users().getFollowerIDsLong("bob", null);
+		assert ids.size() == 12345 : ids.size();
+		assert client.calls == 3;
+		assert ids.getLong(12344) == 1234567890123456L + 12344;
+		assert ids.isEnd();
+		// the old boxed version gives the same
+		List<Number> boxed = tw.users().getFollowerIDs("bob");
+		assert boxed.equals(ids);
+		assert boxed.get(0) instanceof Long;
+	}
+
+	@Test
+	public void testIdsInTweets() throws IOException {
+		List<Status> tweets = Status.getStatuses(JsonFieldsTest.timelinePage());
+		Status s = tweets.get(0);
+		assert s.getIdLong() == s.getId().longValue();
+		assert s.equals(tweets.get(3)) && s.hashCode() == tweets.get(3).hashCode();
+		assert ! s.equals(tweets.get(1));
+		// paging: long and BigInteger versions agree
+		long min = InternalUtils.getMinId(0L, tweets);
+		BigInteger bmin = InternalUtils.getMinId((BigInteger) null, tweets);
+		assert bmin.longValue() == min : bmin + " vs " + min;
+		assert InternalUtils.getMinId(0L, Collections.EMPTY_LIST) == 0;
+		assert InternalUtils.getMinId((BigInteger) null, Collections.EMPTY_LIST) == null;
+		assert InternalUtils.getMinId(BigInteger.TEN, Collections.EMPTY_LIST).intValue() == 9;
+		// sorting
+		Collections.sort(tweets, InternalUtils.NEWEST_FIRST);
+		assert tweets.get(0).getIdLong() >= tweets.get(199).getIdLong();
+		// deleted-tweet stand-ins match the real thing
+		Status dead = new Status(null, null, s.getIdLong(), null);
+		assert dead.equals(s) && dead.id.equals(s.id);
+		// time arithmetic
+		assert InternalUtils.addTimeToStatusId(s.getIdLong(), 5000) == InternalUtils
+				.addTimeToStatusId(s.id, 5000).longValue();
+	}
+
+	/**
+	 * Allocation for a 75,000 follower crawl: boxed (the List&lt;Number&gt;
+	 * methods) vs primitive longs.
+	 */
+	@Test
+	public void benchmarkCrawl() {
+		java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+		if ( ! (tmx instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("No allocation counter on this JVM");
+			return;
+		}
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) tmx;
+		long tid = Thread.currentThread().getId();
+		Twitter tw = new Twitter(null, new IdPagesClient(75000));
+		tw.setMaxResults(75000);
+		long boxedBytes = Long.MAX_VALUE, longBytes = Long.MAX_VALUE;
+		// best of 5 (the first is warm-up)
+		for (int i = 0; i < 5; i++) {
+			long b0 = mx.getThreadAllocatedBytes(tid);
+			List<Number> boxed = tw.users().getFollowerIDs("bob");
+			boxedBytes = Math.min(boxedBytes, mx.getThreadAllocatedBytes(tid) - b0);
+			assert boxed.size() == 75000;
+
+			b0 = mx.getThreadAllocatedBytes(tid);
+			LongListWithCursor ids = tw.users().getFollowerIDsLong("bob", null);
+			longBytes = Math.min(longBytes, mx.getThreadAllocatedBytes(tid) - b0);
+			assert ids.size() == 75000;
+		}
+		System.out.println("75k ids, boxed: " + boxedBytes / 1024 + "KB");
+		System.out.println("75k ids, long[]: " + longBytes / 1024 + "KB");
+	}
+}
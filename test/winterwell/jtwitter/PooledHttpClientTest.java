@@ -0,0 +1,205 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.Twitter.IHttpClient;
+
+public class PooledHttpClientTest {
+
+	/**
+	 * Enforces a per-login, per-resource rate limit, with windows of the given
+	 * length, and sends the usual X-Rate-Limit headers.
+	 */
+	static class FakeServer {
+		final int limit;
+		final long window;
+		final Map<String, long[]> windows = new HashMap();
+		int overLimit;
+
+		FakeServer(int limit, long window) {
+			this.limit = limit;
+			this.window = window;
+		}
+
+		/**
+		 * @return {remaining, reset}
+		 */
+		synchronized long[] request(String login, String resource) {
+			long now = System.currentTimeMillis();
+			String key = login + resource;
+			long[] w = windows.get(key);
+			if (w == null || now >= w[1]) {
+				// {count, reset}
+				w = new long[]{0, now + window};
+				windows.put(key, w);
+			}
+			if (w[0] >= limit) {
+				overLimit++;
+				throw new TwitterException.RateLimit(login + " " + resource);
+			}
+			w[0]++;
+			return new long[]{limit - w[0], w[1]};
+		}
+	}
+
+	static class FakeLogin extends URLConnectionHttpClient {
+		final FakeServer server;
+
+		FakeLogin(String name, FakeServer server) {
+			super(name, "pw");
+			this.server = server;
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			String resource = checkRateLimit(url);
+			long[] rl = server.request(name, resource);
+			StringBuilder sb = new StringBuilder("[");
+			String ids = vars == null ? null : vars.get("user_id");
+			if (ids != null) {
+				for (String id : ids.split(",")) {
+					if (sb.length() > 1) sb.append(',');
+					sb.append("{\"id\":" + id + ",\"id_str\":\"" + id + "\",\"screen_name\":\"u" + id + "\"}");
+				}
+			}
+			final byte[] page = sb.append(']').toString().getBytes(InternalUtils.UTF_8);
+			final Map<String, List<String>> headers = new HashMap();
+			headers.put("X-Rate-Limit-Limit", Arrays.asList("" + server.limit));
+			headers.put("X-Rate-Limit-Remaining", Arrays.asList("" + rl[0]));
+			// msecs (which RateLimit understands) for short windows
+			headers.put("X-Rate-Limit-Reset", Arrays.asList("" + rl[1]));
+			HttpURLConnection connection = new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public Map<String, List<String>> getHeaderFields() {
+					return headers;
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+			processHeaders(connection, resource);
+			return connection;
+		}
+	}
+
+	static PooledHttpClient pool(int n, FakeServer server) {
+		List<IHttpClient> logins = new ArrayList();
+		for (int i = 0; i < n; i++) {
+			logins.add(new FakeLogin("login" + i, server));
+		}
+		return new PooledHttpClient(logins);
+	}
+
+	static List<Long> ids(int n) {
+		List<Long> ids = new ArrayList(n);
+		for (int i = 0; i < n; i++) {
+			ids.add(1000000L + i);
+		}
+		return ids;
+	}
+
+	/**
+	 * 60,000 users = 600 lookups: 3 times one login's quota, but fine spread
+	 * over 5 -- from 4 threads at once.
+	 */
+	@Test
+	public void testSpread() throws Exception {
+		FakeServer server = new FakeServer(180, 60000);
+		final PooledHttpClient pool = pool(5, server);
+		final Twitter tw = new Twitter(null, pool);
+		final List<Long> ids = ids(60000);
+		final List<User> users = Collections.synchronizedList(new ArrayList<User>());
+		List<Thread> threads = new ArrayList();
+		for (int t = 0; t < 4; t++) {
+			final List<Long> slice = ids.subList(t * 15000, (t + 1) * 15000);
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					users.addAll(tw.users().showById(slice));
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assert users.size() == 60000 : users.size();
+		assert server.overLimit == 0;
+		long[] counts = pool.getCallCounts();
+		for (long c : counts) {
+			assert c >= 100 && c <= 140 : Arrays.toString(counts);
+		}
+		// the merged view
+		assert pool.getRateLimits().get(RateLimit.RES_USERS_BULK_SHOW).getRemaining() < 180;
+
+		// one login on its own can't
+		FakeServer server2 = new FakeServer(180, 60000);
+		Twitter tw1 = new Twitter(null, new FakeLogin("solo", server2));
+		List<User> some = tw1.users().showById(ids);
+		assert some.size() == 18000 : some.size();
+	}
+
+	@Test
+	public void testWaitForReset() {
+		FakeServer server = new FakeServer(10, 300);
+		PooledHttpClient pool = pool(3, server);
+		Twitter tw = new Twitter(null, pool);
+		long t0 = System.currentTimeMillis();
+		// 50 lookups, 30 per window
+		List<User> users = tw.users().showById(ids(5000));
+		assert users.size() == 5000 : users.size();
+		assert System.currentTimeMillis() - t0 >= 250;
+		assert server.overLimit == 0;
+
+		// don't wait that long
+		pool.setMaxWait(10);
+		tw.users().showById(ids(3000));
+		try {
+			tw.users().showById(ids(100));
+			assert false;
+		} catch (TwitterException.PreEmptiveRateLimit ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testPersonal() {
+		FakeServer server = new FakeServer(100, 60000);
+		PooledHttpClient pool = pool(3, server);
+		for (int i = 0; i < 6; i++) {
+			pool.getPage(Twitter.DEFAULT_TWITTER_URL + "/statuses/home_timeline.json", null, true);
+		}
+		assert pool.getCallCounts()[0] == 6 : Arrays.toString(pool.getCallCounts());
+		for (int i = 0; i < 6; i++) {
+			pool.getPage(Twitter.DEFAULT_TWITTER_URL + "/statuses/user_timeline.json", null, true);
+		}
+		assert Arrays.equals(pool.getCallCounts(), new long[]{8, 2, 2}) : Arrays.toString(pool.getCallCounts());
+		// headers come from the login this thread last used
+		assert "98".equals(pool.getHeader("X-Rate-Limit-Remaining")) : pool.getHeader("X-Rate-Limit-Remaining");
+	}
+}
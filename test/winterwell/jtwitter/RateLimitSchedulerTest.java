@@ -0,0 +1,127 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.RateLimitScheduler.KPriority;
+import winterwell.jtwitter.RateLimitScheduler.Metrics;
+
+public class RateLimitSchedulerTest {
+
+	static final String USERS_SHOW = "https://api.twitter.com/1.1/users/show.json?screen_name=bob";
+
+	static RateLimit limit(int limit, int remaining, long resetInMillis) {
+		return new RateLimit("" + limit, "" + remaining,
+				"" + (System.currentTimeMillis() + resetInMillis));
+	}
+
+	@Test
+	public void testBucket() {
+		RateLimitScheduler s = new RateLimitScheduler();
+		RateLimit rl = limit(10, 3, 400);
+		long t0 = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			s.acquire("/users/show", rl, 0);
+		}
+		assert System.currentTimeMillis() - t0 < 200;
+		assert s.getMetrics("/users/show").waits == 0;
+		// empty: wait for the reset, which refills to the full 10
+		s.acquire("/users/show", rl, 0);
+		assert System.currentTimeMillis() - t0 >= 350;
+		long t1 = System.currentTimeMillis();
+		for (int i = 0; i < 9; i++) {
+			s.acquire("/users/show", rl, 0);
+		}
+		assert System.currentTimeMillis() - t1 < 200;
+		Metrics m = s.getMetrics("/users/show");
+		assert m.waits == 1 && m.maxWaitMillis >= 300 && m.queued == 0 : m;
+		// unknown resources aren't limited
+		s.acquire("/friends/ids", null, 0);
+		s.acquire(null, null, 0);
+	}
+
+	@Test
+	public void testReserve() {
+		RateLimitScheduler s = new RateLimitScheduler();
+		s.setMaxWait(100);
+		RateLimit rl = limit(10, 3, 5000);
+		s.acquire("/users/show", rl, 2);
+		try {
+			s.acquire("/users/show", rl, 2);
+			assert false;
+		} catch (TwitterException.PreEmptiveRateLimit ex) {
+			// good -- the reset is too far off
+		}
+		assert s.getMetrics("/users/show").rejected == 1;
+		// newer headers: Twitter's count is higher, but ours (with calls in
+		// flight) is trusted within the same window
+		RateLimit rl2 = new RateLimit("10", "9", rl.getReset().getTime() + "");
+		try {
+			s.acquire("/users/show", rl2, 2);
+			assert false;
+		} catch (TwitterException.PreEmptiveRateLimit ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testPriority() throws Exception {
+		final RateLimitScheduler s = new RateLimitScheduler();
+		s.setMaxWait(2000);
+		// one call per window: so only the first in line gets in
+		final RateLimit rl = limit(1, 0, 500);
+		final List<KPriority> order = Collections.synchronizedList(new ArrayList<KPriority>());
+		List<Thread> threads = new ArrayList();
+		for (final KPriority p : new KPriority[]{KPriority.LOW, KPriority.NORMAL, KPriority.HIGH}) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					RateLimitScheduler.setPriority(p);
+					try {
+						s.acquire("/search/tweets", rl, 0);
+						order.add(p);
+					} catch (TwitterException.PreEmptiveRateLimit ex) {
+						// next window's too far off
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+			// make sure they queue in this order
+			while (s.getQueueDepth("/search/tweets") < threads.size()) {
+				Thread.sleep(5);
+			}
+		}
+		assert s.getMetrics("/search/tweets").queued == 3;
+		for (Thread t : threads) {
+			t.join(2000);
+		}
+		// HIGH jumped the queue
+		assert order.equals(Collections.singletonList(KPriority.HIGH)) : order;
+		assert s.getQueueDepth("/search/tweets") == 0;
+		assert s.getMetrics("/search/tweets").rejected == 2;
+	}
+
+	@Test
+	public void testClient() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		client.getRateLimits().put("/users/show", limit(180, 0, 300));
+		try {
+			client.checkRateLimit(USERS_SHOW);
+			assert false;
+		} catch (TwitterException.PreEmptiveRateLimit ex) {
+			// the old way
+		}
+		RateLimitScheduler s = new RateLimitScheduler();
+		client.setScheduler(s);
+		long t0 = System.currentTimeMillis();
+		assert client.checkRateLimit(USERS_SHOW).equals("/users/show");
+		assert System.currentTimeMillis() - t0 >= 250;
+		// copies share the scheduler
+		assert ((URLConnectionHttpClient) client.copy()).getScheduler() == s;
+		assert s.getMetrics().size() == 1 : s;
+	}
+}
@@ -0,0 +1,111 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONObject;
+
+import winterwell.jtwitter.Twitter.KRawJson;
+
+public class RawJsonTest {
+
+	@Test
+	public void testPolicies() throws IOException {
+		String json = StreamGobblerTest.readSample().get(0);
+		String tree = new JSONObject(json).toString();
+
+		Status none = Status.getStatus(json, KRawJson.NONE);
+		assert none.getRawJson() == null;
+
+		Status bytes = Status.getStatus(json, KRawJson.BYTES);
+		JSONObject jo = bytes.getRawJson();
+		assert jo.toString().equals(tree) : jo;
+		// re-parsed each time
+		assert bytes.getRawJson() != jo;
+
+		Status full = Status.getStatus(json, KRawJson.TREE);
+		assert full.getRawJson().toString().equals(tree);
+		assert full.getRawJson() == full.getRawJson();
+
+		// the tweet itself is the same whatever we keep
+		byte[] s = JsonFieldsTest.serialise(none);
+		assert Arrays.equals(s, JsonFieldsTest.serialise(bytes));
+		assert Arrays.equals(s, JsonFieldsTest.serialise(full));
+	}
+
+	@Test
+	public void testPages() throws IOException {
+		String page = JsonRecordTest.readLines(JsonRecordTest.GOLDEN_REST).get(0);
+		for (KRawJson raw : KRawJson.values()) {
+			List<Status> tweets = Status.getStatuses(page, raw);
+			assert tweets.size() == 5 : tweets;
+			JSONObject jo = tweets.get(0).getRawJson();
+			if (raw == KRawJson.NONE) {
+				assert jo == null;
+				continue;
+			}
+			assert jo.toString().equals(new JSONArray(page).getJSONObject(0).toString()) : raw;
+		}
+		// search results too
+		String search = JsonRecordTest.readLines(JsonRecordTest.GOLDEN_REST).get(2);
+		Twitter tw = new Twitter(null, new URLConnectionHttpClient());
+		assert Status.getStatusesFromSearch(tw, search).get(0).getRawJson() == null;
+		tw.setRawJson(KRawJson.BYTES);
+		List<Status> found = Status.getStatusesFromSearch(tw, search);
+		assert found.size() == 2;
+		assert found.get(1).getRawJson().has("id");
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		Twitter tw = new Twitter(null, new URLConnectionHttpClient());
+		tw.setRawJson(KRawJson.BYTES);
+		TwitterStream ts = new TwitterStream(tw);
+		assert ts.getRawJson() == KRawJson.BYTES;
+		// ...and so do copies (e.g. for outage fill-in)
+		assert new Twitter(tw).getRawJson() == KRawJson.BYTES;
+		StreamGobbler gobbler = new StreamGobbler(ts);
+		String json = StreamGobblerTest.readSample().get(1);
+		Status s = (Status) gobbler.readJson2_parse(json);
+		assert s.getRawJson().toString().equals(new JSONObject(json).toString());
+
+		ts.setRawJson(KRawJson.NONE);
+		s = (Status) gobbler.readJson2_parse(json);
+		assert s.getRawJson() == null;
+		// not a tweet
+		String delete = StreamGobblerTest.readSample().get(3);
+		assert ! (gobbler.readJson2_parse(delete) instanceof Status);
+	}
+
+	/**
+	 * Memory per tweet held, for each policy.
+	 */
+	@Test
+	public void benchmarkHeap() throws IOException {
+		String page = JsonFieldsTest.timelinePage();
+		int n = 2000;
+		for (KRawJson raw : KRawJson.values()) {
+			List<Status> held = new ArrayList(n);
+			long before = usedMemory();
+			for (int i = 0; i < n / 200; i++) {
+				held.addAll(Status.getStatuses(page, raw));
+			}
+			long after = usedMemory();
+			assert held.size() == n;
+			System.out.println(raw + ": " + (after - before) / n + " bytes per tweet");
+		}
+	}
+
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
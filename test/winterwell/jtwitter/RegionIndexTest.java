@@ -0,0 +1,161 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.winterwell.jgeoplanet.BoundingBox;
+import com.winterwell.jgeoplanet.Location;
+import com.winterwell.json.JSONObject;
+
+public class RegionIndexTest {
+
+	/**
+	 * @return n random boxes, 0.1 to 2 degrees across, as {west, south, east, north}
+	 */
+	static List<double[]> boxes(int n, Random r) {
+		List<double[]> boxes = new ArrayList<double[]>();
+		for (int i = 0; i < n; i++) {
+			double w = -180 + r.nextDouble() * 358;
+			double s = -80 + r.nextDouble() * 158;
+			double dx = 0.1 + r.nextDouble() * 1.9;
+			double dy = 0.1 + r.nextDouble() * 1.9;
+			boxes.add(new double[] { w, s, w + dx, s + dy });
+		}
+		return boxes;
+	}
+
+	static List<double[]> bruteForce(List<double[]> boxes, double lat, double lng) {
+		List<double[]> found = new ArrayList<double[]>();
+		for (double[] b : boxes) {
+			if (lat >= b[1] && lat <= b[3] && lng >= b[0] && lng <= b[2]) found.add(b);
+		}
+		return found;
+	}
+
+	@Test
+	public void testFind() {
+		RegionIndex<String> index = new RegionIndex<String>();
+		index.add(new double[] { -8.2, 49.9, 1.8, 58.7 }, "UK");
+		index.add(new double[] { -0.51, 51.28, 0.33, 51.69 }, "London");
+		// Fiji: across the 180 line
+		index.add(new double[] { 177, -21, -178, -12 }, "Fiji");
+		assert index.size() == 3;
+		assert index.find(new Location(51.5, -0.12)).equals(Arrays.asList("UK", "London"));
+		assert index.find(new Location(55.95, -3.19)).equals(Arrays.asList("UK"));
+		assert index.find(new Location(40.7, -74)).isEmpty();
+		assert index.find(-18, 178.4).equals(Arrays.asList("Fiji"));
+		assert index.find(-16, -179.9).equals(Arrays.asList("Fiji"));
+		assert index.find(-16, 170).isEmpty();
+		// box queries (e.g. a place)
+		BoundingBox southEngland = new BoundingBox(new Location(52, 1), new Location(50, -1));
+		assert index.find(southEngland).equals(Arrays.asList("UK", "London"));
+		BoundingBox dateLine = new BoundingBox(new Location(-15, -179), new Location(-20, 179));
+		assert index.find(dateLine).equals(Arrays.asList("Fiji")) : index.find(dateLine);
+	}
+
+	@Test
+	public void testVsBruteForce() {
+		Random r = new Random(42);
+		List<double[]> boxes = boxes(2000, r);
+		RegionIndex<double[]> index = new RegionIndex<double[]>();
+		for (double[] b : boxes) {
+			index.add(b, b);
+		}
+		int hits = 0;
+		for (int i = 0; i < 20000; i++) {
+			double lat = -80 + r.nextDouble() * 160;
+			double lng = -180 + r.nextDouble() * 360;
+			List<double[]> found = index.find(lat, lng);
+			assert found.equals(bruteForce(boxes, lat, lng)) : lat + "," + lng;
+			hits += found.size();
+		}
+		assert hits > 0;
+	}
+
+	@Test
+	public void testCover() {
+		Random r = new Random(7);
+		List<double[]> boxes = boxes(10000, r);
+		RegionIndex<double[]> index = new RegionIndex<double[]>();
+		for (double[] b : boxes) {
+			index.add(b, b);
+		}
+		List<double[]> cover = index.getCover(RegionIndex.MAX_STREAM_BOXES);
+		assert cover.size() <= 25 && cover.size() > 1 : cover.size();
+		for (double[] b : boxes) {
+			boolean in = false;
+			for (double[] c : cover) {
+				assert c[0] <= c[2] && c[1] <= c[3];
+				if (c[0] <= b[0] && c[1] <= b[1] && c[2] >= b[2] && c[3] >= b[3]) in = true;
+			}
+			assert in : Arrays.toString(b);
+		}
+		// few boxes: the cover is the boxes
+		RegionIndex<String> small = new RegionIndex<String>();
+		small.add(new double[] { -0.51, 51.28, 0.33, 51.69 }, "London");
+		small.add(new double[] { -74.26, 40.48, -73.7, 40.92 }, "NYC");
+		assert small.getCover(25).size() == 2;
+	}
+
+	@Test
+	public void testTweets() {
+		TwitterStream ts = new TwitterStream(new Twitter());
+		double[] london = { -0.51, 51.28, 0.33, 51.69 };
+		double[] nyc = { -74.26, 40.48, -73.7, 40.92 };
+		ts.setLocation(Arrays.asList(london, nyc));
+		RegionIndex<String> one = new RegionIndex<String>();
+		one.add(london, "London");
+		assert TwitterStream.connect2_locations(one).equals("-0.51,51.28,0.33,51.69");
+		// geotagged
+		Status geo = new Status(new JSONObject("{\"id\":1,\"text\":\"hi\",\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\",\"geo\":{\"type\":\"Point\",\"coordinates\":[51.5,-0.12]}}"), null);
+		assert ts.getRegions(geo).equals(Arrays.asList(london)) : ts.getRegions(geo);
+		// by place
+		Status place = new Status(new JSONObject("{\"id\":2,\"text\":\"hi\",\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\",\"place\":{\"id\":\"01a9a39529b27f36\","
+				+ "\"name\":\"Manhattan\",\"full_name\":\"Manhattan, NY\",\"country_code\":\"US\",\"place_type\":\"city\","
+				+ "\"bounding_box\":{\"type\":\"Polygon\",\"coordinates\":[[[-74.026675,40.683935],[-73.910408,40.683935],"
+				+ "[-73.910408,40.877483],[-74.026675,40.877483]]]}}}"), null);
+		assert ts.getRegions(place).equals(Arrays.asList(nyc)) : ts.getRegions(place);
+		Status nowhere = new Status(new JSONObject("{\"id\":3,\"text\":\"hi\",\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\"}"), null);
+		assert ts.getRegions(nowhere).isEmpty();
+		ts.setLocation(null);
+		assert ts.getRegions(geo).isEmpty();
+	}
+
+	/**
+	 * 10,000 city-sized boxes: index vs checking every box.
+	 */
+	@Test
+	public void benchmarkFind() {
+		Random r = new Random(1);
+		List<double[]> boxes = boxes(10000, r);
+		RegionIndex<double[]> index = new RegionIndex<double[]>();
+		for (double[] b : boxes) {
+			index.add(b, b);
+		}
+		int n = 1000000;
+		double[] lats = new double[n], lngs = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = -80 + r.nextDouble() * 160;
+			lngs[i] = -180 + r.nextDouble() * 360;
+		}
+		int found = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			found += index.find(lats[i], lngs[i]).size();
+		}
+		long t1 = System.nanoTime();
+		int found2 = 0;
+		for (int i = 0; i < n / 100; i++) {
+			found2 += bruteForce(boxes, lats[i], lngs[i]).size();
+		}
+		long t2 = System.nanoTime();
+		System.out.println("10,000 boxes, index: " + n * 1000000000L / (t1 - t0)
+				+ " lookups/sec (" + found + " matches)");
+		System.out.println("10,000 boxes, check all: " + (n / 100) * 1000000000L / (t2 - t1)
+				+ " lookups/sec (" + found2 + " matches)");
+	}
+}
@@ -0,0 +1,148 @@
+package winterwell.jtwitter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+	@Test
+	public void testEvictOldest() {
+		RingBuffer<Integer> rb = new RingBuffer(3);
+		Integer gone = rb.push(1);
+		assert gone == null;
+		rb.add(2);
+		rb.add(3);
+		gone = rb.push(4);
+		assert gone == 1;
+		assert rb.equals(Arrays.asList(2, 3, 4)) : rb;
+		rb.add(5);
+		rb.add(6);
+		rb.add(7);
+		assert rb.equals(Arrays.asList(5, 6, 7)) : rb;
+		assert rb.getEvicted() == 4;
+		assert rb.get(0) == 5;
+		assert rb.get(2) == 7;
+	}
+
+	@Test
+	public void testRemove() {
+		RingBuffer<Integer> rb = new RingBuffer(4);
+		for (int i = 0; i < 6; i++) {
+			rb.add(i);
+		}
+		// wrapped: [2,3,4,5]
+		boolean removed = rb.remove(Integer.valueOf(4));
+		assert removed;
+		assert rb.equals(Arrays.asList(2, 3, 5)) : rb;
+		int first = rb.removeFirst();
+		assert first == 2;
+		rb.add(6);
+		rb.add(7);
+		assert rb.equals(Arrays.asList(3, 5, 6, 7)) : rb;
+		// removing isn't evicting
+		assert rb.getEvicted() == 2 : rb.getEvicted();
+	}
+
+	@Test
+	public void testDrainTo() {
+		RingBuffer<Integer> rb = new RingBuffer(5);
+		for (int i = 0; i < 8; i++) {
+			rb.add(i);
+		}
+		List<Integer> sink = new ArrayList();
+		sink.add(-1);
+		int n = rb.drainTo(sink);
+		assert n == 5 : n;
+		assert sink.equals(Arrays.asList(-1, 3, 4, 5, 6, 7)) : sink;
+		assert rb.isEmpty();
+		rb.add(8);
+		assert rb.equals(Arrays.asList(8)) : rb;
+	}
+
+	@Test
+	public void testSetCapacity() {
+		RingBuffer<Integer> rb = new RingBuffer(100);
+		for (int i = 0; i < 50; i++) {
+			rb.add(i);
+		}
+		rb.setCapacity(10);
+		assert rb.size() == 10;
+		assert rb.get(0) == 40;
+		assert rb.getEvicted() == 40;
+		rb.add(50);
+		assert rb.get(0) == 41;
+		rb.setCapacity(20);
+		for (int i = 51; i < 70; i++) {
+			rb.add(i);
+		}
+		assert rb.size() == 20;
+		assert rb.get(0) == 50 : rb.get(0);
+	}
+
+	@Test
+	public void testStreamBuffers() {
+		TwitterStream ts = new TwitterStream(new Twitter(null,
+				new URLConnectionHttpClient()));
+		// a stopped gobbler, so polling doesn't try to connect
+		ts.readThread = new StreamGobbler(ts);
+		ts.readThread.stopFlag = true;
+		ts.setMaxBuffer(2);
+		ts.addSysEvent(new Object[] { "test", 1 });
+		ts.addSysEvent(new Object[] { "test", 2 });
+		ts.addSysEvent(new Object[] { "test", 3 });
+		List<Object[]> evs = ts.popSystemEvents();
+		assert evs.size() == 2;
+		assert evs.get(0)[1].equals(2);
+		assert ts.getForgotten() == 1 : ts.getForgotten();
+		evs = ts.popSystemEvents();
+		assert evs.isEmpty();
+		assert ts.getForgotten() == 1 : ts.getForgotten();
+	}
+
+	/**
+	 * Compare with the old eviction scheme: an ArrayList which dropped a tenth
+	 * of itself via remove(0) when it got full.
+	 */
+	@Test
+	public void benchmarkEviction() {
+		int cap = 10000;
+		int n = 2000000;
+		Object x = new Object();
+		// warm up
+		for (int w = 0; w < 2; w++) {
+			benchmarkArrayList(cap, n / 10, x);
+			benchmarkRingBuffer(cap, n / 10, x);
+		}
+		long t0 = System.nanoTime();
+		benchmarkArrayList(cap, n, x);
+		long dtList = System.nanoTime() - t0;
+		t0 = System.nanoTime();
+		benchmarkRingBuffer(cap, n, x);
+		long dtRing = System.nanoTime() - t0;
+		System.out.println("ArrayList remove(0): " + (dtList / n) + "ns per add");
+		System.out.println("RingBuffer: " + (dtRing / n) + "ns per add");
+	}
+
+	private void benchmarkArrayList(int cap, int n, Object x) {
+		List<Object> list = new ArrayList();
+		for (int i = 0; i < n; i++) {
+			list.add(x);
+			if (list.size() < cap)
+				continue;
+			for (int j = 0; j < cap / 10; j++) {
+				list.remove(0);
+			}
+		}
+	}
+
+	private void benchmarkRingBuffer(int cap, int n, Object x) {
+		RingBuffer<Object> rb = new RingBuffer(cap);
+		for (int i = 0; i < n; i++) {
+			rb.push(x);
+		}
+		assert rb.size() == cap;
+	}
+}
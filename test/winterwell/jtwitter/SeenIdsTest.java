@@ -0,0 +1,187 @@
+package winterwell.jtwitter;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SeenIdsTest {
+
+	@Test
+	public void testAdd() {
+		SeenIds seen = new SeenIds(100, 60000);
+		boolean added = seen.add(570280297738080257L);
+		assert added;
+		added = seen.add(570145271511973888L);
+		assert added;
+		added = seen.add(570280297738080257L);
+		assert ! added;
+		assert seen.contains(570145271511973888L);
+		assert ! seen.contains(1L);
+		assert seen.getHits() == 1;
+		assert seen.getMisses() == 2;
+	}
+
+	@Test
+	public void testCapacity() {
+		SeenIds seen = new SeenIds(3, 60000);
+		seen.add(1);
+		seen.add(2);
+		seen.add(3);
+		seen.add(4);
+		assert seen.size() == 3;
+		assert ! seen.contains(1);
+		assert seen.contains(2) && seen.contains(4);
+	}
+
+	@Test
+	public void testWindow() {
+		SeenIds seen = new SeenIds(10, 60000);
+		seen.add(1);
+		seen.add(2);
+		assert seen.contains(1);
+		// everything is too old now
+		seen.setWindow(-1);
+		assert ! seen.contains(1);
+		assert seen.size() == 0;
+		seen.setWindow(60000);
+		boolean added = seen.add(1);
+		assert added;
+	}
+
+	@Test
+	public void testRememberIsNotCounted() {
+		SeenIds seen = new SeenIds(10, 60000);
+		boolean added = seen.remember(1);
+		assert added;
+		added = seen.remember(1);
+		assert ! added;
+		assert seen.getHits() == 0 && seen.getMisses() == 0 : seen;
+		added = seen.add(1);
+		assert ! added;
+		assert seen.getHits() == 1 && seen.getMisses() == 0 : seen;
+	}
+
+	@Test
+	public void testSetCapacity() {
+		SeenIds seen = new SeenIds(10, 60000);
+		for (int i = 0; i < 10; i++) {
+			seen.add(i);
+		}
+		// shrinking forgets the oldest
+		seen.setCapacity(4);
+		assert seen.size() == 4 : seen;
+		assert ! seen.contains(5) && seen.contains(6) && seen.contains(9);
+		seen.add(10);
+		assert ! seen.contains(6) && seen.contains(10);
+		// growing keeps them all
+		seen.setCapacity(100);
+		for (int i = 11; i < 50; i++) {
+			seen.add(i);
+		}
+		assert seen.size() == 43 : seen;
+		assert seen.contains(7) && seen.contains(49);
+		assert seen.getMisses() == 50 : seen;
+		// and the stream keeps it in step with its buffers
+		TwitterStream ts = new TwitterStream(new Twitter(null,
+				new URLConnectionHttpClient()));
+		ts.setMaxBuffer(100);
+		assert ts.getSeenIds().getCapacity() == 500 : ts.getSeenIds();
+	}
+
+	/**
+	 * Check against a HashSet + queue, with lots of evictions (which exercise
+	 * the hash table deletes).
+	 */
+	@Test
+	public void testAgainstHashSet() {
+		Random r = new Random(42);
+		int cap = 1000;
+		SeenIds seen = new SeenIds(cap, 60000);
+		HashSet<Long> set = new HashSet();
+		ArrayDeque<Long> order = new ArrayDeque();
+		long base = 570145271511973888L;
+		for (int i = 0; i < 200000; i++) {
+			// a narrow range, so we get plenty of duplicates
+			long id = base + r.nextInt(3000);
+			boolean isNew = ! set.contains(id);
+			boolean added = seen.add(id);
+			assert added == isNew : i;
+			if (isNew) {
+				set.add(id);
+				order.add(id);
+				if (order.size() > cap) {
+					set.remove(order.removeFirst());
+				}
+			}
+		}
+		assert seen.size() == cap;
+		for (long id = base; id < base + 3000; id++) {
+			assert seen.contains(id) == set.contains(id) : id;
+		}
+	}
+
+	@Test
+	public void testStreamDeduplicates() {
+		TwitterStream ts = new TwitterStream(new Twitter(null,
+				new URLConnectionHttpClient()));
+		User user = new User("jtwit");
+		Status a = new Status(user, "hello", new BigInteger("570145271511973888"), null);
+		Status a2 = new Status(user, "hello", new BigInteger("570145271511973888"), null);
+		boolean added = ts.addTweet(a);
+		assert added;
+		added = ts.addTweet(a2);
+		assert ! added;
+		assert ts.tweets.size() == 1;
+		assert ts.getSeenIds().getHits() == 1;
+	}
+
+	/**
+	 * Compare with the old de-duplication: List.contains on a full buffer.
+	 */
+	@Test
+	public void benchmarkSeenIds() {
+		int cap = 10000;
+		int n = 20000;
+		List<Status> tweets = new ArrayList();
+		User user = new User("jtwit");
+		long base = 570145271511973888L;
+		Status[] incoming = new Status[n];
+		for (int i = 0; i < n; i++) {
+			incoming[i] = new Status(user, "hello",
+					BigInteger.valueOf(base + i), null);
+		}
+		// a full buffer
+		for (int i = 0; i < cap; i++) {
+			tweets.add(incoming[i]);
+		}
+		long t0 = System.nanoTime();
+		int dups = 0;
+		for (Status s : incoming) {
+			if (tweets.contains(s)) dups++;
+		}
+		long dtList = System.nanoTime() - t0;
+		assert dups == cap;
+
+		// best of 3 (the 1st is warm-up)
+		long dtSeen = Long.MAX_VALUE;
+		for (int j = 0; j < 3; j++) {
+			SeenIds seen = new SeenIds(5 * cap, 60000);
+			for (int i = 0; i < cap; i++) {
+				seen.add(incoming[i].getId().longValue());
+			}
+			t0 = System.nanoTime();
+			for (Status s : incoming) {
+				seen.add(s.getId().longValue());
+			}
+			dtSeen = Math.min(dtSeen, System.nanoTime() - t0);
+			assert seen.getHits() == cap;
+		}
+		System.out.println("List.contains: " + (dtList / n) + "ns per tweet");
+		System.out.println("SeenIds: " + (dtSeen / n) + "ns per tweet");
+	}
+}
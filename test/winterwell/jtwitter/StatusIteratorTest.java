@@ -0,0 +1,174 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class StatusIteratorTest {
+
+	/**
+	 * Tweets 1 to n, an hour apart (tweet n is the newest), served newest
+	 * first with max_id paging, after a delay.
+	 */
+	static class TimelineServer extends URLConnectionHttpClient {
+		static final long T0 = 1400000000000L;
+		final int n;
+		final int delay;
+		final AtomicInteger calls = new AtomicInteger();
+
+		TimelineServer(int n, int delay) {
+			this.n = n;
+			this.delay = delay;
+		}
+
+		static Date date(long id) {
+			return new Date(T0 + id * 3600000L);
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			calls.incrementAndGet();
+			InternalUtils.sleep(delay);
+			int count = Integer.parseInt(vars.get("count"));
+			String mid = vars.get("max_id");
+			long top = mid == null ? n : Math.min(n, Long.parseLong(mid));
+			SimpleDateFormat df = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+			df.setTimeZone(TimeZone.getTimeZone("UTC"));
+			StringBuilder sb = new StringBuilder("[");
+			for (long id = top; id > 0 && id > top - count; id--) {
+				if (sb.length() > 1) sb.append(',');
+				sb.append("{\"id\":" + id + ",\"id_str\":\"" + id
+						+ "\",\"text\":\"tweet " + id + "\",\"created_at\":\""
+						+ df.format(date(id))
+						+ "\",\"user\":{\"id\":1,\"id_str\":\"1\",\"screen_name\":\"bob\"}}");
+			}
+			sb.append(']');
+			String json = url.contains("search") ? "{\"statuses\":" + sb + ",\"search_metadata\":{}}" : sb.toString();
+			final byte[] page = json.getBytes(InternalUtils.UTF_8);
+			return new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testTimeline() {
+		TimelineServer server = new TimelineServer(1000, 0);
+		Twitter tw = new Twitter(null, server);
+		StatusIterator it = tw.getUserTimelineIterator("bob");
+		long expected = 1000;
+		while (it.hasNext()) {
+			Status s = it.next();
+			assert s.getIdLong() == expected : s.getId();
+			expected--;
+		}
+		assert expected == 0;
+		// 5 pages of 200 -- no need to ask for more after tweet 1
+		assert it.getPages() == 5 : it.getPages();
+		assert server.calls.get() == 5;
+
+		// starting from a max_id (above the newest tweet)
+		TimelineServer server2 = new TimelineServer(1000, 0);
+		Twitter tw2 = new Twitter(null, server2);
+		tw2.setUntilId(1050L);
+		tw2.setCount(100);
+		StatusIterator it2 = tw2.getUserTimelineIterator("bob");
+		long first = it2.next().getIdLong();
+		assert first == 1000 : first;
+		long rest = it2.stream().count();
+		assert rest == 999 : rest;
+	}
+
+	@Test
+	public void testShortCircuit() {
+		TimelineServer server = new TimelineServer(3000, 20);
+		Twitter tw = new Twitter(null, server);
+		List<Status> first = tw.getUserTimelineIterator("bob").stream().limit(250)
+				.collect(Collectors.toList());
+		assert first.size() == 250;
+		assert first.get(249).getIdLong() == 3000 - 249;
+		InternalUtils.sleep(100);
+		// 2 pages + at most 1 prefetched
+		assert server.calls.get() <= 3 : server.calls;
+	}
+
+	@Test
+	public void testDates() {
+		TimelineServer server = new TimelineServer(1000, 0);
+		Twitter tw = new Twitter(null, server);
+		tw.setCount(100);
+		tw.setUntilDate(TimelineServer.date(900));
+		tw.setSinceDate(TimelineServer.date(651));
+		StatusIterator it = tw.getUserTimelineIterator("bob");
+		// changing this now makes no difference
+		tw.setSinceDate(null);
+		long n = 0;
+		while (it.hasNext()) {
+			Status s = it.next();
+			assert s.getIdLong() <= 900 && s.getIdLong() >= 651 : s.getId();
+			n++;
+		}
+		assert n == 250 : n;
+		// stopped at the page which went past the sinceDate
+		assert server.calls.get() == 4 : server.calls;
+		assert it.getMaxId() == 600;
+	}
+
+	@Test
+	public void testSearch() {
+		TimelineServer server = new TimelineServer(450, 0);
+		Twitter tw = new Twitter(null, server);
+		tw.setUntilId(400L);
+		StatusIterator it = tw.searchIterator("bob");
+		long n = it.stream().count();
+		assert n == 400 : n;
+		// a short page is the last
+		assert server.calls.get() == 4 : server.calls;
+	}
+
+	/**
+	 * 2000 tweets, 10 pages with 30ms latency, 30ms work per page.
+	 */
+	@Test
+	public void benchmarkPrefetch() {
+		for (boolean prefetch : new boolean[]{false, true}) {
+			TimelineServer server = new TimelineServer(2000, 30);
+			Twitter tw = new Twitter(null, server);
+			StatusIterator it = tw.getUserTimelineIterator("bob").setPrefetch(prefetch);
+			long t0 = System.nanoTime();
+			int n = 0;
+			while (it.hasNext()) {
+				it.next();
+				if (++n % 200 == 0) InternalUtils.sleep(30);
+			}
+			assert n == 2000;
+			System.out.println("prefetch " + prefetch + ": " + (System.nanoTime() - t0) / 1000000 + "ms");
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.winterwell.json.JSONObject;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.Twitter.ITweet;
+
+/**
+ * Offline tests for the gobbler: these feed a recorded, length-delimited
+ * stream through {@link StreamGobbler} without contacting Twitter.
+ */
+public class StreamGobblerTest {
+
+	static final String SAMPLE = "test/winterwell/jtwitter/stream_sample.txt";
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return the sample messages, one json object per line
+	 */
+	static List<String> readSample() throws IOException {
+		List<String> lines = new ArrayList();
+		for (String line : Files.readAllLines(new File(SAMPLE).toPath(), UTF_8)) {
+			if (line.trim().length() != 0) lines.add(line);
+		}
+		return lines;
+	}
+
+	/**
+	 * Encode messages in Twitter's delimited=length format: the length
+	 * includes the trailing \r\n.
+	 */
+	static byte[] delimited(List<String> jsons, int repeats) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < repeats; i++) {
+			for (String json : jsons) {
+				// NB: the length is in bytes, not chars
+				byte[] msg = (json + "\r\n").getBytes(UTF_8);
+				out.write((msg.length + "\r\n").getBytes(UTF_8));
+				out.write(msg);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Run a gobbler over the data, in this thread, until it hits the end of the
+	 * data.
+	 */
+	static StreamGobbler gobble(AStream stream, byte[] data) {
+		stream.stream = new ByteArrayInputStream(data);
+		StreamGobbler gobbler = new StreamGobbler(stream);
+		stream.readThread = gobbler;
+		gobbler.run();
+		// an orderly stop, so polling doesn't try to reconnect
+		gobbler.stopFlag = true;
+		return gobbler;
+	}
+
+	static TwitterStream newOfflineStream() {
+		return new TwitterStream(new Twitter(null, new URLConnectionHttpClient()));
+	}
+
+	@Test
+	public void testParseOnce() throws IOException {
+		TwitterStream ts = newOfflineStream();
+		final List<ITweet> heard = new ArrayList();
+		ts.addListener(new IListen() {
+			@Override
+			public boolean processTweet(ITweet tweet) {
+				heard.add(tweet);
+				return true;
+			}
+			@Override
+			public boolean processSystemEvent(Object[] obj) {
+				return true;
+			}
+			@Override
+			public boolean processEvent(TwitterEvent event) {
+				return true;
+			}
+		});
+		gobble(ts, delimited(readSample(), 1));
+
+		List<TwitterEvent> events = ts.getEvents();
+		List<ITweet> tweets = ts.getTweets();
+		assert events.size() == 1 : events;
+		assert heard.size() == 5 : heard;
+		// the delete removed the 1st tweet from the buffer
+		assert tweets.size() == 4 : tweets;
+		// the listener and the poller got the very same objects
+		for (ITweet tweet : tweets) {
+			int i = heard.indexOf(tweet);
+			assert heard.get(i) == tweet : tweet;
+		}
+	}
+
+	/**
+	 * Raw UTF-8 (not \\u escaped) -- where Twitter's byte lengths and the
+	 * char lengths differ.
+	 */
+	@Test
+	public void testMultiByte() throws IOException {
+		List<String> sample = readSample();
+		List<String> jsons = new ArrayList();
+		jsons.add(sample.get(1).replace("Looking for a nice man", "雪だ ☃ 😀"));
+		jsons.add(sample.get(2));
+		TwitterStream ts = newOfflineStream();
+		gobble(ts, delimited(jsons, 1));
+		List<ITweet> tweets = ts.getTweets();
+		assert tweets.size() == 2 : tweets;
+		String text = tweets.get(0).getText();
+		assert text.startsWith("雪だ ☃ 😀") : text;
+		text = tweets.get(1).getText();
+		assert text.startsWith("Streaming long tweets") : text;
+	}
+
+	@Test
+	public void testBadJsonIsReportedOnPoll() throws IOException {
+		TwitterStream ts = newOfflineStream();
+		List<String> jsons = new ArrayList();
+		jsons.add("{\"text\": oops");
+		gobble(ts, delimited(jsons, 1));
+		try {
+			ts.getTweets();
+			assert false;
+		} catch (TwitterException.Parsing ex) {
+			// good
+		}
+	}
+
+	/**
+	 * Compare throughput against parsing each message twice (which is what
+	 * happened when both listeners and polling were used).
+	 */
+	@Test
+	public void benchmarkGobbler() throws IOException {
+		List<String> sample = readSample();
+		int repeats = 1000;
+		byte[] data = delimited(sample, repeats);
+		int n = sample.size() * repeats;
+		Twitter jtwit = new Twitter(null, new URLConnectionHttpClient());
+		// best of 5 (the first runs are warm-up, and gc makes this noisy)
+		long dtTwoPass = Long.MAX_VALUE, dtOnce = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			long t0 = System.nanoTime();
+			benchmarkTwoPass(sample, repeats, jtwit);
+			dtTwoPass = Math.min(dtTwoPass, System.nanoTime() - t0);
+			dtOnce = Math.min(dtOnce, benchmarkGobbler2(data));
+		}
+
+		System.out.println("parse-twice: " + (n * 1000000000L / dtTwoPass) + " msgs/sec");
+		System.out.println("gobbler (parse-once, listener + poll): " + (n * 1000000000L / dtOnce) + " msgs/sec");
+	}
+
+	private void benchmarkTwoPass(List<String> sample, int repeats, Twitter jtwit) {
+		for (int i = 0; i < repeats; i++) {
+			for (String json : sample) {
+				AStream.read3_parse(new JSONObject(json), jtwit);
+				AStream.read3_parse(new JSONObject(json), jtwit);
+			}
+		}
+	}
+
+	/**
+	 * @return nanoseconds spent gobbling (not counting the poller's de-duplication)
+	 */
+	private long benchmarkGobbler2(byte[] data) {
+		TwitterStream ts = newOfflineStream();
+		final int[] cnt = new int[1];
+		ts.addListener(new IListen() {
+			@Override
+			public boolean processTweet(ITweet tweet) {
+				cnt[0]++;
+				return true;
+			}
+			@Override
+			public boolean processSystemEvent(Object[] obj) {
+				return true;
+			}
+			@Override
+			public boolean processEvent(TwitterEvent event) {
+				return true;
+			}
+		});
+		long t0 = System.nanoTime();
+		gobble(ts, data);
+		long dt = System.nanoTime() - t0;
+		assert cnt[0] > 0;
+		return dt;
+	}
+
+	/**
+	 * Replays the sample, gzipped if asked, flushing after each message (as
+	 * Twitter does). Holds the connection open until released.
+	 */
+	static class ReplayServer implements HttpHandler {
+		static {
+			// else the per-message flushes hit Nagle + delayed-ack stalls
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		final HttpServer server;
+		final byte[] data;
+		final int msgs;
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean gzipped;
+
+		ReplayServer(List<String> jsons, int repeats) throws IOException {
+			data = delimited(jsons, repeats);
+			msgs = jsons.size() * repeats;
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/stream.json", this);
+			server.start();
+		}
+
+		String url() {
+			return "http://localhost:" + server.getAddress().getPort() + "/stream.json";
+		}
+
+		@Override
+		public void handle(HttpExchange ex) throws IOException {
+			gzipped = "gzip".equals(ex.getRequestHeaders().getFirst("Accept-Encoding"));
+			if (gzipped) {
+				ex.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+			ex.sendResponseHeaders(200, 0);
+			OutputStream out = ex.getResponseBody();
+			if (gzipped) out = new GZIPOutputStream(out, true);
+			// one message at a time
+			int i = 0;
+			while (i < data.length) {
+				int nl = indexOf(data, i);
+				int len = Integer.parseInt(new String(data, i, nl - i, UTF_8));
+				int end = nl + 2 + len;
+				out.write(data, i, end - i);
+				out.flush();
+				i = end;
+			}
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				// oh well
+			}
+			out.close();
+		}
+
+		private static int indexOf(byte[] data, int from) {
+			for (int i = from; i < data.length; i++) {
+				if (data[i] == '\r') return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * @return {bytes on wire, nanoseconds of gobbler cpu, messages}
+	 */
+	static long[] replay(ReplayServer server, boolean gzip) throws Exception {
+		URLConnectionHttpClient client = new URLConnectionHttpClient("user", "pw");
+		final String url = server.url();
+		TwitterStream ts = new TwitterStream(new Twitter(null, client)) {
+			@Override
+			HttpURLConnection connect2() throws Exception {
+				HashMap<String, String> vars = new HashMap<String, String>();
+				vars.put("delimited", "length");
+				return client.post2_connect(url, vars, connect2_headers());
+			}
+		};
+		ts.listenersOnly = true;
+		ts.addListener(new IListen() {
+			@Override
+			public boolean processTweet(ITweet tweet) {
+				return true;
+			}
+			@Override
+			public boolean processSystemEvent(Object[] obj) {
+				return true;
+			}
+			@Override
+			public boolean processEvent(TwitterEvent event) {
+				return true;
+			}
+		});
+		ts.setGzip(gzip);
+		ts.connect();
+		StreamGobbler gobbler = ts.readThread;
+		long t0 = System.currentTimeMillis();
+		while (gobbler.count < server.msgs && System.currentTimeMillis() - t0 < 20000) {
+			Thread.sleep(5);
+		}
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		long cpu = mx.isThreadCpuTimeSupported() ? mx.getThreadCpuTime(gobbler.getId()) : -1;
+		long[] result = new long[]{ts.getBytesOnWire(), cpu, gobbler.count};
+		assert server.gzipped == gzip;
+		// ...but only for the stream
+		assert ! client.isGzip();
+		// end the response first: close() can't interrupt a blocked read
+		server.release.countDown();
+		ts.close();
+		return result;
+	}
+
+	/**
+	 * gzip'd streaming, against a local replay server
+	 */
+	@Test
+	public void testGzipReplay() throws Exception {
+		List<String> sample = readSample();
+		ReplayServer server = new ReplayServer(sample, 20);
+		try {
+			long[] gz = replay(server, true);
+			assert gz[2] == server.msgs : gz[2];
+			assert gz[0] < server.data.length / 4 : gz[0] + " vs " + server.data.length;
+			// and without
+			ReplayServer server2 = new ReplayServer(sample, 20);
+			try {
+				long[] plain = replay(server2, false);
+				assert plain[2] == server.msgs : plain[2];
+				assert plain[0] == server.data.length : plain[0];
+			} finally {
+				server2.release.countDown();
+				server2.server.stop(0);
+			}
+		} finally {
+			server.release.countDown();
+			server.server.stop(0);
+		}
+	}
+
+	/**
+	 * Bytes on the wire and gobbler cpu per message, gzip vs plain.
+	 */
+	@Test
+	public void benchmarkGzip() throws Exception {
+		List<String> sample = readSample();
+		for (boolean gzip : new boolean[]{false, true, false, true}) {
+			ReplayServer server = new ReplayServer(sample, 1000);
+			try {
+				long[] r = replay(server, gzip);
+				assert r[2] == server.msgs;
+				System.out.println((gzip ? "gzip:  " : "plain: ") + r[0] / r[2]
+						+ " bytes/msg, " + r[1] / r[2] / 1000 + " cpu-microsecs/msg");
+			} finally {
+				server.release.countDown();
+				server.server.stop(0);
+			}
+		}
+	}
+}
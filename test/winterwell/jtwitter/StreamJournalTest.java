@@ -0,0 +1,303 @@
+package winterwell.jtwitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.AStream.Outage;
+import winterwell.jtwitter.Twitter.ITweet;
+
+public class StreamJournalTest {
+
+	static File tempDir() throws IOException {
+		File dir = Files.createTempDirectory("journal").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	static void delete(File dir) {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	static List<String> messages(int n) {
+		List<String> msgs = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			msgs.add("{\"id\":" + i + ",\"text\":\"message " + i + " ☃\"}");
+		}
+		return msgs;
+	}
+
+	@Test
+	public void testAppendAndReopen() throws IOException {
+		File dir = tempDir();
+		try {
+			List<String> msgs = messages(200);
+			StreamJournal j = new StreamJournal(dir, 4096);
+			for (int i = 0; i < msgs.size(); i++) {
+				long seq = j.append(msgs.get(i));
+				assert seq == i + 1 : seq;
+			}
+			// rotated
+			assert j.getSegmentCount() > 1 : j.getSegmentCount();
+			assert j.read(1, 1000).equals(msgs);
+			assert j.read(151, 10).equals(msgs.subList(150, 160));
+			j.setConsumed(120);
+			j.setLastIds(12345, 678);
+			j.setConsumed(100);
+			assert j.getConsumed() == 120;
+			j.close();
+
+			j = new StreamJournal(dir, 4096);
+			assert j.getLastSeq() == 200 : j;
+			assert j.getConsumed() == 120;
+			assert j.getLastId() == 12345 && j.getLastDMId() == 678;
+			assert j.getLastTime() > 0;
+			assert j.read(j.getConsumed() + 1, 1000).equals(msgs.subList(120, 200));
+			long seq = j.append("more");
+			assert seq == 201 : seq;
+			assert j.read(200, 10).equals(Arrays.asList(msgs.get(199), "more"));
+			j.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testRetention() throws IOException {
+		File dir = tempDir();
+		try {
+			StreamJournal j = new StreamJournal(dir, 1024);
+			j.setMaxSegments(2);
+			List<String> msgs = messages(100);
+			for (String msg : msgs) {
+				j.append(msg);
+			}
+			assert j.getSegmentCount() == 2;
+			assert dir.list().length == 3 : Arrays.toString(dir.list());
+			// the old ones are gone
+			List<String> kept = j.read(1, 1000);
+			assert kept.size() < 50 : kept.size();
+			assert kept.equals(msgs.subList(100 - kept.size(), 100));
+			j.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		File dir = tempDir();
+		try {
+			StreamJournal j = new StreamJournal(dir, 4096);
+			j.append("one");
+			j.append("two");
+			j.append("three");
+			j.close();
+			// as if we died half way through writing "three"
+			File seg = new File(dir, String.format("%020d", 1) + ".jnl");
+			RandomAccessFile raf = new RandomAccessFile(seg, "rw");
+			raf.seek(8 + 3 + 8 + 3 + 8 + 2);
+			raf.write('X');
+			raf.close();
+
+			j = new StreamJournal(dir, 4096);
+			assert j.getLastSeq() == 2 : j;
+			long seq = j.append("four");
+			assert seq == 3 : seq;
+			j.close();
+			j = new StreamJournal(dir, 4096);
+			assert j.read(1, 10).equals(Arrays.asList("one", "two", "four")) : j.read(1, 10);
+			j.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testConsumedByPolling() throws IOException {
+		File dir = tempDir();
+		try {
+			StreamJournal j = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts = StreamGobblerTest.newOfflineStream();
+			int replayed = ts.setJournal(j);
+			assert replayed == 0 : replayed;
+			List<String> sample = StreamGobblerTest.readSample();
+			StreamGobblerTest.gobble(ts, StreamGobblerTest.delimited(sample, 1));
+			assert j.getLastSeq() == sample.size();
+			assert j.getConsumed() == 0;
+			ts.getTweets();
+			assert j.getConsumed() == sample.size();
+			assert j.getLastId() != 0;
+			j.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	/**
+	 * Run 1 receives the sample but dies before polling it. Run 2 replays it
+	 * and logs the downtime.
+	 */
+	@Test
+	public void testResume() throws IOException {
+		File dir = tempDir();
+		try {
+			List<String> sample = StreamGobblerTest.readSample();
+			StreamJournal j = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts = StreamGobblerTest.newOfflineStream();
+			ts.setJournal(j);
+			StreamGobblerTest.gobble(ts, StreamGobblerTest.delimited(sample, 1));
+			long lastId = j.getLastId();
+			assert lastId != 0;
+			// crash!
+			j.close();
+
+			StreamJournal j2 = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts2 = StreamGobblerTest.newOfflineStream();
+			final List<ITweet> heard = new ArrayList<ITweet>();
+			ts2.addListener(new IListen() {
+				@Override
+				public boolean processTweet(ITweet tweet) {
+					heard.add(tweet);
+					return true;
+				}
+				@Override
+				public boolean processSystemEvent(Object[] obj) {
+					return true;
+				}
+				@Override
+				public boolean processEvent(TwitterEvent event) {
+					return true;
+				}
+			});
+			int replayed = ts2.setJournal(j2);
+			assert replayed == sample.size() : replayed;
+			assert heard.size() == 5 : heard;
+			// not consumed until polled
+			assert j2.getConsumed() == 0 : j2;
+			// (an empty, finished connection -- so polling works)
+			StreamGobblerTest.gobble(ts2, new byte[0]);
+			// the delete removed the 1st tweet from the buffer
+			List<ITweet> tweets = ts2.getTweets();
+			assert tweets.size() == 4 : tweets;
+			List<TwitterEvent> events = ts2.getEvents();
+			assert events.size() == 1 : events;
+			assert j2.getConsumed() == j2.getLastSeq();
+			List<Outage> outages = ts2.getOutages();
+			assert outages.size() == 1 : outages;
+			assert outages.get(0).sinceId.longValue() == lastId : outages;
+			assert outages.get(0).untilTime >= j2.getLastTime();
+			j2.close();
+
+			// nothing to replay, but the outage is remembered
+			StreamJournal j3 = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts3 = StreamGobblerTest.newOfflineStream();
+			replayed = ts3.setJournal(j3);
+			assert replayed == 0 : replayed;
+			assert ts3.getOutages().size() == 2 : ts3.getOutages();
+			j3.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	/**
+	 * A backlog bigger than the buffers is replayed a buffer at a time, and
+	 * only marked consumed as it's polled.
+	 */
+	@Test
+	public void testReplayIsPaged() throws IOException {
+		File dir = tempDir();
+		try {
+			List<String> msgs = StreamReplay.synthetic(1000, 3);
+			StreamJournal j = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts = StreamGobblerTest.newOfflineStream();
+			ts.setJournal(j);
+			StreamGobblerTest.gobble(ts, StreamGobblerTest.delimited(msgs, 1));
+			j.close();
+
+			StreamJournal j2 = new StreamJournal(dir, 1024 * 1024);
+			TwitterStream ts2 = StreamGobblerTest.newOfflineStream();
+			ts2.setMaxBuffer(100);
+			int replayed = ts2.setJournal(j2);
+			assert replayed == 1000 : replayed;
+			assert j2.getConsumed() == 0;
+			StreamGobblerTest.gobble(ts2, new byte[0]);
+			int polls = 0;
+			while (j2.getConsumed() < 1000) {
+				RingBuffer<ITweet> tweets = (RingBuffer) ts2.popTweets();
+				polls++;
+				assert j2.getConsumed() == 100 * polls : j2;
+				// nothing was dropped on the way
+				assert tweets.getEvicted() == 0 && ! tweets.isEmpty();
+			}
+			assert polls == 10;
+			j2.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	/**
+	 * Journal writes for stream-sized messages: flat out, and paced at 5,000
+	 * msgs/sec (a busy filter stream).
+	 */
+	@Test
+	public void benchmarkJournal() throws IOException {
+		List<String> sample = StreamGobblerTest.readSample();
+		File dir = tempDir();
+		try {
+			StreamJournal j = new StreamJournal(dir);
+			j.setMaxSegments(2);
+			int n = 20000;
+			// warm up
+			for (int i = 0; i < 2000; i++) {
+				j.append(sample.get(i % sample.size()));
+			}
+			long t0 = System.nanoTime();
+			long bytes = 0;
+			for (int i = 0; i < n; i++) {
+				String msg = sample.get(i % sample.size());
+				bytes += msg.length();
+				j.append(msg);
+			}
+			long dt = System.nanoTime() - t0;
+			long perSec = n * 1000000000L / dt;
+			System.out.println("journal, flat out: " + perSec + " msgs/sec, "
+					+ (bytes * 1000 / dt) + " mb/sec");
+			assert perSec > 5000 : perSec;
+
+			// paced at 5,000/sec for 2 seconds
+			int m = 10000;
+			long[] lat = new long[m];
+			long start = System.nanoTime();
+			for (int i = 0; i < m; i++) {
+				long due = start + i * 200000L;
+				while (System.nanoTime() < due) {
+					// spin
+				}
+				long a = System.nanoTime();
+				j.append(sample.get(i % sample.size()));
+				lat[i] = System.nanoTime() - a;
+			}
+			long took = System.nanoTime() - start;
+			Arrays.sort(lat);
+			System.out.println("journal at 5,000 msgs/sec: " + (m * 1000000000L / took)
+					+ " msgs/sec achieved, append p50 " + lat[m / 2] / 1000 + "us p99 "
+					+ lat[m * 99 / 100] / 1000 + "us max " + lat[m - 1] / 1000 + "us");
+			j.close();
+		} finally {
+			delete(dir);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package winterwell.jtwitter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.StreamReplay.Report;
+import winterwell.jtwitter.Twitter.ITweet;
+
+public class StreamReplayTest {
+
+	/**
+	 * Counts what it hears, and (optionally) takes its time about it.
+	 */
+	static class Counter implements IListen {
+		int tweets, events, sysEvents;
+		final long busyNanos;
+
+		Counter(long busyNanos) {
+			this.busyNanos = busyNanos;
+		}
+
+		private void busy() {
+			long end = System.nanoTime() + busyNanos;
+			while (System.nanoTime() < end) {
+				// work work
+			}
+		}
+
+		@Override
+		public boolean processEvent(TwitterEvent event) {
+			events++;
+			busy();
+			return true;
+		}
+
+		@Override
+		public boolean processSystemEvent(Object[] obj) {
+			sysEvents++;
+			busy();
+			return true;
+		}
+
+		@Override
+		public boolean processTweet(ITweet tweet) {
+			tweets++;
+			busy();
+			return true;
+		}
+	}
+
+	@Test
+	public void testReplaySample() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		Counter counter = new Counter(0);
+		ts.addListener(counter);
+		Report report = new StreamReplay(ts).run(StreamGobblerTest.readSample(), 100);
+		System.out.println(report);
+		int n = StreamGobblerTest.readSample().size() * 100;
+		assert report.messages == n;
+		assert report.heard == n : report;
+		assert counter.tweets == 500 && counter.events == 100 : counter.tweets;
+		assert report.p50 > 0 && report.p50 <= report.p99 && report.p99 <= report.max : report;
+		assert report.dropped == 0 : report;
+		// ...but Twitter held some back
+		assert report.forgotten == 42 * 100 : report;
+		// the timer is gone, and polling still works
+		assert ts.listeners.size() == 1;
+		ts.getTweets();
+	}
+
+	/**
+	 * The sample ends with emoji & CJK tweets: their frames are longer in
+	 * bytes than in chars.
+	 */
+	@Test
+	public void testReplayNonAscii() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		final List<String> texts = new ArrayList<String>();
+		ts.addListener(new Counter(0) {
+			@Override
+			public boolean processTweet(ITweet tweet) {
+				texts.add(tweet.getText());
+				return super.processTweet(tweet);
+			}
+		});
+		Report report = new StreamReplay(ts).run(StreamGobblerTest.readSample(), 2);
+		assert report.heard == report.messages : report;
+		assert texts.size() == 10 : texts;
+		assert texts.get(3).equals("Snow day ☃️ 😀🎉 no school!") : texts.get(3);
+		assert texts.get(4).equals("東京は雪です ☃ 今日は寒い！") : texts.get(4);
+		// ...and the next round is still in step
+		assert texts.get(9).equals(texts.get(4)) : texts;
+	}
+
+	@Test
+	public void testSynthetic() throws Exception {
+		List<String> msgs = StreamReplay.synthetic(2000, 42);
+		assert msgs.equals(StreamReplay.synthetic(2000, 42));
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.setListenersOnly(true);
+		Counter counter = new Counter(0);
+		ts.addListener(counter);
+		Report report = new StreamReplay(ts).run(msgs, 1);
+		// everything parsed
+		assert report.heard == 2000 : report;
+		assert counter.tweets + counter.events + counter.sysEvents == 2000;
+		assert counter.tweets > 1500 && counter.events > 50 && counter.sysEvents > 100 : counter.tweets
+				+ " " + counter.events + " " + counter.sysEvents;
+	}
+
+	@Test
+	public void testRate() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.addListener(new Counter(0));
+		StreamReplay replay = new StreamReplay(ts);
+		replay.setRate(2000);
+		replay.setPollMillis(10);
+		Report report = replay.run(StreamReplay.synthetic(500, 1), 1);
+		// 500 at 2,000/sec takes 1/4 of a second
+		assert report.nanos > 240000000L : report;
+		assert report.getMsgsPerSec() < 2100 : report;
+	}
+
+	@Test
+	public void testDrops() throws Exception {
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.setMaxBuffer(100);
+		StreamReplay replay = new StreamReplay(ts);
+		// nobody polls
+		replay.setPollMillis(0);
+		Report report = replay.run(StreamReplay.synthetic(1000, 2), 1);
+		assert report.dropped == 900 : report;
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		List<String> sample = StreamGobblerTest.readSample();
+		assert StreamReplay.read(new File(StreamGobblerTest.SAMPLE)).equals(sample);
+		File capture = File.createTempFile("capture", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(capture);
+			out.write("\r\n".getBytes());
+			for (String json : sample) {
+				out.write(StreamReplay.frame(json));
+				// keep-alive
+				out.write("\r\n".getBytes());
+			}
+			out.close();
+			assert StreamReplay.read(capture).equals(sample);
+		} finally {
+			Files.delete(capture.toPath());
+		}
+	}
+
+	/**
+	 * Twitter's lengths count bytes, which isn't chars once there's emoji or
+	 * CJK about.
+	 */
+	@Test
+	public void testReadByteLengths() throws IOException {
+		List<String> msgs = Arrays.asList(
+				"{\"id\":1,\"text\":\"snow ☃ 😀\"}",
+				"{\"id\":2,\"text\":\"東京です\"}",
+				"{\"id\":3,\"text\":\"plain\"}");
+		File capture = File.createTempFile("capture", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(capture);
+			for (String json : msgs) {
+				byte[] msg = (json + "\r\n").getBytes(InternalUtils.UTF_8);
+				out.write((msg.length + "\r\n").getBytes(InternalUtils.UTF_8));
+				out.write(msg);
+			}
+			out.close();
+			List<String> read = StreamReplay.read(capture);
+			assert read.equals(msgs) : read;
+		} finally {
+			Files.delete(capture.toPath());
+		}
+	}
+
+	/**
+	 * End-to-end: flat out with a trivial listener, and at 5,000 msgs/sec
+	 * with a listener which takes 50us a message.
+	 */
+	@Test
+	public void benchmarkReplay() throws Exception {
+		List<String> msgs = StreamReplay.synthetic(10000, 7);
+		TwitterStream ts = StreamGobblerTest.newOfflineStream();
+		ts.addListener(new Counter(0));
+		StreamReplay replay = new StreamReplay(ts);
+		// warm up
+		replay.run(msgs, 2);
+		System.out.println("flat out: " + replay.run(msgs, 10));
+
+		TwitterStream ts2 = StreamGobblerTest.newOfflineStream();
+		ts2.addListener(new Counter(50000));
+		StreamReplay replay2 = new StreamReplay(ts2);
+		replay2.setRate(5000);
+		System.out.println("5,000/sec, 50us listener: " + replay2.run(msgs, 1));
+	}
+}
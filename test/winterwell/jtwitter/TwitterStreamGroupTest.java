@@ -0,0 +1,336 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import winterwell.jtwitter.AStream.IListen;
+import winterwell.jtwitter.Twitter.ITweet;
+
+public class TwitterStreamGroupTest {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/**
+	 * A filter stream per path (/filter/0.json etc). Each connection sends a
+	 * tweet per tracked keyword (ids 1000 x connection + keyword number), plus
+	 * one tweet which every connection sends -- then keep-alive newlines (and
+	 * any {@link #late} tweets) until that stream is killed.
+	 */
+	static class FilterServer implements HttpHandler {
+		final HttpServer server;
+		final List<String> keywords;
+		final AtomicInteger connections = new AtomicInteger();
+		final Map<String, CountDownLatch> kill = Collections.synchronizedMap(new HashMap());
+		final CountDownLatch release = new CountDownLatch(1);
+		/**
+		 * ids to send on every open connection
+		 */
+		final List<Long> late = Collections.synchronizedList(new ArrayList());
+
+		FilterServer(List<String> keywords) throws IOException {
+			this.keywords = keywords;
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/filter", this);
+			server.setExecutor(Executors.newCachedThreadPool());
+			server.start();
+		}
+
+		String url(int stream) {
+			return "http://localhost:" + server.getAddress().getPort() + "/filter/" + stream + ".json";
+		}
+
+		CountDownLatch kill(String path) {
+			synchronized (kill) {
+				CountDownLatch latch = kill.get(path);
+				if (latch == null) {
+					latch = new CountDownLatch(1);
+					kill.put(path, latch);
+				}
+				return latch;
+			}
+		}
+
+		@Override
+		public void handle(HttpExchange ex) throws IOException {
+			String body = InternalUtils.read(ex.getRequestBody());
+			String track = "";
+			for (String kv : body.split("&")) {
+				if (kv.startsWith("track=")) track = URLDecoder.decode(kv.substring(6), "UTF-8");
+			}
+			int con = connections.incrementAndGet();
+			ex.sendResponseHeaders(200, 0);
+			OutputStream out = ex.getResponseBody();
+			List<String> terms = track.isEmpty() ? new ArrayList<String>() : Arrays.asList(track.split(","));
+			// arrive out of order
+			Collections.reverse(terms);
+			try {
+				write(out, 999, "shared");
+				for (String term : terms) {
+					write(out, 1000 * con + keywords.indexOf(term), "about " + term);
+				}
+				CountDownLatch killed = kill(ex.getRequestURI().getPath());
+				int sent = 0;
+				while ( ! killed.await(50, TimeUnit.MILLISECONDS) && release.getCount() > 0) {
+					for (; sent < late.size(); sent++) {
+						write(out, late.get(sent), "late");
+					}
+					out.write("\r\n".getBytes());
+					out.flush();
+				}
+			} catch (Exception e) {
+				// closed by the client
+			}
+			ex.close();
+		}
+
+		private void write(OutputStream out, long id, String text) throws IOException {
+			String json = "{\"id\":" + id + ",\"id_str\":\"" + id + "\",\"text\":\"" + text
+					+ "\",\"created_at\":\"Wed Aug 27 13:08:45 +0000 2008\""
+					+ ",\"user\":{\"id\":1,\"id_str\":\"1\",\"screen_name\":\"bob\"}}\r\n";
+			// ascii, so bytes = chars
+			byte[] bytes = json.getBytes(InternalUtils.UTF_8);
+			out.write((bytes.length + "\r\n").getBytes());
+			out.write(bytes);
+			out.flush();
+		}
+	}
+
+	static class Collector implements IListen {
+		final List<ITweet> tweets = Collections.synchronizedList(new ArrayList());
+
+		@Override
+		public boolean processEvent(TwitterEvent event) {
+			return true;
+		}
+
+		@Override
+		public boolean processSystemEvent(Object[] obj) {
+			return true;
+		}
+
+		@Override
+		public boolean processTweet(ITweet tweet) {
+			tweets.add(tweet);
+			return true;
+		}
+
+		void waitFor(int n) throws InterruptedException {
+			long t0 = System.currentTimeMillis();
+			while (tweets.size() < n && System.currentTimeMillis() - t0 < 10000) {
+				Thread.sleep(20);
+			}
+		}
+	}
+
+	static TwitterStream localStream(FilterServer server, int i) {
+		return localStream(server, i, new CountDownLatch(0));
+	}
+
+	/**
+	 * @param slow
+	 *            connecting waits for this
+	 */
+	static TwitterStream localStream(final FilterServer server, final int i, final CountDownLatch slow) {
+		final URLConnectionHttpClient client = new URLConnectionHttpClient("user" + i, "pw");
+		return new TwitterStream(new Twitter(null, client)) {
+			@Override
+			HttpURLConnection connect2() throws Exception {
+				slow.await(10, TimeUnit.SECONDS);
+				Map<String, String> vars = new HashMap<String, String>();
+				if (getTrackKeywords() != null && ! getTrackKeywords().isEmpty()) {
+					vars.put("track", InternalUtils.join(getTrackKeywords(), 0, Integer.MAX_VALUE));
+				}
+				vars.put("delimited", "length");
+				return client.post2_connect(server.url(i), vars);
+			}
+		};
+	}
+
+	static List<String> keywords(int n) {
+		List<String> kws = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			kws.add("kw" + i);
+		}
+		return kws;
+	}
+
+	@Test
+	public void testMergeAndRebalance() throws Exception {
+		List<String> kws = keywords(30);
+		FilterServer server = new FilterServer(kws);
+		TwitterStreamGroup group = new TwitterStreamGroup(localStream(server, 0),
+				localStream(server, 1), localStream(server, 2));
+		try {
+			group.setReorderMillis(300);
+			group.setTrackKeywords(kws);
+			Collector collector = new Collector();
+			group.addListener(collector);
+			group.connect();
+			// 10 each
+			for (List<String> shard : group.getTrackShards()) {
+				assert shard.size() == 10 : group.getTrackShards();
+			}
+			collector.waitFor(31);
+			Thread.sleep(500);
+			// the shared tweet came once, and all came in order
+			assert collector.tweets.size() == 31 : collector.tweets.size();
+			assert group.getDuplicates() == 2 : group.getDuplicates();
+			long prev = 0;
+			for (ITweet tweet : collector.tweets) {
+				assert tweet.getIdLong() > prev : collector.tweets;
+				prev = tweet.getIdLong();
+			}
+			List<ITweet> popped = group.popTweets();
+			assert popped.size() == 31 : popped.size();
+
+			// stream 1 dies: its keywords move to the others
+			collector.tweets.clear();
+			server.kill("/filter/1.json").countDown();
+			long t0 = System.currentTimeMillis();
+			while (group.getRebalances() == 0 && System.currentTimeMillis() - t0 < 10000) {
+				Thread.sleep(20);
+			}
+			assert group.getRebalances() == 1;
+			List<List<String>> shards = group.getTrackShards();
+			assert shards.get(1).isEmpty() : shards;
+			Set<String> all = new HashSet<String>(shards.get(0));
+			all.addAll(shards.get(2));
+			assert all.size() == 30 : shards;
+			assert shards.get(0).size() == 15 && shards.get(2).size() == 15 : shards;
+			// the reconnected streams cover every keyword
+			collector.waitFor(30);
+			Set<String> heard = new HashSet<String>();
+			for (ITweet tweet : collector.tweets) {
+				heard.add(tweet.getText());
+			}
+			for (String kw : kws) {
+				assert heard.contains("about " + kw) : kw + " " + heard;
+			}
+			// and logged an outage, for fill-in (once the reconnect returns)
+			t0 = System.currentTimeMillis();
+			while (group.getStreams().get(0).getOutages().isEmpty() && System.currentTimeMillis() - t0 < 10000) {
+				Thread.sleep(20);
+			}
+			assert ! group.getStreams().get(0).getOutages().isEmpty();
+		} finally {
+			server.release.countDown();
+			group.close();
+			server.server.stop(0);
+		}
+	}
+
+	/**
+	 * A slow reconnect mustn't hold up the healthy streams.
+	 */
+	@Test
+	public void testSlowReconnect() throws Exception {
+		List<String> kws = keywords(2);
+		FilterServer server = new FilterServer(kws);
+		CountDownLatch slow = new CountDownLatch(1);
+		TwitterStreamGroup group = new TwitterStreamGroup(localStream(server, 0),
+				localStream(server, 1), localStream(server, 2, slow));
+		try {
+			group.setReorderMillis(100);
+			group.setTrackKeywords(kws);
+			Collector collector = new Collector();
+			group.addListener(collector);
+			// stream 2 has nothing to do (yet)
+			group.connect();
+			collector.waitFor(3);
+			assert collector.tweets.size() == 3 : collector.tweets;
+
+			// stream 1 dies: its keyword moves to stream 2, which is slow
+			server.kill("/filter/1.json").countDown();
+			long t0 = System.currentTimeMillis();
+			while (group.getRebalances() == 0 && System.currentTimeMillis() - t0 < 10000) {
+				Thread.sleep(20);
+			}
+			assert group.getRebalances() == 1;
+			assert group.getTrackShards().get(2).equals(Arrays.asList("kw1")) : group.getTrackShards();
+			// ...but stream 0 is still heard
+			server.late.add(5L);
+			collector.waitFor(4);
+			assert collector.tweets.size() == 4 : collector.tweets;
+			assert collector.tweets.get(3).getIdLong() == 5;
+			// and the reconnecting stream isn't taken for dead
+			group.rebalance();
+			assert group.getRebalances() == 1;
+
+			slow.countDown();
+			collector.waitFor(5);
+			assert collector.tweets.get(4).getText().equals("about kw1") : collector.tweets;
+		} finally {
+			slow.countDown();
+			server.release.countDown();
+			group.close();
+			server.server.stop(0);
+		}
+	}
+
+	/**
+	 * What a stream held when it went down still comes through.
+	 */
+	@Test
+	public void testDrainDeadStream() throws Exception {
+		FilterServer server = new FilterServer(keywords(0));
+		try {
+			TwitterStream ts = localStream(server, 0);
+			TwitterStreamGroup group = new TwitterStreamGroup(ts, localStream(server, 1));
+			group.setReorderMillis(0);
+			Status tweet = new Status(new User("bob"), "last words", 7L, new Date());
+			ts.tweets.push(tweet);
+			ts.addSysEvent(new Object[] {"disconnect", null});
+			Collector collector = new Collector();
+			group.addListener(collector);
+			assert ! ts.isConnected();
+			group.poll2();
+			assert collector.tweets.equals(Arrays.asList(tweet)) : collector.tweets;
+			List<ITweet> popped = group.popTweets();
+			assert popped.equals(Arrays.asList(tweet)) : popped;
+		} finally {
+			server.server.stop(0);
+		}
+	}
+
+	@Test
+	public void testTooMany() throws Exception {
+		FilterServer server = new FilterServer(keywords(0));
+		try {
+			TwitterStreamGroup group = new TwitterStreamGroup(localStream(server, 0),
+					localStream(server, 1));
+			group.setTrackKeywords(keywords(TwitterStream.MAX_KEYWORDS * 2));
+			try {
+				group.setTrackKeywords(keywords(TwitterStream.MAX_KEYWORDS * 2 + 1));
+				assert false;
+			} catch (IllegalArgumentException ex) {
+				// good
+			}
+		} finally {
+			server.server.stop(0);
+		}
+	}
+}
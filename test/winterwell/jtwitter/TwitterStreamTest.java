@@ -1,11 +1,25 @@
 package winterwell.jtwitter;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -16,6 +30,7 @@ import com.winterwell.utils.containers.Containers;
 import com.winterwell.utils.time.TUnit;
 import com.winterwell.utils.time.Time;
 
+import winterwell.jtwitter.AStream.Outage;
 import winterwell.jtwitter.Twitter.ITweet;
 import winterwell.jtwitter.TwitterException.E413;
 
@@ -429,5 +444,175 @@ public class TwitterStreamTest {
 		ts2.close();
 	}
 
-	
+	/**
+	 * Answers search and user_timeline with one tweet per call (on the
+	 * first page -- later pages are empty), after a delay, with X-Rate-Limit
+	 * headers.
+	 */
+	static class FillInServer extends URLConnectionHttpClient {
+		final int delay;
+		final int limit;
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger overLimit = new AtomicInteger();
+		final AtomicReference<String> firstMaxId = new AtomicReference();
+		final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList());
+		final long time;
+
+		FillInServer(int delay, int limit, long time) {
+			this.delay = delay;
+			this.limit = limit;
+			this.time = time;
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			String resource = checkRateLimit(url);
+			InternalUtils.sleep(delay);
+			int n = calls.incrementAndGet();
+			if (n > limit) {
+				overLimit.incrementAndGet();
+				throw new TwitterException.RateLimit(resource);
+			}
+			requests.add(new HashMap(vars));
+			SimpleDateFormat df = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+			df.setTimeZone(TimeZone.getTimeZone("UTC"));
+			String tweets = "";
+			String maxId = vars.get("max_id");
+			firstMaxId.compareAndSet(null, maxId);
+			if (maxId != null && maxId.equals(firstMaxId.get())) {
+				// one tweet, from inside the window
+				long id = Long.parseLong(maxId) - n;
+				tweets = "{\"id\":" + id + ",\"id_str\":\"" + id
+						+ "\",\"text\":\"tweet " + id + "\",\"created_at\":\""
+						+ df.format(new Date(time))
+						+ "\",\"user\":{\"id\":1,\"id_str\":\"1\",\"screen_name\":\"bob\"}}";
+			}
+			String json = url.contains("search") ? "{\"statuses\":[" + tweets + "],\"search_metadata\":{}}" : "[" + tweets + "]";
+			final byte[] page = json.getBytes(InternalUtils.UTF_8);
+			final Map<String, List<String>> headers = new HashMap();
+			headers.put("X-Rate-Limit-Limit", Arrays.asList("" + limit));
+			headers.put("X-Rate-Limit-Remaining", Arrays.asList("" + Math.max(0, limit - n)));
+			headers.put("X-Rate-Limit-Reset", Arrays.asList("" + (System.currentTimeMillis() + 60000)));
+			HttpURLConnection connection = new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public Map<String, List<String>> getHeaderFields() {
+					return headers;
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+			processHeaders(connection, resource);
+			return connection;
+		}
+	}
+
+	static List<String> keywords(int n) {
+		List<String> kws = new ArrayList();
+		for (int i = 0; i < n; i++) {
+			kws.add(i % 10 == 0 ? "two words" + i : "keyword" + i);
+		}
+		return kws;
+	}
+
+	/**
+	 * @return a stream following the keywords and users, with an outage which
+	 *         is ready to fill in
+	 */
+	static TwitterStream fillInStream(FillInServer server, int keywords, int users) {
+		TwitterStream ts = new TwitterStream(new Twitter(null, server));
+		ts.setTrackKeywords(keywords(keywords));
+		List<Long> follow = new ArrayList();
+		for (long i = 0; i < users; i++) {
+			follow.add(1000 + i);
+		}
+		ts.setFollowUsers(follow);
+		BigInteger since = new BigInteger("500000000000000000");
+		Outage outage = new Outage(since, since, server.time - 60000, server.time + 30000);
+		outage.untilId = since.add(BigInteger.valueOf(1000000000000L));
+		ts.outages.add(outage);
+		return ts;
+	}
+
+	@Test
+	public void testFillInQueries() {
+		List<String> kws = keywords(400);
+		List<String> queries = TwitterStream.fillInOutages2_queries(kws);
+		assert queries.size() < 10 : queries.size();
+		int terms = 0;
+		for (String q : queries) {
+			assert q.length() <= TwitterStream.MAX_QUERY_LENGTH : q.length();
+			terms += q.split(" OR ").length;
+		}
+		assert terms == 400 : terms;
+		assert queries.get(0).startsWith("(two words0) OR keyword1 OR ") : queries.get(0);
+		assert TwitterStream.fillInOutages2_queries(new ArrayList<String>()).isEmpty();
+	}
+
+	@Test
+	public void testFillInOutage() {
+		FillInServer server = new FillInServer(1, 1000, System.currentTimeMillis() - 60000);
+		TwitterStream ts = fillInStream(server, 400, 100);
+		Outage outage = ts.getOutages().get(0);
+		Exception ex = ts.fillInOutages();
+		assert ex == null : ex;
+		assert ts.getOutages().isEmpty();
+		int searches = TwitterStream.fillInOutages2_queries(keywords(400)).size();
+		assert outage.getFillCalls() == searches + 100 : outage;
+		assert outage.getFillCallsDone() == outage.getFillCalls() : outage;
+		assert outage.isFilled() && outage.getFillMillis() >= 0 : outage;
+		assert outage.getFillFound() == searches + 100 : outage;
+		assert ts.tweets.size() == searches + 100;
+		// every call was inside the outage window
+		for (Map<String, String> vars : server.requests) {
+			assert vars.get("since_id") != null : vars;
+			assert vars.get("max_id") != null : vars;
+		}
+	}
+
+	@Test
+	public void testFillInRateLimit() {
+		FillInServer server = new FillInServer(1, 30, System.currentTimeMillis() - 60000);
+		TwitterStream ts = fillInStream(server, 0, 200);
+		Outage outage = ts.getOutages().get(0);
+		Exception ex = ts.fillInOutages();
+		assert ex instanceof TwitterException.RateLimit : ex;
+		// back on the list for later
+		assert ts.getOutages().contains(outage);
+		assert ! outage.isFilled();
+		assert outage.getFillCallsDone() == 200 : outage;
+		// stopped sending once the limit was used up
+		assert server.overLimit.get() < 5 : server.overLimit;
+		// each timeline takes 2 calls: a tweet, then an empty page
+		int found = ts.tweets.size();
+		assert found > 0 && found <= 30 : found;
+	}
+
+	/**
+	 * 400 keywords and 1000 users, 10ms per call: one thread vs eight.
+	 */
+	@Test
+	public void benchmarkFillIn() {
+		for (int threads : new int[]{1, 8}) {
+			FillInServer server = new FillInServer(10, 100000, System.currentTimeMillis() - 60000);
+			TwitterStream ts = fillInStream(server, 400, 1000);
+			ts.setFillInThreads(threads);
+			Outage outage = ts.getOutages().get(0);
+			Exception ex = ts.fillInOutages();
+			assert ex == null : ex;
+			System.out.println(threads + " thread(s): " + outage);
+		}
+	}
 }
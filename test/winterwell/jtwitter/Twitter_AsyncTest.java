@@ -0,0 +1,169 @@
+package winterwell.jtwitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class Twitter_AsyncTest {
+
+	/**
+	 * Serves a timeline page or a user, after a delay. Notes how many calls
+	 * were running at once for each path.
+	 */
+	static class SlowClient extends URLConnectionHttpClient {
+		final byte[] timeline;
+		final int delay;
+		final Map<String, AtomicInteger> running = new ConcurrentHashMap();
+		final Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap();
+
+		SlowClient(int delay) throws IOException {
+			this.delay = delay;
+			timeline = JsonRecordTest.readLines(JsonRecordTest.GOLDEN_REST).get(0)
+					.getBytes(InternalUtils.UTF_8);
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			String path = new URL(url).getPath();
+			if ("missing".equals(vars.get("screen_name"))) {
+				throw new TwitterException.E404(url);
+			}
+			final byte[] page = path.contains("users")
+					? ("{\"id\":1,\"id_str\":\"1\",\"screen_name\":\"" + vars.get("screen_name") + "\"}")
+							.getBytes(InternalUtils.UTF_8)
+					: timeline;
+			AtomicInteger now = count(running, path);
+			int n = now.incrementAndGet();
+			AtomicInteger max = count(maxRunning, path);
+			synchronized (max) {
+				if (n > max.get()) max.set(n);
+			}
+			try {
+				InternalUtils.sleep(delay);
+			} finally {
+				now.decrementAndGet();
+			}
+			return new HttpURLConnection(new URL(url)) {
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream(page);
+				}
+				@Override
+				public void disconnect() {
+				}
+				@Override
+				public boolean usingProxy() {
+					return false;
+				}
+				@Override
+				public void connect() {
+				}
+			};
+		}
+
+		private static AtomicInteger count(Map<String, AtomicInteger> map, String path) {
+			synchronized (map) {
+				AtomicInteger c = map.get(path);
+				if (c == null) {
+					c = new AtomicInteger();
+					map.put(path, c);
+				}
+				return c;
+			}
+		}
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		SlowClient client = new SlowClient(20);
+		Twitter tw = new Twitter(null, client);
+		Twitter_Async async = tw.async();
+		assert tw.async() == async;
+		async.setMaxInFlight(3);
+		List<CompletableFuture<List<Status>>> timelines = new ArrayList();
+		List<CompletableFuture<User>> users = new ArrayList();
+		for (int i = 0; i < 30; i++) {
+			timelines.add(async.getUserTimeline("user" + i));
+			users.add(async.show("user" + i));
+		}
+		assert async.getPending(RateLimit.RES_USER_TIMELINE) > 3;
+		for (CompletableFuture<List<Status>> f : timelines) {
+			List<Status> timeline = f.get();
+			assert timeline.size() == 5 : timeline;
+		}
+		for (int i = 0; i < users.size(); i++) {
+			User user = users.get(i).get();
+			assert user.getScreenName().equals("user" + i) : user;
+		}
+		assert async.getPending(RateLimit.RES_USER_TIMELINE) == 0;
+		// bounded per resource -- but the two resources ran side by side
+		assert client.maxRunning.get("/1.1/statuses/user_timeline.json").get() == 3 : client.maxRunning;
+		assert client.maxRunning.get("/1.1/users/show.json").get() == 3 : client.maxRunning;
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		Twitter tw = new Twitter(null, new SlowClient(1));
+		CompletableFuture<User> f = tw.async().show("missing");
+		try {
+			f.get();
+			assert false;
+		} catch (ExecutionException ex) {
+			assert ex.getCause() instanceof TwitterException.E404 : ex;
+		}
+		// the lane is free again
+		User bob = tw.async().show("bob").get();
+		assert bob.getScreenName().equals("bob") : bob;
+		assert tw.async().getPending(RateLimit.RES_USERS_SHOW1) == 0;
+		// any call
+		CompletableFuture<List<User>> bulk = tw.async().call(RateLimit.RES_USERS_BULK_SHOW,
+				new java.util.concurrent.Callable<List<User>>() {
+					@Override
+					public List<User> call() {
+						throw new TwitterException.E50X("down");
+					}
+				});
+		try {
+			bulk.get();
+			assert false;
+		} catch (ExecutionException ex) {
+			assert ex.getCause() instanceof TwitterException.E50X : ex;
+		}
+	}
+
+	/**
+	 * 100 timelines with 10ms of latency each: a blocking loop vs async.
+	 */
+	@Test
+	public void benchmarkFanOut() throws Exception {
+		Twitter tw = new Twitter(null, new SlowClient(10));
+		tw.async().setMaxInFlight(8);
+		long t0 = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+			tw.getUserTimeline("user" + i);
+		}
+		long t1 = System.nanoTime();
+		CompletableFuture[] fs = new CompletableFuture[100];
+		for (int i = 0; i < 100; i++) {
+			fs[i] = tw.async().getUserTimeline("user" + i);
+		}
+		CompletableFuture.allOf(fs).get();
+		long t2 = System.nanoTime();
+		System.out.println("100 timelines, blocking: " + (t1 - t0) / 1000000 + "ms");
+		System.out.println("100 timelines, async x8: " + (t2 - t1) / 1000000 + "ms");
+		assert Arrays.asList(fs).size() == 100;
+	}
+}
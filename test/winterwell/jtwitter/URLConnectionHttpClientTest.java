@@ -0,0 +1,188 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.winterwell.json.JSONArray;
+import com.winterwell.json.JSONObject;
+
+import winterwell.jtwitter.URLConnectionHttpClient.Response;
+
+/**
+ * Offline tests: these run against a local stub server.
+ */
+public class URLConnectionHttpClientTest {
+
+	static HttpServer server;
+
+	static String base;
+
+	/**
+	 * A page of tweets, from the stream sample
+	 */
+	static String timeline;
+
+	@BeforeClass
+	public static void startServer() throws IOException {
+		StringBuilder sb = new StringBuilder("[");
+		List<String> sample = StreamGobblerTest.readSample();
+		for (int i = 0; i < 3; i++) {
+			if (i != 0) sb.append(",");
+			sb.append(sample.get(i));
+		}
+		timeline = sb.append("]").toString();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/timeline.json", respond(timeline));
+		server.createContext("/ids.json", respond("{\"ids\":[1,2,3],\"next_cursor_str\":\"0\",\"next_cursor\":0}"));
+		server.createContext("/hosed.json", respond("<html><body>Twitter is over capacity</body></html>"));
+		server.createContext("/empty.json", respond(""));
+		server.createContext("/echo.json", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				// echo the query as a header, after a random delay
+				String q = ex.getRequestURI().getQuery().replace("&", "");
+				InternalUtils.sleep((long) (Math.random() * 10));
+				ex.getResponseHeaders().add("Echo", q);
+				byte[] bytes = ("\"" + q + "\"").getBytes(StreamGobblerTest.UTF_8);
+				ex.sendResponseHeaders(200, bytes.length);
+				OutputStream out = ex.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		});
+		server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(8));
+		server.start();
+		base = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	static HttpHandler respond(final String body) {
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				byte[] bytes = body.getBytes(StreamGobblerTest.UTF_8);
+				ex.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+				OutputStream out = ex.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		};
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testGetPageJSON() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		Object page = client.getPageJSON(base + "/timeline.json", null, false);
+		assert page instanceof JSONArray : page;
+		String viaString = new JSONArray(client.getPage(base + "/timeline.json", null, false)).toString();
+		assert page.toString().equals(viaString);
+
+		Object ids = client.getPageJSON(base + "/ids.json", null, false);
+		assert ((JSONObject) ids).getJSONArray("ids").length() == 3;
+
+		Object empty = client.getPageJSON(base + "/empty.json", null, false);
+		assert empty == null : empty;
+	}
+
+	@Test
+	public void testHtmlIsAnError() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		client.setRetryOnError(false);
+		try {
+			client.getPageJSON(base + "/hosed.json", null, false);
+			assert false;
+		} catch (TwitterException.E50X ex) {
+			assert ex.getMessage().contains("over capacity") : ex;
+		}
+	}
+
+	@Test
+	public void testGetStatuses() {
+		Twitter jtwit = new Twitter(null, new URLConnectionHttpClient());
+		List<Status> tweets = jtwit.getStatuses(base + "/timeline.json", null, false);
+		assert tweets.size() == 3 : tweets;
+		assert tweets.get(0).getId().toString().equals("570280297738080257");
+	}
+
+	/**
+	 * One client, many threads: each sees its own response headers.
+	 */
+	@Test
+	public void testResponsePerThread() throws InterruptedException {
+		final URLConnectionHttpClient client = new URLConnectionHttpClient();
+		final AtomicInteger mixups = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int tn = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20; i++) {
+						String q = "t=" + tn + "_" + i;
+						Response r = client.getPageResponse(base + "/echo.json",
+								InternalUtils.asMap("t", tn + "_" + i), false);
+						if ( ! q.equals(client.getHeader("Echo"))
+								|| ! q.equals(r.getHeader("Echo"))
+								|| ! r.getBody().contains(q)) {
+							mixups.incrementAndGet();
+						}
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assert mixups.get() == 0 : mixups;
+		// this thread has made no requests
+		assert client.getLastResponse() == null;
+		Response r = client.getPageResponse(base + "/timeline.json", null, false);
+		assert r.getCode() == 200 : r;
+		assert r.getBody().equals(timeline);
+		assert r.getMillis() >= 0;
+		assert r.getRateLimit() == null;
+	}
+
+	/**
+	 * Out of order responses don't roll the rate-limit back.
+	 */
+	@Test
+	public void testRateLimitMerge() {
+		URLConnectionHttpClient client = new URLConnectionHttpClient();
+		String res = RateLimit.RES_USERS_SHOW1;
+		long reset = System.currentTimeMillis() + 60000;
+		client.updateRateLimits(response(res, 50, reset));
+		client.updateRateLimits(response(res, 48, reset));
+		// a slow response from earlier
+		client.updateRateLimits(response(res, 49, reset));
+		assert client.getRateLimits().get(res).getRemaining() == 48;
+		// a stale window
+		client.updateRateLimits(response(res, 170, reset - 900000));
+		assert client.getRateLimits().get(res).getRemaining() == 48;
+		// a new window
+		client.updateRateLimits(response(res, 179, reset + 900000));
+		assert client.getRateLimits().get(res).getRemaining() == 179;
+	}
+
+	static Response response(String resource, int remaining, long reset) {
+		return new Response(resource, 200, null,
+				new RateLimit("180", "" + remaining, "" + reset), System.nanoTime());
+	}
+}
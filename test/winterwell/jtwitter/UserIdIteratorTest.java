@@ -0,0 +1,167 @@
+package winterwell.jtwitter;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+import org.junit.Test;
+
+import winterwell.jtwitter.LongListWithCursorTest.IdPagesClient;
+
+public class UserIdIteratorTest {
+
+	static final long FIRST = 1234567890123456L;
+
+	/**
+	 * Rate-limits the given call (counting from 1), once.
+	 */
+	static class FlakyClient extends IdPagesClient {
+		int failOn;
+
+		FlakyClient(int n, int failOn) {
+			super(n);
+			this.failOn = failOn;
+		}
+
+		@Override
+		public HttpURLConnection connect(String url, Map<String, String> vars,
+				boolean authenticate) throws IOException {
+			if (calls + 1 == failOn) {
+				failOn = 0;
+				throw new TwitterException.RateLimit("Try later");
+			}
+			return super.connect(url, vars, authenticate);
+		}
+	}
+
+	@Test
+	public void testLazy() {
+		IdPagesClient client = new IdPagesClient(12345);
+		Twitter tw = new Twitter(null, client);
+		UserIdIterator it = tw.users().getFollowerIDIterator("bob", null);
+		assert client.calls == 0;
+		boolean hasNext = it.hasNext();
+		assert hasNext;
+		assert client.calls == 1;
+		for (int i = 0; i < 5000; i++) {
+			long id = it.nextLong();
+			assert id == FIRST + i;
+		}
+		assert client.calls == 1;
+		long id = it.nextLong();
+		assert id == FIRST + 5000;
+		assert client.calls == 2;
+		long n = 5001;
+		while (it.hasNext()) {
+			id = it.nextLong();
+			assert id == FIRST + n;
+			n++;
+		}
+		assert n == 12345 : n;
+		assert client.calls == 3;
+		assert it.getPages() == 3;
+		hasNext = it.hasNext();
+		assert ! hasNext;
+		assert client.calls == 3;
+	}
+
+	@Test
+	public void testResume() {
+		IdPagesClient client = new IdPagesClient(12345);
+		Twitter tw = new Twitter(null, client);
+		UserIdIterator it = tw.users().getFriendIDIterator(null, 99L);
+		for (int i = 0; i < 7000; i++) {
+			it.nextLong();
+		}
+		String cursor = it.getCursor();
+		int offset = it.getOffset();
+		assert "1".equals(cursor) : cursor;
+		assert offset == 2000 : offset;
+
+		// carry on elsewhere -- without fetching the first page again
+		IdPagesClient client2 = new IdPagesClient(12345);
+		UserIdIterator it2 = new Twitter(null, client2).users()
+				.getFriendIDIterator(null, 99L).resumeFrom(cursor, offset);
+		long id = it2.nextLong();
+		assert id == FIRST + 7000;
+		long rest = it2.stream().count();
+		assert rest == 12345 - 7001;
+		assert client2.calls == 2;
+	}
+
+	@Test
+	public void testRetry() {
+		FlakyClient client = new FlakyClient(12345, 2);
+		Twitter tw = new Twitter(null, client);
+		UserIdIterator it = tw.users().getFollowerIDIterator("bob", null);
+		long n = 0;
+		try {
+			while (it.hasNext()) {
+				it.nextLong();
+				n++;
+			}
+			assert false;
+		} catch (TwitterException.RateLimit ex) {
+			// good
+		}
+		assert n == 5000;
+		assert "-1".equals(it.getCursor()) && it.getOffset() == 5000;
+		// try again -- nothing lost or repeated
+		long id = it.nextLong();
+		assert id == FIRST + 5000;
+		n++;
+		while (it.hasNext()) {
+			it.nextLong();
+			n++;
+		}
+		assert n == 12345 : n;
+	}
+
+	@Test
+	public void testPrefetch() {
+		IdPagesClient client = new IdPagesClient(23456);
+		Twitter tw = new Twitter(null, client);
+		UserIdIterator it = tw.users().getFollowerIDIterator("bob", null).setPrefetch(true);
+		long id = it.nextLong();
+		assert id == FIRST;
+		// the 2nd page is on its way
+		long t0 = System.currentTimeMillis();
+		while (client.calls < 2 && System.currentTimeMillis() - t0 < 5000) {
+			InternalUtils.sleep(5);
+		}
+		assert client.calls == 2 : client.calls;
+		long total = it.stream().sum();
+		assert total == sum(1, 23456);
+		assert it.getPages() == 5;
+		assert client.calls == 5;
+
+		// a failed prefetch is rethrown, and can be retried
+		FlakyClient flaky = new FlakyClient(12345, 2);
+		UserIdIterator it2 = new Twitter(null, flaky).users()
+				.getFollowerIDIterator("bob", null).setPrefetch(true);
+		long n = 0;
+		try {
+			while (it2.hasNext()) {
+				it2.nextLong();
+				n++;
+			}
+			assert false;
+		} catch (TwitterException.RateLimit ex) {
+			// good
+		}
+		assert n == 5000;
+		n += it2.stream().count();
+		assert n == 12345 : n;
+	}
+
+	/**
+	 * @return the sum of ids [from, to)
+	 */
+	static long sum(int from, int to) {
+		long s = 0;
+		for (int i = from; i < to; i++) {
+			s += FIRST + i;
+		}
+		return s;
+	}
+}